@@ -91,6 +91,9 @@ public class AuthCert extends Cert {
 	 * @see java.lang.Object#equals(Object)
 	 */
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if (o instanceof AuthCert) {
 			AuthCert a = (AuthCert) o;
 			return auth.equals(a.auth) && super.equals(o);
@@ -53,7 +53,9 @@ public class AuthCertSelector extends CertSelector {
 	 * @see java.lang.Object#clone()
 	 */
 	public Object clone() {
-		return new AuthCertSelector(issuer, auth);
+		CertSelector s = new AuthCertSelector(issuer, auth);
+		s.setValidity(getValidity());
+		return s;
 	}
 
 	/**
@@ -65,7 +67,8 @@ public class AuthCertSelector extends CertSelector {
 	public boolean match(jsdsi.Certificate cert) {
 		return (cert.getCert() instanceof AuthCert)
 			&& cert.getCert().getIssuer().samePrincipalAs(issuer)
-			&& ((AuthCert)cert.getCert()).getAuth().implies(auth);
+			&& ((AuthCert)cert.getCert()).getAuth().implies(auth)
+			&& matchValidity(cert);
 	}
 
 	/**
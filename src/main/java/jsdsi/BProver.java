@@ -0,0 +1,252 @@
+package jsdsi;
+
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A prover that searches from both ends at once (<i>meet in the
+ * middle</i>).  It runs an iterative <code>FProver</code> from the issuer
+ * and an iterative <code>RProver</code> from the subject, expanding one
+ * proof on each side in turn.  Every proof expanded on one side is
+ * composed with the matching proofs already derived on the other; the
+ * search stops as soon as such a composition proves the statement.
+ *
+ * <p>Either side alone would find a proof if there is one, so when one
+ * side runs out of work there is no proof.  A long chain is found after
+ * each side has walked about half of it, which keeps the number of
+ * certificates fetched down when the graph fans out in both directions.
+ *
+ * @see BidirectionalCertPathParameters
+ * @see FProver
+ * @see RProver
+ *
+ * @version $Revision$ $Date$
+ */
+class BProver extends Prover {
+	/**
+	 * The issuer-side search.
+	 */
+	FProver forward;
+
+	/**
+	 * The subject-side search.
+	 */
+	RProver backward;
+
+	/**
+	 * @see jsdsi.Prover#Prover(Cert, java.security.cert.CertStore)
+	 */
+	BProver(Cert c, java.security.cert.CertStore s) {
+		this(c, s, new ProofCache.Closure(), new ProofCache.Closure());
+	}
+
+	/**
+	 * Creates a new <code>BProver</code> that extends a forward and a
+	 * reverse closure, usually overlays of the ones shared through a
+	 * <code>ProofCache</code>.
+	 *
+	 * @param  c <code>Cert</code> for this prover.
+	 * @param  s <code>CertStore</code> for this prover.
+	 * @param  fwd the closure of the issuer-side search.
+	 * @param  rev the closure of the subject-side search.
+	 */
+	BProver(
+		Cert c,
+		java.security.cert.CertStore s,
+		ProofCache.Closure fwd,
+		ProofCache.Closure rev) {
+		// this prover never inserts proofs itself; it only steps its sides
+		super(c, s, fwd, false);
+		forward = new FProver(c, s, fwd, true);
+		backward = new RProver(c, s, rev, true);
+		// every proof a side expands must be met with the other side
+		forward.stream = false;
+		backward.stream = false;
+	}
+
+	/**
+	 * Adds up the statistics of both sides and of the meetings.
+	 *
+	 * @see jsdsi.Prover#getStats()
+	 */
+	CertPathBuilderStats getStats() {
+		CertPathBuilderStats s = new CertPathBuilderStats();
+		s.add(stats);
+		s.add(forward.getStats());
+		s.add(backward.getStats());
+		s.peakIndexSize =
+			forward.closure.peakSize() + backward.closure.peakSize();
+		return s;
+	}
+
+	/**
+	 * @see jsdsi.Prover#setPrefetcher(Prefetcher)
+	 */
+	void setPrefetcher(Prefetcher p) {
+		forward.setPrefetcher(p);
+		backward.setPrefetcher(p);
+	}
+
+	/**
+	 * @see jsdsi.Prover#makeProof()
+	 */
+	Proof makeProof() {
+		Proof pf = backward.lookup();
+		if (pf != null) {
+			return pf;
+		}
+		return super.makeProof();
+	}
+
+	/**
+	 * Publishes into both closures.
+	 *
+	 * @see jsdsi.Prover#publish()
+	 */
+	void publish() {
+		super.publish();
+		backward.closure.publish(provee, getProof());
+	}
+
+	/**
+	 * @see jsdsi.Prover#seed()
+	 */
+	void seed() throws ProofFoundException {
+		forward.seed();
+		forward.flush();
+		backward.seed();
+		backward.flush();
+	}
+
+	/**
+	 * Steps the two sides in turn until one of them, or a meeting of the
+	 * two, proves the statement, or one of them runs out of work.
+	 *
+	 * @see jsdsi.Prover#drain()
+	 */
+	Proof drain() throws ProofFoundException {
+		boolean fwd = true;
+		while (!forward.work.isEmpty() && !backward.work.isEmpty()) {
+			Prover side = fwd ? (Prover) forward : (Prover) backward;
+			Proof p = side.step();
+			if (side.found != null) {
+				return side.found;
+			}
+			if (p != null) {
+				Proof pf = fwd ? meetForward(p) : meetBackward(p);
+				if (pf != null) {
+					return pf;
+				}
+			}
+			fwd = !fwd;
+		}
+		return null;
+	}
+
+	/**
+	 * Composes a proof just expanded by the issuer-side search with the
+	 * proofs of the subject-side search that continue it.
+	 *
+	 * @param  f proof from the issuer side.
+	 * @return a proof of the statement, or <code>null</code> if there is
+	 *         none yet.
+	 */
+	private Proof meetForward(Proof f) {
+		Cert c = f.getCert();
+		if (c.getSubject() instanceof Name) {
+			return meet(f, backward.value.get(((Name) c.getSubject()).prefix()));
+		}
+		if ((c instanceof AuthCert)
+			&& ((AuthCert) c).getPropagate()
+			&& (c.getSubject() instanceof Principal)) {
+			return meet(f, backward.issuer.get(c.getSubject()));
+		}
+		return null;
+	}
+
+	/**
+	 * Composes a proof just expanded by the subject-side search with the
+	 * proofs of the issuer-side search that lead to it.
+	 *
+	 * @param  r proof from the subject side.
+	 * @return a proof of the statement, or <code>null</code> if there is
+	 *         none yet.
+	 */
+	private Proof meetBackward(Proof r) {
+		Cert c = r.getCert();
+		if (c.getSubject() instanceof Name) {
+			return null;
+		}
+		if (c instanceof NameCert) {
+			Iterator i =
+				forward.compatible.get(((NameCert) c).getFullName()).iterator();
+			while (i.hasNext()) {
+				Proof pf = meet((Proof) i.next(), r);
+				if (pf != null) {
+					return pf;
+				}
+			}
+			return null;
+		}
+		Iterator i = forward.reverse.get(c.getIssuer()).iterator();
+		while (i.hasNext()) {
+			Proof f = (Proof) i.next();
+			if ((f.getCert() instanceof AuthCert)
+				&& ((AuthCert) f.getCert()).getPropagate()) {
+				Proof pf = meet(f, r);
+				if (pf != null) {
+					return pf;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Composes <code>f</code> with each of the given subject-side proofs.
+	 *
+	 * @param  f proof from the issuer side.
+	 * @param  rs proofs from the subject side.
+	 * @return a proof of the statement, or <code>null</code> if none of
+	 *         the compositions is one.
+	 */
+	private Proof meet(Proof f, Set rs) {
+		Iterator i = rs.iterator();
+		while (i.hasNext()) {
+			Proof pf = meet(f, (Proof) i.next());
+			if (pf != null) {
+				return pf;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Composes an issuer-side proof with a subject-side proof.
+	 *
+	 * @param  f proof from the issuer side.
+	 * @param  r proof from the subject side.
+	 * @return the composition if it proves the statement, otherwise
+	 *         <code>null</code>.
+	 */
+	private Proof meet(Proof f, Proof r) {
+		try {
+			Proof pf = compose(f, r);
+			if (pf.getCert().implies(provee)) {
+				return pf;
+			}
+		} catch (Proof.IncompatibleException e) {
+			// the two halves do not compose
+		}
+		return null;
+	}
+
+	/**
+	 * Never called: the two sides expand their own proofs.
+	 *
+	 * @see jsdsi.Prover#expand(Proof)
+	 */
+	void expand(Proof p) {
+		throw new Error("BProver does not expand proofs itself");
+	}
+}
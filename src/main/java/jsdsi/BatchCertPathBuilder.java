@@ -0,0 +1,135 @@
+package jsdsi;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds cert paths for many statements at once.  All statements of a
+ * batch, and of every later batch, are proved issuer-to-subject over one
+ * <code>ProofCache</code>: the certificates fetched and the proofs
+ * composed for one statement are reused by all the others, so a batch
+ * costs little more than a single walk of the part of the graph it
+ * touches.  Statements with the same issuer are proved one after the
+ * other, while the proofs from that issuer are at hand.
+ *
+ * <p>Like a <code>ProofCache</code>, a <code>BatchCertPathBuilder</code>
+ * must be told (through {@link ProofCache#invalidate()}) when the
+ * underlying store changes.
+ *
+ * @see CertPathBuilder
+ * @see ProofCache
+ * @see FProver
+ *
+ * @version $Revision$ $Date$
+ */
+public class BatchCertPathBuilder {
+	/**
+	 * The cache shared by all statements.
+	 */
+	private ProofCache cache;
+
+	/**
+	 * The prefetcher to use (may be <code>null</code>).
+	 */
+	private Prefetcher prefetcher;
+
+	/**
+	 * Creates a new <code>BatchCertPathBuilder</code> for a given
+	 * <code>CertStore</code>.
+	 *
+	 * @param  s the <code>CertStore</code> to fetch certificates from.
+	 */
+	public BatchCertPathBuilder(java.security.cert.CertStore s) {
+		this(new ProofCache(s));
+	}
+
+	/**
+	 * Creates a new <code>BatchCertPathBuilder</code> that extends the
+	 * proofs in a given <code>ProofCache</code>.
+	 *
+	 * @param  pc the <code>ProofCache</code> to share.
+	 */
+	public BatchCertPathBuilder(ProofCache pc) {
+		cache = pc;
+	}
+
+	/**
+	 * Returns the <code>ProofCache</code> of this
+	 * <code>BatchCertPathBuilder</code>.
+	 *
+	 * @return the <code>ProofCache</code> of this
+	 *         <code>BatchCertPathBuilder</code>.
+	 */
+	public ProofCache getProofCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets the <code>Prefetcher</code> that looks up certificates ahead of
+	 * time while the paths are built.
+	 *
+	 * @param  p the <code>Prefetcher</code> to use, or <code>null</code>.
+	 */
+	public void setPrefetcher(Prefetcher p) {
+		prefetcher = p;
+	}
+
+	/**
+	 * Builds a cert path for each of the given statements.
+	 *
+	 * @param  certs the <code>Cert</code>s to prove.
+	 * @return a map from each statement, in the order given, to its
+	 *         <code>CertPathBuilderResult</code>, or to <code>null</code>
+	 *         if there is no proof for it.
+	 * @throws InvalidAlgorithmParameterException if the subject of one of
+	 *         the statements is a <code>Name</code>.
+	 */
+	public Map build(Collection certs)
+		throws InvalidAlgorithmParameterException {
+		Map results = new LinkedHashMap();
+		// group the statements by issuer
+		Map issuers = new LinkedHashMap();
+		Iterator i = certs.iterator();
+		while (i.hasNext()) {
+			Cert c = (Cert) i.next();
+			if (c.getSubject() instanceof Name) {
+				throw new InvalidAlgorithmParameterException(
+					"cert subject must not be a name");
+			}
+			results.put(c, null);
+			List group = (List) issuers.get(c.getIssuer());
+			if (group == null) {
+				group = new ArrayList();
+				issuers.put(c.getIssuer(), group);
+			}
+			group.add(c);
+		}
+		Iterator gi = issuers.values().iterator();
+		while (gi.hasNext()) {
+			Iterator ci = ((List) gi.next()).iterator();
+			while (ci.hasNext()) {
+				Cert c = (Cert) ci.next();
+				Prover p =
+					new FProver(c, cache.getStore(), cache.getForward(), true);
+				if (prefetcher != null) {
+					p.setPrefetcher(prefetcher);
+				}
+				long start = System.currentTimeMillis();
+				Proof pf = p.getProof();
+				CertPathBuilderStats stats = p.getStats();
+				stats.finish(start, pf);
+				if (pf != null) {
+					results.put(
+						c,
+						new CertPathBuilderResult(new CertPath(pf), stats));
+				}
+			}
+		}
+		return results;
+	}
+}
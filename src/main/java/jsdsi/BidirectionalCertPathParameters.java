@@ -0,0 +1,30 @@
+package jsdsi;
+
+import java.security.InvalidAlgorithmParameterException;
+
+/**
+ * Specifies that the cert path builder should search for a cert path
+ * from both ends at once, until the issuer-side and the subject-side
+ * searches meet.  Essentially, tells the builder to use BProver.
+ *
+ * @see BProver
+ * 
+ * @version $Revision$ $Date$
+ */
+public class BidirectionalCertPathParameters extends jsdsi.CertPathParameters {
+	/**
+	 * @see jsdsi.CertPathParameters#CertPathParameters(Cert, java.security.cert.CertStore)
+	 */
+	public BidirectionalCertPathParameters(Cert c, java.security.cert.CertStore s)
+		throws InvalidAlgorithmParameterException {
+		super(c, s);
+	}
+
+	/**
+	 * @see jsdsi.CertPathParameters#CertPathParameters(Cert, ProofCache)
+	 */
+	public BidirectionalCertPathParameters(Cert c, ProofCache pc)
+		throws InvalidAlgorithmParameterException {
+		super(c, pc);
+	}
+}
\ No newline at end of file
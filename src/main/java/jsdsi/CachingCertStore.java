@@ -0,0 +1,109 @@
+package jsdsi;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CertStoreException;
+import java.security.cert.CertStoreParameters;
+import java.security.cert.CertStoreSpi;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A certificate store that caches the lookups of another store, such as
+ * an <code>LDAPCertStore</code>, whose lookups are slow.  Provers look
+ * up the same issuers and names again and again; the cache answers the
+ * repeats, including those that find nothing, without going back to the
+ * store.  How much is cached, and for how long, is set by
+ * {@link CachingCertStoreParameters}, which also count the hits and
+ * misses.
+ *
+ * <p>The lookups of every kind of <code>jsdsi.CertSelector</code> are
+ * cached; lookups with other selectors are passed to the fronted store
+ * every time.  The collections returned must not be modified.
+ *
+ * @see CachingCertStoreParameters
+ *
+ * @version $Revision$ $Date$
+ */
+public class CachingCertStore extends CertStoreSpi {
+	private final CachingCertStoreParameters params;
+
+	/**
+	 * Creates a new <code>CachingCertStore</code>.
+	 *
+	 * @see java.security.cert.CertStoreSpi#CertStoreSpi(CertStoreParameters)
+	 *
+	 * @param  params the parameters of the store.
+	 * @throws InvalidAlgorithmParameterException if <code>params</code>
+	 *         are not <code>CachingCertStoreParameters</code>.
+	 */
+	public CachingCertStore(CertStoreParameters params)
+		throws InvalidAlgorithmParameterException {
+		super(params);
+		try {
+			this.params = (CachingCertStoreParameters) params;
+		} catch (ClassCastException e) {
+			throw (InvalidAlgorithmParameterException)
+				new InvalidAlgorithmParameterException().initCause(e);
+		}
+	}
+
+	/**
+	 * @see java.security.cert.CertStoreSpi#engineGetCertificates(CertSelector)
+	 */
+	public Collection engineGetCertificates(java.security.cert.CertSelector s)
+		throws CertStoreException {
+		Object key = (s instanceof jsdsi.CertSelector)
+			? key((jsdsi.CertSelector) s)
+			: null;
+		if (key == null) {
+			return params.getCertStore().getCertificates(s);
+		}
+		Collection certs = params.get(key);
+		if (certs == null) {
+			long version = params.getVersion();
+			certs = Collections.unmodifiableCollection(
+				params.getCertStore().getCertificates(s));
+			params.put(key, certs, version);
+		}
+		return certs;
+	}
+
+	/**
+	 * Returns a key that is equal for selectors that select the same
+	 * certificates, or <code>null</code> for selectors of unknown kinds.
+	 */
+	private static Object key(jsdsi.CertSelector s) {
+		Object[] k;
+		if (s instanceof AuthCertSelector) {
+			AuthCertSelector as = (AuthCertSelector) s;
+			k = new Object[] { AuthCertSelector.class, as.getIssuer(),
+				as.getAuth(), s.getValidity() };
+		} else if (s instanceof NameCertSelector) {
+			NameCertSelector ns = (NameCertSelector) s;
+			k = new Object[] { NameCertSelector.class, ns.getIssuer(),
+				ns.getName(), s.getValidity() };
+		} else if (s instanceof CompatibleCertSelector) {
+			CompatibleCertSelector cs = (CompatibleCertSelector) s;
+			k = new Object[] { CompatibleCertSelector.class, cs.getIssuer(),
+				cs.getName(), s.getValidity() };
+		} else if (s instanceof SubjectCertSelector) {
+			k = new Object[] { SubjectCertSelector.class,
+				((SubjectCertSelector) s).getSubject(), s.getValidity() };
+		} else if (s instanceof IssuerCertSelector) {
+			k = new Object[] { IssuerCertSelector.class,
+				((IssuerCertSelector) s).getIssuer(), s.getValidity() };
+		} else {
+			return null;
+		}
+		return Arrays.asList(k);
+	}
+
+	/**
+	 * @see java.security.cert.CertStoreSpi#engineGetCRLs(java.security.cert.CRLSelector)
+	 */
+	public Collection engineGetCRLs(java.security.cert.CRLSelector s)
+		throws CertStoreException {
+		return params.getCertStore().getCRLs(s);
+	}
+}
@@ -0,0 +1,354 @@
+package jsdsi;
+
+import java.security.cert.CertStoreParameters;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parameters for a {@link CachingCertStore}: the store it fronts, and
+ * how much it may cache and for how long.  The cache itself is kept
+ * here, so every store created from these parameters (or their clones)
+ * shares it, and its counters can be read here.
+ *
+ * <p>The cache holds at most a given number of certificates (each
+ * cached lookup also counts as one, so empty results take room too),
+ * and evicts the lookups used least recently to stay under it.  A
+ * cached lookup is used for a given time after it was made; a lookup
+ * that found nothing is used for a separate, usually shorter, time, or
+ * not cached at all.  If the fronted store was created from
+ * {@link MutableCertStoreParameters}, the cache is cleared whenever it
+ * changes.
+ *
+ * @see CachingCertStore
+ *
+ * @version $Revision$ $Date$
+ */
+public class CachingCertStoreParameters implements CertStoreParameters {
+	/**
+	 * Default number of certificates cached.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	/**
+	 * Default time a lookup is cached, in milliseconds.
+	 */
+	public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+	/**
+	 * Default time a lookup that found nothing is cached, in milliseconds.
+	 */
+	public static final long DEFAULT_NEGATIVE_TTL = 30 * 1000;
+
+	/**
+	 * A cached lookup.
+	 */
+	private static class Entry {
+		final Collection certs;
+
+		final long expires;
+
+		Entry(Collection c, long e) {
+			certs = c;
+			expires = e;
+		}
+	}
+
+	/**
+	 * The cache, shared by clones.  Guarded by its own lock.
+	 */
+	private static class State {
+		/**
+		 * key -> <code>Entry</code>, least recently used first.
+		 */
+		final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+		/**
+		 * Certificates and entries cached.
+		 */
+		int size;
+
+		/**
+		 * The version of the fronted store the entries were made from.
+		 */
+		long version;
+
+		long hits;
+
+		long negativeHits;
+
+		long misses;
+
+		long expirations;
+
+		long evictions;
+	}
+
+	private final java.security.cert.CertStore store;
+
+	/**
+	 * The parameters of the fronted store if it can change,
+	 * <code>null</code> otherwise.
+	 */
+	private final MutableCertStoreParameters mutable;
+
+	private final int maxSize;
+
+	private final long ttl;
+
+	private final long negativeTtl;
+
+	private final State state;
+
+	/**
+	 * Creates new <code>CachingCertStoreParameters</code> with the default
+	 * size and times.
+	 *
+	 * @param  s the store to front.
+	 */
+	public CachingCertStoreParameters(java.security.cert.CertStore s) {
+		this(s, DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+	}
+
+	/**
+	 * Creates new <code>CachingCertStoreParameters</code>.
+	 *
+	 * @param  s the store to front.
+	 * @param  max the most certificates to cache.
+	 * @param  ttl milliseconds a lookup is cached.
+	 * @param  negativeTtl milliseconds a lookup that found nothing is
+	 *         cached, 0 not to cache them.
+	 */
+	public CachingCertStoreParameters(
+		java.security.cert.CertStore s,
+		int max,
+		long ttl,
+		long negativeTtl) {
+		this(s, max, ttl, negativeTtl, new State());
+	}
+
+	private CachingCertStoreParameters(
+		java.security.cert.CertStore s,
+		int max,
+		long ttl,
+		long negativeTtl,
+		State st) {
+		assert(s != null) : "null store";
+		store = s;
+		if (s.getCertStoreParameters() instanceof MutableCertStoreParameters) {
+			mutable = (MutableCertStoreParameters) s.getCertStoreParameters();
+		} else {
+			mutable = null;
+		}
+		maxSize = max;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		state = st;
+	}
+
+	/**
+	 * Returns the store fronted by the cache.
+	 *
+	 * @return the store.
+	 */
+	public java.security.cert.CertStore getCertStore() {
+		return store;
+	}
+
+	/**
+	 * Returns a cached lookup, or <code>null</code> if there is none.
+	 */
+	Collection get(Object key) {
+		long now = System.currentTimeMillis();
+		synchronized (state) {
+			checkVersion();
+			Entry e = (Entry) state.entries.get(key);
+			if (e != null && e.expires <= now) {
+				remove(key, e);
+				state.expirations++;
+				e = null;
+			}
+			if (e == null) {
+				state.misses++;
+				return null;
+			}
+			state.hits++;
+			if (e.certs.isEmpty()) {
+				state.negativeHits++;
+			}
+			return e.certs;
+		}
+	}
+
+	/**
+	 * Returns the version of the fronted store, 0 if it cannot change.
+	 */
+	long getVersion() {
+		return (mutable == null) ? 0 : mutable.getVersion();
+	}
+
+	/**
+	 * Caches a lookup made at a given version of the fronted store,
+	 * evicting others if needed.  Does nothing if the store has changed
+	 * since.
+	 */
+	void put(Object key, Collection certs, long version) {
+		boolean empty = certs.isEmpty();
+		if (empty && negativeTtl <= 0) {
+			return;
+		}
+		long expires = System.currentTimeMillis() + (empty ? negativeTtl : ttl);
+		synchronized (state) {
+			checkVersion();
+			if (version != state.version) {
+				return;
+			}
+			Entry old = (Entry) state.entries.get(key);
+			if (old != null) {
+				remove(key, old);
+			}
+			state.entries.put(key, new Entry(certs, expires));
+			state.size += 1 + certs.size();
+			Iterator i = state.entries.entrySet().iterator();
+			while (state.size > maxSize && i.hasNext()) {
+				Entry e = (Entry) ((Map.Entry) i.next()).getValue();
+				i.remove();
+				state.size -= 1 + e.certs.size();
+				state.evictions++;
+			}
+		}
+	}
+
+	private void remove(Object key, Entry e) {
+		state.entries.remove(key);
+		state.size -= 1 + e.certs.size();
+	}
+
+	/**
+	 * Clears the cache if the fronted store has changed.  The lock on the
+	 * state must be held.
+	 */
+	private void checkVersion() {
+		long v = getVersion();
+		if (v != state.version) {
+			state.version = v;
+			state.entries.clear();
+			state.size = 0;
+		}
+	}
+
+	/**
+	 * Empties the cache.  The counters are kept.
+	 */
+	public void clear() {
+		synchronized (state) {
+			state.entries.clear();
+			state.size = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of certificates and lookups cached.
+	 *
+	 * @return the size of the cache.
+	 */
+	public int getSize() {
+		synchronized (state) {
+			return state.size;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 *
+	 * @return the number of hits.
+	 */
+	public long getHits() {
+		synchronized (state) {
+			return state.hits;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache that found
+	 * nothing.  These are counted as hits too.
+	 *
+	 * @return the number of negative hits.
+	 */
+	public long getNegativeHits() {
+		synchronized (state) {
+			return state.negativeHits;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups passed to the fronted store.
+	 *
+	 * @return the number of misses.
+	 */
+	public long getMisses() {
+		synchronized (state) {
+			return state.misses;
+		}
+	}
+
+	/**
+	 * Returns the number of cached lookups dropped because they were too
+	 * old.
+	 *
+	 * @return the number of expirations.
+	 */
+	public long getExpirations() {
+		synchronized (state) {
+			return state.expirations;
+		}
+	}
+
+	/**
+	 * Returns the number of cached lookups dropped to make room.
+	 *
+	 * @return the number of evictions.
+	 */
+	public long getEvictions() {
+		synchronized (state) {
+			return state.evictions;
+		}
+	}
+
+	/**
+	 * Returns parameters that share the cache of these ones.
+	 *
+	 * @see java.lang.Object#clone()
+	 */
+	public Object clone() {
+		return new CachingCertStoreParameters(
+			store,
+			maxSize,
+			ttl,
+			negativeTtl,
+			state);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		synchronized (state) {
+			return "CachingCertStoreParameters: size "
+				+ state.size
+				+ "/"
+				+ maxSize
+				+ ", hits "
+				+ state.hits
+				+ " ("
+				+ state.negativeHits
+				+ " negative), misses "
+				+ state.misses
+				+ ", expirations "
+				+ state.expirations
+				+ ", evictions "
+				+ state.evictions;
+		}
+	}
+}
@@ -127,6 +127,9 @@ public abstract class Cert extends Obj implements Element {
 	 * @see java.lang.Object#equals(Object)
 	 */
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if (o instanceof Cert) {
 			Cert c = (Cert) o;
 			return issuer.equals(c.issuer)
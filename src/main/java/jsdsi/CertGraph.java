@@ -0,0 +1,923 @@
+package jsdsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An authorization graph compiled from a collection of certificates.
+ * Every principal and every name (local or extended) is given a dense
+ * integer id, and the certificates become edges in primitive adjacency
+ * arrays: name certs from the local name they define, auth certs from
+ * their issuer, each with the id of its subject, tag and validity and
+ * its propagate bit.  Queries run over these arrays without creating
+ * proofs; a real <code>Proof</code> is composed only for the path that
+ * is finally chosen.
+ *
+ * <p>Names are resolved on demand: the principals a name stands for
+ * are only computed when a query needs them, and are kept for later
+ * queries.  They are kept for each set of usable certificates, since a
+ * certificate may only be used in a proof of a statement whose validity
+ * it covers; statements whose validities the same certificates cover
+ * share their results.  Auth certificates whose tag does not cover the
+ * tag of the statement are never followed.
+ *
+ * <p>The certificates of a <code>CertGraph</code> do not change once it
+ * is built; to take new certificates into account, build a new one.  It
+ * is used through {@link GraphCertPathParameters}, and may be shared by
+ * any number of builds and threads.  Queries run concurrently; only the
+ * resolution of names not resolved yet for the same set of usable
+ * certificates is done one query at a time.
+ *
+ * @see GProver
+ *
+ * @version $Revision$ $Date$
+ */
+public class CertGraph {
+	/**
+	 * A map from <code>int</code> keys to pairs of <code>int</code>s,
+	 * which also remembers the order its keys were added in.
+	 */
+	static class IntTable {
+		private int[] slots; // index + 1 into keys, 0 if free
+		private int[] keys;
+		private int[] first;
+		private int[] second;
+		private int size = 0;
+
+		IntTable() {
+			slots = new int[8];
+			keys = new int[4];
+			first = new int[4];
+			second = new int[4];
+		}
+
+		/**
+		 * Returns the index of a key, or -1 if it is not in the table.
+		 */
+		int find(int key) {
+			int mask = slots.length - 1;
+			for (int i = mix(key) & mask;; i = (i + 1) & mask) {
+				int s = slots[i];
+				if (s == 0) {
+					return -1;
+				}
+				if (keys[s - 1] == key) {
+					return s - 1;
+				}
+			}
+		}
+
+		/**
+		 * Adds a key with its values, unless it is already there.
+		 *
+		 * @return <code>true</code> if the key was added.
+		 */
+		boolean add(int key, int f, int s) {
+			if (find(key) >= 0) {
+				return false;
+			}
+			if (size == keys.length) {
+				keys = grow(keys);
+				first = grow(first);
+				second = grow(second);
+			}
+			keys[size] = key;
+			first[size] = f;
+			second[size] = s;
+			size++;
+			if (2 * size > slots.length) {
+				slots = new int[2 * slots.length];
+				for (int i = 0; i < size; i++) {
+					insert(i);
+				}
+			} else {
+				insert(size - 1);
+			}
+			return true;
+		}
+
+		private void insert(int index) {
+			int mask = slots.length - 1;
+			int i = mix(keys[index]) & mask;
+			while (slots[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = index + 1;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int key(int index) {
+			return keys[index];
+		}
+
+		int first(int index) {
+			return first[index];
+		}
+
+		int second(int index) {
+			return second[index];
+		}
+	}
+
+	/**
+	 * A map from <code>long</code> keys to <code>int</code>s.
+	 */
+	static class LongIntMap {
+		private long[] keys = new long[16];
+		private int[] values = new int[16];
+		private boolean[] used = new boolean[16];
+		private int size = 0;
+
+		/**
+		 * Returns the value for a key, or -1 if there is none.
+		 */
+		int get(long key) {
+			int mask = keys.length - 1;
+			for (int i = mix((int) (key ^ (key >>> 32))) & mask;;
+				i = (i + 1) & mask) {
+				if (!used[i]) {
+					return -1;
+				}
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+		}
+
+		/**
+		 * Sets the value for a key that is not in the map.
+		 */
+		void put(long key, int value) {
+			if (2 * (size + 1) > keys.length) {
+				long[] ks = keys;
+				int[] vs = values;
+				boolean[] us = used;
+				keys = new long[2 * ks.length];
+				values = new int[2 * ks.length];
+				used = new boolean[2 * ks.length];
+				size = 0;
+				for (int i = 0; i < ks.length; i++) {
+					if (us[i]) {
+						put(ks[i], vs[i]);
+					}
+				}
+			}
+			int mask = keys.length - 1;
+			int i = mix((int) (key ^ (key >>> 32))) & mask;
+			while (used[i]) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+			used[i] = true;
+			size++;
+		}
+	}
+
+	/**
+	 * The names a name term stands for, and the terms that depend on
+	 * them, under one set of usable certificates.  The principals of a
+	 * term do not change once it is resolved, so they may be read
+	 * without the lock of the closure once <code>resolve</code> has
+	 * returned them.
+	 */
+	private class Closure {
+		/**
+		 * Which validities are usable, by validity id.
+		 */
+		private final boolean[] usable;
+
+		/**
+		 * The principals each term stands for, by term id, with how each
+		 * was derived: from certificate <code>c</code> and term
+		 * <code>s</code> as <code>(c, s)</code>, or from principal
+		 * <code>x</code> standing for the first name and term
+		 * <code>s</code> for the rest as <code>(-2 - x, s)</code>;
+		 * <code>null</code> for terms not yet needed.
+		 */
+		private IntTable[] facts = new IntTable[edgeTerms];
+
+		/**
+		 * The terms that depend on each term, by term id: triples of
+		 * dependent term, kind and argument.
+		 */
+		private int[][] deps = new int[edgeTerms][];
+
+		/**
+		 * Number of ints used in each <code>deps</code> array.
+		 */
+		private int[] numDeps = new int[edgeTerms];
+
+		/**
+		 * Terms needed but not yet expanded.
+		 */
+		private int[] demanded = new int[16];
+		private int numDemanded = 0;
+
+		/**
+		 * Facts still to propagate, as pairs of term and principal.
+		 */
+		private int[] queue = new int[32];
+		private int queueHead = 0, queueTail = 0;
+
+		Closure(boolean[] usable) {
+			this.usable = usable;
+		}
+
+		/**
+		 * Makes sure the arrays cover term <code>t</code>.
+		 */
+		private void cover(int t) {
+			if (facts.length <= t) {
+				int n = Math.max(t + 1, 2 * facts.length);
+				IntTable[] fs = new IntTable[n];
+				System.arraycopy(facts, 0, fs, 0, facts.length);
+				facts = fs;
+				int[][] ds = new int[n][];
+				System.arraycopy(deps, 0, ds, 0, deps.length);
+				deps = ds;
+				int[] nd = new int[n];
+				System.arraycopy(numDeps, 0, nd, 0, numDeps.length);
+				numDeps = nd;
+			}
+		}
+
+		/**
+		 * Returns the principals a term stands for, computing them if
+		 * needed.
+		 */
+		synchronized IntTable resolve(int t) {
+			demand(t);
+			run();
+			return facts[t];
+		}
+
+		/**
+		 * Marks a term as needed.
+		 */
+		private void demand(int t) {
+			cover(t);
+			if (facts[t] != null) {
+				return;
+			}
+			facts[t] = new IntTable();
+			if (numDemanded == demanded.length) {
+				demanded = grow(demanded);
+			}
+			demanded[numDemanded++] = t;
+		}
+
+		/**
+		 * Expands and propagates until every needed term is complete.
+		 */
+		private void run() {
+			for (;;) {
+				if (numDemanded > 0) {
+					expand(demanded[--numDemanded]);
+				} else if (queueHead < queueTail) {
+					int t = queue[queueHead++];
+					int p = queue[queueHead++];
+					// applying may add dependencies to t (and move its array)
+					for (int i = 0; i < numDeps[t]; i += 3) {
+						int[] ds = deps[t];
+						apply(ds[i], ds[i + 1], ds[i + 2], t, p);
+					}
+				} else {
+					queueHead = queueTail = 0;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Sets up the dependencies of a term just demanded.
+		 */
+		private void expand(int t) {
+			if (issuerOf(t) < 0) {
+				add(t, t, -1, -1); // a principal stands for itself
+			} else if (restOf(t) < 0) {
+				// a local name: follow its name certs
+				if (t < edgeTerms) {
+					for (int i = nameStart[t]; i < nameStart[t + 1]; i++) {
+						int c = nameEdges[i];
+						if (usable[certValidity[c]]) {
+							demand(certSubject[c]);
+							depend(certSubject[c], t, COPY, c);
+						}
+					}
+				}
+			} else {
+				// an extended name: resolve its first name
+				int h = headTerm(t);
+				demand(h);
+				depend(h, t, EXTEND, 0);
+			}
+		}
+
+		/**
+		 * Records that term <code>t</code> depends on term <code>s</code>,
+		 * and applies the dependency to what <code>s</code> already
+		 * stands for.
+		 */
+		private void depend(int s, int t, int kind, int arg) {
+			cover(Math.max(s, t));
+			int[] ds = deps[s];
+			if (ds == null) {
+				ds = deps[s] = new int[6];
+			} else if (numDeps[s] + 3 > ds.length) {
+				ds = deps[s] = grow(ds);
+			}
+			ds[numDeps[s]++] = t;
+			ds[numDeps[s]++] = kind;
+			ds[numDeps[s]++] = arg;
+			IntTable f = facts[s];
+			for (int i = 0; i < f.size(); i++) {
+				apply(t, kind, arg, s, f.key(i));
+			}
+		}
+
+		/**
+		 * Applies a dependency of term <code>t</code> on term
+		 * <code>s</code> to the fact that <code>s</code> stands for
+		 * principal <code>p</code>.
+		 */
+		private void apply(int t, int kind, int arg, int s, int p) {
+			if (kind == COPY) {
+				add(t, p, arg, s);
+			} else if (kind == EXTEND) {
+				// p stands for the first name: t stands for what p rest does
+				int r = restTerm(p, t);
+				demand(r);
+				depend(r, t, SUBSTITUTE, p);
+			} else {
+				add(t, p, -2 - arg, s);
+			}
+		}
+
+		/**
+		 * Records that term <code>t</code> stands for principal
+		 * <code>p</code>.
+		 */
+		private void add(int t, int p, int how, int from) {
+			if (facts[t].add(p, how, from)) {
+				if (queueTail + 2 > queue.length) {
+					if (queueHead > 0) {
+						System.arraycopy(
+							queue,
+							queueHead,
+							queue,
+							0,
+							queueTail - queueHead);
+						queueTail -= queueHead;
+						queueHead = 0;
+					}
+					if (queueTail + 2 > queue.length) {
+						queue = grow(queue);
+					}
+				}
+				queue[queueTail++] = t;
+				queue[queueTail++] = p;
+			}
+		}
+
+		/**
+		 * Composes <code>pf</code>, whose subject is term <code>t</code>,
+		 * with the proofs that reduce <code>t</code> to principal
+		 * <code>p</code>.
+		 */
+		synchronized Proof reduce(Proof pf, int t, int p)
+			throws Proof.IncompatibleException {
+			while (t != p) {
+				IntTable f = facts[t];
+				int i = f.find(p);
+				int how = f.first(i);
+				if (how >= 0) {
+					pf = pf.compose(new Proof(certs[how]));
+				} else {
+					int x = -2 - how;
+					pf = pf.compose(proof(headTerm(t), x));
+				}
+				t = f.second(i);
+			}
+			return pf;
+		}
+
+		/**
+		 * Returns a proof that local name term <code>n</code> stands for
+		 * principal <code>p</code>.
+		 */
+		synchronized Proof proof(int n, int p)
+			throws Proof.IncompatibleException {
+			IntTable f = facts[n];
+			int i = f.find(p);
+			return reduce(new Proof(certs[f.first(i)]), f.second(i), p);
+		}
+	}
+
+	/**
+	 * Dependency kinds: the dependent stands for what the term stands for;
+	 * the dependent is an extended name and the term its first name; the
+	 * dependent is an extended name and the term its rest after a
+	 * principal.
+	 */
+	private static final int COPY = 0, EXTEND = 1, SUBSTITUTE = 2;
+
+	/**
+	 * The certificates, by certificate id.
+	 */
+	private final Certificate[] certs;
+
+	/**
+	 * Term id of the subject, tag id and validity id of each certificate;
+	 * tag -1 for name certs.
+	 */
+	private final int[] certSubject, certTag, certValidity;
+
+	/**
+	 * Propagate bit of each auth cert.
+	 */
+	private final boolean[] certPropagate;
+
+	/**
+	 * Name certs by the local name they define, and auth certs by their
+	 * issuer: the certificates of term <code>t</code> are
+	 * <code>nameEdges[nameStart[t]]</code> up to
+	 * <code>nameEdges[nameStart[t + 1]]</code>.
+	 */
+	private final int[] nameStart, nameEdges, authStart, authEdges;
+
+	/**
+	 * Number of terms that existed when the edges were built.
+	 */
+	private final int edgeTerms;
+
+	/**
+	 * Number of terms.  Resolving names adds terms, so the terms and
+	 * suffixes are guarded by the lock of <code>terms</code>.
+	 */
+	private int numTerms = 0;
+
+	/**
+	 * For each term: the term id of its issuer and its suffix id, or -1
+	 * for both if it is a principal.
+	 */
+	private int[] termIssuer = new int[16], termSuffix = new int[16];
+
+	/**
+	 * Term ids of principals and names.
+	 */
+	private final Map terms = new HashMap();
+
+	/**
+	 * Term ids of names, by issuer and suffix.
+	 */
+	private final LongIntMap names = new LongIntMap();
+
+	/**
+	 * Suffix ids of lists of name strings.
+	 */
+	private final Map suffixes = new HashMap();
+
+	/**
+	 * For each suffix: the suffix id of its first name string alone, and
+	 * of the rest (-1 if it has only one).
+	 */
+	private int[] suffixHead = new int[16], suffixRest = new int[16];
+
+	/**
+	 * Number of suffixes.
+	 */
+	private int numSuffixes = 0;
+
+	/**
+	 * The distinct tags and validities, by id; validity 0 is
+	 * <code>null</code>.
+	 */
+	private final List tags = new ArrayList(), validities = new ArrayList();
+
+	/**
+	 * The closures computed so far, by the <code>BitSet</code> of the
+	 * validity ids they may use.
+	 */
+	private final Map closures = new HashMap();
+
+	/**
+	 * Compiles a collection of certificates into a graph.
+	 *
+	 * @param  certificates the <code>Certificate</code>s to compile.
+	 */
+	public CertGraph(Collection certificates) {
+		int n = certificates.size();
+		certs = new Certificate[n];
+		certSubject = new int[n];
+		certTag = new int[n];
+		certValidity = new int[n];
+		certPropagate = new boolean[n];
+		int[] from = new int[n];
+		Map tagIds = new HashMap();
+		Map validityIds = new HashMap();
+		validities.add(null);
+		validityIds.put(null, new Integer(0));
+		Iterator ci = certificates.iterator();
+		for (int c = 0; c < n; c++) {
+			certs[c] = (Certificate) ci.next();
+			Cert cert = certs[c].getCert();
+			certSubject[c] = term(cert.getSubject());
+			certValidity[c] = id(validityIds, validities, cert.getValidity());
+			if (cert instanceof NameCert) {
+				from[c] = term(((NameCert) cert).getFullName());
+				certTag[c] = -1;
+			} else {
+				from[c] = term(cert.getIssuer());
+				certTag[c] = id(tagIds, tags, ((AuthCert) cert).getTag());
+				certPropagate[c] = ((AuthCert) cert).getPropagate();
+			}
+		}
+		edgeTerms = numTerms;
+		nameStart = new int[edgeTerms + 1];
+		authStart = new int[edgeTerms + 1];
+		for (int c = 0; c < n; c++) {
+			if (certTag[c] < 0) {
+				nameStart[from[c] + 1]++;
+			} else {
+				authStart[from[c] + 1]++;
+			}
+		}
+		for (int t = 0; t < edgeTerms; t++) {
+			nameStart[t + 1] += nameStart[t];
+			authStart[t + 1] += authStart[t];
+		}
+		nameEdges = new int[nameStart[edgeTerms]];
+		authEdges = new int[authStart[edgeTerms]];
+		int[] nameNext = new int[nameStart.length];
+		int[] authNext = new int[authStart.length];
+		System.arraycopy(nameStart, 0, nameNext, 0, nameNext.length);
+		System.arraycopy(authStart, 0, authNext, 0, authNext.length);
+		for (int c = 0; c < n; c++) {
+			if (certTag[c] < 0) {
+				nameEdges[nameNext[from[c]]++] = c;
+			} else {
+				authEdges[authNext[from[c]]++] = c;
+			}
+		}
+	}
+
+	/**
+	 * Returns the id of an object in a list of distinct objects, adding it
+	 * if needed.
+	 */
+	private static int id(Map ids, List objects, Object o) {
+		Integer i = (Integer) ids.get(o);
+		if (i == null) {
+			i = new Integer(objects.size());
+			ids.put(o, i);
+			objects.add(o);
+		}
+		return i.intValue();
+	}
+
+	/**
+	 * Returns the term id of a principal or name, creating it if needed.
+	 */
+	private int term(Subject s) {
+		Integer i = (Integer) terms.get(s);
+		if (i != null) {
+			return i.intValue();
+		}
+		int t;
+		if (s instanceof Name) {
+			Name n = (Name) s;
+			t = term(term(n.getIssuer()), suffix(n.getNames(), 0));
+		} else {
+			t = newTerm(-1, -1);
+		}
+		terms.put(s, new Integer(t));
+		return t;
+	}
+
+	/**
+	 * Returns the term id of a principal, or -1 if it appears in no
+	 * certificate.
+	 */
+	private int find(Principal p) {
+		synchronized (terms) {
+			Integer i = (Integer) terms.get(p);
+			return (i == null) ? -1 : i.intValue();
+		}
+	}
+
+	/**
+	 * Returns the term id of the local name <code>n</code> of a
+	 * principal term, or -1 if it appears in no certificate.
+	 */
+	private int findName(int issuer, String n) {
+		synchronized (terms) {
+			Integer i = (Integer) suffixes.get(Arrays.asList(new String[] { n }));
+			return (i == null)
+				? -1
+				: names.get(((long) issuer << 32) | i.intValue());
+		}
+	}
+
+	/**
+	 * Returns the term id of the issuer of a term, or -1 if it is a
+	 * principal.
+	 */
+	private int issuerOf(int t) {
+		synchronized (terms) {
+			return termIssuer[t];
+		}
+	}
+
+	/**
+	 * Returns the suffix id of all but the first name string of a name
+	 * term, or -1 if it has only one.
+	 */
+	private int restOf(int t) {
+		synchronized (terms) {
+			return suffixRest[termSuffix[t]];
+		}
+	}
+
+	/**
+	 * Returns the term id of the local name made of the issuer and the
+	 * first name string of a name term, creating it if needed.
+	 */
+	private int headTerm(int t) {
+		synchronized (terms) {
+			return term(termIssuer[t], suffixHead[termSuffix[t]]);
+		}
+	}
+
+	/**
+	 * Returns the term id of the name made of principal <code>p</code>
+	 * and all but the first name string of a name term, creating it if
+	 * needed.
+	 */
+	private int restTerm(int p, int t) {
+		synchronized (terms) {
+			return term(p, suffixRest[termSuffix[t]]);
+		}
+	}
+
+	/**
+	 * Returns the term id of the name with a given issuer term and
+	 * suffix, creating it if needed.
+	 */
+	private int term(int issuer, int suffix) {
+		long key = ((long) issuer << 32) | suffix;
+		int t = names.get(key);
+		if (t < 0) {
+			t = newTerm(issuer, suffix);
+			names.put(key, t);
+		}
+		return t;
+	}
+
+	private int newTerm(int issuer, int suffix) {
+		if (numTerms == termIssuer.length) {
+			termIssuer = grow(termIssuer);
+			termSuffix = grow(termSuffix);
+		}
+		termIssuer[numTerms] = issuer;
+		termSuffix[numTerms] = suffix;
+		return numTerms++;
+	}
+
+	/**
+	 * Returns the suffix id of the name strings of <code>ns</code> from
+	 * <code>off</code> on, creating it if needed.
+	 */
+	private int suffix(String[] ns, int off) {
+		List key = Arrays.asList(ns).subList(off, ns.length);
+		Integer i = (Integer) suffixes.get(key);
+		if (i != null) {
+			return i.intValue();
+		}
+		int head =
+			(ns.length - off == 1)
+				? numSuffixes
+				: suffix(new String[] { ns[off] }, 0);
+		int rest = (ns.length - off == 1) ? -1 : suffix(ns, off + 1);
+		if (numSuffixes == suffixHead.length) {
+			suffixHead = grow(suffixHead);
+			suffixRest = grow(suffixRest);
+		}
+		suffixHead[numSuffixes] = head;
+		suffixRest[numSuffixes] = rest;
+		suffixes.put(new ArrayList(key), new Integer(numSuffixes));
+		return numSuffixes++;
+	}
+
+	/**
+	 * Returns the number of principals and names in this graph.
+	 *
+	 * @return the number of principals and names in this graph.
+	 */
+	public int getNumTerms() {
+		synchronized (terms) {
+			return numTerms;
+		}
+	}
+
+	/**
+	 * Returns the number of certificates in this graph.
+	 *
+	 * @return the number of certificates in this graph.
+	 */
+	public int getNumCertificates() {
+		return certs.length;
+	}
+
+	/**
+	 * Looks for a proof of a statement.
+	 *
+	 * @param  c the statement to prove; its subject must be a principal.
+	 * @param  stats the statistics to update.
+	 * @return a proof of <code>c</code>, or <code>null</code> if there is
+	 *         none in this graph.
+	 */
+	Proof prove(Cert c, CertPathBuilderStats stats) {
+		Closure cl = closure(c.getValidity());
+		int subject = find((Principal) c.getSubject());
+		int issuer = find(c.getIssuer());
+		if (subject < 0 || issuer < 0) {
+			return null;
+		}
+		Proof pf;
+		try {
+			if (c instanceof NameCert) {
+				pf = proveName((NameCert) c, cl, issuer, subject, stats);
+			} else {
+				pf = proveAuth((AuthCert) c, cl, issuer, subject, stats);
+			}
+		} catch (Proof.IncompatibleException e) {
+			throw new Error(e); // the graph only follows composable edges
+		}
+		return (pf != null && pf.getCert().implies(c)) ? pf : null;
+	}
+
+	/**
+	 * Returns the closure of the certificates a statement with validity
+	 * <code>v</code> may use, creating it if needed.
+	 */
+	private Closure closure(Validity v) {
+		boolean[] usable = new boolean[validities.size()];
+		BitSet key = new BitSet(usable.length);
+		for (int i = 0; i < usable.length; i++) {
+			usable[i] = Validity.implies((Validity) validities.get(i), v);
+			if (usable[i]) {
+				key.set(i);
+			}
+		}
+		synchronized (closures) {
+			Closure cl = (Closure) closures.get(key);
+			if (cl == null) {
+				cl = new Closure(usable);
+				closures.put(key, cl);
+			}
+			return cl;
+		}
+	}
+
+	/**
+	 * Looks for a proof of a name statement among the name certs that
+	 * define its name.
+	 */
+	private Proof proveName(
+		NameCert c,
+		Closure cl,
+		int issuer,
+		int subject,
+		CertPathBuilderStats stats)
+		throws Proof.IncompatibleException {
+		int n = findName(issuer, c.getName());
+		if (n < 0 || n >= edgeTerms) {
+			return null;
+		}
+		for (int i = nameStart[n]; i < nameStart[n + 1]; i++) {
+			int e = nameEdges[i];
+			if (cl.usable[certValidity[e]] && sameDisplay(e, c)) {
+				stats.numComposed++;
+				if (cl.resolve(certSubject[e]).find(subject) >= 0) {
+					return cl.reduce(
+						new Proof(certs[e]),
+						certSubject[e],
+						subject);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks for a proof of an auth statement by a breadth-first search
+	 * over the principals the issuer delegates to.
+	 */
+	private Proof proveAuth(
+		AuthCert c,
+		Closure cl,
+		int issuer,
+		int subject,
+		CertPathBuilderStats stats)
+		throws Proof.IncompatibleException {
+		byte[] covers = new byte[tags.size()]; // 0 unknown, 1 yes, 2 no
+		IntTable reached = new IntTable(); // principal -> (cert, from)
+		reached.add(issuer, -1, -1);
+		for (int r = 0; r < reached.size(); r++) {
+			int x = reached.key(r);
+			if (x >= edgeTerms) {
+				continue;
+			}
+			for (int i = authStart[x]; i < authStart[x + 1]; i++) {
+				int e = authEdges[i];
+				if (!cl.usable[certValidity[e]]
+					|| (r == 0 && !sameDisplay(e, c))) {
+					continue;
+				}
+				int tag = certTag[e];
+				if (covers[tag] == 0) {
+					covers[tag] =
+						((Tag) tags.get(tag)).implies(c.getTag())
+							? (byte) 1
+							: (byte) 2;
+				}
+				if (covers[tag] == 2) {
+					stats.numPruned++;
+					continue;
+				}
+				stats.numComposed++;
+				IntTable to = cl.resolve(certSubject[e]);
+				if ((certPropagate[e] || !c.getPropagate())
+					&& to.find(subject) >= 0) {
+					return path(cl, reached, r, e, subject);
+				}
+				if (certPropagate[e]) {
+					for (int j = 0; j < to.size(); j++) {
+						reached.add(to.key(j), e, r);
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Composes the proof of the chain of auth certs that reached the
+	 * principal at index <code>r</code> of <code>reached</code>,
+	 * followed by certificate <code>e</code> to principal
+	 * <code>p</code>.
+	 */
+	private Proof path(Closure cl, IntTable reached, int r, int e, int p)
+		throws Proof.IncompatibleException {
+		List steps = new ArrayList(); // cert, principal pairs, backwards
+		steps.add(new int[] { e, p });
+		while (reached.first(r) >= 0) {
+			steps.add(new int[] { reached.first(r), reached.key(r)});
+			r = reached.second(r);
+		}
+		Proof pf = null;
+		for (int i = steps.size() - 1; i >= 0; i--) {
+			int[] s = (int[]) steps.get(i);
+			Proof step =
+				cl.reduce(new Proof(certs[s[0]]), certSubject[s[0]], s[1]);
+			pf = (pf == null) ? step : pf.compose(step);
+		}
+		return pf;
+	}
+
+	/**
+	 * Checks whether certificate <code>e</code> has the display hint of
+	 * statement <code>c</code>, as the first certificate of a proof of
+	 * <code>c</code> must.
+	 */
+	private boolean sameDisplay(int e, Cert c) {
+		return Util.equals(certs[e].getCert().getDisplay(), c.getDisplay());
+	}
+
+	/**
+	 * Spreads the bits of a hash code.
+	 */
+	static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns a copy of an array with twice its length.
+	 */
+	static int[] grow(int[] a) {
+		int[] b = new int[2 * Math.max(a.length, 1)];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+}
@@ -0,0 +1,412 @@
+package jsdsi;
+
+import java.security.cert.CertStoreException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The indexes of a <code>CertStore</code>: the certificates by issuer
+ * (auth certs, by tag), by name, by subject, and by the local name their
+ * subject starts with.  A <code>CertIndex</code> never changes once it
+ * has been built.  Adding or removing a certificate returns a new index
+ * that shares everything but the keys it touches with the old one: each
+ * index is split into segments by key, and only the segments and entries
+ * of those keys are copied, once for all the certificates added or
+ * removed together.  Any number of threads may read an index
+ * without locking while new versions are made from it.
+ *
+ * <p>Lookups leave out the certificates that are not valid as the
+ * selector asks (see {@link CertSelector#setValidity(Validity)}).  The
+ * index counts the certificates whose validity has dates, and while
+ * there are none, it does not check any.
+ *
+ * @see CertStore
+ * @see MutableCertStoreParameters
+ *
+ * @version $Revision$ $Date$
+ */
+class CertIndex {
+	/**
+	 * Number of segments of each index.
+	 */
+	private static final int SEGMENTS = 256;
+
+	/**
+	 * issuer -> <code>TagIndex</code> of AuthCert(issuer -> RHS)
+	 */
+	private static final int AUTH = 0;
+
+	/**
+	 * name -> set of NameCert(name -> RHS)
+	 */
+	private static final int NAME = 1;
+
+	/**
+	 * name -> set of Cert(LHS -> name+X)
+	 */
+	private static final int COMPATIBLE = 2;
+
+	/**
+	 * subject -> set of Cert(LHS -> subject)
+	 */
+	private static final int SUBJECT = 3;
+
+	/**
+	 * The segments of each index; a segment is <code>null</code> until a
+	 * key falls into it.
+	 */
+	private final Map[][] maps;
+
+	/**
+	 * Number of certificates.
+	 */
+	private int size;
+
+	/**
+	 * Number of certificates whose validity has dates.  While there are
+	 * none, lookups need not check validity.
+	 */
+	private int timed;
+
+	/**
+	 * The segments and entries made for a version being built, which it
+	 * may change in place; <code>null</code> once it is built.
+	 */
+	private Map fresh;
+
+	/**
+	 * The auth certs added or removed by issuer, for a version being
+	 * built; <code>null</code> once it is built.
+	 */
+	private Map issuers;
+
+	/**
+	 * An empty index.
+	 */
+	static final CertIndex EMPTY = new CertIndex();
+
+	private CertIndex() {
+		maps = new Map[4][SEGMENTS];
+	}
+
+	/**
+	 * Creates a new version of an index, sharing its segments.
+	 */
+	private CertIndex(CertIndex old) {
+		maps = new Map[4][];
+		for (int i = 0; i < maps.length; i++) {
+			maps[i] = new Map[SEGMENTS];
+			System.arraycopy(old.maps[i], 0, maps[i], 0, SEGMENTS);
+		}
+		size = old.size;
+		timed = old.timed;
+	}
+
+	/**
+	 * Builds an index of a collection of certificates.
+	 *
+	 * @param  certs the <code>Certificate</code>s to index.
+	 * @return the index.
+	 */
+	static CertIndex of(Collection certs) {
+		return EMPTY.change(certs, true, null);
+	}
+
+	/**
+	 * Returns an index with certificates added or removed.  The new index
+	 * is made in one go: each segment and entry the certificates touch is
+	 * copied the first time it is touched, and changed in place after
+	 * that, and the tag index of each issuer whose auth certs change is
+	 * rebuilt once.
+	 *
+	 * @param  certs the <code>Certificate</code>s to add or remove.
+	 * @param  add <code>true</code> to add them, <code>false</code> to
+	 *         remove them.
+	 * @param  changed a list to append the certificates actually added or
+	 *         removed to, or <code>null</code>.
+	 * @return the new index, or this one if no certificate was added or
+	 *         removed.
+	 */
+	CertIndex change(Collection certs, boolean add, List changed) {
+		CertIndex index = null;
+		Iterator i = certs.iterator();
+		while (i.hasNext()) {
+			Certificate c = (Certificate) i.next();
+			if (((index == null) ? this : index).contains(c) == add) {
+				continue;
+			}
+			if (index == null) {
+				index = new CertIndex(this);
+				index.fresh = new IdentityHashMap();
+				index.issuers = new HashMap();
+			}
+			index.update(c, add);
+			if (changed != null) {
+				changed.add(c);
+			}
+		}
+		if (index == null) {
+			return this;
+		}
+		index.updateIssuers(add);
+		index.fresh = null;
+		index.issuers = null;
+		return index;
+	}
+
+	/**
+	 * Checks whether this index contains a certificate.
+	 *
+	 * @param  c the certificate.
+	 * @return <code>true</code> if this index contains <code>c</code>.
+	 */
+	boolean contains(Certificate c) {
+		Subject s = c.getCert().getSubject();
+		if (s instanceof Name) {
+			return find(COMPATIBLE, ((Name) s).prefix()).contains(c);
+		}
+		return find(SUBJECT, s).contains(c);
+	}
+
+	/**
+	 * Returns the number of certificates in this index.
+	 *
+	 * @return the number of certificates.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns all the certificates in this index.
+	 *
+	 * @return an unmodifiable collection of the certificates.
+	 */
+	Collection getAll() {
+		List l = new ArrayList(size);
+		for (int i = COMPATIBLE; i <= SUBJECT; i++) {
+			for (int s = 0; s < SEGMENTS; s++) {
+				if (maps[i][s] != null) {
+					Iterator vi = maps[i][s].values().iterator();
+					while (vi.hasNext()) {
+						l.addAll((Set) vi.next());
+					}
+				}
+			}
+		}
+		return Collections.unmodifiableList(l);
+	}
+
+	/**
+	 * Returns the certificates that match a selector.
+	 *
+	 * @param  s the selector.
+	 * @return an unmodifiable collection of the certificates.
+	 * @throws CertStoreException if the selector is not supported.
+	 */
+	Collection getCertificates(CertSelector s) throws CertStoreException {
+		if (s instanceof SubjectCertSelector) {
+			return valid(
+				find(SUBJECT, ((SubjectCertSelector) s).getSubject()),
+				s);
+		}
+		if (s instanceof CompatibleCertSelector) {
+			return valid(
+				find(COMPATIBLE, ((CompatibleCertSelector) s).getFullName()),
+				s);
+		}
+		if (s instanceof NameCertSelector) {
+			return valid(
+				find(NAME, ((NameCertSelector) s).getFullName()),
+				s);
+		}
+		if (s instanceof AuthCertSelector) {
+			AuthCertSelector as = (AuthCertSelector) s;
+			TagIndex ti = (TagIndex) get(AUTH, as.getIssuer());
+			if (ti == null) {
+				return Collections.EMPTY_SET;
+			}
+			if (as.getAuth() == Auth.NULL_AUTH) {
+				return valid(ti.getAll(), s);
+			}
+			// only the certs whose tags may imply the selector's
+			List l = new ArrayList();
+			Iterator i = ti.candidates(as.getAuth().getTag()).iterator();
+			while (i.hasNext()) {
+				Certificate c = (Certificate) i.next();
+				if (as.match(c)) {
+					l.add(c);
+				}
+			}
+			return l;
+		}
+		throw new CertStoreException(
+			"unrecognized selector: " + s.getClass().getName());
+	}
+
+	/**
+	 * Returns the certificates of a collection that are valid as the
+	 * selector asks.
+	 */
+	private Collection valid(Collection certs, CertSelector s) {
+		if (s.getValidity() == null || timed == 0) {
+			return certs;
+		}
+		List l = new ArrayList();
+		Iterator i = certs.iterator();
+		while (i.hasNext()) {
+			Certificate c = (Certificate) i.next();
+			if (s.matchValidity(c)) {
+				l.add(c);
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * Returns the entry for a key, or <code>null</code> if there is none.
+	 */
+	private Object get(int index, Object key) {
+		Map m = maps[index][segment(key)];
+		return (m == null) ? null : m.get(key);
+	}
+
+	/**
+	 * Returns the set for a key, or an empty set.
+	 */
+	private Set find(int index, Object key) {
+		Set s = (Set) get(index, key);
+		return (s == null)
+			? Collections.EMPTY_SET
+			: Collections.unmodifiableSet(s);
+	}
+
+	private static int segment(Object key) {
+		return (key.hashCode() & 0x7fffffff) % SEGMENTS;
+	}
+
+	/**
+	 * Adds a certificate to, or removes it from, the indexes of a version
+	 * being built; auth certs are only noted, for
+	 * <code>updateIssuers</code>.
+	 */
+	private void update(Certificate c, boolean add) {
+		Cert cert = c.getCert();
+		if (cert.getSubject() instanceof Name) {
+			update(COMPATIBLE, ((Name) cert.getSubject()).prefix(), c, add);
+		} else {
+			update(SUBJECT, cert.getSubject(), c, add);
+		}
+		if (cert instanceof NameCert) {
+			update(NAME, ((NameCert) cert).getFullName(), c, add);
+		}
+		if (cert instanceof AuthCert) {
+			List l = (List) issuers.get(cert.getIssuer());
+			if (l == null) {
+				l = new ArrayList();
+				issuers.put(cert.getIssuer(), l);
+			}
+			l.add(c);
+		}
+		size += add ? 1 : -1;
+		Validity v = cert.getValidity();
+		if (v != null && (v.getNotBefore() != null || v.getNotAfter() != null)) {
+			timed += add ? 1 : -1;
+		}
+	}
+
+	private void update(int index, Object key, Certificate c, boolean add) {
+		Map m = segment(index, key);
+		Set set = (Set) m.get(key);
+		if (set == null) {
+			set = (Set) fresh(new HashSet());
+		} else if (!fresh.containsKey(set)) {
+			set = (Set) fresh(new HashSet(set));
+		}
+		if (add) {
+			set.add(c);
+		} else {
+			set.remove(c);
+		}
+		if (set.isEmpty()) {
+			m.remove(key);
+		} else {
+			m.put(key, set);
+		}
+	}
+
+	/**
+	 * Builds the tag index of each issuer whose auth certs were added or
+	 * removed, once: from the certs of the old index and those added, or
+	 * without those removed.
+	 */
+	private void updateIssuers(boolean add) {
+		Iterator i = issuers.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry e = (Map.Entry) i.next();
+			List certs = (List) e.getValue();
+			Map m = segment(AUTH, e.getKey());
+			TagIndex old = (TagIndex) m.get(e.getKey());
+			TagIndex ti = new TagIndex();
+			if (old != null) {
+				Set removed =
+					add ? Collections.EMPTY_SET : new HashSet(certs);
+				Iterator ci = old.getAll().iterator();
+				while (ci.hasNext()) {
+					Certificate o = (Certificate) ci.next();
+					if (!removed.contains(o)) {
+						ti.add(tag(o), o);
+					}
+				}
+			}
+			if (add) {
+				Iterator ci = certs.iterator();
+				while (ci.hasNext()) {
+					Certificate c = (Certificate) ci.next();
+					ti.add(tag(c), c);
+				}
+			}
+			if (ti.getAll().isEmpty()) {
+				m.remove(e.getKey());
+			} else {
+				m.put(e.getKey(), ti);
+			}
+		}
+	}
+
+	/**
+	 * Returns the segment of a key in a version being built, copying it
+	 * if it is shared with an older version.
+	 */
+	private Map segment(int index, Object key) {
+		int s = segment(key);
+		Map m = maps[index][s];
+		if (m == null) {
+			m = (Map) fresh(new HashMap());
+		} else if (!fresh.containsKey(m)) {
+			m = (Map) fresh(new HashMap(m));
+		}
+		maps[index][s] = m;
+		return m;
+	}
+
+	/**
+	 * Notes that an object was made for the version being built.
+	 */
+	private Object fresh(Object o) {
+		fresh.put(o, o);
+		return o;
+	}
+
+	private static Tag tag(Certificate c) {
+		return ((AuthCert) c.getCert()).getTag();
+	}
+}
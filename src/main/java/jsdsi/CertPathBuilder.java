@@ -53,16 +53,45 @@ public class CertPathBuilder extends CertPathBuilderSpi {
 	public jsdsi.CertPathBuilderResult engineBuild(
 		jsdsi.CertPathParameters params)
 		throws CertPathBuilderException, InvalidAlgorithmParameterException {
-		if (params instanceof IssuerCertPathParameters) {
-			return engineBuild(
-				new FProver(params.getCert(), params.getStore()));
+		ProofCache cache = params.getProofCache();
+		Cert c = params.getCert();
+		java.security.cert.CertStore s = params.getStore();
+		Prover p;
+		if (params instanceof GraphCertPathParameters) {
+			p =
+				new GProver(
+					c,
+					((GraphCertPathParameters) params).getCertGraph());
+		} else if (params instanceof ParallelCertPathParameters) {
+			p =
+				new PProver(
+					c,
+					s,
+					((ParallelCertPathParameters) params).getThreads(),
+					((ParallelCertPathParameters) params).getProverPool());
+		} else if (params instanceof IssuerCertPathParameters) {
+			p =
+				(cache != null)
+					? new FProver(c, s, cache.getForward(), true)
+					: new FProver(c, s);
+		} else if (params instanceof SubjectCertPathParameters) {
+			p =
+				(cache != null)
+					? new RProver(c, s, cache.getReverse(), true)
+					: new RProver(c, s);
+		} else if (params instanceof BidirectionalCertPathParameters) {
+			p =
+				(cache != null)
+					? new BProver(c, s, cache.getForward(), cache.getReverse())
+					: new BProver(c, s);
+		} else {
+			throw new InvalidAlgorithmParameterException(
+				"unrecognized params: " + params.getClass().getName());
 		}
-		if (params instanceof SubjectCertPathParameters) {
-			return engineBuild(
-				new RProver(params.getCert(), params.getStore()));
+		if (params.getPrefetcher() != null) {
+			p.setPrefetcher(params.getPrefetcher());
 		}
-		throw new InvalidAlgorithmParameterException(
-			"unrecognized params: " + params.getClass().getName());
+		return engineBuild(p);
 	}
 
 	/**
@@ -72,20 +101,24 @@ public class CertPathBuilder extends CertPathBuilderSpi {
 	 * @param  p prover to create a <code>CertPathBuilder</code> from.
 	 * @return a <code>CertPathBuilder</code> created from the
 	 *         <code>CertPath</code> from the proof of <code>p</code> and the
-	 *         <code>CertPathBuilderStats</code> created from the number
-	 *         of certs fetched from the cert store by the proof of 
+	 *         <code>CertPathBuilderStats</code> of the search of
 	 *         <code>p</code>.
-	 * @throws CertPathBuilderException if there is no proof in <code>p</code>.
+	 * @throws CertPathBuilderException if there is no proof in <code>p</code>
+	 *         or the search was given up.
 	 */
 	private jsdsi.CertPathBuilderResult engineBuild(Prover p)
 		throws CertPathBuilderException {
+		long start = System.currentTimeMillis();
 		Proof pf = p.getProof();
+		if (p.abandoned != null) {
+			throw p.abandoned;
+		}
+		CertPathBuilderStats stats = p.getStats();
+		stats.finish(start, pf);
 		if (pf == null) {
 			throw new CertPathBuilderException("no proof found");
 		}
-		return new CertPathBuilderResult(
-			new CertPath(pf),
-			new CertPathBuilderStats(p.getNumFetched()));
+		return new CertPathBuilderResult(new CertPath(pf), stats);
 	}
 
 	/**
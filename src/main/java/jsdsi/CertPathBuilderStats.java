@@ -16,9 +16,12 @@ package jsdsi;
 /**
  * Statistics from a cert path builder process.
  *
+ * <p>The statistics of every build can also be added up into
+ * process-wide totals; see {@link #setCollectingTotals(boolean)}.
+ *
  * @see CertPathBuilder
  * @see CertPathBuilderResult
- * 
+ *
  * @author Sameer Ajmani
  * @version $Revision: 1.1 $ $Date: 2004/02/28 15:49:34 $
  */
@@ -26,24 +29,327 @@ public class CertPathBuilderStats {
 	/**
 	 * Number of certs fetched from cert store.
 	 */
-	private int numFetched;
+	int numFetched;
+
+	/**
+	 * Number of proofs dropped because they could not prove the statement.
+	 */
+	int numPruned;
+
+	/**
+	 * Number of proofs composed (successfully or not).
+	 */
+	int numComposed;
+
+	/**
+	 * Number of compositions that failed with an
+	 * <code>IncompatibleException</code>.
+	 */
+	int numIncompatible;
+
+	/**
+	 * Number of proofs skipped because they had already been expanded.
+	 */
+	int numDuplicates;
+
+	/**
+	 * Length (in certificates) of the longest proof expanded.
+	 */
+	int maxDepth;
+
+	/**
+	 * Largest number of proofs held in the prover's indexes.
+	 */
+	int peakIndexSize;
+
+	/**
+	 * Length (in certificates) of the proof found; 0 if none.
+	 */
+	int proofLength;
+
+	/**
+	 * Time spent in the build, in milliseconds.
+	 */
+	long totalTime;
+
+	/**
+	 * Time spent fetching certificates from the cert store, in
+	 * milliseconds.
+	 */
+	long fetchTime;
+
+	/**
+	 * Number of builds these statistics cover.
+	 */
+	int numBuilds;
+
+	/**
+	 * Whether every build is added to <code>totals</code>.
+	 */
+	private static boolean collecting = false;
+
+	/**
+	 * The process-wide totals.
+	 */
+	private static final CertPathBuilderStats totals =
+		new CertPathBuilderStats();
+
+	/**
+	 * Creates a new, empty <code>CertPathBuilderStats</code>.
+	 */
+	CertPathBuilderStats() {
+	}
 
 	/**
 	 * Creates a new <code>CertPathBuilderStats</code> with a given
 	 * number of certs fetched from the cert store.
-	 * 
+	 *
 	 * @param  fetched number of certs fetched from the cert store.
 	 */
 	CertPathBuilderStats(int fetched) {
 		numFetched = fetched;
 	}
 
+	/**
+	 * Adds the counts of another <code>CertPathBuilderStats</code> to
+	 * this one.  Maximums are combined by taking the larger one.
+	 *
+	 * @param  s the statistics to add.
+	 */
+	void add(CertPathBuilderStats s) {
+		numFetched += s.numFetched;
+		numPruned += s.numPruned;
+		numComposed += s.numComposed;
+		numIncompatible += s.numIncompatible;
+		numDuplicates += s.numDuplicates;
+		maxDepth = Math.max(maxDepth, s.maxDepth);
+		peakIndexSize = Math.max(peakIndexSize, s.peakIndexSize);
+		proofLength += s.proofLength;
+		totalTime += s.totalTime;
+		fetchTime += s.fetchTime;
+		numBuilds += s.numBuilds;
+	}
+
+	/**
+	 * Records that a proof of the given length has been expanded.
+	 *
+	 * @param  length number of certificates in the proof.
+	 */
+	void expanded(int length) {
+		if (length > maxDepth) {
+			maxDepth = length;
+		}
+	}
+
+	/**
+	 * Completes the statistics of a build that started at the given time
+	 * and found the given proof, and adds them to the process-wide
+	 * totals if these are being collected.
+	 *
+	 * @param  start the time the build started, as given by
+	 *         <code>System.currentTimeMillis()</code>.
+	 * @param  pf the proof found, or <code>null</code>.
+	 */
+	void finish(long start, Proof pf) {
+		totalTime = System.currentTimeMillis() - start;
+		proofLength = (pf == null) ? 0 : pf.size();
+		numBuilds = 1;
+		synchronized (totals) {
+			if (collecting) {
+				totals.add(this);
+			}
+		}
+	}
+
 	/**
 	 * Returns the number of certs fetched from the cert store.
-	 * 
+	 *
 	 * @return the number of certs fetched from the cert store.
 	 */
 	public int getNumFetched() {
 		return numFetched;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the number of proofs the builder dropped without expanding
+	 * them, because their tag could not cover the tag of the statement.
+	 *
+	 * @return the number of proofs pruned.
+	 */
+	public int getNumPruned() {
+		return numPruned;
+	}
+
+	/**
+	 * Returns the number of times two proofs were composed, including the
+	 * compositions that failed.
+	 *
+	 * @return the number of compositions.
+	 */
+	public int getNumComposed() {
+		return numComposed;
+	}
+
+	/**
+	 * Returns the number of compositions that failed because the proofs
+	 * were incompatible.
+	 *
+	 * @return the number of incompatible compositions.
+	 */
+	public int getNumIncompatible() {
+		return numIncompatible;
+	}
+
+	/**
+	 * Returns the number of proofs derived again after they had already
+	 * been expanded, and hence skipped.
+	 *
+	 * @return the number of duplicate proofs.
+	 */
+	public int getNumDuplicates() {
+		return numDuplicates;
+	}
+
+	/**
+	 * Returns the length, in certificates, of the longest proof expanded.
+	 *
+	 * @return the maximum search depth.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns the largest number of proofs held in the indexes of the
+	 * prover.  For a build that uses a <code>ProofCache</code> this
+	 * includes the proofs left by earlier builds.
+	 *
+	 * @return the peak size of the prover's indexes.
+	 */
+	public int getPeakIndexSize() {
+		return peakIndexSize;
+	}
+
+	/**
+	 * Returns the length, in certificates, of the proof found.  For
+	 * totals, this is the sum over all builds.
+	 *
+	 * @return the length of the proof found, or 0 if there is none.
+	 */
+	public int getProofLength() {
+		return proofLength;
+	}
+
+	/**
+	 * Returns the time the build took, in milliseconds.
+	 *
+	 * @return the wall time of the build.
+	 */
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	/**
+	 * Returns the time spent fetching certificates from the cert store, in
+	 * milliseconds.  When a build fetches on several threads at once, this
+	 * is the sum over the threads.
+	 *
+	 * @return the time spent in the cert store.
+	 */
+	public long getFetchTime() {
+		return fetchTime;
+	}
+
+	/**
+	 * Returns the time spent outside the cert store, in milliseconds.
+	 *
+	 * @return the total time less the fetch time, or 0 if fetches on
+	 *         several threads took longer than the build.
+	 */
+	public long getComputeTime() {
+		return Math.max(0, totalTime - fetchTime);
+	}
+
+	/**
+	 * Returns the number of builds these statistics cover: 1 for the
+	 * statistics of a build, any number for the totals.
+	 *
+	 * @return the number of builds.
+	 */
+	public int getNumBuilds() {
+		return numBuilds;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "builds="
+			+ numBuilds
+			+ " fetched="
+			+ numFetched
+			+ " pruned="
+			+ numPruned
+			+ " composed="
+			+ numComposed
+			+ " incompatible="
+			+ numIncompatible
+			+ " duplicates="
+			+ numDuplicates
+			+ " maxDepth="
+			+ maxDepth
+			+ " peakIndexSize="
+			+ peakIndexSize
+			+ " proofLength="
+			+ proofLength
+			+ " totalTime="
+			+ totalTime
+			+ " fetchTime="
+			+ fetchTime;
+	}
+
+	/**
+	 * Starts or stops adding the statistics of every build to the
+	 * process-wide totals.  Collecting is off by default.
+	 *
+	 * @param  on <code>true</code> to collect totals.
+	 */
+	public static void setCollectingTotals(boolean on) {
+		synchronized (totals) {
+			collecting = on;
+		}
+	}
+
+	/**
+	 * Returns a copy of the process-wide totals.
+	 *
+	 * @return the statistics of all builds since the totals were last
+	 *         reset, while collecting was on.
+	 */
+	public static CertPathBuilderStats getTotals() {
+		CertPathBuilderStats s = new CertPathBuilderStats();
+		synchronized (totals) {
+			s.add(totals);
+		}
+		return s;
+	}
+
+	/**
+	 * Resets the process-wide totals to zero.
+	 */
+	public static void resetTotals() {
+		synchronized (totals) {
+			totals.numFetched = 0;
+			totals.numPruned = 0;
+			totals.numComposed = 0;
+			totals.numIncompatible = 0;
+			totals.numDuplicates = 0;
+			totals.maxDepth = 0;
+			totals.peakIndexSize = 0;
+			totals.proofLength = 0;
+			totals.totalTime = 0;
+			totals.fetchTime = 0;
+			totals.numBuilds = 0;
+		}
+	}
+}
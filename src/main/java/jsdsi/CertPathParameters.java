@@ -39,6 +39,16 @@ public class CertPathParameters
 	 */
 	private java.security.cert.CertStore store;
 	
+	/**
+	 * The proof cache to use (may be <code>null</code>).
+	 */
+	private ProofCache cache;
+	
+	/**
+	 * The prefetcher to use (may be <code>null</code>).
+	 */
+	private Prefetcher prefetcher;
+	
 	/**
 	 * Creates a new <code>CertPathParameters</code> object from a given
 	 * <code>Cert</code> and a given <code>CertStore</code>.
@@ -59,6 +69,24 @@ public class CertPathParameters
 		store = s;
 	}
 
+	/**
+	 * Creates a new <code>CertPathParameters</code> object from a given
+	 * <code>Cert</code> and a given <code>ProofCache</code>.  The
+	 * certificates are fetched from the cache's <code>CertStore</code>,
+	 * and the proofs composed while building the path are kept in the
+	 * cache for later builds.
+	 * 
+	 * @param  c <code>Cert</code> to create the object from.
+	 * @param  pc <code>ProofCache</code> to create the object from.
+	 * @throws InvalidAlgorithmParameterException if the subject of 
+	 *         <code>c</code> is not a <code>Name</code>.
+	 */
+	public CertPathParameters(Cert c, ProofCache pc)
+		throws InvalidAlgorithmParameterException {
+		this(c, pc.getStore());
+		cache = pc;
+	}
+
 	/**
 	 * Returns the <code>Cert</code> of this <code>CertPathParameters</code>.
 	 * 
@@ -79,12 +107,54 @@ public class CertPathParameters
 		return store;
 	}
 
+	/**
+	 * Returns the <code>ProofCache</code> of this
+	 * <code>CertPathParameters</code>.
+	 * 
+	 * @return the <code>ProofCache</code> of this
+	 *         <code>CertPathParameters</code>, or <code>null</code> if
+	 *         proofs are not cached.
+	 */
+	public ProofCache getProofCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the <code>Prefetcher</code> of this
+	 * <code>CertPathParameters</code>.
+	 * 
+	 * @return the <code>Prefetcher</code> of this
+	 *         <code>CertPathParameters</code>, or <code>null</code> if
+	 *         certificates are not prefetched.
+	 */
+	public Prefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	/**
+	 * Sets the <code>Prefetcher</code> that looks up certificates ahead of
+	 * time while the path is built.
+	 * 
+	 * @param  p the <code>Prefetcher</code> to use, or <code>null</code>
+	 *         to look up certificates only when they are needed.
+	 */
+	public void setPrefetcher(Prefetcher p) {
+		prefetcher = p;
+	}
+
 	/**
 	 * @see java.lang.Object#clone()
 	 */
 	public Object clone() {
 		try {
-			return new CertPathParameters(cert, store);
+			CertPathParameters p;
+			if (cache != null) {
+				p = new CertPathParameters(cert, cache);
+			} else {
+				p = new CertPathParameters(cert, store);
+			}
+			p.prefetcher = prefetcher;
+			return p;
 		} catch (InvalidAlgorithmParameterException e) {
 			throw (IllegalStateException) new IllegalStateException()
 				.initCause(
@@ -13,6 +13,8 @@
  */
 package jsdsi;
 
+import java.util.Date;
+
 /**
  * Selects a set of SPKI/SDSI certificates from a CertStore.
  *
@@ -22,6 +24,102 @@ package jsdsi;
  * @version $Revision: 1.1 $ $Date: 2004/02/28 15:49:34 $
  */
 public abstract class CertSelector implements java.security.cert.CertSelector {
+	/**
+	 * Takes the certificates of a lookup one at a time, as the store
+	 * reads them.
+	 *
+	 * @see CertSelector#setReceiver(CertSelector.Receiver)
+	 */
+	public interface Receiver {
+		/**
+		 * Takes a certificate the store has just read.
+		 *
+		 * @param  cert a certificate matching the selector.
+		 */
+		void receive(jsdsi.Certificate cert);
+	}
+
+	/**
+	 * The dates a certificate must be valid on, or <code>null</code> to
+	 * match certificates whatever their validity.
+	 */
+	private Validity validity;
+
+	/**
+	 * Takes the certificates of a lookup as they are read, or
+	 * <code>null</code>.
+	 */
+	private Receiver receiver;
+
+	/**
+	 * Makes this selector match only the certificates whose validity
+	 * dates cover those of a given validity: certificates valid
+	 * whenever <code>v</code> is.  Online tests are not considered.  A
+	 * <code>Validity</code> with no dates matches only the certificates
+	 * that have none either.
+	 * 
+	 * @param  v the validity to cover, or <code>null</code> to match
+	 *         certificates whatever their validity.
+	 */
+	public void setValidity(Validity v) {
+		validity = v;
+	}
+
+	/**
+	 * Makes this selector match only the certificates valid at a given
+	 * instant.
+	 * 
+	 * @param  t the instant, or <code>null</code> to match certificates
+	 *         whatever their validity.
+	 */
+	public void setValidAt(Date t) {
+		setValidity((t == null) ? null : new Validity(t, t));
+	}
+
+	/**
+	 * @return the validity certificates must cover, or <code>null</code>.
+	 * @see #setValidity(Validity)
+	 */
+	public Validity getValidity() {
+		return validity;
+	}
+
+	/**
+	 * Checks the validity of a certificate against this selector.
+	 * 
+	 * @param  cert the certificate.
+	 * @return <code>true</code> if the validity of <code>cert</code>
+	 *         covers the one set on this selector, or none is set.
+	 */
+	public boolean matchValidity(jsdsi.Certificate cert) {
+		return validity == null
+			|| Validity.impliesDates(cert.getCert().getValidity(), validity);
+	}
+
+	/**
+	 * Hands the certificates of lookups with this selector to a given
+	 * receiver as the store reads them.  A store that reads its
+	 * certificates a part at a time (such as a paged LDAP search) passes
+	 * each one to the receiver before reading the next part, so the
+	 * caller can start using them while the rest are still coming; the
+	 * lookup still returns all of them.  Other stores ignore the
+	 * receiver.  The receiver is not copied by <code>clone</code>.
+	 *
+	 * @param  r the receiver, or <code>null</code> for none.
+	 */
+	public void setReceiver(Receiver r) {
+		receiver = r;
+	}
+
+	/**
+	 * @return the receiver of the certificates looked up, or
+	 *         <code>null</code>.
+	 * @see #setReceiver(CertSelector.Receiver)
+	 */
+	public Receiver getReceiver() {
+		return receiver;
+	}
+
 	/**
 	 * @see java.lang.Object#clone()
 	 */
@@ -19,60 +19,43 @@ import java.security.cert.CertStoreParameters;
 import java.security.cert.CertStoreSpi;
 import java.security.cert.CollectionCertStoreParameters;
 import java.util.Collection;
-import java.util.Iterator;
 
 /**
  * A collection-based certificate store for SPKI/SDSI certificates.
+ * The auth certs of each issuer are indexed by tag (see
+ * <code>TagIndex</code>), so an <code>AuthCertSelector</code> only
+ * returns, and only tests, the certs whose auths may imply its own.
+ * 
+ * <p>A store created from <code>CollectionCertStoreParameters</code>
+ * indexes the collection once and never changes.  A store created from
+ * {@link MutableCertStoreParameters} serves the certificates those
+ * parameters hold at the time of each lookup: each lookup reads one
+ * consistent version of the indexes, without locking, while
+ * certificates are added and removed.
  * 
  * @author Sameer Ajmani
  * @version $Revision: 1.2 $ $Date: 2004/06/25 15:24:49 $
  */
 public class CertStore extends CertStoreSpi {
 	/**
-	 * issuer -> set of AuthCert(issuer -> RHS)
-	 */
-	MultiMap auth = new MultiMap();
-	 
-	/**
-	 * name -> set of NameCert(name -> RHS)
+	 * The indexes of a store that never changes.
 	 */
-	MultiMap name = new MultiMap();
-	
-	/**
-	 * name -> set of Cert(LHS -> name+X)
-	 */
-	MultiMap compatible = new MultiMap();
-	
+	private CertIndex index;
+
 	/**
-	 * subject -> set of Cert(LHS -> subject)
+	 * The parameters of an updatable store, <code>null</code> for a store
+	 * that never changes.
 	 */
-	MultiMap subject = new MultiMap();
+	private MutableCertStoreParameters mutable;
 	
 	/**
-	 * Adds new certificates to this <code>CertStore</code>.
+	 * Indexes the certificates of this <code>CertStore</code>.
 	 * 
 	 * @param  params collection of certificates to add to this 
 	 *         <code>CertStore</code>.
 	 */
 	private void init(CollectionCertStoreParameters params) {
-		Iterator i = params.getCollection().iterator();
-		while (i.hasNext()) {
-			jsdsi.Certificate c = (jsdsi.Certificate) i.next();
-			if (c.getCert().getSubject() instanceof Name) {
-				Name n = (Name) c.getCert().getSubject();
-				compatible.put(n.prefix(), c);
-			} else {
-				// subject is not a name
-				subject.put(c.getCert().getSubject(), c);
-			}
-			if (c.getCert() instanceof NameCert) {
-				NameCert nc = (NameCert) c.getCert();
-				name.put(nc.getFullName(), c);
-			}
-			if (c.getCert() instanceof AuthCert) {
-				auth.put(c.getCert().getIssuer(), c);
-			}
-		}
+		index = CertIndex.of(params.getCollection());
 	}
 	
 	/**
@@ -96,6 +79,10 @@ public class CertStore extends CertStoreSpi {
 	public CertStore(CertStoreParameters params)
 		throws InvalidAlgorithmParameterException {
 		super(params);
+		if (params instanceof MutableCertStoreParameters) {
+			mutable = (MutableCertStoreParameters) params;
+			return;
+		}
 		try {
 			init((CollectionCertStoreParameters) params);
 		} catch (ClassCastException e) {
@@ -120,21 +107,8 @@ public class CertStore extends CertStoreSpi {
 	 */
 	public Collection engineGetCertificates(jsdsi.CertSelector s)
 		throws CertStoreException {
-		if (s instanceof SubjectCertSelector) {
-			return subject.get(((SubjectCertSelector) s).getSubject());
-		}
-		if (s instanceof CompatibleCertSelector) {
-			return compatible.get(((CompatibleCertSelector) s).getFullName());
-		}
-		if (s instanceof NameCertSelector) {
-			return name.get(((NameCertSelector) s).getFullName());
-		}
-		if (s instanceof AuthCertSelector) {
-            // FIXME: this may return certs that don't satisfy the selector!
-			return auth.get(((AuthCertSelector) s).getIssuer());
-		}
-		throw new CertStoreException(
-			"unrecognized selector: " + s.getClass().getName());
+		CertIndex i = (mutable != null) ? mutable.getIndex() : index;
+		return i.getCertificates(s);
 	}
 
 	/**
@@ -0,0 +1,724 @@
+package jsdsi;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.cert.CollectionCertStoreParameters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import jsdsi.sexp.ObjOutputStream;
+import jsdsi.util.Loader;
+
+/**
+ * Computes the complete closure of a set of certificates: every local
+ * name with each principal it stands for, and every issuer with each
+ * authorization it grants, directly or through a chain of certs, to a
+ * principal.  These are the statements <code>Proof.compose</code> derives
+ * from the certs, without the proofs; they are written to a stream as
+ * canonical S-expressions as they are found, instead of being kept.
+ *
+ * <p>The name closure is computed semi-naively, in rounds: each round
+ * joins only the facts derived in the round before with the certs and
+ * names they take part in.  The names are shared out among the threads;
+ * in each round every thread first derives what follows from the new
+ * facts about its own names, sending it to the thread that owns the
+ * name it is about, then merges what was sent to it.  The auth closure
+ * is then computed from each issuer in turn, again semi-naively, with
+ * the issuers shared out among the threads.
+ *
+ * <p>Only principals, names and tags are considered: the validities of
+ * the certs are neither intersected nor checked, and the statements
+ * written carry none.  Certs with threshold or object hash subjects are
+ * ignored.  While it runs, an evaluator keeps the principals each name
+ * stands for, and the authorizations granted by the issuers it is
+ * working on.
+ *
+ * @see NameIndex
+ * @see CertGraph
+ *
+ * @version $Revision$ $Date$
+ */
+public class ClosureEvaluator {
+	/**
+	 * A name, with the principals it stands for and the names that
+	 * depend on them.  A term is only changed by the thread that owns it.
+	 */
+	private static class Term {
+		final Name name;
+		final int id;
+
+		/**
+		 * Ids of the principals the name stands for.
+		 */
+		final CertGraph.IntTable facts = new CertGraph.IntTable();
+
+		/**
+		 * <code>Dep</code>s on this name.
+		 */
+		final List deps = new ArrayList();
+
+		Term(Name n, int i) {
+			name = n;
+			id = i;
+		}
+	}
+
+	/**
+	 * A dependency of a name on another: the target stands for what the
+	 * other name stands for (<code>COPY</code> and <code>SUBSTITUTE</code>)
+	 * or, if the target is an extended name, the other name is its first
+	 * name (<code>EXTEND</code>).
+	 */
+	private static class Dep {
+		final Term target;
+		final int kind;
+
+		Dep(Term t, int k) {
+			target = t;
+			kind = k;
+		}
+	}
+
+	/**
+	 * What one thread sends another about a term it owns: that the term
+	 * stands for principal <code>p</code> or, if <code>dep</code> is not
+	 * <code>null</code>, that <code>dep</code> depends on it.
+	 */
+	private static class Msg {
+		final Term term;
+		final int p;
+		final Dep dep;
+
+		Msg(Term t, int x, Dep d) {
+			term = t;
+			p = x;
+			dep = d;
+		}
+	}
+
+	/**
+	 * Buffers the statements one thread writes, and writes them to the
+	 * shared stream in blocks.
+	 */
+	private static class Sink {
+		private final OutputStream out;
+		private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		private final ObjOutputStream os = new ObjOutputStream(buf);
+		long count = 0;
+
+		Sink(OutputStream o) {
+			out = o;
+		}
+
+		void write(Cert c) throws IOException {
+			os.writeCanonical(c);
+			count++;
+			if (buf.size() >= BLOCK_SIZE) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			os.flush();
+			synchronized (out) {
+				buf.writeTo(out);
+			}
+			buf.reset();
+		}
+	}
+
+	/**
+	 * Work done by every thread, given its index.
+	 */
+	private interface Task {
+		void run(int j) throws IOException;
+	}
+
+	private static final int COPY = 0, EXTEND = 1, SUBSTITUTE = 2;
+
+	/**
+	 * Bytes a thread buffers before writing them out.
+	 */
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private final List nameCerts = new ArrayList();
+
+	private final List authCerts = new ArrayList();
+
+	/**
+	 * The principals of the certs, by id.
+	 */
+	private final List principals = new ArrayList();
+
+	private final Map principalIds = new HashMap();
+
+	/**
+	 * The terms by name.  Guards <code>numTerms</code>.
+	 */
+	private final Map terms = new HashMap();
+
+	private int numTerms;
+
+	/**
+	 * The tags met, by id.  Guarded by <code>tagIds</code>.
+	 */
+	private final List tags = new ArrayList();
+
+	private final Map tagIds = new HashMap();
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private int rounds = 0;
+
+	private long numNameStatements = 0;
+
+	private long numAuthStatements = 0;
+
+	/**
+	 * Creates a new <code>ClosureEvaluator</code> for a collection of
+	 * certificates.
+	 *
+	 * @param  certificates the <code>Certificate</code>s to evaluate.
+	 */
+	public ClosureEvaluator(Collection certificates) {
+		Iterator i = certificates.iterator();
+		while (i.hasNext()) {
+			Cert c = ((Certificate) i.next()).getCert();
+			if (!(c.getSubject() instanceof Principal)
+				&& !(c.getSubject() instanceof Name)) {
+				continue;
+			}
+			if (c instanceof NameCert) {
+				nameCerts.add(c);
+			} else if (c instanceof AuthCert) {
+				authCerts.add(c);
+			} else {
+				continue;
+			}
+			id(c.getIssuer());
+			if (c.getSubject() instanceof Principal) {
+				id((Principal) c.getSubject());
+			}
+		}
+	}
+
+	/**
+	 * Sets the number of threads to evaluate on.  The default is the
+	 * number of processors.
+	 *
+	 * @param  n the number of threads.
+	 */
+	public void setThreads(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		threads = n;
+	}
+
+	/**
+	 * Returns the number of rounds the name closure took in the last
+	 * evaluation.
+	 *
+	 * @return the number of rounds.
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Returns the number of name statements written by the last
+	 * evaluation.
+	 *
+	 * @return the number of <code>NameCert</code>s written.
+	 */
+	public long getNumNameStatements() {
+		return numNameStatements;
+	}
+
+	/**
+	 * Returns the number of auth statements written by the last
+	 * evaluation.
+	 *
+	 * @return the number of <code>AuthCert</code>s written.
+	 */
+	public long getNumAuthStatements() {
+		return numAuthStatements;
+	}
+
+	/**
+	 * Computes the closure and writes it to a stream: a
+	 * <code>NameCert</code> from each local name to each principal it
+	 * stands for, then an <code>AuthCert</code> for each authorization,
+	 * with its tag and delegation bit, each issuer grants each principal.
+	 * The statements are written as canonical S-expressions, one after
+	 * the other, in no particular order.  The stream is not closed.
+	 *
+	 * @param  out the stream to write to.
+	 * @return the number of statements written.
+	 * @throws IOException if writing to <code>out</code> fails.
+	 */
+	public synchronized long evaluate(OutputStream out) throws IOException {
+		final Sink[] sinks = new Sink[threads];
+		for (int j = 0; j < threads; j++) {
+			sinks[j] = new Sink(out);
+		}
+		terms.clear();
+		numTerms = 0;
+		resolveNames(sinks);
+		numNameStatements = 0;
+		for (int j = 0; j < threads; j++) {
+			numNameStatements += sinks[j].count;
+			sinks[j].count = 0;
+		}
+		resolveAuths(sinks);
+		numAuthStatements = 0;
+		for (int j = 0; j < threads; j++) {
+			numAuthStatements += sinks[j].count;
+			sinks[j].flush();
+		}
+		terms.clear();
+		return numNameStatements + numAuthStatements;
+	}
+
+	/**
+	 * Computes the name closure, writing a statement for each local name
+	 * and principal it stands for.
+	 */
+	private void resolveNames(final Sink[] sinks) throws IOException {
+		final int n = threads;
+		// mail[j][k] holds what thread j sent thread k, later[k][.]
+		// what thread k sent while merging
+		final List[][][] mail = new List[2][n][n];
+		for (int j = 0; j < n; j++) {
+			for (int k = 0; k < n; k++) {
+				mail[0][j][k] = new ArrayList();
+				mail[1][j][k] = new ArrayList();
+			}
+		}
+		// the new facts about the terms each thread owns
+		final List[] delta = new List[n];
+		for (int j = 0; j < n; j++) {
+			delta[j] = new ArrayList();
+		}
+		final List[] box = mail[0][0];
+		Iterator i = nameCerts.iterator();
+		while (i.hasNext()) {
+			NameCert c = (NameCert) i.next();
+			Term t = term(c.getFullName(), box);
+			if (c.getSubject() instanceof Principal) {
+				send(box, new Msg(t, id((Principal) c.getSubject()), null));
+			} else {
+				send(box,
+					new Msg(term((Name) c.getSubject(), box), 0,
+						new Dep(t, COPY)));
+			}
+		}
+		i = authCerts.iterator();
+		while (i.hasNext()) {
+			Cert c = (Cert) i.next();
+			if (c.getSubject() instanceof Name) {
+				term((Name) c.getSubject(), box);
+			}
+		}
+		rounds = 0;
+		for (;;) {
+			rounds++;
+			final List[][] in = mail[0];
+			final List[][] later = mail[1];
+			parallel(new Task() {
+				public void run(int k) throws IOException {
+					for (int j = 0; j < n; j++) {
+						List l = in[j][k];
+						for (int m = 0; m < l.size(); m++) {
+							merge((Msg) l.get(m), delta[k], later[k], sinks[k]);
+						}
+						l.clear();
+					}
+				}
+			});
+			mail[0] = later;
+			mail[1] = in;
+			boolean more = false;
+			for (int j = 0; j < n; j++) {
+				more |= !delta[j].isEmpty();
+				for (int k = 0; k < n; k++) {
+					more |= !later[j][k].isEmpty();
+				}
+			}
+			if (!more) {
+				return;
+			}
+			parallel(new Task() {
+				public void run(int j) {
+					List d = delta[j];
+					for (int m = 0; m < d.size(); m++) {
+						Msg f = (Msg) d.get(m);
+						for (int x = 0; x < f.term.deps.size(); x++) {
+							apply((Dep) f.term.deps.get(x), f.p, later[j]);
+						}
+					}
+					d.clear();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Handles a message about a term owned by the current thread: records
+	 * a new fact, or adds a dependency and applies it to what the term
+	 * already stands for.
+	 */
+	private void merge(Msg m, List delta, List[] box, Sink sink)
+		throws IOException {
+		Term t = m.term;
+		if (m.dep == null) {
+			if (t.facts.add(m.p, 0, 0)) {
+				delta.add(m);
+				if (t.name.getNames().length == 1) {
+					sink.write(
+						new NameCert(
+							t.name.getIssuer(),
+							principal(m.p),
+							null,
+							null,
+							null,
+							t.name.getNames()[0]));
+				}
+			}
+		} else {
+			t.deps.add(m.dep);
+			for (int i = 0; i < t.facts.size(); i++) {
+				apply(m.dep, t.facts.key(i), box);
+			}
+		}
+	}
+
+	/**
+	 * Applies a dependency to the fact that the name it depends on stands
+	 * for principal <code>p</code>.
+	 */
+	private void apply(Dep d, int p, List[] box) {
+		if (d.kind == EXTEND) {
+			// p stands for the first name: the target stands for what p's
+			// rest of the name does
+			Name n = d.target.name;
+			String[] ns = new String[n.getNames().length - 1];
+			System.arraycopy(n.getNames(), 1, ns, 0, ns.length);
+			Term r = term(new Name(principal(p), ns), box);
+			send(box, new Msg(r, 0, new Dep(d.target, SUBSTITUTE)));
+		} else {
+			send(box, new Msg(d.target, p, null));
+		}
+	}
+
+	/**
+	 * Returns the term for a name, creating it if needed.  An extended
+	 * name depends on its first name.
+	 */
+	private Term term(Name n, List[] box) {
+		Term t;
+		synchronized (terms) {
+			t = (Term) terms.get(n);
+			if (t != null) {
+				return t;
+			}
+			t = new Term(n, numTerms++);
+			terms.put(n, t);
+		}
+		if (n.getNames().length > 1) {
+			send(box, new Msg(term(n.prefix(), box), 0, new Dep(t, EXTEND)));
+		}
+		return t;
+	}
+
+	/**
+	 * Sends a message to the thread that owns its term.
+	 */
+	private static void send(List[] box, Msg m) {
+		box[m.term.id % box.length].add(m);
+	}
+
+	/**
+	 * Computes the auth closure of every issuer, writing a statement for
+	 * each authorization it grants.
+	 */
+	private void resolveAuths(final Sink[] sinks) throws IOException {
+		// the authorizations each principal grants directly, as
+		// subject << 32 | tag << 1 | propagate
+		final long[][] edges = new long[principals.size()][];
+		final int[] numEdges = new int[principals.size()];
+		final List issuers = new ArrayList();
+		Iterator i = authCerts.iterator();
+		while (i.hasNext()) {
+			AuthCert c = (AuthCert) i.next();
+			int x = id(c.getIssuer());
+			long a = ((long) tagId(c.getTag()) << 1)
+				| (c.getPropagate() ? 1 : 0);
+			if (edges[x] == null) {
+				edges[x] = new long[4];
+				issuers.add(new Integer(x));
+			}
+			if (c.getSubject() instanceof Principal) {
+				edges[x] = add(edges[x], numEdges[x]++,
+					((long) id((Principal) c.getSubject()) << 32) | a);
+			} else {
+				Term t = (Term) terms.get(c.getSubject());
+				for (int j = 0; j < t.facts.size(); j++) {
+					edges[x] = add(edges[x], numEdges[x]++,
+						((long) t.facts.key(j) << 32) | a);
+				}
+			}
+		}
+		final int[] next = new int[1];
+		parallel(new Task() {
+			public void run(int j) throws IOException {
+				CertGraph.LongIntMap meets = new CertGraph.LongIntMap();
+				for (;;) {
+					int x;
+					synchronized (next) {
+						if (next[0] == issuers.size()) {
+							return;
+						}
+						x = ((Integer) issuers.get(next[0]++)).intValue();
+					}
+					resolveAuths(x, edges, numEdges, meets, sinks[j]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Computes the auth closure of one issuer.
+	 *
+	 * @param  meets the intersections of tags computed so far by the
+	 *         current thread, by pair of tag ids.
+	 */
+	private void resolveAuths(
+		int x,
+		long[][] edges,
+		int[] numEdges,
+		CertGraph.LongIntMap meets,
+		Sink sink)
+		throws IOException {
+		Principal issuer = principal(x);
+		CertGraph.LongIntMap seen = new CertGraph.LongIntMap();
+		long[] delta = new long[numEdges[x]];
+		int size = 0;
+		for (int i = 0; i < numEdges[x]; i++) {
+			long a = edges[x][i];
+			if (seen.get(a) < 0) {
+				seen.put(a, 0);
+				delta[size++] = a;
+				write(issuer, a, sink);
+			}
+		}
+		while (size > 0) {
+			long[] found = new long[16];
+			int numFound = 0;
+			for (int i = 0; i < size; i++) {
+				long a = delta[i];
+				if ((a & 1) == 0) {
+					continue;
+				}
+				int s = (int) (a >>> 32);
+				int t = (int) (a >>> 1) & 0x7fffffff;
+				for (int e = 0; e < numEdges[s]; e++) {
+					long b = edges[s][e];
+					int m = meet(t, (int) (b >>> 1) & 0x7fffffff, meets);
+					if (m < 0) {
+						continue;
+					}
+					long c = (b & 0xffffffff00000001L) | ((long) m << 1);
+					if (seen.get(c) < 0) {
+						seen.put(c, 0);
+						found = add(found, numFound++, c);
+						write(issuer, c, sink);
+					}
+				}
+			}
+			delta = found;
+			size = numFound;
+		}
+	}
+
+	/**
+	 * Writes the statement that an issuer grants an authorization.
+	 */
+	private void write(Principal issuer, long a, Sink sink)
+		throws IOException {
+		sink.write(
+			new AuthCert(
+				issuer,
+				principal((int) (a >>> 32)),
+				null,
+				null,
+				null,
+				tag((int) (a >>> 1) & 0x7fffffff),
+				(a & 1) != 0));
+	}
+
+	/**
+	 * Returns the id of the intersection of two tags, or -1 if it is
+	 * empty.
+	 */
+	private int meet(int t1, int t2, CertGraph.LongIntMap meets) {
+		long key = ((long) t1 << 32) | t2;
+		int m = meets.get(key);
+		if (m == -1) {
+			Tag t = tag(t1).intersect(tag(t2));
+			m = (t == Tag.NULL_TAG) ? -2 : tagId(t);
+			meets.put(key, m);
+		}
+		return (m < 0) ? -1 : m;
+	}
+
+	/**
+	 * Returns the id of a principal, giving it one if needed.
+	 */
+	private int id(Principal p) {
+		Integer i = (Integer) principalIds.get(p);
+		if (i == null) {
+			i = new Integer(principals.size());
+			principalIds.put(p, i);
+			principals.add(p);
+		}
+		return i.intValue();
+	}
+
+	private Principal principal(int id) {
+		return (Principal) principals.get(id);
+	}
+
+	/**
+	 * Returns the id of a tag, giving it one if needed.
+	 */
+	private int tagId(Tag t) {
+		synchronized (tagIds) {
+			Integer i = (Integer) tagIds.get(t);
+			if (i == null) {
+				i = new Integer(tags.size());
+				tagIds.put(t, i);
+				tags.add(t);
+			}
+			return i.intValue();
+		}
+	}
+
+	private Tag tag(int id) {
+		synchronized (tagIds) {
+			return (Tag) tags.get(id);
+		}
+	}
+
+	/**
+	 * Sets an element of an array, growing it if needed.
+	 */
+	private static long[] add(long[] a, int i, long x) {
+		if (i == a.length) {
+			long[] b = new long[2 * a.length];
+			System.arraycopy(a, 0, b, 0, a.length);
+			a = b;
+		}
+		a[i] = x;
+		return a;
+	}
+
+	/**
+	 * Runs a task on every thread, and waits for all of them to finish.
+	 * The current thread is thread 0.
+	 */
+	private void parallel(final Task task) throws IOException {
+		final Throwable[] failure = new Throwable[1];
+		Thread[] ts = new Thread[threads - 1];
+		for (int i = 0; i < ts.length; i++) {
+			final int j = i + 1;
+			ts[i] = new Thread("ClosureEvaluator-" + j) {
+				public void run() {
+					try {
+						task.run(j);
+					} catch (Throwable t) {
+						synchronized (failure) {
+							if (failure[0] == null) {
+								failure[0] = t;
+							}
+						}
+					}
+				}
+			};
+			ts[i].setDaemon(true);
+			ts[i].start();
+		}
+		try {
+			task.run(0);
+		} finally {
+			for (int i = 0; i < ts.length; i++) {
+				try {
+					ts[i].join();
+				} catch (InterruptedException e) {
+					throw new Error(e);
+				}
+			}
+		}
+		if (failure[0] instanceof IOException) {
+			throw (IOException) failure[0];
+		}
+		if (failure[0] instanceof RuntimeException) {
+			throw (RuntimeException) failure[0];
+		}
+		if (failure[0] != null) {
+			throw (Error) failure[0];
+		}
+	}
+
+	/**
+	 * Writes the closure of the certificates in a cert file (as read by
+	 * <code>Loader</code>) to a file.
+	 *
+	 * @param  args the input file, the output file, and optionally the
+	 *         number of threads.
+	 * @throws Exception if an error occurs.
+	 */
+	public static void main(String[] args) throws Exception {
+		Provider.install();
+		if (args.length != 2 && args.length != 3) {
+			System.err.println(
+				"usage: java ClosureEvaluator <input-file> <output-file> "
+					+ "[threads]");
+			return;
+		}
+		Loader l = new Loader(args[0]);
+		ClosureEvaluator e =
+			new ClosureEvaluator(
+				((CollectionCertStoreParameters) l
+					.getCertStore()
+					.getCertStoreParameters())
+					.getCollection());
+		if (args.length == 3) {
+			e.setThreads(Integer.parseInt(args[2]));
+		}
+		OutputStream out =
+			new BufferedOutputStream(new FileOutputStream(args[1]));
+		long start = System.currentTimeMillis();
+		try {
+			e.evaluate(out);
+		} finally {
+			out.close();
+		}
+		System.out.println(
+			e.getNumNameStatements()
+				+ " name and "
+				+ e.getNumAuthStatements()
+				+ " auth statements in "
+				+ e.getRounds()
+				+ " rounds, "
+				+ (System.currentTimeMillis() - start)
+				+ " ms");
+	}
+}
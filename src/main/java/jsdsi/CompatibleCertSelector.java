@@ -42,7 +42,9 @@ public class CompatibleCertSelector extends CertSelector {
 	 * @see java.lang.Object#clone()
 	 */
 	public Object clone() {
-		return new CompatibleCertSelector(issuer, name);
+		CertSelector s = new CompatibleCertSelector(issuer, name);
+		s.setValidity(getValidity());
+		return s;
 	}
 
 	/**
@@ -56,7 +58,8 @@ public class CompatibleCertSelector extends CertSelector {
 		return (cert.getCert().getSubject() instanceof Name)
 			&& ((Name) cert.getCert().getSubject()).getIssuer().samePrincipalAs(
 				issuer)
-			&& ((Name) cert.getCert().getSubject()).getNames()[0].equals(name);
+			&& ((Name) cert.getCert().getSubject()).getNames()[0].equals(name)
+			&& matchValidity(cert);
 	}
 
 	/**
@@ -13,7 +13,6 @@
  */
 package jsdsi;
 
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -33,39 +32,50 @@ class FProver extends Prover {
 	/**
 	 * Certificates for all issuers.
 	 */
-	Set loadedIssuer = new HashSet();
+	Set loadedIssuer;
 
 	/**
 	 * Certificates for issuers->name-string.
 	 */
-	Set loadedValue = new HashSet();
+	Set loadedValue;
 
 	/**
 	 * @see jsdsi.Prover#Prover(Cert, java.security.cert.CertStore)
 	 */
 	FProver(Cert c, java.security.cert.CertStore s) {
-		super(c, s);
+		this(c, s, new ProofCache.Closure(), true);
 	}
 
 	/**
-	 * @see jsdsi.Prover#makeProof()
+	 * @see jsdsi.Prover#Prover(Cert, java.security.cert.CertStore, ProofCache.Closure, boolean)
 	 */
-	Proof makeProof() {
-		try {
-			if (provee instanceof NameCert) {
-				loadValue(((NameCert) provee).getFullName());
-			} else {
-				loadIssuer(provee.getIssuer());
-			}
-		} catch (ProofFoundException e) {
-			return e.getProof();
+	FProver(
+		Cert c,
+		java.security.cert.CertStore s,
+		ProofCache.Closure cl,
+		boolean iterative) {
+		super(c, s, cl, iterative);
+		loadedIssuer = cl.loadedIssuer;
+		loadedValue = cl.loadedValue;
+	}
+
+	/**
+	 * @see jsdsi.Prover#seed()
+	 */
+	void seed() throws ProofFoundException {
+		if (provee instanceof NameCert) {
+			loadValue(((NameCert) provee).getFullName());
+		} else {
+			loadIssuer(provee.getIssuer());
 		}
-		return null;
 	}
 
 	/**
 	 * Loads all certificates for a given issuer from the cert store to this
-	 * <code>FProver</code>'s stored certificates.
+	 * <code>FProver</code>'s stored certificates.  When pruning an auth
+	 * statement, only the certificates whose tag covers its tag are
+	 * loaded, so that a store that indexes tags need not return the
+	 * others; a shared closure loads them all.
 	 * 
 	 * @param  i issuer to add the certificates from.
 	 * @return a set of this <code>FProver</code>'s certificates plus the
@@ -73,7 +83,12 @@ class FProver extends Prover {
 	 * @throws ProofFoundException if a <i>proof is found</i>.
 	 */
 	Set loadIssuer(Principal i) throws ProofFoundException {
-		CertSelector sel = new AuthCertSelector(i);
+		CertSelector sel =
+			(prune && provee instanceof AuthCert)
+				? new AuthCertSelector(
+					i,
+					new Auth(((AuthCert) provee).getTag(), false))
+				: new AuthCertSelector(i);
 		return load(loadedIssuer, i, sel, issuer);
 	}
 
@@ -92,112 +107,95 @@ class FProver extends Prover {
 	}
 
 	/**
-	 * @see jsdsi.Prover#insert(Proof)
+	 * @see jsdsi.Prover#expand(Proof)
 	 */
-	void insert(Proof p) throws ProofFoundException {
-		//System.out.println("INSERT("+p.hashCode()+"): "+p);
-		if (p.getCert().implies(provee)) {
-			//System.out.println("INSERT("+p.hashCode()+"): found proof!");
-			throw new ProofFoundException(p);
+	void expand(Proof p) throws ProofFoundException {
+		if (pruned(p)) {
+			return; // dead chain: its tag cannot cover provee's
 		}
-		if (!check.get(p.getCert()).isEmpty()) {
-			//System.out.println("INSERT("+p.hashCode()+"): already inserted");
-			return; // already have this proof
+		if (p.getCert().getSubject() instanceof Name) {
+			Name key = ((Name) p.getCert().getSubject()).prefix();
+			compatible.put(key, p);
+			// look up compatible certs, and compose
+			Set values = loadValue(key);
+			//System.out.println("INSERT("+p.hashCode()
+			//+"): inserting right-composed "+values.size());
+			Iterator i = values.iterator();
+			while (i.hasNext()) {
+				try {
+					insert(compose(p, (Proof) i.next()));
+				} catch (Proof.IncompatibleException e) {
+					//System.out.println("ignoring: "+e);
+				}
+			}
+			return;
 		}
-		check.put(p.getCert(), p);
 
-		try {
-			if (p.getCert().getSubject() instanceof Name) {
-				Name key = ((Name) p.getCert().getSubject()).prefix();
-				compatible.put(key, p);
-				// look up compatible certs, and compose
-				Set values = loadValue(key);
-				//System.out.println("INSERT("+p.hashCode()
-				//+"): inserting right-composed "+values.size());
-				Iterator i = values.iterator();
-				while (i.hasNext()) {
-					try {
-						insert(p.compose((Proof) i.next()));
-					} catch (Proof.IncompatibleException e) {
-						//System.out.println("ignoring: "+e);
-					}
+		if (p.getCert() instanceof NameCert) {
+			Name key = ((NameCert) p.getCert()).getFullName();
+			value.put(key, p);
+			// look up compatible certs, and compose
+			Set compats = compatible.get(key);
+			//System.out.println("INSERT("+p.hashCode()
+			//+"): inserting left-composed "+compats.size());
+			Iterator i = compats.iterator();
+			while (i.hasNext()) {
+				try {
+					insert(compose((Proof) i.next(), p));
+				} catch (Proof.IncompatibleException e) {
+					//System.out.println("ignoring: "+e);
 				}
-				return;
 			}
+			return;
+		}
 
-			if (p.getCert() instanceof NameCert) {
-				Name key = ((NameCert) p.getCert()).getFullName();
-				value.put(key, p);
-				// look up compatible certs, and compose
-				Set compats = compatible.get(key);
-				//System.out.println("INSERT("+p.hashCode()
-				//+"): inserting left-composed "+compats.size());
-				Iterator i = compats.iterator();
+		if (p.getCert() instanceof AuthCert) {
+			issuer.put(p.getCert().getIssuer(), p);
+			reverse.put(p.getCert().getSubject(), p);
+
+			if (((AuthCert) p.getCert()).getPropagate()
+				&& (p.getCert().getSubject() instanceof Principal)) {
+				// search forwards locally to find auth chains
+				Set issuers = issuer.get(p.getCert().getSubject());
+				Iterator i = issuers.iterator();
 				while (i.hasNext()) {
 					try {
-						insert(((Proof) i.next()).compose(p));
+						insert(compose(p, (Proof) i.next()));
 					} catch (Proof.IncompatibleException e) {
-						//System.out.println("ignoring: "+e);
-					}
-				}
-				return;
-			}
-
-			if (p.getCert() instanceof AuthCert) {
-				issuer.put(p.getCert().getIssuer(), p);
-				reverse.put(p.getCert().getSubject(), p);
-
-				// TODO: optimize for provee:
-				// check whether p.tag implies provee.tag
-
-				if (((AuthCert) p.getCert()).getPropagate()
-					&& (p.getCert().getSubject() instanceof Principal)) {
-					// search forwards locally to find auth chains
-					Set issuers = issuer.get(p.getCert().getSubject());
-					Iterator i = issuers.iterator();
-					while (i.hasNext()) {
-						try {
-							insert(p.compose((Proof) i.next()));
-						} catch (Proof.IncompatibleException e) {
                             //System.out.println("ignoring: "+e);
-						}
 					}
 				}
+			}
 
-				// search backwards locally to find auth chains
-				Set reverses = reverse.get(p.getCert().getIssuer());
-				Iterator i = reverses.iterator();
-				while (i.hasNext()) {
-					try {
-						Proof pf = (Proof) i.next();
-						if ((pf.getCert() instanceof AuthCert)
-							&& ((AuthCert) pf.getCert()).getPropagate()
-							&& (pf.getCert().getSubject()
+			// search backwards locally to find auth chains
+			Set reverses = reverse.get(p.getCert().getIssuer());
+			Iterator i = reverses.iterator();
+			while (i.hasNext()) {
+				try {
+					Proof pf = (Proof) i.next();
+					if ((pf.getCert() instanceof AuthCert)
+						&& ((AuthCert) pf.getCert()).getPropagate()
+						&& (pf.getCert().getSubject()
                                 instanceof Principal)) {
-							insert(pf.compose(p));
-						}
-					} catch (Proof.IncompatibleException e) {
-                        //System.out.println("ignoring: "+e);
+						insert(compose(pf, p));
 					}
+				} catch (Proof.IncompatibleException e) {
+                        //System.out.println("ignoring: "+e);
 				}
-
-				if (((AuthCert) p.getCert()).getPropagate()
-					&& (p.getCert().getSubject() instanceof Principal)) {
-					// search forwards to find new auths
-					Subject s = p.getCert().getSubject();
-					//System.out.println("INSERT("+p.hashCode()
-					//+"): fetching issuer for "+s.hashCode());
-					loadIssuer((Principal) s);
-				}
-				return;
 			}
 
-			throw new Error(
-				"unhandled case: " + p.getCert().getClass().getName());
-		} catch (ProofFoundException e) {
-			// invalidate cache
-			check.remove(p.getCert(), p);
-			throw e;
+			if (((AuthCert) p.getCert()).getPropagate()
+				&& (p.getCert().getSubject() instanceof Principal)) {
+				// search forwards to find new auths
+				Subject s = p.getCert().getSubject();
+				//System.out.println("INSERT("+p.hashCode()
+				//+"): fetching issuer for "+s.hashCode());
+				loadIssuer((Principal) s);
+			}
+			return;
 		}
+
+		throw new Error(
+			"unhandled case: " + p.getCert().getClass().getName());
 	}
 }
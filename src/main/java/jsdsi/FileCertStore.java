@@ -0,0 +1,602 @@
+package jsdsi;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CertStoreException;
+import java.security.cert.CertStoreParameters;
+import java.security.cert.CertStoreSpi;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import jsdsi.sexp.SexpParser;
+import jsdsi.util.DigestUtils;
+
+/**
+ * A certificate store for SPKI/SDSI certificates kept on disk, for
+ * corpora too large to parse at startup or to hold on the heap.  The
+ * store is a directory holding:
+ * <ul>
+ * <li><code>certs</code>: the canonical S-expression of each
+ * certificate, preceded by its length.  Certificates are only ever
+ * appended to it.</li>
+ * <li><code>index.<i>n</i></code>: runs of index entries, one run per
+ * append.  An entry is a 64-bit key and the offset in
+ * <code>certs</code> of a certificate, and a run is sorted by key.  The
+ * key is made from the MD5 hash of what a certificate is looked up by:
+ * its subject, the local name its subject starts with, its full name
+ * (name certs) or its issuer (auth certs), as in
+ * <code>CertStore</code>.</li>
+ * </ul>
+ *
+ * <p>Opening a store maps its index runs into memory and reads nothing
+ * else.  A lookup binary-searches each run, reads only the certificates
+ * the entries found point at, and decodes and checks them against the
+ * selector.  So startup time and heap use do not grow with the number of
+ * certificates; the operating system pages the runs in as they are
+ * used.  When there are more than {@link #MAX_RUNS} runs, an append
+ * merges them into one.
+ *
+ * <p>Appends are made with {@link FileCertStoreParameters#append(Collection)}.
+ * They write the certificates, then the new run under a temporary name,
+ * and then rename it, so a store never sees part of an append, and an
+ * append that fails leaves nothing but unreferenced bytes behind.
+ * Appends lock the directory, so several processes may append to the
+ * same store.  A lookup notices appends made by other processes from the
+ * modification time of the directory, and opens their runs.  Lookups do
+ * not lock, and a store may be shared between threads.
+ *
+ * @see FileCertStoreParameters
+ * @see CertStore
+ *
+ * @version $Revision$ $Date$
+ */
+public class FileCertStore extends CertStoreSpi {
+	/**
+	 * The most runs a store keeps before they are merged.
+	 */
+	static final int MAX_RUNS = 8;
+
+	/**
+	 * Size of an index entry in bytes.
+	 */
+	private static final int ENTRY = 16;
+
+	/**
+	 * The most entries a run may hold, so that it can be mapped.
+	 */
+	private static final int MAX_ENTRIES = Integer.MAX_VALUE / ENTRY;
+
+	private static final String DATA = "certs";
+
+	private static final String INDEX = "index.";
+
+	private static final String LOCK = "lock";
+
+	private static final String TEMP = ".tmp";
+
+	/**
+	 * How long, in milliseconds, the modification time of a directory
+	 * may stay the same across a change, on file systems that keep
+	 * coarse times.
+	 */
+	private static final long SETTLE = 2000;
+
+	/**
+	 * Key kinds, hashed in front of the key object.
+	 */
+	private static final byte SUBJECT = 0;
+
+	private static final byte COMPATIBLE = 1;
+
+	private static final byte NAME = 2;
+
+	private static final byte AUTH = 3;
+
+	/**
+	 * The index runs a store reads, the files they were mapped from, and
+	 * the version of the parameters and modification time of the
+	 * directory they were opened at.
+	 */
+	private static class Runs {
+		final ByteBuffer[] runs;
+
+		final File[] files;
+
+		final long version;
+
+		final long modified;
+
+		Runs(ByteBuffer[] r, File[] f, long v, long m) {
+			runs = r;
+			files = f;
+			version = v;
+			modified = m;
+		}
+	}
+
+	private final FileCertStoreParameters params;
+
+	/**
+	 * The data file, <code>null</code> until it exists.
+	 */
+	private FileChannel data;
+
+	private volatile Runs runs;
+
+	/**
+	 * Opens the store in the directory named by the given parameters.
+	 *
+	 * @see java.security.cert.CertStoreSpi#CertStoreSpi(CertStoreParameters)
+	 *
+	 * @param  params the parameters of the store.
+	 * @throws InvalidAlgorithmParameterException if <code>params</code>
+	 *         are not <code>FileCertStoreParameters</code>, or the store
+	 *         cannot be read.
+	 */
+	public FileCertStore(CertStoreParameters params)
+		throws InvalidAlgorithmParameterException {
+		super(params);
+		try {
+			this.params = (FileCertStoreParameters) params;
+		} catch (ClassCastException e) {
+			throw (InvalidAlgorithmParameterException)
+				new InvalidAlgorithmParameterException().initCause(e);
+		}
+		try {
+			runs = open(this.params.getVersion());
+		} catch (IOException e) {
+			throw (InvalidAlgorithmParameterException)
+				new InvalidAlgorithmParameterException().initCause(e);
+		}
+	}
+
+	/**
+	 * Maps the runs in the directory of the store.
+	 */
+	private synchronized Runs open(long version) throws IOException {
+		File dir = params.getDirectory();
+		// read before listing, so that a later append shows as a change
+		long modified = dir.lastModified();
+		File[] files = null;
+		ByteBuffer[] r = null;
+		while (r == null) {
+			files = listRuns(dir);
+			r = new ByteBuffer[files.length];
+			try {
+				for (int i = 0; i < files.length; i++) {
+					r[i] = map(files[i]);
+				}
+			} catch (FileNotFoundException e) {
+				// merged away since it was listed: list again
+				r = null;
+			}
+		}
+		File f = new File(dir, DATA);
+		if (data == null && f.exists()) {
+			data = new RandomAccessFile(f, "r").getChannel();
+		}
+		return new Runs(r, files, version, modified);
+	}
+
+	/**
+	 * Returns whether the runs in the directory may have changed since
+	 * <code>r</code> was opened: the directory has been modified since,
+	 * or was modified too recently to tell by its time and lists other
+	 * runs.
+	 */
+	private boolean changed(Runs r) {
+		File dir = params.getDirectory();
+		long m = dir.lastModified();
+		if (m != r.modified) {
+			return true;
+		}
+		if (System.currentTimeMillis() - m >= SETTLE) {
+			return false;
+		}
+		return !Arrays.equals(listRuns(dir), r.files);
+	}
+
+	/**
+	 * Returns the runs to search, opening those appended through the
+	 * parameters or by other processes since the last lookup.
+	 */
+	private Runs runs() throws CertStoreException {
+		Runs r = runs;
+		long v = params.getVersion();
+		if (r.version != v || changed(r)) {
+			synchronized (this) {
+				r = runs;
+				if (r.version != v || changed(r)) {
+					try {
+						r = open(v);
+					} catch (IOException e) {
+						throw new CertStoreException(e);
+					}
+					runs = r;
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @see java.security.cert.CertStoreSpi#engineGetCertificates(CertSelector)
+	 */
+	public Collection engineGetCertificates(java.security.cert.CertSelector s)
+		throws CertStoreException {
+		if (!(s instanceof jsdsi.CertSelector)) {
+			throw new CertStoreException("requires jsdsi.CertSelector");
+		}
+		return engineGetCertificates((jsdsi.CertSelector) s);
+	}
+
+	/**
+	 * @see java.security.cert.CertStoreSpi#engineGetCertificates(CertSelector)
+	 */
+	public Collection engineGetCertificates(jsdsi.CertSelector s)
+		throws CertStoreException {
+		long key;
+		if (s instanceof SubjectCertSelector) {
+			key = key(SUBJECT, (Obj) ((SubjectCertSelector) s).getSubject());
+		} else if (s instanceof CompatibleCertSelector) {
+			key = key(COMPATIBLE, ((CompatibleCertSelector) s).getFullName());
+		} else if (s instanceof NameCertSelector) {
+			key = key(NAME, ((NameCertSelector) s).getFullName());
+		} else if (s instanceof AuthCertSelector) {
+			key = key(AUTH, ((AuthCertSelector) s).getIssuer());
+		} else {
+			throw new CertStoreException(
+				"unrecognized selector: " + s.getClass().getName());
+		}
+		Runs r = runs();
+		// read in file order; a merge in progress may list one twice
+		Set offsets = new TreeSet();
+		for (int i = 0; i < r.runs.length; i++) {
+			find(r.runs[i], key, offsets);
+		}
+		if (offsets.isEmpty()) {
+			return Collections.EMPTY_SET;
+		}
+		Set certs = new HashSet();
+		Iterator i = offsets.iterator();
+		while (i.hasNext()) {
+			Certificate c = read(((Long) i.next()).longValue());
+			// keys may collide, and auth certs must be checked by tag
+			if (s.match(c)) {
+				certs.add(c);
+			}
+		}
+		return Collections.unmodifiableSet(certs);
+	}
+
+	/**
+	 * @see java.security.cert.CertStoreSpi#engineGetCRLs(java.security.cert.CRLSelector)
+	 */
+	public Collection engineGetCRLs(java.security.cert.CRLSelector s)
+		throws CertStoreException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Adds the offsets of the entries of a run with a given key to a set.
+	 */
+	private static void find(ByteBuffer run, long key, Set offsets) {
+		int n = run.capacity() / ENTRY;
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (run.getLong(mid * ENTRY) < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		for (int i = lo; i < n && run.getLong(i * ENTRY) == key; i++) {
+			offsets.add(new Long(run.getLong(i * ENTRY + 8)));
+		}
+	}
+
+	/**
+	 * Reads and decodes the certificate at an offset of the data file.
+	 */
+	private Certificate read(long offset) throws CertStoreException {
+		try {
+			ByteBuffer len = ByteBuffer.allocate(4);
+			fill(len, offset);
+			byte[] bytes = new byte[len.getInt(0)];
+			fill(ByteBuffer.wrap(bytes), offset + 4);
+			return Certificate.fromSequence(
+				(Sequence) Obj.parseObj(new SexpParser(bytes).readSexp()));
+		} catch (IOException e) {
+			throw new CertStoreException(e);
+		} catch (java.security.cert.CertificateException e) {
+			throw new CertStoreException(e);
+		} catch (jsdsi.sexp.SexpException e) {
+			throw new CertStoreException(e);
+		} catch (jsdsi.sexp.SexpParseException e) {
+			throw new CertStoreException(e);
+		}
+	}
+
+	private void fill(ByteBuffer b, long offset) throws IOException {
+		while (b.hasRemaining()) {
+			if (data.read(b, offset + b.position()) < 0) {
+				throw new IOException("truncated certificate at " + offset);
+			}
+		}
+	}
+
+	/**
+	 * Returns the index key of an object.
+	 */
+	private static long key(byte kind, Obj o) {
+		byte[] bytes = o.toByteArray();
+		byte[] b = new byte[bytes.length + 1];
+		b[0] = kind;
+		System.arraycopy(bytes, 0, b, 1, bytes.length);
+		byte[] d = DigestUtils.md5(b);
+		long k = 0;
+		for (int i = 0; i < 8; i++) {
+			k = (k << 8) | (d[i] & 0xff);
+		}
+		return k;
+	}
+
+	/**
+	 * An index entry waiting to be written.
+	 */
+	private static class Entry implements Comparable {
+		final long key;
+
+		final long offset;
+
+		Entry(long k, long o) {
+			key = k;
+			offset = o;
+		}
+
+		public int compareTo(Object o) {
+			Entry e = (Entry) o;
+			if (key != e.key) {
+				return (key < e.key) ? -1 : 1;
+			}
+			return (offset < e.offset) ? -1 : (offset == e.offset) ? 0 : 1;
+		}
+	}
+
+	/**
+	 * Appends certificates to the store in a directory.
+	 *
+	 * @see FileCertStoreParameters#append(Collection)
+	 */
+	static int append(File dir, Collection certs) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create " + dir);
+		}
+		// FileLock only excludes other processes
+		synchronized (FileCertStore.class) {
+			RandomAccessFile lockFile =
+				new RandomAccessFile(new File(dir, LOCK), "rw");
+			try {
+				FileLock lock = lockFile.getChannel().lock();
+				try {
+					List entries = write(new File(dir, DATA), certs);
+					File[] files = listRuns(dir);
+					int next = (files.length == 0)
+						? 0
+						: number(files[files.length - 1]) + 1;
+					Entry[] e = (Entry[]) entries.toArray(new Entry[0]);
+					Arrays.sort(e);
+					writeRun(dir, next, e);
+					if (files.length + 1 > MAX_RUNS) {
+						merge(dir, next + 1);
+					}
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+		return certs.size();
+	}
+
+	/**
+	 * Appends certificates to the data file.
+	 *
+	 * @return the index <code>Entry</code>s of the certificates.
+	 */
+	private static List write(File f, Collection certs) throws IOException {
+		List entries = new ArrayList();
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			long offset = raf.length();
+			raf.seek(offset);
+			DataOutputStream out =
+				new DataOutputStream(
+					new BufferedOutputStream(
+						new FileOutputStream(raf.getFD())));
+			Iterator i = certs.iterator();
+			while (i.hasNext()) {
+				Certificate c = (Certificate) i.next();
+				byte[] bytes = c.getEncoded();
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				Cert cert = c.getCert();
+				if (cert.getSubject() instanceof Name) {
+					entries.add(new Entry(key(COMPATIBLE,
+						((Name) cert.getSubject()).prefix()), offset));
+				} else {
+					entries.add(new Entry(
+						key(SUBJECT, (Obj) cert.getSubject()), offset));
+				}
+				if (cert instanceof NameCert) {
+					entries.add(new Entry(
+						key(NAME, ((NameCert) cert).getFullName()), offset));
+				}
+				if (cert instanceof AuthCert) {
+					entries.add(new Entry(key(AUTH, cert.getIssuer()), offset));
+				}
+				offset += 4 + bytes.length;
+			}
+			out.flush();
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Writes a run under a temporary name, then renames it.
+	 */
+	private static void writeRun(File dir, int number, Entry[] entries)
+		throws IOException {
+		if (entries.length > MAX_ENTRIES) {
+			throw new IOException("too many certificates in one append");
+		}
+		File tmp = new File(dir, INDEX + number + TEMP);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(fos));
+			for (int i = 0; i < entries.length; i++) {
+				out.writeLong(entries[i].key);
+				out.writeLong(entries[i].offset);
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (!tmp.renameTo(new File(dir, INDEX + number))) {
+			throw new IOException("cannot rename " + tmp);
+		}
+	}
+
+	/**
+	 * Merges all the runs in a directory into a new one, unless it would
+	 * be too large to map.
+	 */
+	private static void merge(File dir, int number) throws IOException {
+		File[] files = listRuns(dir);
+		ByteBuffer[] r = new ByteBuffer[files.length];
+		int[] pos = new int[files.length];
+		long total = 0;
+		for (int i = 0; i < files.length; i++) {
+			r[i] = map(files[i]);
+			total += r[i].capacity() / ENTRY;
+		}
+		if (total > MAX_ENTRIES) {
+			return;
+		}
+		File tmp = new File(dir, INDEX + number + TEMP);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(fos));
+			while (true) {
+				int min = -1;
+				for (int i = 0; i < r.length; i++) {
+					if (pos[i] < r[i].capacity()
+						&& (min < 0 || less(r[i], pos[i], r[min], pos[min]))) {
+						min = i;
+					}
+				}
+				if (min < 0) {
+					break;
+				}
+				out.writeLong(r[min].getLong(pos[min]));
+				out.writeLong(r[min].getLong(pos[min] + 8));
+				pos[min] += ENTRY;
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (!tmp.renameTo(new File(dir, INDEX + number))) {
+			throw new IOException("cannot rename " + tmp);
+		}
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+	}
+
+	private static boolean less(ByteBuffer a, int i, ByteBuffer b, int j) {
+		long ka = a.getLong(i);
+		long kb = b.getLong(j);
+		return (ka < kb) || (ka == kb && a.getLong(i + 8) < b.getLong(j + 8));
+	}
+
+	/**
+	 * Maps a run into memory.
+	 */
+	private static ByteBuffer map(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			if (ch.size() % ENTRY != 0) {
+				throw new IOException("corrupt index run " + f);
+			}
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the runs in a directory, in the order they were written.
+	 */
+	private static File[] listRuns(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		List l = new ArrayList();
+		for (int i = 0; i < files.length; i++) {
+			if (number(files[i]) >= 0) {
+				l.add(files[i]);
+			}
+		}
+		File[] runs = (File[]) l.toArray(new File[0]);
+		Arrays.sort(runs, new java.util.Comparator() {
+			public int compare(Object a, Object b) {
+				return number((File) a) - number((File) b);
+			}
+		});
+		return runs;
+	}
+
+	/**
+	 * Returns the number of a run, or -1 if a file is not a run.
+	 */
+	private static int number(File f) {
+		String name = f.getName();
+		if (!name.startsWith(INDEX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(INDEX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
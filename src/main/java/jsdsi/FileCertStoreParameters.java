@@ -0,0 +1,97 @@
+package jsdsi;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.cert.CertStoreParameters;
+import java.util.Collection;
+
+/**
+ * Parameters for a {@link FileCertStore}: the directory holding its
+ * files.  Certificates appended through these parameters (or their
+ * clones, which share them) are seen by the stores created from them
+ * at their next lookup.  Certificates appended by other means are seen
+ * by the stores created afterwards.
+ *
+ * @see FileCertStore
+ *
+ * @version $Revision$ $Date$
+ */
+public class FileCertStoreParameters implements CertStoreParameters {
+	/**
+	 * Shared by clones.
+	 */
+	private static class State {
+		/**
+		 * Number of appends made through these parameters.
+		 */
+		volatile long version;
+	}
+
+	private final File directory;
+
+	private final State state;
+
+	/**
+	 * Creates new <code>FileCertStoreParameters</code> for a directory.
+	 * The directory is created by the first append if it does not exist.
+	 *
+	 * @param  dir the directory of the store.
+	 */
+	public FileCertStoreParameters(File dir) {
+		this(dir, new State());
+	}
+
+	private FileCertStoreParameters(File dir, State s) {
+		assert(dir != null) : "null directory";
+		directory = dir;
+		state = s;
+	}
+
+	/**
+	 * Returns the directory of the store.
+	 *
+	 * @return the directory.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Appends certificates to the store.  Lookups see either none of
+	 * them or all of them.
+	 *
+	 * @param  certs the <code>Certificate</code>s to append.
+	 * @return the number of certificates appended.
+	 * @throws IOException if the files of the store cannot be written.
+	 */
+	public int append(Collection certs) throws IOException {
+		synchronized (state) {
+			int n = FileCertStore.append(directory, certs);
+			state.version++;
+			return n;
+		}
+	}
+
+	/**
+	 * Returns the number of appends made through these parameters.
+	 */
+	long getVersion() {
+		return state.version;
+	}
+
+	/**
+	 * Returns parameters that share the appends of these ones.
+	 *
+	 * @see java.lang.Object#clone()
+	 */
+	public Object clone() {
+		return new FileCertStoreParameters(directory, state);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "FileCertStoreParameters: " + directory;
+	}
+}
@@ -0,0 +1,60 @@
+package jsdsi;
+
+/**
+ * A prover that answers from a compiled <code>CertGraph</code> instead
+ * of searching a <code>CertStore</code>.  The graph finds the path; this
+ * prover only hands the statement over and reports the result.
+ *
+ * @see CertGraph
+ * @see GraphCertPathParameters
+ *
+ * @version $Revision$ $Date$
+ */
+class GProver extends Prover {
+	/**
+	 * The graph to search.
+	 */
+	private CertGraph graph;
+
+	/**
+	 * Creates a new <code>GProver</code> for a given <code>Cert</code>
+	 * over a given graph.
+	 *
+	 * @param  c <code>Cert</code> for this prover.
+	 * @param  g the graph to search.
+	 */
+	GProver(Cert c, CertGraph g) {
+		super(c, null, new ProofCache.Closure(), false);
+		assert(!(c.getSubject() instanceof Name));
+		graph = g;
+	}
+
+	/**
+	 * @see jsdsi.Prover#makeProof()
+	 */
+	Proof makeProof() {
+		Proof pf = graph.prove(provee, stats);
+		if (pf != null) {
+			stats.expanded(pf.size());
+		}
+		return pf;
+	}
+
+	/**
+	 * Never called: the graph does the search.
+	 *
+	 * @see jsdsi.Prover#seed()
+	 */
+	void seed() {
+		throw new Error("GProver does not search a store");
+	}
+
+	/**
+	 * Never called: the graph does the search.
+	 *
+	 * @see jsdsi.Prover#expand(Proof)
+	 */
+	void expand(Proof p) {
+		throw new Error("GProver does not expand proofs");
+	}
+}
@@ -0,0 +1,57 @@
+package jsdsi;
+
+import java.security.InvalidAlgorithmParameterException;
+
+/**
+ * Specifies that the cert path builder should answer from a compiled
+ * <code>CertGraph</code> rather than search a <code>CertStore</code>.
+ * Essentially, tells the builder to use GProver.
+ *
+ * @see CertGraph
+ * @see GProver
+ *
+ * @version $Revision$ $Date$
+ */
+public class GraphCertPathParameters extends jsdsi.CertPathParameters {
+	/**
+	 * The graph to answer from.
+	 */
+	private CertGraph graph;
+
+	/**
+	 * Creates a new <code>GraphCertPathParameters</code> for a given
+	 * <code>Cert</code> and graph.
+	 *
+	 * @param  c the <code>Cert</code> to prove.
+	 * @param  g the graph to find the proof in.
+	 * @throws InvalidAlgorithmParameterException if the subject of
+	 *         <code>c</code> is a <code>Name</code>.
+	 */
+	public GraphCertPathParameters(Cert c, CertGraph g)
+		throws InvalidAlgorithmParameterException {
+		super(c, (java.security.cert.CertStore) null);
+		graph = g;
+	}
+
+	/**
+	 * Returns the graph to find the proof in.
+	 *
+	 * @return the graph to find the proof in.
+	 */
+	public CertGraph getCertGraph() {
+		return graph;
+	}
+
+	/**
+	 * @see java.lang.Object#clone()
+	 */
+	public Object clone() {
+		try {
+			return new GraphCertPathParameters(getCert(), graph);
+		} catch (InvalidAlgorithmParameterException e) {
+			throw (IllegalStateException) new IllegalStateException()
+				.initCause(
+				e);
+		}
+	}
+}
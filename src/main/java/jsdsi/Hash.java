@@ -56,6 +56,11 @@ public class Hash extends Obj {
 	 */
 	private transient final URI[] uris;
 
+	/**
+	 * Hash code, computed when first needed (0 until then).
+	 */
+	private transient int hash;
+
 	/**
 	 * Creates a new <code>Hash</code>.
 	 * 
@@ -235,9 +240,13 @@ public class Hash extends Obj {
 	}
 
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if (o instanceof Hash) {
 			Hash h = (Hash) o;
-			return this.digest.equals(h.digest)
+			return hashCode() == h.hashCode()
+				&& this.digest.equals(h.digest)
 				&& java.util.Arrays.equals(data, h.data)
 				&& Util.equals(uris, h.uris);
 		}
@@ -249,7 +258,10 @@ public class Hash extends Obj {
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		return this.digest.hashCode() ^ Util.hashCode(this.data) ^ Util.hashCode(this.uris);
+		if (hash == 0) {
+			hash = this.digest.hashCode() ^ Util.hashCode(this.data) ^ Util.hashCode(this.uris);
+		}
+		return hash;
 	}
 
 	public SexpList toSexp() {
@@ -268,7 +280,7 @@ public class Hash extends Obj {
 		DigestAlgoEnum digest = calculateDigestEnum(algo);
 		byte[] data = SexpUtil.getNextByteArray(hbody, "hash data");
 		SexpUtil.checkDone(hbody, "hash"); // TODO: support URIs
-		return new Hash(digest, data, null);
+		return (Hash) Interner.canonical(new Hash(digest, data, null));
 	}
 	
 	/**
@@ -0,0 +1,288 @@
+package jsdsi;
+
+import java.security.cert.CertStoreException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Enumerates the principals that hold an authorization: those to which
+ * an issuer grants a tag, directly or through a chain of auth and name
+ * certs.  Instead of proving the authorization for one candidate
+ * principal at a time, the iterator walks the certs forward from the
+ * issuer once, breadth first, and returns a proof for each principal as
+ * soon as it reaches it.  Only certs whose tags cover the tag asked
+ * about are fetched, so the walk never leaves the part of the graph that
+ * can grant it.
+ *
+ * <p>Each element is a <code>Proof</code> of an <code>AuthCert</code>
+ * from the issuer to a principal, whose tag covers the tag asked about;
+ * the principal is its subject.  Each principal is returned once, with
+ * one of the shortest chains that authorize it.  The proofs found are
+ * not checked for validity.
+ *
+ * @see FProver
+ *
+ * @version $Revision$ $Date$
+ */
+public class HolderIterator implements Iterator {
+	/**
+	 * The tag asked about.
+	 */
+	private final Tag tag;
+
+	/**
+	 * The <code>CertStore</code> to fetch certificates from.
+	 */
+	private final java.security.cert.CertStore store;
+
+	/**
+	 * Proofs still to be expanded, in the order they were found.
+	 */
+	private final LinkedList work = new LinkedList();
+
+	/**
+	 * The statements of the proofs already expanded.
+	 */
+	private final Set expanded = new HashSet();
+
+	/**
+	 * The principals already returned (or about to be).
+	 */
+	private final Set held = new HashSet();
+
+	/**
+	 * principal -> auth certs it issued that cover <code>tag</code>
+	 */
+	private final Map auths = new HashMap();
+
+	/**
+	 * The local names whose name certs have been fetched.
+	 */
+	private final Set loadedValue = new HashSet();
+
+	/**
+	 * name -> set of proof(name -> principal)
+	 */
+	private final MultiMap value = new MultiMap();
+
+	/**
+	 * name -> set of proof(issuer -> name+X or LHS -> name+X)
+	 */
+	private final MultiMap compatible = new MultiMap();
+
+	/**
+	 * The next proof to return, if already found.
+	 */
+	private Proof next;
+
+	/**
+	 * Statistics of the walk so far.
+	 */
+	private final CertPathBuilderStats stats = new CertPathBuilderStats();
+
+	/**
+	 * Creates a new <code>HolderIterator</code> over the principals to
+	 * which an issuer grants a tag.
+	 *
+	 * @param  i the issuer.
+	 * @param  t the tag.
+	 * @param  s the <code>CertStore</code> to fetch certificates from.
+	 */
+	public HolderIterator(
+		Principal i,
+		Tag t,
+		java.security.cert.CertStore s) {
+		tag = t;
+		store = s;
+		Iterator ci = auths(i).iterator();
+		while (ci.hasNext()) {
+			add(new Proof((Certificate) ci.next()));
+		}
+	}
+
+	/**
+	 * @see java.util.Iterator#hasNext()
+	 */
+	public boolean hasNext() {
+		advance();
+		return next != null;
+	}
+
+	/**
+	 * Returns the proof for the next principal found.
+	 *
+	 * @see java.util.Iterator#next()
+	 */
+	public Object next() {
+		return nextProof();
+	}
+
+	/**
+	 * Returns the proof for the next principal found.
+	 *
+	 * @return a proof of an <code>AuthCert</code> from the issuer to the
+	 *         principal, whose tag covers the tag asked about.
+	 * @throws NoSuchElementException if there are no more principals.
+	 */
+	public Proof nextProof() {
+		advance();
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		Proof p = next;
+		next = null;
+		return p;
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see java.util.Iterator#remove()
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the statistics of the walk so far.
+	 *
+	 * @return the statistics of the walk so far.
+	 */
+	public CertPathBuilderStats getStats() {
+		stats.peakIndexSize = value.peakSize() + compatible.peakSize();
+		return stats;
+	}
+
+	/**
+	 * Expands proofs until one of them authorizes a principal not yet
+	 * returned, or there are none left.
+	 */
+	private void advance() {
+		while (next == null && !work.isEmpty()) {
+			Proof p = (Proof) work.removeFirst();
+			if (!expanded.add(p.getCert())) {
+				stats.numDuplicates++;
+				continue;
+			}
+			stats.expanded(p.size());
+			expand(p);
+		}
+	}
+
+	/**
+	 * Indexes a proof and adds every proof that can be composed from it
+	 * and the proofs already indexed, fetching certificates as needed.
+	 */
+	private void expand(Proof p) {
+		Cert c = p.getCert();
+		if (c.getSubject() instanceof Name) {
+			Name key = ((Name) c.getSubject()).prefix();
+			compatible.put(key, p);
+			Iterator i = value.get(key).iterator();
+			while (i.hasNext()) {
+				add(compose(p, (Proof) i.next()));
+			}
+			if (loadedValue.add(key)) {
+				Iterator ci =
+					fetch(
+						new NameCertSelector(
+							key.getIssuer(),
+							key.getNames()[0]))
+						.iterator();
+				while (ci.hasNext()) {
+					add(new Proof((Certificate) ci.next()));
+				}
+			}
+			return;
+		}
+		if (c instanceof NameCert) {
+			Name key = ((NameCert) c).getFullName();
+			value.put(key, p);
+			Iterator i = compatible.get(key).iterator();
+			while (i.hasNext()) {
+				add(compose((Proof) i.next(), p));
+			}
+			return;
+		}
+		if (!(c.getSubject() instanceof Principal)) {
+			return; // threshold subjects are not followed
+		}
+		AuthCert a = (AuthCert) c;
+		if (held.add(a.getSubject())) {
+			next = p;
+		}
+		if (a.getPropagate()) {
+			Iterator ci = auths((Principal) a.getSubject()).iterator();
+			while (ci.hasNext()) {
+				add(compose(p, new Proof((Certificate) ci.next())));
+			}
+		}
+	}
+
+	/**
+	 * Queues a proof for expansion, unless it is <code>null</code> or
+	 * its tag no longer covers the tag asked about.
+	 */
+	private void add(Proof p) {
+		if (p == null) {
+			return;
+		}
+		if ((p.getCert() instanceof AuthCert)
+			&& !((AuthCert) p.getCert()).getTag().implies(tag)) {
+			stats.numPruned++;
+			return;
+		}
+		work.addLast(p);
+	}
+
+	/**
+	 * Composes two proofs.
+	 *
+	 * @return the composition, or <code>null</code> if the proofs do not
+	 *         compose.
+	 */
+	private Proof compose(Proof lhs, Proof rhs) {
+		stats.numComposed++;
+		try {
+			return lhs.compose(rhs);
+		} catch (Proof.IncompatibleException e) {
+			stats.numIncompatible++;
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the auth certs issued by a principal that cover the tag
+	 * asked about.
+	 */
+	private Collection auths(Principal i) {
+		Collection c = (Collection) auths.get(i);
+		if (c == null) {
+			c = fetch(new AuthCertSelector(i, new Auth(tag, false)));
+			auths.put(i, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Fetches the certificates for a selector from the store.
+	 */
+	private Collection fetch(CertSelector sel) {
+		try {
+			long start = System.currentTimeMillis();
+			Collection c = new ArrayList(store.getCertificates(sel));
+			stats.fetchTime += System.currentTimeMillis() - start;
+			stats.numFetched += c.size();
+			return c;
+		} catch (CertStoreException e) {
+			throw new Error(e);
+		}
+	}
+}
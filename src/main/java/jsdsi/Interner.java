@@ -0,0 +1,111 @@
+package jsdsi;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of canonical SPKI/SDSI objects.  {@link #intern(Obj)} returns,
+ * for any object, the one instance in the pool that equals it.  Keys,
+ * names and tags are compared on every lookup in the indexes of a cert
+ * path builder; when equal objects are the same instance, these
+ * comparisons stop at the identity check and do not walk moduli, name
+ * strings or hash values, and a large cert graph holds each principal
+ * and name once.
+ *
+ * <p>Interning is off by default.  When it is on (see
+ * {@link #setEnabled(boolean)}), the principals, names, hashes and tags
+ * parsed from S-expressions, and the names built when proofs are
+ * composed, are interned as they are created.  Objects built by
+ * applications can be interned by calling <code>intern</code>.  The pool
+ * only holds its objects weakly, so objects no longer in use elsewhere
+ * are dropped from it.
+ *
+ * @version $Revision$ $Date$
+ */
+public class Interner {
+	/**
+	 * The pool: maps each canonical object to a weak reference to itself.
+	 */
+	private static final Map pool = new WeakHashMap();
+
+	/**
+	 * Whether parsed and composed objects are interned.
+	 */
+	private static volatile boolean enabled = false;
+
+	/**
+	 * Not instantiable.
+	 */
+	private Interner() {
+	}
+
+	/**
+	 * Starts or stops interning objects as they are parsed or composed.
+	 *
+	 * @param  on <code>true</code> to intern objects.
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	/**
+	 * Returns whether objects are interned as they are parsed or composed.
+	 *
+	 * @return <code>true</code> if interning is on.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the canonical instance of an object, adding the object to
+	 * the pool if there is none yet.
+	 *
+	 * @param  o the object to intern.
+	 * @return the object in the pool that equals <code>o</code>.
+	 */
+	public static Obj intern(Obj o) {
+		synchronized (pool) {
+			WeakReference r = (WeakReference) pool.get(o);
+			Obj c = (r == null) ? null : (Obj) r.get();
+			if (c == null) {
+				pool.put(o, new WeakReference(o));
+				c = o;
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * Returns the canonical instance of an object if interning is on, or
+	 * the object itself if not.  Called where objects are parsed or
+	 * composed.
+	 *
+	 * @param  o the object just created.
+	 * @return the object to use in place of <code>o</code>.
+	 */
+	static Obj canonical(Obj o) {
+		return enabled ? intern(o) : o;
+	}
+
+	/**
+	 * Returns the number of objects in the pool.
+	 *
+	 * @return the number of objects in the pool.
+	 */
+	public static int size() {
+		synchronized (pool) {
+			return pool.size();
+		}
+	}
+
+	/**
+	 * Empties the pool.
+	 */
+	public static void clear() {
+		synchronized (pool) {
+			pool.clear();
+		}
+	}
+}
@@ -33,4 +33,12 @@ public class IssuerCertPathParameters extends jsdsi.CertPathParameters {
 		throws InvalidAlgorithmParameterException {
 		super(c, s);
 	}
+
+	/**
+	 * @see jsdsi.CertPathParameters#CertPathParameters(Cert, ProofCache)
+	 */
+	public IssuerCertPathParameters(Cert c, ProofCache pc)
+		throws InvalidAlgorithmParameterException {
+		super(c, pc);
+	}
 }
\ No newline at end of file
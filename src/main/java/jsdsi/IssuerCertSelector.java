@@ -34,7 +34,9 @@ public class IssuerCertSelector extends CertSelector {
 	 * @see java.lang.Object#clone()
 	 */
 	public Object clone() {
-		return new IssuerCertSelector(issuer);
+		CertSelector s = new IssuerCertSelector(issuer);
+		s.setValidity(getValidity());
+		return s;
 	}
 
 	/**
@@ -43,7 +45,8 @@ public class IssuerCertSelector extends CertSelector {
 	 * @see java.security.cert.CertSelector#match(Certificate)
 	 */
 	public boolean match(jsdsi.Certificate cert) {
-		return cert.getCert().getIssuer().samePrincipalAs(issuer);
+		return cert.getCert().getIssuer().samePrincipalAs(issuer)
+			&& matchValidity(cert);
 	}
 
 	/**
@@ -14,6 +14,7 @@
 package jsdsi;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -33,13 +34,55 @@ class MultiMap {
 	 */
 	Map map = new HashMap();
 
+	/**
+	 * Number of values in all sets.
+	 */
+	int size = 0;
+
+	/**
+	 * Largest value <code>size</code> has had.
+	 */
+	int peak = 0;
+
+	/**
+	 * Returns the number of values in this <code>MultiMap</code>, counting
+	 * a value once for each key it has been put with.
+	 * 
+	 * @return the number of values.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the largest number of values this <code>MultiMap</code>
+	 * has held.
+	 * 
+	 * @return the peak number of values.
+	 */
+	public int peakSize() {
+		return peak;
+	}
+
+	/**
+	 * Records a change in the number of values.
+	 * 
+	 * @param  n number of values added (negative if removed).
+	 */
+	void resize(int n) {
+		size += n;
+		if (size > peak) {
+			peak = size;
+		}
+	}
+
 	/**
 	 * Returns the <code>Set</code> for a given key. If the key hasn't been
 	 * previously inserted with the put-method an empty set is returned.
 	 * 
 	 * @see #put(Object, Object)
 	 * 
-	 * @param  key key so return the set for.
+	 * @param  key key to return the set for.
 	 * @return the set that has been added with key <code>key</code>
 	 *         previously.
 	 */
@@ -52,6 +95,24 @@ class MultiMap {
 		return set;
 	}
 
+	/**
+	 * Returns the <code>Set</code> for a given key, like {@link #get(Object)},
+	 * but without adding an entry for a key that has none.  Unlike
+	 * <code>get</code>, this may be called by several threads at once
+	 * as long as no thread modifies the map.
+	 * 
+	 * @param  key key to return the set for.
+	 * @return the set that has been added with key <code>key</code>
+	 *         previously, or an empty set.
+	 */
+	public Set find(Object key) {
+		Set set = (Set) map.get(key);
+		if (set == null) {
+			return Collections.EMPTY_SET;
+		}
+		return set;
+	}
+
 	/**
 	 * Adds a <code>Set</code> for a given key to this <code>MultiMap</code>.
 	 * 
@@ -59,7 +120,29 @@ class MultiMap {
 	 * @param  value set to add with key <code>key</code>.
 	 */
 	public void put(Object key, Object value) {
-		get(key).add(value);
+		if (get(key).add(value)) {
+			resize(1);
+		}
+	}
+
+	/**
+	 * Adds a value for a given key, unless the set for the key already
+	 * holds a value.
+	 * 
+	 * @param  key key to add the value for.
+	 * @param  value value to add with key <code>key</code>.
+	 * @return <code>true</code> if <code>value</code> was added,
+	 *         <code>false</code> if the set for <code>key</code> was not
+	 *         empty.
+	 */
+	public boolean putIfAbsent(Object key, Object value) {
+		Set set = get(key);
+		if (!set.isEmpty()) {
+			return false;
+		}
+		set.add(value);
+		resize(1);
+		return true;
 	}
 
 	/**
@@ -70,7 +153,10 @@ class MultiMap {
 	 * @param  coll collection to add for <code>key</code>.
 	 */
 	public void putAll(Object key, Collection coll) {
-		get(key).addAll(coll);
+		Set set = get(key);
+		int n = set.size();
+		set.addAll(coll);
+		resize(set.size() - n);
 	}
 
 	/**
@@ -81,6 +167,8 @@ class MultiMap {
 	 *         <code>key</code>.
 	 */
 	public void remove(Object key, Object value) {
-		get(key).remove(value);
+		if (get(key).remove(value)) {
+			resize(-1);
+		}
 	}
-}
\ No newline at end of file
+}
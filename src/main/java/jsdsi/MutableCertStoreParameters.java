@@ -0,0 +1,350 @@
+package jsdsi;
+
+import java.security.cert.CertStoreParameters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+/**
+ * Parameters for an SPKI <code>CertStore</code> whose certificates can
+ * be added and removed while it is in use.  The store reads the
+ * certificates from these parameters at every lookup, so whatever is
+ * added or removed here is seen by every store created from them (and
+ * from their clones, which share the same certificates).
+ *
+ * <p>Each change makes a new version of the store's indexes, copying
+ * only the parts of them it touches, and then publishes it.  A lookup
+ * reads whichever version is current when it starts, and sees all of
+ * it: readers never lock, and are never blocked by a change.  Changes
+ * are applied one at a time.
+ *
+ * <p>A search that does many lookups may see several versions.  To
+ * search one version throughout, build against a store created from a
+ * {@link #snapshot()}.  A <code>ProofCache</code> for a store created
+ * from <code>MutableCertStoreParameters</code> notices changes by itself
+ * (see {@link #getVersion()}).
+ *
+ * <p>The store also keeps its certificates by the time they expire, so
+ * that {@link #sweep(Date)} can remove the expired ones without looking
+ * at the rest, and {@link #startSweeper(long)} can do so in the
+ * background.  Lookups skip certificates that are not valid as their
+ * selector asks (see {@link CertSelector#setValidity(Validity)}) whether
+ * or not they have been swept.
+ *
+ * @see CertStore
+ * @see ProofCache
+ *
+ * @version $Revision$ $Date$
+ */
+public class MutableCertStoreParameters implements CertStoreParameters {
+	/**
+	 * The certificates, shared by clones.
+	 */
+	private static class State {
+		/**
+		 * The current version of the indexes.
+		 */
+		volatile CertIndex index;
+
+		/**
+		 * Number of changes made so far.
+		 */
+		volatile long version;
+
+		/**
+		 * notAfter (as a <code>Long</code>) -> <code>List</code> of the
+		 * certificates that expire then, or <code>null</code> until it
+		 * is needed.
+		 */
+		TreeMap expiry;
+
+		/**
+		 * The timer that sweeps expired certificates, if any.
+		 */
+		Timer sweeper;
+
+		State(CertIndex i, long v) {
+			index = i;
+			version = v;
+		}
+	}
+
+	private final State state;
+
+	/**
+	 * Creates new, empty <code>MutableCertStoreParameters</code>.
+	 */
+	public MutableCertStoreParameters() {
+		this(Collections.EMPTY_SET);
+	}
+
+	/**
+	 * Creates new <code>MutableCertStoreParameters</code> holding a
+	 * collection of certificates.
+	 *
+	 * @param  certs the <code>Certificate</code>s to start with.
+	 */
+	public MutableCertStoreParameters(Collection certs) {
+		state = new State(CertIndex.of(certs), 0);
+		state.expiry = expiry(state.index.getAll());
+	}
+
+	private MutableCertStoreParameters(State s) {
+		state = s;
+	}
+
+	/**
+	 * Adds a certificate.
+	 *
+	 * @param  c the certificate to add.
+	 * @return <code>true</code> if it was not already there.
+	 */
+	public boolean add(Certificate c) {
+		return addAll(Collections.singleton(c)) > 0;
+	}
+
+	/**
+	 * Removes a certificate.
+	 *
+	 * @param  c the certificate to remove.
+	 * @return <code>true</code> if it was there.
+	 */
+	public boolean remove(Certificate c) {
+		return removeAll(Collections.singleton(c)) > 0;
+	}
+
+	/**
+	 * Adds certificates.  Lookups see either none of them or all of them.
+	 *
+	 * @param  certs the <code>Certificate</code>s to add.
+	 * @return the number of certificates that were not already there.
+	 */
+	public int addAll(Collection certs) {
+		return change(certs, true);
+	}
+
+	/**
+	 * Removes certificates.  Lookups see either none of them or all of
+	 * them removed.
+	 *
+	 * @param  certs the <code>Certificate</code>s to remove.
+	 * @return the number of certificates that were there.
+	 */
+	public int removeAll(Collection certs) {
+		return change(certs, false);
+	}
+
+	/**
+	 * Makes and publishes a new version of the indexes.
+	 */
+	private int change(Collection certs, boolean add) {
+		synchronized (state) {
+			List changed = new ArrayList();
+			CertIndex index = state.index.change(certs, add, changed);
+			Iterator i = changed.iterator();
+			while (i.hasNext()) {
+				expire((Certificate) i.next(), add);
+			}
+			if (!changed.isEmpty()) {
+				state.index = index;
+				state.version++;
+			}
+			return changed.size();
+		}
+	}
+
+	/**
+	 * Returns the certificates of a collection by the time they expire.
+	 */
+	private static TreeMap expiry(Collection certs) {
+		TreeMap expiry = new TreeMap();
+		Iterator i = certs.iterator();
+		while (i.hasNext()) {
+			Certificate c = (Certificate) i.next();
+			Long t = notAfter(c);
+			if (t != null) {
+				List l = (List) expiry.get(t);
+				if (l == null) {
+					l = new ArrayList();
+					expiry.put(t, l);
+				}
+				l.add(c);
+			}
+		}
+		return expiry;
+	}
+
+	private static Long notAfter(Certificate c) {
+		Validity v = c.getCert().getValidity();
+		if (v == null || v.getNotAfter() == null) {
+			return null;
+		}
+		return new Long(v.getNotAfter().getTime());
+	}
+
+	/**
+	 * Adds a certificate to, or removes it from, the expiry index.  The
+	 * lock on the state must be held.
+	 */
+	private void expire(Certificate c, boolean add) {
+		Long t = notAfter(c);
+		if (t == null) {
+			return;
+		}
+		if (state.expiry == null) {
+			// a snapshot: build it for the new version
+			state.expiry = expiry(state.index.getAll());
+		}
+		List l = (List) state.expiry.get(t);
+		if (add) {
+			if (l == null) {
+				l = new ArrayList();
+				state.expiry.put(t, l);
+			}
+			l.add(c);
+		} else if (l != null) {
+			l.remove(c);
+			if (l.isEmpty()) {
+				state.expiry.remove(t);
+			}
+		}
+	}
+
+	/**
+	 * Removes the certificates that are no longer valid at a given
+	 * instant: those whose validity ends before it.  The certificates to
+	 * remove are found in an index of the certificates by the time they
+	 * expire, without looking at the others.
+	 *
+	 * @param  t the instant.
+	 * @return the number of certificates removed.
+	 */
+	public int sweep(Date t) {
+		synchronized (state) {
+			if (state.expiry == null) {
+				state.expiry = expiry(state.index.getAll());
+			}
+			List expired = new ArrayList();
+			Iterator i =
+				state.expiry.headMap(new Long(t.getTime())).values().iterator();
+			while (i.hasNext()) {
+				expired.addAll((List) i.next());
+			}
+			return removeAll(expired);
+		}
+	}
+
+	/**
+	 * Starts sweeping expired certificates from the store in the
+	 * background, on a daemon thread, replacing any sweeping started
+	 * before.
+	 *
+	 * @param  period milliseconds between sweeps.
+	 * @see #sweep(Date)
+	 */
+	public void startSweeper(long period) {
+		synchronized (state) {
+			stopSweeper();
+			state.sweeper = new Timer(true);
+			state.sweeper.schedule(new TimerTask() {
+				public void run() {
+					sweep(new Date());
+				}
+			}, period, period);
+		}
+	}
+
+	/**
+	 * Stops sweeping expired certificates, if it was started.
+	 */
+	public void stopSweeper() {
+		synchronized (state) {
+			if (state.sweeper != null) {
+				state.sweeper.cancel();
+				state.sweeper = null;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a certificate is in the store.
+	 *
+	 * @param  c the certificate.
+	 * @return <code>true</code> if the store contains <code>c</code>.
+	 */
+	public boolean contains(Certificate c) {
+		return state.index.contains(c);
+	}
+
+	/**
+	 * Returns the number of certificates in the store.
+	 *
+	 * @return the number of certificates.
+	 */
+	public int size() {
+		return state.index.size();
+	}
+
+	/**
+	 * Returns the certificates in the store.
+	 *
+	 * @return an unmodifiable collection of the <code>Certificate</code>s
+	 *         in the current version.
+	 */
+	public Collection getCertificates() {
+		return state.index.getAll();
+	}
+
+	/**
+	 * Returns the number of changes made so far.  It goes up by one for
+	 * each call to a method that changes the store.
+	 *
+	 * @return the version of the store.
+	 */
+	public long getVersion() {
+		return state.version;
+	}
+
+	/**
+	 * Returns new parameters holding the certificates of the current
+	 * version.  Changes made to either afterwards are not seen by the
+	 * other.
+	 *
+	 * @return a snapshot of these parameters.
+	 */
+	public MutableCertStoreParameters snapshot() {
+		synchronized (state) {
+			return new MutableCertStoreParameters(
+				new State(state.index, state.version));
+		}
+	}
+
+	/**
+	 * Returns the current version of the indexes.
+	 */
+	CertIndex getIndex() {
+		return state.index;
+	}
+
+	/**
+	 * Returns parameters that share the certificates of these ones.
+	 *
+	 * @see java.lang.Object#clone()
+	 */
+	public Object clone() {
+		return new MutableCertStoreParameters(state);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "MutableCertStoreParameters: " + size() + " certificates";
+	}
+}
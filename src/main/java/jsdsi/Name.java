@@ -46,6 +46,11 @@ public class Name extends Obj implements Subject {
 	 */
 	private transient final String[] names;
 
+	/**
+	 * Hash code, computed when first needed (0 until then).
+	 */
+	private transient int hash;
+
 	/**
 	 * Creates a new <code>Name</code> for a given principal and an array
 	 * of name-strings.
@@ -134,7 +139,7 @@ public class Name extends Obj implements Subject {
 		assert(i <= names.length) : "prefix too long";
 		String[] ns = new String[i];
 		System.arraycopy(names, 0, ns, 0, i);
-		return new Name(issuer, ns);
+		return (Name) Interner.canonical(new Name(issuer, ns));
 	}
 
 	/**
@@ -152,9 +157,14 @@ public class Name extends Obj implements Subject {
 	 * @see java.lang.Object#equals(Object)
 	 */
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if (o instanceof Name) {
 			Name n = (Name) o;
-			return issuer.equals(n.issuer) && Util.equals(names, n.names);
+			return hashCode() == n.hashCode()
+				&& issuer.equals(n.issuer)
+				&& Util.equals(names, n.names);
 		}
 		return false;
 	}
@@ -163,7 +173,10 @@ public class Name extends Obj implements Subject {
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		return issuer.hashCode() ^ Util.hashCode(names);
+		if (hash == 0) {
+			hash = issuer.hashCode() ^ Util.hashCode(names);
+		}
+		return hash;
 	}
 
 	public SexpList toSexp() {
@@ -239,7 +252,7 @@ public class Name extends Obj implements Subject {
 			throw new SexpParseException("relative name used without issuer");
 		}
 		SexpUtil.checkDone(nbody, "name"); // sanity check
-		return new Name(issuer, names);
+		return (Name) Interner.canonical(new Name(issuer, names));
 	}
 
 	// TODO: boolean sameNameAs(Name n)
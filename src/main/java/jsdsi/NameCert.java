@@ -37,6 +37,11 @@ public class NameCert extends Cert {
 	 */
 	private transient final String name;
 
+	/**
+	 * The full name, created when first needed.
+	 */
+	private transient Name fullName;
+
 	/**
 	 * Creates a new name certificate from a given principal, subject,
 	 * validity, display hint, comment, and (local) name.
@@ -73,20 +78,26 @@ public class NameCert extends Cert {
 	 * Returns the full name, that is the <code>Name</code> that is created 
 	 * with this issuer and the name-string.
 	 * 
-	 * @return a new <code>Name</code> created from this issuer and 
+	 * @return the <code>Name</code> created from this issuer and 
 	 *         name-string.
 	 */
 	public Name getFullName() {
-		return new Name(getIssuer(), new String[] { getName()});
+		if (fullName == null) {
+			fullName =
+				(Name) Interner.canonical(
+					new Name(getIssuer(), new String[] { getName()}));
+		}
+		return fullName;
 	}
 
 	/**
 	 * @see java.lang.Object#equals(Object)
 	 */
 	public boolean equals(Object o) {
-		return (o instanceof NameCert)
-			&& name.equals(((NameCert) o).name)
-			&& super.equals(o);
+		return (o == this)
+			|| ((o instanceof NameCert)
+				&& name.equals(((NameCert) o).name)
+				&& super.equals(o));
 	}
 
 	/**
@@ -37,7 +37,9 @@ public class NameCertSelector extends CertSelector {
 	 * @see java.lang.Object#clone()
 	 */
 	public Object clone() {
-		return new NameCertSelector(issuer, name);
+		CertSelector s = new NameCertSelector(issuer, name);
+		s.setValidity(getValidity());
+		return s;
 	}
 
 	/**
@@ -49,7 +51,8 @@ public class NameCertSelector extends CertSelector {
 	public boolean match(jsdsi.Certificate cert) {
 		return (cert.getCert() instanceof NameCert)
 			&& cert.getCert().getIssuer().samePrincipalAs(issuer)
-			&& ((NameCert) cert.getCert()).getName().equals(name);
+			&& ((NameCert) cert.getCert()).getName().equals(name)
+			&& matchValidity(cert);
 	}
 
 	/**
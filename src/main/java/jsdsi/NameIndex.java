@@ -0,0 +1,504 @@
+package jsdsi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A materialized index from names to the principals they stand for.
+ * For every local name defined by a name cert in the index, it keeps the
+ * full set of principals the name reduces to, and how each was derived,
+ * so that {@link #getProof(Name, Principal)} can return the chain of
+ * certificates behind it.  Group membership checks are index lookups
+ * instead of proof searches.
+ *
+ * <p>The index is kept up to date as name certs are added, removed or
+ * expire, without recomputing it from scratch.  An added cert only
+ * propagates the principals its subject stands for to the names that
+ * depend on it.  A removed cert first withdraws every principal that
+ * might have been derived through it, then derives again, from what is
+ * left, those that are still supported some other way, and propagates
+ * them.
+ *
+ * <p>Only certificates and names are considered: the validities of the
+ * certs are neither intersected nor checked, except that
+ * {@link #expire(Date)} removes the certs that are no longer valid.
+ *
+ * @see NameCert
+ *
+ * @version $Revision$ $Date$
+ */
+public class NameIndex {
+	/**
+	 * A name in the index, with the principals it stands for.
+	 */
+	private static class Term {
+		/**
+		 * The name.
+		 */
+		final Name name;
+
+		/**
+		 * Principal -> the <code>Fact</code> that it stands for it.
+		 */
+		final Map facts = new HashMap();
+
+		/**
+		 * The <code>Dep</code>s of the terms that depend on this one.
+		 */
+		final List deps = new ArrayList();
+
+		/**
+		 * The name certs that define this (local) name.
+		 */
+		final Set certs = new HashSet();
+
+		Term(Name n) {
+			name = n;
+		}
+	}
+
+	/**
+	 * That a term stands for a principal, and how it was derived: from
+	 * name cert <code>cert</code> whose subject is <code>from</code> (or
+	 * the principal itself if <code>from</code> is <code>null</code>), or,
+	 * for an extended name, from <code>x</code> standing for its first
+	 * name and from <code>from</code>, the rest of the name after
+	 * <code>x</code>.
+	 */
+	private static class Fact {
+		final Certificate cert;
+		final Principal x;
+		final Term from;
+
+		Fact(Certificate c, Principal p, Term t) {
+			cert = c;
+			x = p;
+			from = t;
+		}
+	}
+
+	/**
+	 * That term <code>target</code> stands for what the term this
+	 * <code>Dep</code> belongs to stands for: through name cert
+	 * <code>cert</code> (<code>COPY</code>), as its first name
+	 * (<code>EXTEND</code>), or as its rest after <code>x</code>
+	 * (<code>SUBSTITUTE</code>).
+	 */
+	private static class Dep {
+		final Term target;
+		final int kind;
+		final Certificate cert;
+		final Principal x;
+
+		Dep(Term t, int k, Certificate c, Principal p) {
+			target = t;
+			kind = k;
+			cert = c;
+			x = p;
+		}
+	}
+
+	private static final int COPY = 0, EXTEND = 1, SUBSTITUTE = 2;
+
+	/**
+	 * Name -> <code>Term</code>.
+	 */
+	private final Map terms = new HashMap();
+
+	/**
+	 * Expiry date -> set of the name certs that expire then.
+	 */
+	private final SortedMap expiry = new TreeMap();
+
+	/**
+	 * Facts still to propagate: pairs of <code>Term</code> and
+	 * <code>Principal</code>.
+	 */
+	private final LinkedList queue = new LinkedList();
+
+	/**
+	 * Creates a new, empty <code>NameIndex</code>.
+	 */
+	public NameIndex() {
+	}
+
+	/**
+	 * Creates a new <code>NameIndex</code> of the name certs in a
+	 * collection of certificates; other certificates are ignored.
+	 *
+	 * @param  certificates the <code>Certificate</code>s to index.
+	 */
+	public NameIndex(Collection certificates) {
+		Iterator i = certificates.iterator();
+		while (i.hasNext()) {
+			Certificate c = (Certificate) i.next();
+			if (c.getCert() instanceof NameCert) {
+				add(c);
+			}
+		}
+	}
+
+	/**
+	 * Adds a name cert to the index.
+	 *
+	 * @param  c the certificate to add.
+	 * @return <code>true</code> if the index did not already contain it.
+	 * @throws IllegalArgumentException if <code>c</code> is not a name
+	 *         cert.
+	 */
+	public synchronized boolean add(Certificate c) {
+		NameCert nc = nameCert(c);
+		Term t = term(nc.getFullName());
+		if (!t.certs.add(c)) {
+			return false;
+		}
+		Validity v = nc.getValidity();
+		if (v != null && v.getNotAfter() != null) {
+			Set s = (Set) expiry.get(v.getNotAfter());
+			if (s == null) {
+				s = new HashSet();
+				expiry.put(v.getNotAfter(), s);
+			}
+			s.add(c);
+		}
+		if (nc.getSubject() instanceof Principal) {
+			add(t, (Principal) nc.getSubject(), new Fact(c, null, null));
+		} else {
+			depend(term((Name) nc.getSubject()), new Dep(t, COPY, c, null));
+		}
+		run();
+		return true;
+	}
+
+	/**
+	 * Removes a name cert from the index.
+	 *
+	 * @param  c the certificate to remove.
+	 * @return <code>true</code> if the index contained it.
+	 * @throws IllegalArgumentException if <code>c</code> is not a name
+	 *         cert.
+	 */
+	public synchronized boolean remove(Certificate c) {
+		NameCert nc = nameCert(c);
+		Term t = (Term) terms.get(nc.getFullName());
+		if (t == null || !t.certs.remove(c)) {
+			return false;
+		}
+		Validity v = nc.getValidity();
+		if (v != null && v.getNotAfter() != null) {
+			Set s = (Set) expiry.get(v.getNotAfter());
+			s.remove(c);
+			if (s.isEmpty()) {
+				expiry.remove(v.getNotAfter());
+			}
+		}
+		// withdraw everything that might have been derived through c
+		List withdrawn = new ArrayList();
+		if (nc.getSubject() instanceof Principal) {
+			withdraw(t, (Principal) nc.getSubject(), withdrawn);
+		} else {
+			Term s = (Term) terms.get(nc.getSubject());
+			Iterator i = s.deps.iterator();
+			while (i.hasNext()) {
+				Dep d = (Dep) i.next();
+				if (d.kind == COPY && d.target == t && d.cert.equals(c)) {
+					i.remove();
+				}
+			}
+			Iterator pi = new ArrayList(s.facts.keySet()).iterator();
+			while (pi.hasNext()) {
+				withdraw(t, (Principal) pi.next(), withdrawn);
+			}
+		}
+		// derive again what is still supported, and propagate it
+		for (int i = 0; i < withdrawn.size(); i += 2) {
+			Term w = (Term) withdrawn.get(i);
+			Principal p = (Principal) withdrawn.get(i + 1);
+			Fact f = support(w, p);
+			if (f != null) {
+				add(w, p, f);
+			}
+		}
+		run();
+		return true;
+	}
+
+	/**
+	 * Removes the name certs that expired before a given time.
+	 *
+	 * @param  now the current time.
+	 * @return the number of certs removed.
+	 */
+	public synchronized int expire(Date now) {
+		List expired = new ArrayList();
+		Iterator i = expiry.headMap(now).values().iterator();
+		while (i.hasNext()) {
+			expired.addAll((Set) i.next());
+		}
+		for (int j = 0; j < expired.size(); j++) {
+			remove((Certificate) expired.get(j));
+		}
+		return expired.size();
+	}
+
+	/**
+	 * Returns the principals a name stands for.  An extended name is
+	 * added to the index, and kept up to date from then on.
+	 *
+	 * @param  n the name.
+	 * @return an unmodifiable set of the <code>Principal</code>s
+	 *         <code>n</code> stands for.
+	 */
+	public synchronized Set getPrincipals(Name n) {
+		Term t = (n.getNames().length > 1) ? term(n) : (Term) terms.get(n);
+		if (t == null) {
+			return Collections.EMPTY_SET;
+		}
+		run();
+		return Collections.unmodifiableSet(new HashSet(t.facts.keySet()));
+	}
+
+	/**
+	 * Checks whether a name stands for a principal.
+	 *
+	 * @param  n the name.
+	 * @param  p the principal.
+	 * @return <code>true</code> if <code>n</code> stands for
+	 *         <code>p</code>.
+	 */
+	public synchronized boolean contains(Name n, Principal p) {
+		return getPrincipals(n).contains(p);
+	}
+
+	/**
+	 * Returns a proof that a local name stands for a principal, composed
+	 * from the certificates it was derived from.
+	 *
+	 * @param  n the local name.
+	 * @param  p the principal.
+	 * @return a proof of <code>n -> p</code>, or <code>null</code> if
+	 *         <code>n</code> does not stand for <code>p</code>.
+	 * @throws IllegalArgumentException if <code>n</code> is not a local
+	 *         name.
+	 */
+	public synchronized Proof getProof(Name n, Principal p) {
+		if (n.getNames().length != 1) {
+			throw new IllegalArgumentException("not a local name: " + n);
+		}
+		Term t = (Term) terms.get(n);
+		if (t == null || !t.facts.containsKey(p)) {
+			return null;
+		}
+		try {
+			return proof(t, p);
+		} catch (Proof.IncompatibleException e) {
+			throw new Error(e); // the index only follows composable certs
+		}
+	}
+
+	/**
+	 * Returns the name cert of a certificate.
+	 */
+	private static NameCert nameCert(Certificate c) {
+		if (!(c.getCert() instanceof NameCert)) {
+			throw new IllegalArgumentException("not a name cert: " + c);
+		}
+		return (NameCert) c.getCert();
+	}
+
+	/**
+	 * Returns the term for a name, creating it if needed.  An extended
+	 * name depends on its first name.
+	 */
+	private Term term(Name n) {
+		Term t = (Term) terms.get(n);
+		if (t == null) {
+			t = new Term(n);
+			terms.put(n, t);
+			if (n.getNames().length > 1) {
+				depend(term(n.prefix()), new Dep(t, EXTEND, null, null));
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Adds a dependency to a term, and applies it to what the term already
+	 * stands for.
+	 */
+	private void depend(Term s, Dep d) {
+		s.deps.add(d);
+		Iterator i = new ArrayList(s.facts.keySet()).iterator();
+		while (i.hasNext()) {
+			apply(d, s, (Principal) i.next());
+		}
+	}
+
+	/**
+	 * Applies a dependency on term <code>s</code> to the fact that
+	 * <code>s</code> stands for principal <code>p</code>.
+	 */
+	private void apply(Dep d, Term s, Principal p) {
+		if (d.kind == COPY) {
+			add(d.target, p, new Fact(d.cert, null, s));
+		} else if (d.kind == EXTEND) {
+			// p stands for the first name: the target stands for what p's
+			// rest of the name does
+			depend(
+				term(rest(d.target.name, p)),
+				new Dep(d.target, SUBSTITUTE, null, p));
+		} else {
+			add(d.target, p, new Fact(null, d.x, s));
+		}
+	}
+
+	/**
+	 * Returns the name <code>x n2 ... nk</code> for the name
+	 * <code>i n1 n2 ... nk</code>.
+	 */
+	private static Name rest(Name n, Principal x) {
+		String[] ns = new String[n.getNames().length - 1];
+		System.arraycopy(n.getNames(), 1, ns, 0, ns.length);
+		return (Name) Interner.canonical(new Name(x, ns));
+	}
+
+	/**
+	 * Records that a term stands for a principal, unless it is already
+	 * known, and queues the fact for propagation.
+	 */
+	private void add(Term t, Principal p, Fact f) {
+		if (!t.facts.containsKey(p)) {
+			t.facts.put(p, f);
+			queue.addLast(t);
+			queue.addLast(p);
+		}
+	}
+
+	/**
+	 * Propagates the queued facts to the terms that depend on them.
+	 */
+	private void run() {
+		while (!queue.isEmpty()) {
+			Term t = (Term) queue.removeFirst();
+			Principal p = (Principal) queue.removeFirst();
+			// applying may add dependencies to t
+			for (int i = 0; i < t.deps.size(); i++) {
+				apply((Dep) t.deps.get(i), t, p);
+			}
+		}
+	}
+
+	/**
+	 * Withdraws the fact that a term stands for a principal, and
+	 * everything that depends on it.  The facts withdrawn are added to
+	 * <code>withdrawn</code> as pairs of <code>Term</code> and
+	 * <code>Principal</code>.
+	 */
+	private void withdraw(Term t, Principal p, List withdrawn) {
+		LinkedList pending = new LinkedList();
+		pending.add(t);
+		pending.add(p);
+		while (!pending.isEmpty()) {
+			t = (Term) pending.removeFirst();
+			p = (Principal) pending.removeFirst();
+			if (t.facts.remove(p) == null) {
+				continue; // already withdrawn
+			}
+			withdrawn.add(t);
+			withdrawn.add(p);
+			// a copy: t may also be the rest term r below
+			Iterator i = new ArrayList(t.deps).iterator();
+			while (i.hasNext()) {
+				Dep d = (Dep) i.next();
+				if (d.kind != EXTEND) {
+					pending.add(d.target);
+					pending.add(p);
+					continue;
+				}
+				// p no longer stands for the first name: drop what the
+				// target got from p's rest of the name
+				Term r = (Term) terms.get(rest(d.target.name, p));
+				Iterator ri = r.deps.iterator();
+				while (ri.hasNext()) {
+					Dep rd = (Dep) ri.next();
+					if (rd.kind == SUBSTITUTE
+						&& rd.target == d.target
+						&& rd.x.equals(p)) {
+						ri.remove();
+					}
+				}
+				Iterator qi = r.facts.keySet().iterator();
+				while (qi.hasNext()) {
+					pending.add(d.target);
+					pending.add(qi.next());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks for a derivation of the fact that a term stands for a
+	 * principal from the facts now in the index.
+	 *
+	 * @return the derivation, or <code>null</code> if there is none.
+	 */
+	private Fact support(Term t, Principal p) {
+		if (t.name.getNames().length == 1) {
+			Iterator i = t.certs.iterator();
+			while (i.hasNext()) {
+				Certificate c = (Certificate) i.next();
+				Subject s = c.getCert().getSubject();
+				if (s.equals(p)) {
+					return new Fact(c, null, null);
+				}
+				if (s instanceof Name) {
+					Term st = (Term) terms.get(s);
+					if (st.facts.containsKey(p)) {
+						return new Fact(c, null, st);
+					}
+				}
+			}
+			return null;
+		}
+		Term h = (Term) terms.get(t.name.prefix());
+		Iterator i = h.facts.keySet().iterator();
+		while (i.hasNext()) {
+			Principal x = (Principal) i.next();
+			Term r = (Term) terms.get(rest(t.name, x));
+			if (r != null && r.facts.containsKey(p)) {
+				return new Fact(null, x, r);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Composes a proof that local name term <code>t</code> stands for
+	 * principal <code>p</code>.
+	 */
+	private Proof proof(Term t, Principal p)
+		throws Proof.IncompatibleException {
+		Fact f = (Fact) t.facts.get(p);
+		Proof pf = new Proof(f.cert);
+		for (t = f.from; t != null; t = f.from) {
+			f = (Fact) t.facts.get(p);
+			if (f.cert != null) {
+				pf = pf.compose(new Proof(f.cert));
+			} else {
+				pf = pf.compose(proof((Term) terms.get(t.name.prefix()), f.x));
+			}
+		}
+		return pf;
+	}
+}
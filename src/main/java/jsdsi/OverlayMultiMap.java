@@ -0,0 +1,185 @@
+package jsdsi;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A private <code>MultiMap</code> laid over an index of a shared closure
+ * (see {@link ProofCache.Overlay}).  Values put into an overlay are kept
+ * in the overlay; <code>get</code> returns them together with the values
+ * of the shared index that were published no later than the version the
+ * overlay was taken at, so the overlay sees the shared index as it was
+ * then.  Reading the shared index synchronizes on the shared closure.
+ *
+ * <p><code>size</code> and <code>peakSize</code> count only the values
+ * of the overlay.
+ *
+ * @version $Revision$ $Date$
+ */
+class OverlayMultiMap extends MultiMap {
+	/**
+	 * The shared closure, whose lock guards <code>index</code>.
+	 */
+	private final ProofCache.Closure base;
+
+	/**
+	 * The shared index.
+	 */
+	private final MultiMap index;
+
+	/**
+	 * The version of <code>base</code> the overlay sees.
+	 */
+	private final long bound;
+
+	/**
+	 * Creates a new, empty overlay of a shared index.
+	 *
+	 * @param  b the shared closure.
+	 * @param  i the index of <code>b</code> to lay the overlay over.
+	 * @param  v the version of <code>b</code> to see.
+	 */
+	OverlayMultiMap(ProofCache.Closure b, MultiMap i, long v) {
+		base = b;
+		index = i;
+		bound = v;
+	}
+
+	/**
+	 * Returns the set of the overlay for a key, creating it if needed.
+	 */
+	private Set local(Object key) {
+		Set set = (Set) map.get(key);
+		if (set == null) {
+			set = new HashSet();
+			map.put(key, set);
+		}
+		return set;
+	}
+
+	/**
+	 * Returns whether the shared index holds a value for a key that the
+	 * overlay sees.
+	 */
+	private boolean shared(Object key) {
+		synchronized (base) {
+			Iterator i = index.find(key).iterator();
+			while (i.hasNext()) {
+				if (base.visible(i.next(), bound)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a new set holding the values of the overlay and the values
+	 * of the shared index it sees for a given key.
+	 *
+	 * @see jsdsi.MultiMap#get(Object)
+	 */
+	public Set get(Object key) {
+		Set set = new HashSet(super.find(key));
+		synchronized (base) {
+			Iterator i = index.find(key).iterator();
+			while (i.hasNext()) {
+				Object v = i.next();
+				if (base.visible(v, bound)) {
+					set.add(v);
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#find(Object)
+	 */
+	public Set find(Object key) {
+		return get(key);
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#put(Object, Object)
+	 */
+	public void put(Object key, Object value) {
+		if (local(key).add(value)) {
+			resize(1);
+		}
+	}
+
+	/**
+	 * Adds the value unless the overlay or the shared index it sees
+	 * already holds a value for the key.
+	 *
+	 * @see jsdsi.MultiMap#putIfAbsent(Object, Object)
+	 */
+	public boolean putIfAbsent(Object key, Object value) {
+		if (!super.find(key).isEmpty() || shared(key)) {
+			return false;
+		}
+		local(key).add(value);
+		resize(1);
+		return true;
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#putAll(Object, Collection)
+	 */
+	public void putAll(Object key, Collection coll) {
+		Set set = local(key);
+		int n = set.size();
+		set.addAll(coll);
+		resize(set.size() - n);
+	}
+
+	/**
+	 * Removes a value from the overlay; the shared index is left as it
+	 * is.
+	 *
+	 * @see jsdsi.MultiMap#remove(Object, Object)
+	 */
+	public void remove(Object key, Object value) {
+		if (local(key).remove(value)) {
+			resize(-1);
+		}
+	}
+
+	/**
+	 * Returns every value of the overlay, for any key.
+	 *
+	 * @return the values put into the overlay.
+	 */
+	Set values() {
+		Set values = new HashSet();
+		Iterator i = map.values().iterator();
+		while (i.hasNext()) {
+			values.addAll((Set) i.next());
+		}
+		return values;
+	}
+
+	/**
+	 * Adds the values of the overlay to the shared index, recording the
+	 * given version for the values that are new to it.  Must be called
+	 * with the lock of the shared closure held.
+	 *
+	 * @param  version the version of the shared closure being published.
+	 */
+	void publish(long version) {
+		Iterator i = map.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry e = (Map.Entry) i.next();
+			Iterator vi = ((Set) e.getValue()).iterator();
+			while (vi.hasNext()) {
+				Object v = vi.next();
+				index.put(e.getKey(), v);
+				base.stamp(v, version);
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package jsdsi;
+
+import java.security.cert.CertPathBuilderException;
+import java.util.LinkedList;
+
+/**
+ * A prover that searches issuer-to-subject on several threads at once.
+ * Each thread runs an iterative <code>FProver</code> over one closure
+ * whose indexes are synchronized (see
+ * {@link ProofCache.Closure#Closure(Object)}).  The threads take fetches
+ * and proofs off a shared work list, so store lookups and compositions
+ * for different parts of the frontier run in parallel, and put what they
+ * derive back onto it.  Once any thread finds a proof, the others stop
+ * as soon as they finish the entry they are working on.
+ *
+ * <p>The thread that asks for the proof is one of the workers; the others
+ * run on the threads of a <code>ProverPool</code>.  Builds that share a
+ * pool reuse its threads; without one, a <code>PProver</code> starts a
+ * pool of its own for the search and shuts it down when the search is
+ * over.  The order in which the frontier is explored is not fixed, so a
+ * <code>PProver</code> may find a different proof from one run to the
+ * next.
+ *
+ * @see ParallelCertPathParameters
+ * @see ProverPool
+ * @see FProver
+ *
+ * @version $Revision$ $Date$
+ */
+class PProver extends Prover {
+	/**
+	 * The per-thread provers; each has its own private work list for the
+	 * entries derived by its current expansion.
+	 */
+	private FProver[] workers;
+
+	/**
+	 * The pool the other workers run on, <code>null</code> to start one
+	 * for each search.
+	 */
+	private ProverPool pool;
+
+	/**
+	 * Number of workers handling an entry.  Guarded by <code>work</code>.
+	 */
+	private int busy = 0;
+
+	/**
+	 * The first error thrown by a worker.  Guarded by <code>work</code>.
+	 */
+	private Throwable failure;
+
+	/**
+	 * Creates a new <code>PProver</code> that searches on the given number
+	 * of threads, starting them for the search.
+	 *
+	 * @param  c <code>Cert</code> for this prover.
+	 * @param  s <code>CertStore</code> for this prover.
+	 * @param  threads number of threads to search on.
+	 */
+	PProver(Cert c, java.security.cert.CertStore s, int threads) {
+		this(c, s, threads, null);
+	}
+
+	/**
+	 * Creates a new <code>PProver</code> that searches on the given number
+	 * of threads, the calling one and the others taken from a pool.
+	 *
+	 * @param  c <code>Cert</code> for this prover.
+	 * @param  s <code>CertStore</code> for this prover.
+	 * @param  threads number of threads to search on.
+	 * @param  p the pool to run the workers on, or <code>null</code> to
+	 *         start one for the search.
+	 */
+	PProver(
+		Cert c,
+		java.security.cert.CertStore s,
+		int threads,
+		ProverPool p) {
+		super(c, s, new ProofCache.Closure(new Object()), true);
+		assert(threads > 0) : "no threads";
+		pool = p;
+		workers = new FProver[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new FProver(c, s, closure, true);
+			workers[i].work = new LinkedList();
+		}
+	}
+
+	/**
+	 * Adds up the statistics of the workers.
+	 *
+	 * @see jsdsi.Prover#getStats()
+	 */
+	CertPathBuilderStats getStats() {
+		CertPathBuilderStats s = new CertPathBuilderStats();
+		for (int i = 0; i < workers.length; i++) {
+			s.add(workers[i].stats);
+		}
+		s.peakIndexSize = closure.peakSize();
+		return s;
+	}
+
+	/**
+	 * Makes the workers share one record of the lookups submitted, so
+	 * each key is prefetched once.
+	 *
+	 * @see jsdsi.Prover#setPrefetcher(Prefetcher)
+	 */
+	void setPrefetcher(Prefetcher p) {
+		super.setPrefetcher(p);
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].prefetcher = p;
+			workers[i].prefetched = prefetched;
+		}
+	}
+
+	/**
+	 * @see jsdsi.Prover#seed()
+	 */
+	void seed() throws ProofFoundException {
+		workers[0].seed();
+		workers[0].flush();
+		work.addAll(workers[0].work);
+		workers[0].work.clear();
+	}
+
+	/**
+	 * Runs the workers until one of them finds a proof or the work list
+	 * is empty and every worker is idle.  If the calling thread is
+	 * interrupted, the search is abandoned.
+	 *
+	 * @see jsdsi.Prover#drain()
+	 */
+	Proof drain() {
+		ProverPool p = pool;
+		if (p == null && workers.length > 1) {
+			p = new ProverPool(workers.length - 1);
+		}
+		try {
+			ProverPool.Task[] tasks = new ProverPool.Task[workers.length - 1];
+			for (int i = 0; i < tasks.length; i++) {
+				final FProver w = workers[i + 1];
+				tasks[i] = p.submit(new Runnable() {
+					public void run() {
+						search(w);
+					}
+				});
+			}
+			search(workers[0]);
+			for (int i = 0; i < tasks.length; i++) {
+				if (tasks[i] != null && !tasks[i].cancel()) {
+					tasks[i].join();
+				}
+			}
+		} catch (InterruptedException e) {
+			abandon(e);
+		} finally {
+			if (p != pool) {
+				p.shutdown();
+			}
+		}
+		if (abandoned != null) {
+			return null;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure != null) {
+			throw (Error) failure;
+		}
+		return found;
+	}
+
+	/**
+	 * The loop run by each worker: takes the next entry off the shared work
+	 * list, handles it without holding the lock, and puts the entries it
+	 * derived back.
+	 *
+	 * @param  w the worker's prover.
+	 */
+	private void search(FProver w) {
+		for (;;) {
+			Object o;
+			synchronized (work) {
+				while (found == null
+					&& failure == null
+					&& abandoned == null
+					&& work.isEmpty()
+					&& busy > 0) {
+					try {
+						work.wait();
+					} catch (InterruptedException e) {
+						abandon(e);
+					}
+				}
+				if (found != null
+					|| failure != null
+					|| abandoned != null
+					|| work.isEmpty()) {
+					work.notifyAll();
+					return;
+				}
+				o = work.removeLast();
+				busy++;
+			}
+			Throwable t = null;
+			try {
+				w.handle(o);
+			} catch (ProofFoundException e) {
+				w.found = e.getProof();
+			} catch (RuntimeException e) {
+				t = e;
+			} catch (Error e) {
+				t = e;
+			}
+			synchronized (work) {
+				busy--;
+				if (found == null) {
+					found = w.found;
+				}
+				if (failure == null) {
+					failure = t;
+				}
+				work.addAll(w.work);
+				w.work.clear();
+				work.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Gives up the search because a thread was interrupted: keeps the
+	 * interrupt for the thread's caller and makes the other workers stop.
+	 *
+	 * @param  e the interruption.
+	 */
+	private void abandon(InterruptedException e) {
+		Thread.currentThread().interrupt();
+		synchronized (work) {
+			if (abandoned == null) {
+				abandoned = new CertPathBuilderException("interrupted", e);
+			}
+			work.notifyAll();
+		}
+	}
+
+	/**
+	 * Never called: the workers expand the proofs.
+	 *
+	 * @see jsdsi.Prover#expand(Proof)
+	 */
+	void expand(Proof p) {
+		throw new Error("PProver does not expand proofs itself");
+	}
+}
@@ -0,0 +1,113 @@
+package jsdsi;
+
+import java.security.InvalidAlgorithmParameterException;
+
+/**
+ * Specifies that the cert path builder should search for a cert path
+ * from issuer to subject on several threads at once.  Essentially, tells
+ * the builder to use PProver.  Builds, whether run one after the other or
+ * at the same time, should share a <code>ProverPool</code> (see
+ * {@link #setProverPool(ProverPool)}) so that they reuse its threads.
+ *
+ * @see PProver
+ * @see ProverPool
+ * 
+ * @version $Revision$ $Date$
+ */
+public class ParallelCertPathParameters extends IssuerCertPathParameters {
+	/**
+	 * Number of threads to search on.
+	 */
+	private int threads;
+
+	/**
+	 * The pool to run the workers on (may be <code>null</code>).
+	 */
+	private ProverPool pool;
+
+	/**
+	 * Creates a new <code>ParallelCertPathParameters</code> object from a
+	 * given <code>Cert</code>, a given <code>CertStore</code> and a number
+	 * of threads.
+	 * 
+	 * @param  c <code>Cert</code> to create the object from.
+	 * @param  s <code>CertStore</code> to create the object from.
+	 * @param  n number of threads to search on.
+	 * @throws InvalidAlgorithmParameterException if the subject of 
+	 *         <code>c</code> is a <code>Name</code> or <code>n</code> is
+	 *         not positive.
+	 */
+	public ParallelCertPathParameters(
+		Cert c,
+		java.security.cert.CertStore s,
+		int n)
+		throws InvalidAlgorithmParameterException {
+		super(c, s);
+		if (n < 1) {
+			throw new InvalidAlgorithmParameterException(
+				"number of threads must be positive");
+		}
+		threads = n;
+	}
+
+	/**
+	 * Creates a new <code>ParallelCertPathParameters</code> object that
+	 * searches on as many threads as there are processors.
+	 * 
+	 * @see jsdsi.CertPathParameters#CertPathParameters(Cert, java.security.cert.CertStore)
+	 */
+	public ParallelCertPathParameters(Cert c, java.security.cert.CertStore s)
+		throws InvalidAlgorithmParameterException {
+		this(c, s, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Returns the number of threads to search on.
+	 * 
+	 * @return the number of threads to search on.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns the <code>ProverPool</code> of this
+	 * <code>ParallelCertPathParameters</code>.
+	 * 
+	 * @return the <code>ProverPool</code> of this
+	 *         <code>ParallelCertPathParameters</code>, or <code>null</code>
+	 *         if the build starts threads of its own.
+	 */
+	public ProverPool getProverPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets the <code>ProverPool</code> whose threads the search runs on,
+	 * besides the thread asking for the proof.  The pool is not shut down
+	 * by the build.
+	 * 
+	 * @param  p the <code>ProverPool</code> to use, or <code>null</code> to
+	 *         start threads for each build.
+	 */
+	public void setProverPool(ProverPool p) {
+		pool = p;
+	}
+
+	/**
+	 * @see java.lang.Object#clone()
+	 */
+	public Object clone() {
+		try {
+			ParallelCertPathParameters p =
+				new ParallelCertPathParameters(getCert(), getStore(), threads);
+			p.setPrefetcher(getPrefetcher());
+			p.setProverPool(pool);
+			return p;
+		} catch (InvalidAlgorithmParameterException e) {
+			throw (IllegalStateException) new IllegalStateException()
+				.initCause(
+				e);
+		}
+	}
+}
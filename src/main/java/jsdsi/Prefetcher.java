@@ -0,0 +1,205 @@
+package jsdsi;
+
+import java.security.cert.CertStoreException;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of threads that look up certificates in a
+ * <code>CertStore</code> ahead of time.  When a prover is given a
+ * <code>Prefetcher</code> (see
+ * {@link CertPathParameters#setPrefetcher(Prefetcher)}), it starts the
+ * lookup for every issuer, subject or name it discovers as soon as it
+ * discovers it, and keeps composing the proofs it already has while the
+ * lookups are under way.  Against a remote store this overlaps the round
+ * trips of a whole frontier instead of paying them one after the other.
+ *
+ * <p>A <code>Prefetcher</code> works with any <code>CertStore</code> and
+ * may be shared by any number of builds.  At most <code>capacity</code>
+ * lookups wait for a thread; when the queue is full, a prover simply does
+ * the lookup itself when it gets to it.
+ *
+ * @see Prover
+ *
+ * @version $Revision$ $Date$
+ */
+public class Prefetcher {
+	/**
+	 * A lookup submitted to a <code>Prefetcher</code>.
+	 */
+	static class Lookup implements Runnable {
+		private java.security.cert.CertStore store;
+		private CertSelector sel;
+		private Collection result;
+		private Throwable error;
+		private boolean done = false;
+
+		Lookup(java.security.cert.CertStore s, CertSelector cs) {
+			store = s;
+			sel = cs;
+		}
+
+		/**
+		 * Does the lookup.
+		 */
+		public void run() {
+			Collection r = null;
+			Throwable e = null;
+			try {
+				r = store.getCertificates(sel);
+			} catch (CertStoreException x) {
+				e = x;
+			} catch (RuntimeException x) {
+				e = x;
+			} catch (Error x) {
+				e = x;
+			}
+			synchronized (this) {
+				result = r;
+				error = e;
+				done = true;
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Returns whether the lookup is done.
+		 *
+		 * @return <code>true</code> if <code>get()</code> will not block.
+		 */
+		synchronized boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * Waits for the lookup to finish and returns its result.
+		 *
+		 * @return the certificates found.
+		 * @throws CertStoreException if the lookup failed.
+		 */
+		synchronized Collection get() throws CertStoreException {
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw (CertStoreException) new CertStoreException(
+						"interrupted").initCause(
+						e);
+				}
+			}
+			if (error instanceof CertStoreException) {
+				throw (CertStoreException) error;
+			}
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			if (error != null) {
+				throw (Error) error;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Lookups waiting for a thread.
+	 */
+	private final LinkedList queue = new LinkedList();
+
+	/**
+	 * Maximum number of waiting lookups.
+	 */
+	private final int capacity;
+
+	/**
+	 * Whether {@link #shutdown()} has been called.
+	 */
+	private boolean shutdown = false;
+
+	/**
+	 * Creates a new <code>Prefetcher</code> and starts its threads.
+	 *
+	 * @param  threads number of lookups to run at once.
+	 * @param  capacity maximum number of lookups waiting for a thread.
+	 */
+	public Prefetcher(int threads, int capacity) {
+		if (threads < 1 || capacity < 1) {
+			throw new IllegalArgumentException(
+				"threads and capacity must be positive");
+		}
+		this.capacity = capacity;
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread("Prefetcher-" + i) {
+				public void run() {
+					work();
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Creates a new <code>Prefetcher</code> that runs up to
+	 * <code>threads</code> lookups at once, with room for
+	 * <code>16 * threads</code> more waiting.
+	 *
+	 * @param  threads number of lookups to run at once.
+	 */
+	public Prefetcher(int threads) {
+		this(threads, 16 * threads);
+	}
+
+	/**
+	 * Stops the threads once the lookups already queued are done.  Later
+	 * submissions are refused.
+	 */
+	public void shutdown() {
+		synchronized (queue) {
+			shutdown = true;
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Starts looking up the certificates for a selector.
+	 *
+	 * @param  s the store to look in.
+	 * @param  sel the selector to look up.
+	 * @return the pending lookup, or <code>null</code> if the queue is full
+	 *         or the prefetcher has been shut down.
+	 */
+	Lookup submit(java.security.cert.CertStore s, CertSelector sel) {
+		synchronized (queue) {
+			if (shutdown || queue.size() >= capacity) {
+				return null;
+			}
+			Lookup l = new Lookup(s, sel);
+			queue.addLast(l);
+			queue.notify();
+			return l;
+		}
+	}
+
+	/**
+	 * The loop run by each thread.
+	 */
+	private void work() {
+		for (;;) {
+			Lookup l;
+			synchronized (queue) {
+				while (queue.isEmpty() && !shutdown) {
+					try {
+						queue.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (queue.isEmpty()) {
+					return;
+				}
+				l = (Lookup) queue.removeFirst();
+			}
+			l.run();
+		}
+	}
+}
@@ -33,6 +33,12 @@ import jsdsi.sexp.SexpUtil;
  * <code>Certificates</code> (<code>Certs</code> + <code>validators</code>) 
  * that proves that the statement holds.  Proofs are
  * self-validating and can be composed to create new proofs.
+ *
+ * <p>A composed proof does not copy the certificates of its parts: it
+ * keeps references to the two proofs it was composed from, so proofs that
+ * share a prefix or suffix share its certificates.  The flat array
+ * returned by {@link #getCertificates()} is built the first time it is
+ * asked for (typically once, for the proof a search returns) and kept.
  * 
  * @see Certificate
  * @see Cert
@@ -67,10 +73,29 @@ public class Proof extends Obj {
 	private transient Cert cert;
 	
 	/**
-	 * The certificates that prove it.
+	 * The certificates that prove it; for a composed proof, <code>null</code>
+	 * until {@link #getCertificates()} is first called.
 	 */
 	private transient Certificate[] certs;
 	
+	/**
+	 * The proofs this one was composed from, or <code>null</code> if it was
+	 * created from its certificates.
+	 */
+	private transient Proof head, tail;
+	
+	/**
+	 * Number of certificates in this proof.
+	 */
+	private transient int size;
+	
+	/**
+	 * Hash code of the certificates, as given by
+	 * <code>Util.hashCode(Object[])</code>.  Since that is an exclusive-or
+	 * of the elements, a composed proof gets it from its parts.
+	 */
+	private transient int certsHash;
+	
 	/**
 	 * Creates a new proof from a given <code>Certificate</code>.
 	 * 
@@ -81,6 +106,8 @@ public class Proof extends Obj {
 		assert(c != null) : "null certificate";
 		cert = c.getCert();
 		certs = new Certificate[] { c };
+		size = 1;
+		certsHash = Util.hashCode(c);
 	}
 	
 	/**
@@ -95,6 +122,25 @@ public class Proof extends Obj {
 		assert(cs != null) : "null certificates";
 		cert = c;
 		certs = cs;
+		size = cs.length;
+		certsHash = Util.hashCode(cs);
+	}
+	
+	/**
+	 * Creates a new proof of a <code>Cert</code> from the two proofs it was
+	 * composed from, without copying their certificates.
+	 * 
+	 * @param  c <code>Cert</code> to create the proof from.
+	 * @param  h the proof of the first part of <code>c</code>.
+	 * @param  t the proof of the rest of <code>c</code>.
+	 */
+	private Proof(Cert c, Proof h, Proof t) {
+		assert(c != null) : "null cert";
+		cert = c;
+		head = h;
+		tail = t;
+		size = h.size + t.size;
+		certsHash = h.certsHash ^ t.certsHash;
 	}
 	
 	/**
@@ -112,16 +158,59 @@ public class Proof extends Obj {
 	 * @return an array of <code>Certificate</code>s
      * of this <code>Proof</code>.
 	 */
-	public Certificate[] getCertificates() {
+	public synchronized Certificate[] getCertificates() {
+		if (certs == null) {
+			certs = flatten();
+		}
 		return certs;
 	}
 	
+	/**
+	 * Returns the number of certificates in this proof.  Unlike
+	 * <code>getCertificates().length</code>, this does not build the
+	 * array.
+	 * 
+	 * @return the number of certificates in this proof.
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * Collects the certificates of the proofs this one was composed from,
+	 * in order.  Composed proofs may be nested as deep as they are long, so
+	 * this walks them with an explicit stack rather than by recursion.  It
+	 * only reads the arrays of the proofs created from certificates, which
+	 * never change.
+	 * 
+	 * @return a new array of the certificates of this proof.
+	 */
+	private Certificate[] flatten() {
+		Certificate[] cs = new Certificate[size];
+		int n = 0;
+		ArrayList stack = new ArrayList();
+		stack.add(this);
+		while (!stack.isEmpty()) {
+			Proof p = (Proof) stack.remove(stack.size() - 1);
+			if (p.head == null) {
+				System.arraycopy(p.certs, 0, cs, n, p.certs.length);
+				n += p.certs.length;
+			} else {
+				stack.add(p.tail);
+				stack.add(p.head);
+			}
+		}
+		assert(n == size) : "wrong proof size";
+		return cs;
+	}
+	
 	/**
 	 * Returns a <code>Sequence</code> of this <code>certs</code>' elements.
 	 * 
 	 * @return a <code>Sequence</code> of this <code>certs</code>' elements.
 	 */
 	public Sequence getSequence() {
+		Certificate[] certs = getCertificates();
 		List elems = new ArrayList();
 		for (int i = 0; i < certs.length; i++) {
 			certs[i].toElements(elems);
@@ -136,7 +225,10 @@ public class Proof extends Obj {
 	public boolean equals(Object o) {
 		if (o instanceof Proof) {
 			Proof p = (Proof) o;
-			return cert.equals(p.cert) && Util.equals(certs, p.certs);
+			return size == p.size
+				&& certsHash == p.certsHash
+				&& cert.equals(p.cert)
+				&& Util.equals(getCertificates(), p.getCertificates());
 		}
 		return false;
 	}
@@ -145,7 +237,7 @@ public class Proof extends Obj {
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		return cert.hashCode() ^ Util.hashCode(certs);
+		return cert.hashCode() ^ certsHash;
 	}
 
 	public SexpList toSexp() {
@@ -197,6 +289,7 @@ public class Proof extends Obj {
 			InvalidKeyException,
 			NoSuchProviderException,
 			SignatureException {
+		Certificate[] certs = getCertificates();
 		if (certs.length == 0) {
 			throw new CertificateException("no certificates");
 		}
@@ -260,7 +353,7 @@ public class Proof extends Obj {
 		for (int i = 0; i < names.length; i++) {
 			names[i] = lhName.getNames()[off + i];
 		}
-		return new Name((Principal) rhSubject, names);
+		return (Name) Interner.canonical(new Name((Principal) rhSubject, names));
 	}
 
 	/**
@@ -378,22 +471,6 @@ public class Proof extends Obj {
 			rhs.getPropagate());
 	}
 
-	/**
-	 * Returns an array of certificates from this <code>Proof</code> and
-	 * a given <code>Proof</code>.
-	 * 
-	 * @param  p <code>Proof</code> to concat this certificates with.
-	 * @return an array of <code>Certificate</code> that contains this
-	 *         <code>Proof</code>'s certificates and the certificates from
-	 *         <code>p</code>.
-	 */
-	private Certificate[] concat(Proof p) {
-		Certificate[] cs = new Certificate[certs.length + p.certs.length];
-		System.arraycopy(certs, 0, cs, 0, certs.length);
-		System.arraycopy(p.certs, 0, cs, certs.length, p.certs.length);
-		return cs;
-	}
-
 	/**
 	 * Composes this proof with another proof.
 	 * 
@@ -411,18 +488,18 @@ public class Proof extends Obj {
 			}
 			return new Proof
                 (composeNameName((NameCert) cert, (NameCert) p.cert),
-                 concat(p));
+                 this, p);
 		}
 		if (cert instanceof AuthCert) {
 			if (p.cert instanceof NameCert) {
 				return new Proof
                     (composeAuthName((AuthCert) cert, (NameCert) p.cert),
-                     concat(p));
+                     this, p);
 			}
 			if (p.cert instanceof AuthCert) {
 				return new Proof
                     (composeAuthAuth((AuthCert) cert, (AuthCert) p.cert),
-                     concat(p));
+                     this, p);
 			}
             throw new ClassCastException
                 ("Cannot compose AuthCert with: "
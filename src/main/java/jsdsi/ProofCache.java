@@ -0,0 +1,650 @@
+package jsdsi;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A long-lived cache of the proofs composed by the <code>Prover</code>s
+ * for a single <code>CertStore</code>.  A <code>ProofCache</code> can be
+ * shared by any number of <code>CertPathParameters</code> (and hence
+ * builds): each build extends the closure left behind by the previous
+ * ones, so a repeated or overlapping query only costs a lookup in the
+ * cached indexes instead of a new walk of the certificate graph.
+ *
+ * <p>Forward (<code>FProver</code>) and reverse (<code>RProver</code>)
+ * searches explore the graph differently, so each direction keeps its own
+ * closure.  A build does not search the shared closure itself but a
+ * private {@link Overlay} of it, which sees the closure as it was when
+ * the build started; the build fetches and composes into the overlay
+ * without holding any lock, and publishes it into the shared closure once
+ * it is done.  So a <code>ProofCache</code> may be shared between threads,
+ * and builds that share it run at the same time.
+ *
+ * <p>For a store created from {@link MutableCertStoreParameters}, the
+ * cache discards its proofs by itself when the store has changed since
+ * they were composed.  Otherwise it cannot tell when the contents of the
+ * underlying store change; whoever changes the store must call
+ * {@link #invalidate()}.
+ *
+ * @see CertPathParameters#CertPathParameters(Cert, ProofCache)
+ * @see Prover
+ *
+ * @version $Revision$ $Date$
+ */
+public class ProofCache {
+	/**
+	 * The proof indexes and loaded keys of one search direction.
+	 * These are exactly the indexes a <code>Prover</code> builds up
+	 * while it runs.
+	 */
+	static class Closure {
+		/**
+		 * cert -> set of proof(cert)
+		 */
+		final MultiMap check;
+
+		/**
+		 * name -> set of proof(name -> principal)
+		 */
+		final MultiMap value;
+
+		/**
+		 * name -> set of proof(LHS -> name+X)
+		 */
+		final MultiMap compatible;
+
+		/**
+		 * issuer -> set of proof(issuer -> RHS)
+		 */
+		final MultiMap issuer;
+
+		/**
+		 * subject -> set of proof(LHS -> subject)
+		 */
+		final MultiMap reverse;
+
+		/**
+		 * Issuers whose auth certs have been fetched (forward).
+		 */
+		final Set loadedIssuer;
+
+		/**
+		 * Names whose name certs have been fetched (forward).
+		 */
+		final Set loadedValue;
+
+		/**
+		 * Subjects whose certs have been fetched (reverse).
+		 */
+		final Set loadedReverse;
+
+		/**
+		 * Names whose compatible certs have been fetched (reverse).
+		 */
+		final Set loadedCompatible;
+
+		/**
+		 * statement -> proof found for it by an earlier build
+		 */
+		final Map proved = new HashMap();
+
+		/**
+		 * Proofs an iterative prover has derived but not yet expanded.
+		 */
+		final LinkedList pending = new LinkedList();
+
+		/**
+		 * Whether this closure is shared by the builds of different
+		 * statements.  Provers do not prune a shared closure, since what is
+		 * useless for one statement may be needed by the next.
+		 */
+		boolean shared = false;
+
+		/**
+		 * For a closure shared through a <code>ProofCache</code>: the
+		 * number of times an overlay has been published into it.  Guarded
+		 * by the closure.
+		 */
+		long version = 0;
+
+		/**
+		 * For a closure shared through a <code>ProofCache</code>: proof ->
+		 * the <code>Long</code> version that added it to the indexes.
+		 * Guarded by the closure.
+		 */
+		final Map stamps = new HashMap();
+
+		/**
+		 * Creates a new, empty closure for use by one thread at a time.
+		 */
+		Closure() {
+			this(
+				new MultiMap(),
+				new MultiMap(),
+				new MultiMap(),
+				new MultiMap(),
+				new MultiMap(),
+				new HashSet(),
+				new HashSet(),
+				new HashSet(),
+				new HashSet());
+		}
+
+		/**
+		 * Creates a new, empty closure whose indexes and loaded keys may be
+		 * used by several threads at once.  Every index operation
+		 * synchronizes on the given lock; <code>proved</code> and
+		 * <code>pending</code> are not synchronized.
+		 *
+		 * @param  lock the lock shared by the indexes.
+		 */
+		Closure(Object lock) {
+			this(
+				new SynchronizedMultiMap(lock),
+				new SynchronizedMultiMap(lock),
+				new SynchronizedMultiMap(lock),
+				new SynchronizedMultiMap(lock),
+				new SynchronizedMultiMap(lock),
+				Collections.synchronizedSet(new HashSet()),
+				Collections.synchronizedSet(new HashSet()),
+				Collections.synchronizedSet(new HashSet()),
+				Collections.synchronizedSet(new HashSet()));
+		}
+
+		/**
+		 * Creates a new closure over the given indexes and sets of loaded
+		 * keys.
+		 */
+		Closure(
+			MultiMap check,
+			MultiMap value,
+			MultiMap compatible,
+			MultiMap issuer,
+			MultiMap reverse,
+			Set loadedIssuer,
+			Set loadedValue,
+			Set loadedReverse,
+			Set loadedCompatible) {
+			this.check = check;
+			this.value = value;
+			this.compatible = compatible;
+			this.issuer = issuer;
+			this.reverse = reverse;
+			this.loadedIssuer = loadedIssuer;
+			this.loadedValue = loadedValue;
+			this.loadedReverse = loadedReverse;
+			this.loadedCompatible = loadedCompatible;
+		}
+
+		/**
+		 * Creates a new, empty closure to be shared through a
+		 * <code>ProofCache</code>.  Builds do not search it directly, but
+		 * an {@link #overlay()} of it.
+		 *
+		 * @return the new closure.
+		 */
+		static Closure newShared() {
+			Closure cl =
+				new Closure(
+					new MultiMap(),
+					new MultiMap(),
+					new MultiMap(),
+					new MultiMap(),
+					new MultiMap(),
+					new Loaded(),
+					new Loaded(),
+					new Loaded(),
+					new Loaded());
+			cl.shared = true;
+			return cl;
+		}
+
+		/**
+		 * Returns a new overlay of this shared closure, for one build.
+		 *
+		 * @return an overlay that sees this closure as it is now.
+		 */
+		synchronized Closure overlay() {
+			return new Overlay(this);
+		}
+
+		/**
+		 * Returns the proof an earlier build found for a statement.
+		 *
+		 * @param  c the statement.
+		 * @return the proof of <code>c</code>, or <code>null</code> if no
+		 *         build has found one.
+		 */
+		Proof getProved(Cert c) {
+			return (Proof) proved.get(c);
+		}
+
+		/**
+		 * Records the outcome of a build that searched this closure.
+		 *
+		 * @param  c the statement the build tried to prove.
+		 * @param  pf the proof found, or <code>null</code> if there is
+		 *         none.
+		 */
+		void publish(Cert c, Proof pf) {
+			if (pf != null) {
+				proved.put(c, pf);
+			}
+		}
+
+		/**
+		 * Returns whether a proof in the indexes of this shared closure is
+		 * seen by an overlay taken at a given version.  Must be called with
+		 * the lock of the closure held.
+		 *
+		 * @param  pf a proof in the indexes.
+		 * @param  bound the version the overlay was taken at.
+		 * @return <code>true</code> if <code>pf</code> was added no later
+		 *         than <code>bound</code>.
+		 */
+		boolean visible(Object pf, long bound) {
+			return (version == bound)
+				|| ((Long) stamps.get(pf)).longValue() <= bound;
+		}
+
+		/**
+		 * Records the version that added a proof to the indexes, unless it
+		 * was added before.  Must be called with the lock of the closure
+		 * held.
+		 *
+		 * @param  pf the proof.
+		 * @param  v the version being published.
+		 */
+		void stamp(Object pf, long v) {
+			if (!stamps.containsKey(pf)) {
+				stamps.put(pf, new Long(v));
+			}
+		}
+
+		/**
+		 * Returns the largest number of proofs held in the indexes of this
+		 * closure.
+		 *
+		 * @return the sum of the peak sizes of the indexes.
+		 */
+		int peakSize() {
+			return check.peakSize()
+				+ value.peakSize()
+				+ compatible.peakSize()
+				+ issuer.peakSize()
+				+ reverse.peakSize();
+		}
+	}
+
+	/**
+	 * The keys loaded into a shared closure, each with the version of the
+	 * closure that loaded it.  Guarded by the closure.
+	 */
+	static class Loaded extends AbstractSet {
+		/**
+		 * key -> <code>Long</code> version that loaded it
+		 */
+		private final Map stamps = new HashMap();
+
+		/**
+		 * Marks a key as loaded, unless it already is.
+		 *
+		 * @param  key the key.
+		 * @param  v the version being published.
+		 */
+		void publish(Object key, long v) {
+			if (!stamps.containsKey(key)) {
+				stamps.put(key, new Long(v));
+			}
+		}
+
+		/**
+		 * Returns whether a key is seen as loaded by an overlay taken at a
+		 * given version.
+		 *
+		 * @param  key the key.
+		 * @param  bound the version the overlay was taken at.
+		 * @return <code>true</code> if <code>key</code> was loaded no later
+		 *         than <code>bound</code>.
+		 */
+		boolean visible(Object key, long bound) {
+			Long v = (Long) stamps.get(key);
+			return (v != null) && v.longValue() <= bound;
+		}
+
+		public boolean contains(Object key) {
+			return stamps.containsKey(key);
+		}
+
+		public Iterator iterator() {
+			return stamps.keySet().iterator();
+		}
+
+		public int size() {
+			return stamps.size();
+		}
+	}
+
+	/**
+	 * The keys an overlay has loaded, laid over the keys loaded into the
+	 * shared closure that the overlay sees.
+	 */
+	static class LoadedView extends AbstractSet {
+		/**
+		 * The shared closure, whose lock guards <code>loaded</code>.
+		 */
+		final Closure base;
+
+		/**
+		 * The keys loaded into the shared closure.
+		 */
+		final Loaded loaded;
+
+		/**
+		 * The version of <code>base</code> the overlay sees.
+		 */
+		final long bound;
+
+		/**
+		 * The keys loaded by the overlay.
+		 */
+		final Set local = new HashSet();
+
+		LoadedView(Closure b, Set l, long v) {
+			base = b;
+			loaded = (Loaded) l;
+			bound = v;
+		}
+
+		public boolean contains(Object key) {
+			if (local.contains(key)) {
+				return true;
+			}
+			synchronized (base) {
+				return loaded.visible(key, bound);
+			}
+		}
+
+		public boolean add(Object key) {
+			return !contains(key) && local.add(key);
+		}
+
+		public boolean remove(Object key) {
+			return local.remove(key);
+		}
+
+		/**
+		 * Iterates over the keys loaded by the overlay only.
+		 */
+		public Iterator iterator() {
+			return local.iterator();
+		}
+
+		/**
+		 * Counts the keys loaded by the overlay only.
+		 */
+		public int size() {
+			return local.size();
+		}
+
+		/**
+		 * Marks the keys loaded by the overlay as loaded in the shared
+		 * closure.  Must be called with the lock of the shared closure
+		 * held.
+		 *
+		 * @param  v the version being published.
+		 */
+		void publish(long v) {
+			Iterator i = local.iterator();
+			while (i.hasNext()) {
+				loaded.publish(i.next(), v);
+			}
+		}
+	}
+
+	/**
+	 * A private view of a shared closure for one build.  The overlay sees
+	 * the shared closure as it was when the overlay was taken: its indexes
+	 * and loaded keys return what the build adds together with what was
+	 * published before, and its work list starts as a copy of the shared
+	 * one.  The build runs its search and its store fetches on the overlay
+	 * without holding any lock; only reading the shared closure and
+	 * publishing into it take the lock of the shared closure.
+	 *
+	 * <p>If nothing has been published since the overlay was taken, what
+	 * the build added is merged into the shared indexes, and its work list
+	 * replaces the shared one.  Otherwise the proofs the build expanded
+	 * were not composed with those published in the meantime; they are
+	 * added to the shared work list instead of the indexes, so the next
+	 * build composes them with the rest.  Either way the keys the build
+	 * loaded are marked as loaded, so their certificates are fetched only
+	 * once, and the proof found is recorded.
+	 */
+	static class Overlay extends Closure {
+		/**
+		 * The shared closure.
+		 */
+		private final Closure base;
+
+		/**
+		 * The version of <code>base</code> this overlay sees.
+		 */
+		private final long bound;
+
+		/**
+		 * Creates a new overlay of a shared closure.  Must be called with
+		 * the lock of the shared closure held.
+		 *
+		 * @param  b the shared closure.
+		 */
+		Overlay(Closure b) {
+			this(b, b.version);
+		}
+
+		private Overlay(Closure b, long v) {
+			super(
+				new OverlayMultiMap(b, b.check, v),
+				new OverlayMultiMap(b, b.value, v),
+				new OverlayMultiMap(b, b.compatible, v),
+				new OverlayMultiMap(b, b.issuer, v),
+				new OverlayMultiMap(b, b.reverse, v),
+				new LoadedView(b, b.loadedIssuer, v),
+				new LoadedView(b, b.loadedValue, v),
+				new LoadedView(b, b.loadedReverse, v),
+				new LoadedView(b, b.loadedCompatible, v));
+			base = b;
+			bound = v;
+			shared = true;
+			Iterator i = b.pending.iterator();
+			while (i.hasNext()) {
+				pending.addLast(move(i.next(), b, this));
+			}
+		}
+
+		/**
+		 * @see jsdsi.ProofCache.Closure#getProved(Cert)
+		 */
+		Proof getProved(Cert c) {
+			Proof pf = super.getProved(c);
+			if (pf != null) {
+				return pf;
+			}
+			synchronized (base) {
+				return base.getProved(c);
+			}
+		}
+
+		/**
+		 * Publishes what the build added into the shared closure.
+		 *
+		 * @see jsdsi.ProofCache.Closure#publish(Cert, Proof)
+		 */
+		void publish(Cert c, Proof pf) {
+			synchronized (base) {
+				base.publish(c, pf);
+				if (check.size() == 0
+					&& loadedIssuer.isEmpty()
+					&& loadedValue.isEmpty()
+					&& loadedReverse.isEmpty()
+					&& loadedCompatible.isEmpty()) {
+					return; // nothing new
+				}
+				long v = ++base.version;
+				((LoadedView) loadedIssuer).publish(v);
+				((LoadedView) loadedValue).publish(v);
+				((LoadedView) loadedReverse).publish(v);
+				((LoadedView) loadedCompatible).publish(v);
+				if (v == bound + 1) {
+					((OverlayMultiMap) check).publish(v);
+					((OverlayMultiMap) value).publish(v);
+					((OverlayMultiMap) compatible).publish(v);
+					((OverlayMultiMap) issuer).publish(v);
+					((OverlayMultiMap) reverse).publish(v);
+					base.pending.clear();
+				} else {
+					// compose them with what was published meanwhile
+					base.pending.addAll(((OverlayMultiMap) check).values());
+				}
+				Iterator i = pending.iterator();
+				while (i.hasNext()) {
+					base.pending.addLast(move(i.next(), this, base));
+				}
+			}
+		}
+
+		/**
+		 * Returns an entry of the work list of one closure as an entry of
+		 * the work list of the other: a fetch marks its key as loaded in
+		 * the sets of the closure that runs it.
+		 *
+		 * @param  o a <code>Proof</code> or <code>Prover.Fetch</code>.
+		 * @param  from the closure whose work list holds <code>o</code>.
+		 * @param  to the closure to move <code>o</code> to.
+		 * @return the entry for the work list of <code>to</code>.
+		 */
+		private static Object move(Object o, Closure from, Closure to) {
+			if (!(o instanceof Prover.Fetch)) {
+				return o;
+			}
+			Prover.Fetch f = (Prover.Fetch) o;
+			Set cache;
+			if (f.cache == from.loadedIssuer) {
+				cache = to.loadedIssuer;
+			} else if (f.cache == from.loadedValue) {
+				cache = to.loadedValue;
+			} else if (f.cache == from.loadedReverse) {
+				cache = to.loadedReverse;
+			} else {
+				cache = to.loadedCompatible;
+			}
+			Prover.Fetch g = new Prover.Fetch(cache, f.key, f.sel);
+			g.lookup = f.lookup;
+			return g;
+		}
+	}
+
+	/**
+	 * The store whose certificates are cached.
+	 */
+	private final java.security.cert.CertStore store;
+
+	/**
+	 * Closure built by forward searches (<code>null</code> until used).
+	 */
+	private Closure forward;
+
+	/**
+	 * Closure built by reverse searches (<code>null</code> until used).
+	 */
+	private Closure reverse;
+
+	/**
+	 * The parameters of the store if it can change, <code>null</code>
+	 * otherwise.
+	 */
+	private MutableCertStoreParameters mutable;
+
+	/**
+	 * The version of the store the closures were built from.
+	 */
+	private long version;
+
+	/**
+	 * Creates a new, empty <code>ProofCache</code> for the given store.
+	 *
+	 * @param  s the <code>CertStore</code> whose proofs to cache.
+	 */
+	public ProofCache(java.security.cert.CertStore s) {
+		assert(s != null) : "null store";
+		store = s;
+		if (s.getCertStoreParameters() instanceof MutableCertStoreParameters) {
+			mutable = (MutableCertStoreParameters) s.getCertStoreParameters();
+			version = mutable.getVersion();
+		}
+	}
+
+	/**
+	 * Returns the <code>CertStore</code> of this <code>ProofCache</code>.
+	 *
+	 * @return the <code>CertStore</code> of this <code>ProofCache</code>.
+	 */
+	public java.security.cert.CertStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Discards every cached proof.  Must be called whenever certificates
+	 * are added to or removed from the underlying store.  Builds that are
+	 * running while the cache is invalidated finish against the old
+	 * closure.
+	 */
+	public synchronized void invalidate() {
+		forward = null;
+		reverse = null;
+	}
+
+	/**
+	 * Returns a new overlay of the closure shared by forward searches, for
+	 * one build.
+	 *
+	 * @return an overlay of the closure shared by forward searches.
+	 */
+	synchronized Closure getForward() {
+		checkVersion();
+		if (forward == null) {
+			forward = Closure.newShared();
+		}
+		return forward.overlay();
+	}
+
+	/**
+	 * Returns a new overlay of the closure shared by reverse searches, for
+	 * one build.
+	 *
+	 * @return an overlay of the closure shared by reverse searches.
+	 */
+	synchronized Closure getReverse() {
+		checkVersion();
+		if (reverse == null) {
+			reverse = Closure.newShared();
+		}
+		return reverse.overlay();
+	}
+
+	/**
+	 * Discards every cached proof if the store has changed since the
+	 * closures were started.
+	 */
+	private void checkVersion() {
+		if (mutable != null && mutable.getVersion() != version) {
+			version = mutable.getVersion();
+			invalidate();
+		}
+	}
+}
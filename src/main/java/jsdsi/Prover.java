@@ -13,9 +13,16 @@
  */
 package jsdsi;
 
+import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertStoreException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -23,6 +30,14 @@ import java.util.Set;
  * attempts to construct a <code>Proof</code> that the statement holds using 
  * certificates from the store.
  * 
+ * <p>A prover can search in one of two ways.  A <i>recursive</i> prover
+ * expands each new proof as soon as it is derived, and unwinds the stack
+ * with a <code>ProofFoundException</code> once it finds a proof.  An
+ * <i>iterative</i> prover instead pushes new proofs onto a work list and
+ * expands them one at a time in a loop, so deep delegation chains cannot
+ * overflow the stack and finding a proof is just a return.  Both explore
+ * the same closure; subclasses only say how one proof is expanded.
+ * 
  * @author Sameer Ajmani
  * @version $Revision: 1.1 $ $Date: 2004/02/28 15:49:34 $
  */
@@ -45,6 +60,31 @@ abstract class Prover {
 			return proof;
 		}
 	}
+
+	/**
+	 * A fetch from the cert store that an iterative prover has put off
+	 * until the proofs derived before it have been expanded.
+	 */
+	static class Fetch {
+		Set cache;
+		Object key;
+		CertSelector sel;
+		Prefetcher.Lookup lookup; // null if not prefetched
+		Fetch(Set c, Object k, CertSelector s) {
+			cache = c;
+			key = k;
+			sel = s;
+		}
+		boolean ready() {
+			return (lookup == null) || lookup.isDone();
+		}
+	}
+
+	/**
+	 * How far down the work list an iterative prover looks for an entry
+	 * it can handle without waiting for a prefetch.
+	 */
+	static final int PREFETCH_WINDOW = 64;
 	
 	/**
 	 * Statement to prove.
@@ -56,45 +96,124 @@ abstract class Prover {
 	 */
 	java.security.cert.CertStore store;
 	
+	/**
+	 * The closure (indexes and loaded keys) this prover works on.
+	 */
+	ProofCache.Closure closure;
+
 	/**
 	 * cert -> set of proof(cert)
 	 */
-	MultiMap check = new MultiMap();
+	MultiMap check;
 	
 	/**
 	 * name -> set of proof(name -> principal)
 	 */
-	MultiMap value = new MultiMap();
+	MultiMap value;
 	
 	/**
 	 * name -> set of proof(LHS -> name+X)
 	 */
-	MultiMap compatible = new MultiMap();
-	// name -> set of proof(LHS -> name+X)
+	MultiMap compatible;
 	
 	/**
 	 * issuer -> set of proof(issuer -> RHS)
 	 */
-	MultiMap issuer = new MultiMap();
+	MultiMap issuer;
 	
 	/**
 	 * subject -> set of proof(LHS -> subject)
 	 */
-	MultiMap reverse = new MultiMap();
-	// subject -> set of proof(LHS -> subject)
+	MultiMap reverse;
 
 	/**
-	 * Number of certs fetched from cert store.
+	 * Proofs still to be expanded and <code>Fetch</code>es still to be
+	 * done; <code>null</code> if this prover searches recursively.
 	 */
-	private int numFetched = 0;
-	
+	LinkedList work;
+
+	/**
+	 * Proofs and fetches added by the current expansion, in order; these
+	 * are moved onto the work list once the expansion is done.
+	 */
+	private ArrayList batch = new ArrayList();
+
+	/**
+	 * A proof of <code>provee</code> pushed onto the work list, if any.
+	 */
+	Proof found;
+
+	/**
+	 * Runs the store lookups of an iterative prover ahead of time;
+	 * <code>null</code> if lookups are done when they are reached.
+	 */
+	Prefetcher prefetcher;
+
+	/**
+	 * cache -> (key -> <code>Prefetcher.Lookup</code>) for the lookups
+	 * this prover has submitted.
+	 */
+	Map prefetched;
+
+	/**
+	 * Whether proofs that cannot be part of a proof of <code>provee</code>
+	 * are dropped instead of expanded.
+	 */
+	boolean prune;
+
+	/**
+	 * The validity every cert of a proof of <code>provee</code> must
+	 * cover; certificates that do not are not fetched when pruning.
+	 */
+	private final Validity validity;
+
+	/**
+	 * Whether an iterative prover expands the certificates of a lookup as
+	 * the store reads them (see
+	 * {@link CertSelector#setReceiver(CertSelector.Receiver)}), rather
+	 * than once the lookup is over.
+	 */
+	boolean stream = true;
+
+	/**
+	 * Why the search was given up before it was over, or
+	 * <code>null</code> if it was not.
+	 */
+	CertPathBuilderException abandoned;
+
+	/**
+	 * Statistics of this prover's search.
+	 */
+	CertPathBuilderStats stats = new CertPathBuilderStats();
+
+	/**
+	 * Returns the statistics of this prover's search so far.  The total
+	 * time and proof length are left for the caller to fill in.
+	 * 
+	 * @return the statistics of this prover's search.
+	 */
+	CertPathBuilderStats getStats() {
+		stats.peakIndexSize = closure.peakSize();
+		return stats;
+	}
+
 	/**
 	 * Returns the number of certificates fetched from the cert-store.
 	 * 
 	 * @return the number of certificates fetched from the cert-store.
 	 */
 	int getNumFetched() {
-		return numFetched;
+		return getStats().getNumFetched();
+	}
+
+	/**
+	 * Returns the number of proofs dropped because they could not be part
+	 * of a proof of the statement.
+	 * 
+	 * @return the number of proofs dropped by pruning.
+	 */
+	int getNumPruned() {
+		return getStats().getNumPruned();
 	}
 
 	/**
@@ -105,8 +224,52 @@ abstract class Prover {
 	 * @param  s <code>CertStore</code> for this prover.
 	 */
 	Prover(Cert c, java.security.cert.CertStore s) {
+		this(c, s, new ProofCache.Closure(), true);
+	}
+
+	/**
+	 * Creates a new <code>Prover</code> from a given <code>Cert</code> and
+	 * a given <code>CertStore</code> that extends an existing closure,
+	 * usually one shared through a <code>ProofCache</code>.
+	 * 
+	 * @param  c <code>Cert</code> for this prover.
+	 * @param  s <code>CertStore</code> for this prover.
+	 * @param  cl the closure to search and extend.
+	 * @param  iterative <code>true</code> to search with a work list,
+	 *         <code>false</code> to search recursively.
+	 */
+	Prover(
+		Cert c,
+		java.security.cert.CertStore s,
+		ProofCache.Closure cl,
+		boolean iterative) {
 		provee = c;
 		store = s;
+		closure = cl;
+		check = cl.check;
+		value = cl.value;
+		compatible = cl.compatible;
+		issuer = cl.issuer;
+		reverse = cl.reverse;
+		prune = !cl.shared;
+		validity = (c.getValidity() != null)
+			? c.getValidity()
+			: new Validity(null, null);
+		if (iterative) {
+			work = cl.pending;
+		}
+	}
+
+	/**
+	 * Makes this prover start its store lookups as soon as it schedules
+	 * them, on the threads of the given <code>Prefetcher</code>.  Only an
+	 * iterative prover prefetches.
+	 * 
+	 * @param  p the <code>Prefetcher</code> to use, or <code>null</code>.
+	 */
+	void setPrefetcher(Prefetcher p) {
+		prefetcher = p;
+		prefetched = new IdentityHashMap();
 	}
 
 	/**
@@ -120,34 +283,280 @@ abstract class Prover {
 	private Proof proof; // the proof; null if no proof found
 
 	/**
-	 * Returns the proof found by this prover.
+	 * Returns the proof found by this prover.  The first call searches
+	 * the closure, then publishes what the search added to it.
 	 * 
 	 * @return the proof found by this prover.
 	 */
 	public final Proof getProof() {
 		if (!attempted) {
 			attempted = true;
-			proof = makeProof();
+			proof = lookup();
+			if (proof == null) {
+				proof = makeProof();
+			}
+			publish();
 		}
 		return proof;
 	}
 
+	/**
+	 * Publishes the outcome of the search into the closure, and what the
+	 * search added to it if the closure is an overlay of a shared one.
+	 * 
+	 * @see ProofCache.Closure#publish(Cert, Proof)
+	 */
+	void publish() {
+		closure.publish(provee, proof);
+	}
+
+	/**
+	 * Looks for a proof of the statement among the proofs already in the
+	 * closure, without fetching any certificates.
+	 * 
+	 * @return a proof of the statement, or <code>null</code> if the
+	 *         closure does not (yet) contain one.
+	 */
+	Proof lookup() {
+		Proof pf = closure.getProved(provee);
+		if (pf != null) {
+			return pf;
+		}
+		// every proof that implies provee has the same issuer and subject
+		Set candidates;
+		if (provee instanceof NameCert) {
+			candidates = value.get(((NameCert) provee).getFullName());
+		} else {
+			candidates = issuer.get(provee.getIssuer());
+		}
+		Iterator i = candidates.iterator();
+		while (i.hasNext()) {
+			pf = (Proof) i.next();
+			if (pf.getCert().implies(provee)) {
+				return pf;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Creates a new <code>Proof</code>.
 	 * 
-	 * @return a new <code>Proof</code>.
+	 * @return a new <code>Proof</code>, or <code>null</code> if there is
+	 *         none.
+	 */
+	Proof makeProof() {
+		try {
+			seed();
+			return drain();
+		} catch (ProofFoundException e) {
+			return e.getProof();
+		}
+	}
+
+	/**
+	 * Loads the certificates the search starts from.
+	 * 
+	 * @throws ProofFoundException if a recursive prover <i>finds a
+	 *         proof</i>.
 	 */
-	abstract Proof makeProof();
+	abstract void seed() throws ProofFoundException;
 	
 	/**
-	 * Inserts the certificates of a given <code>Proof</code> to this
-	 * <code>Proof</code>.
+	 * Inserts a given <code>Proof</code> into this prover.  A recursive
+	 * prover checks and expands the proof right away; an iterative prover
+	 * pushes it onto the work list.
 	 * 
-	 * @param  p <code>Proof</code> containing certificates to add to
-	 *         this <code>Proof</code>.
-	 * @throws ProofFoundException if a <i>proof is found</i>.
+	 * @param  p <code>Proof</code> to insert.
+	 * @throws ProofFoundException if a recursive prover <i>finds a
+	 *         proof</i>.
 	 */
-	abstract void insert(Proof p) throws ProofFoundException;
+	void insert(Proof p) throws ProofFoundException {
+		if (work != null) {
+			if (found == null && p.getCert().implies(provee)) {
+				found = p;
+			}
+			batch.add(p);
+			return;
+		}
+		//System.out.println("INSERT("+p.hashCode()+"): "+p);
+		if (p.getCert().implies(provee)) {
+			//System.out.println("INSERT("+p.hashCode()+"): found proof!");
+			throw new ProofFoundException(p);
+		}
+		if (!check.putIfAbsent(p.getCert(), p)) {
+			//System.out.println("INSERT("+p.hashCode()+"): already inserted");
+			stats.numDuplicates++;
+			return; // already have this proof
+		}
+		stats.expanded(p.size());
+		try {
+			expand(p);
+		} catch (ProofFoundException e) {
+			// invalidate cache
+			check.remove(p.getCert(), p);
+			throw e;
+		}
+	}
+
+	/**
+	 * Expands the proofs on the work list until one of them proves
+	 * <code>provee</code> or the list is empty.  If a proof is found, the
+	 * rest of the list is left in the closure for the next search.  Does
+	 * nothing for a recursive prover.
+	 * 
+	 * @return the proof found, or <code>null</code> if there is none.
+	 * @throws ProofFoundException never for an iterative prover.
+	 */
+	Proof drain() throws ProofFoundException {
+		if (work == null) {
+			return null;
+		}
+		flush();
+		while (found == null && !work.isEmpty()) {
+			step();
+		}
+		return found;
+	}
+
+	/**
+	 * Handles the next entry on the work list of an iterative prover: does
+	 * a fetch, or expands a proof.
+	 * 
+	 * @return the proof expanded, or <code>null</code> if the entry was a
+	 *         fetch, a proof already expanded, or a proof of
+	 *         <code>provee</code> (which is then in <code>found</code>).
+	 * @throws ProofFoundException never for an iterative prover.
+	 */
+	Proof step() throws ProofFoundException {
+		return handle(next());
+	}
+
+	/**
+	 * Takes the next entry off the work list.  This is the last entry,
+	 * unless that is a fetch still being prefetched: then the nearest entry
+	 * below it that can be handled without waiting is taken instead, so
+	 * the prover keeps composing while the lookup is under way.
+	 * 
+	 * @return the entry to handle next.
+	 */
+	private Object next() {
+		Object o = work.getLast();
+		if (!(o instanceof Fetch) || ((Fetch) o).ready()) {
+			return work.removeLast();
+		}
+		ListIterator i = work.listIterator(work.size() - 1);
+		for (int n = 0; n < PREFETCH_WINDOW && i.hasPrevious(); n++) {
+			o = i.previous();
+			if (!(o instanceof Fetch) || ((Fetch) o).ready()) {
+				i.remove();
+				return o;
+			}
+		}
+		return work.removeLast(); // nothing ready: wait for the last one
+	}
+
+	/**
+	 * Handles one entry taken off the work list of an iterative prover:
+	 * does a fetch, or expands a proof.  The proofs and fetches this
+	 * derives are added to <code>work</code>.
+	 * 
+	 * @param  o the <code>Fetch</code> or <code>Proof</code> to handle.
+	 * @return the proof expanded, or <code>null</code> if the entry was a
+	 *         fetch, a proof already expanded, or a proof of
+	 *         <code>provee</code> (which is then in <code>found</code>).
+	 * @throws ProofFoundException never for an iterative prover.
+	 */
+	Proof handle(Object o) throws ProofFoundException {
+		if (o instanceof Fetch) {
+			Fetch f = (Fetch) o;
+			fetch(f.cache, f.key, f.sel, f.lookup);
+			flush();
+			return null;
+		}
+		Proof p = (Proof) o;
+		if (p.getCert().implies(provee)) {
+			// left over from an earlier search
+			work.addLast(p);
+			found = p;
+			return null;
+		}
+		if (!check.putIfAbsent(p.getCert(), p)) {
+			stats.numDuplicates++;
+			return null; // already have this proof
+		}
+		stats.expanded(p.size());
+		expand(p);
+		flush();
+		return p;
+	}
+
+	/**
+	 * Moves the proofs and fetches added by the last expansion onto the
+	 * work list, so that the first one added is the next one handled.
+	 * Together with putting off fetches, this visits proofs in the same
+	 * depth-first order as a recursive prover.
+	 */
+	void flush() {
+		for (int i = batch.size() - 1; i >= 0; i--) {
+			work.addLast(batch.get(i));
+		}
+		batch.clear();
+	}
+
+	/**
+	 * Checks whether a given <code>Proof</code> can be dropped because it
+	 * cannot be part of any proof of <code>provee</code>, and counts it
+	 * if so.  Composing auth certs intersects their tags, so a chain
+	 * through an auth cert whose tag does not imply the tag of
+	 * <code>provee</code> can never prove it.  Proofs are never dropped
+	 * from a closure shared through a <code>ProofCache</code>.
+	 * 
+	 * @param  p <code>Proof</code> to check.
+	 * @return <code>true</code> if <code>p</code> should not be expanded.
+	 */
+	boolean pruned(Proof p) {
+		if (prune
+			&& (provee instanceof AuthCert)
+			&& (p.getCert() instanceof AuthCert)
+			&& !((AuthCert) p.getCert()).getTag().implies(
+				((AuthCert) provee).getTag())) {
+			stats.numPruned++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Composes two proofs, counting the composition in the statistics.
+	 * 
+	 * @see Proof#compose(Proof)
+	 * 
+	 * @param  lhs the left-hand proof.
+	 * @param  rhs the right-hand proof.
+	 * @return the composition of <code>lhs</code> and <code>rhs</code>.
+	 * @throws Proof.IncompatibleException if the proofs do not compose.
+	 */
+	Proof compose(Proof lhs, Proof rhs) throws Proof.IncompatibleException {
+		stats.numComposed++;
+		try {
+			return lhs.compose(rhs);
+		} catch (Proof.IncompatibleException e) {
+			stats.numIncompatible++;
+			throw e;
+		}
+	}
+
+	/**
+	 * Indexes a new <code>Proof</code> and inserts every proof that can be
+	 * composed from it and the proofs already indexed, fetching
+	 * certificates from the store as needed.
+	 * 
+	 * @param  p <code>Proof</code> to expand.
+	 * @throws ProofFoundException if a recursive prover <i>finds a
+	 *         proof</i>.
+	 */
+	abstract void expand(Proof p) throws ProofFoundException;
 
 	/**
 	 * Provides new certificates for this prover. Adds the given certificates
@@ -169,7 +578,11 @@ abstract class Prover {
 	/**
 	 * If a given set does not contain a given object, all certficates
 	 * from the cert-store for a given <code>CertSelector</code> will
-	 * be added to this proof's certificates.
+	 * be added to this proof's certificates.  Unless the closure is
+	 * shared, only the certificates whose validity covers that of
+	 * <code>provee</code> are fetched.  An iterative prover only
+	 * schedules the fetch; the certificates are added once the proofs
+	 * inserted before it have been expanded.
 	 * 
 	 * @param  cache set with objects.
 	 * @param  key key to search in <code>cache</code>.
@@ -182,17 +595,23 @@ abstract class Prover {
 	 */
 	Set load(Set cache, Object key, CertSelector sel, MultiMap map)
 		throws ProofFoundException {
-		try {
+		if (prune) {
+			// composing intersects validities: such certs prove nothing
+			sel.setValidity(validity);
+		}
+		if (work != null) {
 			if (!cache.contains(key)) {
-				cache.add(key);
-				// fetch stored proofs
-				try {
-					Collection stored = store.getCertificates(sel);
-					numFetched += stored.size();
-					insertCertificates(stored);
-				} catch (CertStoreException e) {
-					throw new Error(e);
+				Fetch f = new Fetch(cache, key, sel);
+				if (prefetcher != null) {
+					f.lookup = prefetch(cache, key, sel);
 				}
+				batch.add(f);
+			}
+			return map.get(key);
+		}
+		try {
+			if (!cache.contains(key)) {
+				fetch(cache, key, sel, null);
 			}
 			return map.get(key);
 		} catch (ProofFoundException e) {
@@ -201,4 +620,120 @@ abstract class Prover {
 			throw e;
 		}
 	}
+
+	/**
+	 * Starts the lookup for a key on the prefetcher, unless it has already
+	 * been started.
+	 * 
+	 * @param  cache set with objects.
+	 * @param  key key to look up.
+	 * @param  sel cert selector to fetch certificates with.
+	 * @return the lookup, or <code>null</code> if the prefetcher is full.
+	 */
+	private Prefetcher.Lookup prefetch(
+		Set cache,
+		Object key,
+		CertSelector sel) {
+		synchronized (prefetched) {
+			Map lookups = (Map) prefetched.get(cache);
+			if (lookups == null) {
+				lookups = new HashMap();
+				prefetched.put(cache, lookups);
+			}
+			Prefetcher.Lookup l = (Prefetcher.Lookup) lookups.get(key);
+			if (l == null) {
+				l = prefetcher.submit(store, sel);
+				if (l != null) {
+					lookups.put(key, l);
+				}
+			}
+			return l;
+		}
+	}
+
+	/**
+	 * Fetches the certificates for a given <code>CertSelector</code> from
+	 * the cert-store, marks the key as loaded, and inserts the
+	 * certificates.  Does nothing if the key is already loaded.  If the
+	 * prover streams, the certificates a store hands over as it reads
+	 * them are expanded right away, while the store reads the rest; the
+	 * time spent expanding them is not counted as fetch time.
+	 * 
+	 * @param  cache set with objects.
+	 * @param  key key to add to <code>cache</code>.
+	 * @param  sel cert selector to fetch certificates with.
+	 * @param  lookup the prefetch of the certificates, or
+	 *         <code>null</code> to look them up now.
+	 * @throws ProofFoundException if a <i>proof is found</i>.
+	 */
+	private void fetch(
+		Set cache,
+		Object key,
+		CertSelector sel,
+		Prefetcher.Lookup lookup)
+		throws ProofFoundException {
+		if (!cache.add(key)) {
+			return; // already loaded
+		}
+		// fetch stored proofs
+		Streamer r = null;
+		if (work != null && stream && lookup == null) {
+			r = new Streamer();
+			sel.setReceiver(r);
+		}
+		try {
+			long start = System.currentTimeMillis();
+			Collection stored =
+				(lookup != null) ? lookup.get() : store.getCertificates(sel);
+			stats.fetchTime += System.currentTimeMillis() - start;
+			if (r != null && r.received > 0) {
+				// already expanded as they came
+				stats.fetchTime -= r.busy;
+				stats.numFetched += r.received;
+				return;
+			}
+			stats.numFetched += stored.size();
+			insertCertificates(stored);
+		} catch (CertStoreException e) {
+			throw new Error(e);
+		} finally {
+			if (r != null) {
+				sel.setReceiver(null);
+			}
+		}
+	}
+
+	/**
+	 * Expands the certificates of a lookup of an iterative prover as the
+	 * store reads them.  Once a proof of <code>provee</code> has been
+	 * found, the rest are only put on the work list.
+	 */
+	private class Streamer implements CertSelector.Receiver {
+		/**
+		 * Number of certificates received.
+		 */
+		int received = 0;
+
+		/**
+		 * Milliseconds spent expanding them.
+		 */
+		long busy = 0;
+
+		public void receive(Certificate cert) {
+			long start = System.currentTimeMillis();
+			received++;
+			try {
+				Proof p = new Proof(cert);
+				if (found == null) {
+					handle(p);
+				} else {
+					insert(p);
+					flush();
+				}
+			} catch (ProofFoundException e) {
+				throw new Error("iterative prover found a proof by exception");
+			}
+			busy += System.currentTimeMillis() - start;
+		}
+	}
 }
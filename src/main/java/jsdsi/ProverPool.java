@@ -0,0 +1,180 @@
+package jsdsi;
+
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of threads that run the workers of parallel searches
+ * (see {@link ParallelCertPathParameters#setProverPool(ProverPool)}).
+ * A <code>ProverPool</code> may be shared by any number of builds, so
+ * that they reuse its threads instead of each starting their own, and
+ * the number of threads searching at once stays bounded however many
+ * builds run.
+ *
+ * <p>The thread that asks for a proof always searches itself; the pool
+ * only adds helpers.  A helper that has not started by the time the
+ * search is over is dropped, so a build never waits for a busy pool.
+ * The threads run until {@link #shutdown()} is called.
+ *
+ * @see PProver
+ *
+ * @version $Revision$ $Date$
+ */
+public class ProverPool {
+	/**
+	 * A job submitted to a <code>ProverPool</code>.
+	 */
+	static class Task implements Runnable {
+		private Runnable job;
+		private boolean started = false;
+		private boolean done = false;
+
+		Task(Runnable r) {
+			job = r;
+		}
+
+		/**
+		 * Runs the job, unless the task has been cancelled.
+		 */
+		public void run() {
+			synchronized (this) {
+				if (done) {
+					return; // cancelled
+				}
+				started = true;
+			}
+			try {
+				job.run();
+			} finally {
+				synchronized (this) {
+					done = true;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Drops the task if it has not started yet.
+		 *
+		 * @return <code>true</code> if the job will never run,
+		 *         <code>false</code> if it has already started.
+		 */
+		synchronized boolean cancel() {
+			if (started) {
+				return false;
+			}
+			done = true;
+			return true;
+		}
+
+		/**
+		 * Waits for the task to finish or be cancelled.
+		 *
+		 * @throws InterruptedException if the waiting thread is
+		 *         interrupted.
+		 */
+		synchronized void join() throws InterruptedException {
+			while (!done) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * Tasks waiting for a thread.
+	 */
+	private final LinkedList queue = new LinkedList();
+
+	/**
+	 * Number of threads.
+	 */
+	private final int threads;
+
+	/**
+	 * Whether {@link #shutdown()} has been called.
+	 */
+	private boolean shutdown = false;
+
+	/**
+	 * Creates a new <code>ProverPool</code> and starts its threads.
+	 *
+	 * @param  threads number of workers to run at once.
+	 */
+	public ProverPool(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+				"number of threads must be positive");
+		}
+		this.threads = threads;
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread("ProverPool-" + i) {
+				public void run() {
+					work();
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Returns the number of threads of this pool.
+	 *
+	 * @return the number of threads of this pool.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Stops the threads once the tasks already queued are done.  Later
+	 * submissions are refused.
+	 */
+	public void shutdown() {
+		synchronized (queue) {
+			shutdown = true;
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Queues a job to be run by one of the threads.
+	 *
+	 * @param  r the job.
+	 * @return the queued task, or <code>null</code> if the pool has been
+	 *         shut down.
+	 */
+	Task submit(Runnable r) {
+		synchronized (queue) {
+			if (shutdown) {
+				return null;
+			}
+			Task t = new Task(r);
+			queue.addLast(t);
+			queue.notify();
+			return t;
+		}
+	}
+
+	/**
+	 * The loop run by each thread.
+	 */
+	private void work() {
+		for (;;) {
+			Task t;
+			synchronized (queue) {
+				while (queue.isEmpty() && !shutdown) {
+					try {
+						queue.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (queue.isEmpty()) {
+					return;
+				}
+				t = (Task) queue.removeFirst();
+			}
+			t.run();
+		}
+	}
+}
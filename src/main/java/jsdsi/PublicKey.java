@@ -198,7 +198,8 @@ public abstract class PublicKey
 		SexpUtil.checkDone(kbody, "public-key");
 		String type = key.getType();
 		if (type.startsWith("rsa")) {
-			return RSAPublicKey.parseRSAPublicKey(key, "RSA", uris);
+			return (PublicKey) Interner.canonical(
+				RSAPublicKey.parseRSAPublicKey(key, "RSA", uris));
 		}
 		throw new SexpParseException("unrecognized public-key type: " + type);
 	}
@@ -79,8 +79,9 @@ public class PublicKeyHash extends Principal {
 	 * @see java.lang.Object#equals(Object)
 	 */
 	public boolean equals(Object o) {
-		return (o instanceof PublicKeyHash)
-			&& hash.equals(((PublicKeyHash) o).hash);
+		return (o == this)
+			|| ((o instanceof PublicKeyHash)
+				&& hash.equals(((PublicKeyHash) o).hash));
 	}
 
 	/**
@@ -96,6 +97,7 @@ public class PublicKeyHash extends Principal {
 
 	public static PublicKeyHash parsePublicKeyHash(SexpList l)
 		throws SexpParseException {
-		return new PublicKeyHash(Hash.parseHash(l));
+		return (PublicKeyHash) Interner.canonical(
+			new PublicKeyHash(Hash.parseHash(l)));
 	}
 }
\ No newline at end of file
@@ -13,7 +13,6 @@
  */
 package jsdsi;
 
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -33,31 +32,39 @@ class RProver extends Prover {
 	/**
 	 * Certificates from issuers to subject's.
 	 */
-	Set loadedReverse = new HashSet();
+	Set loadedReverse;
 
 	/**
 	 * Certificates for issuers to local names.
 	 */
-	Set loadedCompatible = new HashSet();
+	Set loadedCompatible;
 
 	/**
 	 * @see jsdsi.Prover#Prover(Cert, java.security.cert.CertStore)
 	 */
 	RProver(Cert c, java.security.cert.CertStore s) {
-		super(c, s);
+		this(c, s, new ProofCache.Closure(), true);
+	}
+
+	/**
+	 * @see jsdsi.Prover#Prover(Cert, java.security.cert.CertStore, ProofCache.Closure, boolean)
+	 */
+	RProver(
+		Cert c,
+		java.security.cert.CertStore s,
+		ProofCache.Closure cl,
+		boolean iterative) {
+		super(c, s, cl, iterative);
+		loadedReverse = cl.loadedReverse;
+		loadedCompatible = cl.loadedCompatible;
 		assert(!(c.getSubject() instanceof Name));
 	}
 
 	/**
-	 * @see jsdsi.Prover#makeProof()
+	 * @see jsdsi.Prover#seed()
 	 */
-	Proof makeProof() {
-		try {
-			loadReverse(provee.getSubject());
-		} catch (ProofFoundException e) {
-			return e.getProof();
-		}
-		return null;
+	void seed() throws ProofFoundException {
+		loadReverse(provee.getSubject());
 	}
 
 	/**
@@ -90,114 +97,97 @@ class RProver extends Prover {
 	}
 
 	/**
-	 * @see jsdsi.Prover#insert(Proof)
+	 * @see jsdsi.Prover#expand(Proof)
 	 */
-	void insert(Proof p) throws ProofFoundException {
-		//System.out.println("INSERT("+p.hashCode()+"): "+p);
-		if (p.getCert().implies(provee)) {
-			//System.out.println("INSERT("+p.hashCode()+"): found proof!");
-			throw new ProofFoundException(p);
+	void expand(Proof p) throws ProofFoundException {
+		if (pruned(p)) {
+			return; // dead chain: its tag cannot cover provee's
 		}
-		if (!check.get(p.getCert()).isEmpty()) {
-			//System.out.println("INSERT("+p.hashCode()+"): already inserted");
-			return; // already have this proof
+		if (p.getCert().getSubject() instanceof Name) {
+			Name key = ((Name) p.getCert().getSubject()).prefix();
+			compatible.put(key, p);
+			// look up compatible certs, and compose
+			Set values = value.get(key);
+			//System.out.println("INSERT("+p.hashCode()
+			//+"): inserting right-composed "+values.size());
+			Iterator i = values.iterator();
+			while (i.hasNext()) {
+				try {
+					insert(compose(p, (Proof) i.next()));
+				} catch (Proof.IncompatibleException e) {
+                        //System.out.println("ignoring: "+e);
+				}
+			}
+			return;
 		}
-		check.put(p.getCert(), p);
 
-		try {
-			if (p.getCert().getSubject() instanceof Name) {
-				Name key = ((Name) p.getCert().getSubject()).prefix();
-				compatible.put(key, p);
-				// look up compatible certs, and compose
-				Set values = value.get(key);
-				//System.out.println("INSERT("+p.hashCode()
-				//+"): inserting right-composed "+values.size());
-				Iterator i = values.iterator();
-				while (i.hasNext()) {
-					try {
-						insert(p.compose((Proof) i.next()));
-					} catch (Proof.IncompatibleException e) {
+		if (p.getCert() instanceof NameCert) {
+			Name key = ((NameCert) p.getCert()).getFullName();
+			value.put(key, p);
+			reverse.put(p.getCert().getSubject(), p);
+			// look up compatible certs, and compose
+			Set compats = loadCompatible(key);
+			//System.out.println("INSERT("+p.hashCode()
+			//+"): inserting left-composed "+compats.size());
+			Iterator i = compats.iterator();
+			while (i.hasNext()) {
+				try {
+					insert(compose((Proof) i.next(), p));
+				} catch (Proof.IncompatibleException e) {
                         //System.out.println("ignoring: "+e);
-					}
 				}
-				return;
 			}
+			// search backwards to find extended names
+			Subject s = p.getCert().getIssuer();
+			//System.out.println("INSERT("+p.hashCode()
+			//+"): fetching reverse for "+s.hashCode());
+			loadReverse(s);
+			return;
+		}
+
+		if (p.getCert() instanceof AuthCert) {
+			issuer.put(p.getCert().getIssuer(), p);
+			reverse.put(p.getCert().getSubject(), p);
 
-			if (p.getCert() instanceof NameCert) {
-				Name key = ((NameCert) p.getCert()).getFullName();
-				value.put(key, p);
-				reverse.put(p.getCert().getSubject(), p);
-				// look up compatible certs, and compose
-				Set compats = loadCompatible(key);
-				//System.out.println("INSERT("+p.hashCode()
-				//+"): inserting left-composed "+compats.size());
-				Iterator i = compats.iterator();
+			if (((AuthCert) p.getCert()).getPropagate()
+				&& (p.getCert().getSubject() instanceof Principal)) {
+				// search forwards locally to find auth chains
+				Set issuers = issuer.get(p.getCert().getSubject());
+				Iterator i = issuers.iterator();
 				while (i.hasNext()) {
 					try {
-						insert(((Proof) i.next()).compose(p));
+						insert(compose(p, (Proof) i.next()));
 					} catch (Proof.IncompatibleException e) {
-                        //System.out.println("ignoring: "+e);
+                            //System.out.println("ignoring: "+e);
 					}
 				}
-				// search backwards to find extended names
-				Subject s = p.getCert().getIssuer();
-				//System.out.println("INSERT("+p.hashCode()
-				//+"): fetching reverse for "+s.hashCode());
-				loadReverse(s);
-				return;
 			}
 
-			if (p.getCert() instanceof AuthCert) {
-				issuer.put(p.getCert().getIssuer(), p);
-				reverse.put(p.getCert().getSubject(), p);
-
-				// TODO: optimize for provee:
-				// p.tag implies provee.tag
-
-				if (((AuthCert) p.getCert()).getPropagate()
-					&& (p.getCert().getSubject() instanceof Principal)) {
-					// search forwards locally to find auth chains
-					Set issuers = issuer.get(p.getCert().getSubject());
-					Iterator i = issuers.iterator();
-					while (i.hasNext()) {
-						try {
-							insert(p.compose((Proof) i.next()));
-						} catch (Proof.IncompatibleException e) {
-                            //System.out.println("ignoring: "+e);
-						}
+			// search backwards locally to find auth chains
+			Set reverses = reverse.get(p.getCert().getIssuer());
+			Iterator i = reverses.iterator();
+			while (i.hasNext()) {
+				try {
+					Proof pf = (Proof) i.next();
+					if ((pf.getCert() instanceof AuthCert)
+						&& ((AuthCert) pf.getCert()).getPropagate()
+						&& (pf.getCert().getSubject() instanceof Principal)) {
+						insert(compose(pf, p));
 					}
-				}
-
-				// search backwards locally to find auth chains
-				Set reverses = reverse.get(p.getCert().getIssuer());
-				Iterator i = reverses.iterator();
-				while (i.hasNext()) {
-					try {
-						Proof pf = (Proof) i.next();
-						if ((pf.getCert() instanceof AuthCert)
-							&& ((AuthCert) pf.getCert()).getPropagate()
-							&& (pf.getCert().getSubject() instanceof Principal)) {
-							insert(pf.compose(p));
-						}
-					} catch (Proof.IncompatibleException e) {
+				} catch (Proof.IncompatibleException e) {
                         //System.out.println("ignoring: "+e);
-					}
 				}
-
-				// search backwards to find new auths
-				Subject s = p.getCert().getIssuer();
-				//System.out.println("INSERT("+p.hashCode()
-				//+"): fetching reverse for "+s.hashCode());
-				loadReverse(s);
-				return;
 			}
 
-			throw new Error(
-				"unhandled case: " + p.getCert().getClass().getName());
-		} catch (ProofFoundException e) {
-			// invalidate cache
-			check.remove(p.getCert(), p);
-			throw e;
+			// search backwards to find new auths
+			Subject s = p.getCert().getIssuer();
+			//System.out.println("INSERT("+p.hashCode()
+			//+"): fetching reverse for "+s.hashCode());
+			loadReverse(s);
+			return;
 		}
+
+		throw new Error(
+			"unhandled case: " + p.getCert().getClass().getName());
 	}
 }
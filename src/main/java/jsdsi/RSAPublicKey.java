@@ -50,6 +50,11 @@ public class RSAPublicKey
 	 */
 	private transient final BigInteger exponent;
 
+	/**
+	 * Hash code, computed when first needed (0 until then).
+	 */
+	private transient int hash;
+
 	/**
 	 * Creates a new <code>RSAPublicKey</code> from a given modulus, exponent, 
 	 * algorithm-name, and URLs.
@@ -170,9 +175,13 @@ public class RSAPublicKey
 	 * @see java.lang.Object#equals(Object)
 	 */
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if (o instanceof RSAPublicKey) {
 			RSAPublicKey r = (RSAPublicKey) o;
-			return modulus.equals(r.modulus)
+			return hashCode() == r.hashCode()
+				&& modulus.equals(r.modulus)
 				&& exponent.equals(r.exponent)
 				&& super.equals(o);
 		}
@@ -183,7 +192,10 @@ public class RSAPublicKey
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		return modulus.hashCode() ^ exponent.hashCode() ^ super.hashCode();
+		if (hash == 0) {
+			hash = modulus.hashCode() ^ exponent.hashCode() ^ super.hashCode();
+		}
+		return hash;
 	}
 
 	public SexpList toPublicKeySexp() {
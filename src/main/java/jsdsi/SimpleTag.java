@@ -41,6 +41,11 @@ public class SimpleTag extends ExprTag {
 	 */
 	private transient final ExprTag[] tags;
 
+	/**
+	 * Hash code, computed when first needed (0 until then).
+	 */
+	private transient int hash;
+
 
 	/**
 	 * Creates a new <code>SimpleTag</code> from a string and an array of tags.
@@ -119,7 +124,11 @@ public class SimpleTag extends ExprTag {
 	 * @see java.lang.Object#equals(Object)
 	 */
 	public boolean equals(Object that) {
+		if (that == this) {
+			return true;
+		}
 		return (that instanceof SimpleTag)
+			&& this.hashCode() == that.hashCode()
 			&& this.value.equals(((SimpleTag) that).value)
 			&& Util.equals(this.tags, ((SimpleTag) that).tags);
 	}
@@ -128,7 +137,10 @@ public class SimpleTag extends ExprTag {
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		return Util.hashCode(value) ^ Util.hashCode(tags);
+		if (hash == 0) {
+			hash = Util.hashCode(value) ^ Util.hashCode(tags);
+		}
+		return hash;
 	}
 
 	/**
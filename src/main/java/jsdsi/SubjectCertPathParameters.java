@@ -33,4 +33,12 @@ public class SubjectCertPathParameters extends jsdsi.CertPathParameters {
 		throws InvalidAlgorithmParameterException {
 		super(c, s);
 	}
+
+	/**
+	 * @see jsdsi.CertPathParameters#CertPathParameters(Cert, ProofCache)
+	 */
+	public SubjectCertPathParameters(Cert c, ProofCache pc)
+		throws InvalidAlgorithmParameterException {
+		super(c, pc);
+	}
 }
\ No newline at end of file
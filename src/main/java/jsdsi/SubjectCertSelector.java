@@ -33,14 +33,17 @@ public class SubjectCertSelector extends CertSelector {
 	 * @see java.lang.Object#clone()
 	 */
 	public Object clone() {
-		return new SubjectCertSelector(subject);
+		CertSelector s = new SubjectCertSelector(subject);
+		s.setValidity(getValidity());
+		return s;
 	}
 
 	/**
 	 * @see java.security.cert.CertSelector#match(Certificate)
 	 */
 	public boolean match(jsdsi.Certificate cert) {
-		return cert.getCert().getSubject().equals(subject);
+		return cert.getCert().getSubject().equals(subject)
+			&& matchValidity(cert);
 	}
     
 	/**
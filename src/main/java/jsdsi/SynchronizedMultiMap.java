@@ -0,0 +1,134 @@
+package jsdsi;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A <code>MultiMap</code> that may be used by several threads at once.
+ * Every operation synchronizes on a lock given at construction, which
+ * may be shared by several maps so that a sequence of operations on
+ * different maps is seen in the same order by every thread.
+ * <code>get</code> returns a copy of the set for the key, so it can be
+ * iterated while other threads add to the map.
+ *
+ * @version $Revision$ $Date$
+ */
+class SynchronizedMultiMap extends MultiMap {
+	/**
+	 * The lock every operation synchronizes on.
+	 */
+	private final Object lock;
+
+	/**
+	 * Creates a new, empty <code>SynchronizedMultiMap</code>.
+	 *
+	 * @param  l the lock to synchronize on.
+	 */
+	SynchronizedMultiMap(Object l) {
+		lock = l;
+	}
+
+	/**
+	 * Returns the live set for a key, creating it if needed.  Must be
+	 * called with <code>lock</code> held.
+	 */
+	private Set set(Object key) {
+		Set set = (Set) map.get(key);
+		if (set == null) {
+			set = new HashSet();
+			map.put(key, set);
+		}
+		return set;
+	}
+
+	/**
+	 * Returns a copy of the <code>Set</code> for a given key.
+	 *
+	 * @see jsdsi.MultiMap#get(Object)
+	 */
+	public Set get(Object key) {
+		synchronized (lock) {
+			return new HashSet(find(key));
+		}
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#find(Object)
+	 */
+	public Set find(Object key) {
+		synchronized (lock) {
+			return super.find(key);
+		}
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#size()
+	 */
+	public int size() {
+		synchronized (lock) {
+			return super.size();
+		}
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#peakSize()
+	 */
+	public int peakSize() {
+		synchronized (lock) {
+			return super.peakSize();
+		}
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#put(Object, Object)
+	 */
+	public void put(Object key, Object value) {
+		synchronized (lock) {
+			if (set(key).add(value)) {
+				resize(1);
+			}
+		}
+	}
+
+	/**
+	 * Checks the set for the key and adds the value in one step, so two
+	 * threads cannot both add a first value for the same key.
+	 *
+	 * @see jsdsi.MultiMap#putIfAbsent(Object, Object)
+	 */
+	public boolean putIfAbsent(Object key, Object value) {
+		synchronized (lock) {
+			Set set = set(key);
+			if (!set.isEmpty()) {
+				return false;
+			}
+			set.add(value);
+			resize(1);
+			return true;
+		}
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#putAll(Object, Collection)
+	 */
+	public void putAll(Object key, Collection coll) {
+		synchronized (lock) {
+			Set set = set(key);
+			int n = set.size();
+			set.addAll(coll);
+			resize(set.size() - n);
+		}
+	}
+
+	/**
+	 * @see jsdsi.MultiMap#remove(Object, Object)
+	 */
+	public void remove(Object key, Object value) {
+		synchronized (lock) {
+			if (set(key).remove(value)) {
+				resize(-1);
+			}
+		}
+	}
+}
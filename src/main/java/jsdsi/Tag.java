@@ -118,6 +118,6 @@ public abstract class Tag extends Obj {
 				return ALL_TAG;
 			}
 		}
-		return ExprTag.parseExprTag(s);
+		return (Tag) Interner.canonical(ExprTag.parseExprTag(s));
 	}
 }
@@ -0,0 +1,223 @@
+package jsdsi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of values by tag, that finds the values whose tags may imply
+ * a given tag without testing all of them.  Each tag is turned into a
+ * key string: the value of a <code>StringTag</code>, the prefix of a
+ * <code>PrefixTag</code>, or the type of a <code>SimpleTag</code>
+ * followed by its first element if that is a string or prefix.  The keys
+ * are kept in a trie, so the tags that imply a given one are found on
+ * the path to its key: a prefix implies the strings and prefixes that
+ * start with it, and a simple tag implies the longer simple tags of the
+ * same type whose elements its own elements imply.  Tags of other kinds
+ * are not indexed, and are always returned.
+ *
+ * <p>The values returned are candidates only: some of them may not imply
+ * the tag asked about, and must be checked by the caller.  None of the
+ * values that do is left out.  Once built, a <code>TagIndex</code> may
+ * be read by several threads at once.
+ *
+ * @see CertStore
+ * @see AuthCertSelector
+ *
+ * @version $Revision$ $Date$
+ */
+class TagIndex {
+	/**
+	 * A node of the trie.
+	 */
+	private static class Node {
+		/**
+		 * <code>Character</code> -> <code>Node</code>, or
+		 * <code>null</code> if the node has no children.
+		 */
+		Map children;
+
+		/**
+		 * Values whose tags may imply the tags with keys that go through
+		 * this node.
+		 */
+		List prefix;
+
+		/**
+		 * Values whose tags may only imply the tags with the key that ends
+		 * at this node.
+		 */
+		List exact;
+	}
+
+	/**
+	 * Starts the keys of string and prefix tags.
+	 */
+	private static final char STRING = '\u0000';
+
+	/**
+	 * Starts the keys of simple tags.
+	 */
+	private static final char SIMPLE = '\u0001';
+
+	/**
+	 * Ends a string in a key.
+	 */
+	private static final char END = '\u0000';
+
+	private final Node root = new Node();
+
+	/**
+	 * Values whose tags are not indexed.
+	 */
+	private final List unindexed = new ArrayList();
+
+	/**
+	 * All the values, in the order they were added.
+	 */
+	private final List all = new ArrayList();
+
+	/**
+	 * Adds a value with its tag.
+	 *
+	 * @param  t the tag of the value.
+	 * @param  v the value.
+	 */
+	void add(Tag t, Object v) {
+		all.add(v);
+		String key;
+		boolean exact = false;
+		if (t instanceof StringTag) {
+			key = STRING + ((StringTag) t).getValue();
+			exact = true;
+		} else if (t instanceof PrefixTag) {
+			key = STRING + ((PrefixTag) t).getPrefix();
+		} else if (t instanceof SimpleTag) {
+			key = simpleKey((SimpleTag) t);
+		} else {
+			unindexed.add(v);
+			return;
+		}
+		Node n = root;
+		for (int i = 0; i < key.length(); i++) {
+			if (n.children == null) {
+				n.children = new HashMap();
+			}
+			Character c = new Character(key.charAt(i));
+			Node child = (Node) n.children.get(c);
+			if (child == null) {
+				child = new Node();
+				n.children.put(c, child);
+			}
+			n = child;
+		}
+		if (exact) {
+			if (n.exact == null) {
+				n.exact = new ArrayList();
+			}
+			n.exact.add(v);
+		} else {
+			if (n.prefix == null) {
+				n.prefix = new ArrayList();
+			}
+			n.prefix.add(v);
+		}
+	}
+
+	/**
+	 * Returns the key of a simple tag: its type, then its first element
+	 * if that is a string (ended) or a prefix (not ended).
+	 */
+	private static String simpleKey(SimpleTag t) {
+		String key = SIMPLE + t.getValue() + END;
+		ExprTag[] ts = t.getTags();
+		if (ts.length > 0) {
+			if (ts[0] instanceof StringTag) {
+				key += ((StringTag) ts[0]).getValue() + END;
+			} else if (ts[0] instanceof PrefixTag) {
+				key += ((PrefixTag) ts[0]).getPrefix();
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Returns all the values.
+	 *
+	 * @return the values, in the order they were added.
+	 */
+	Collection getAll() {
+		return Collections.unmodifiableList(all);
+	}
+
+	/**
+	 * Returns the values whose tags may imply a given tag.
+	 *
+	 * @param  t the tag.
+	 * @return a superset of the values whose tags imply <code>t</code>.
+	 */
+	Collection candidates(Tag t) {
+		String key;
+		boolean subtree = false;
+		if (t instanceof StringTag) {
+			key = STRING + ((StringTag) t).getValue();
+		} else if (t instanceof PrefixTag) {
+			key = STRING + ((PrefixTag) t).getPrefix();
+		} else if (t instanceof SimpleTag) {
+			key = simpleKey((SimpleTag) t);
+			ExprTag[] ts = ((SimpleTag) t).getTags();
+			// a prefix element may imply a first element of another kind
+			subtree = ts.length > 0
+				&& !(ts[0] instanceof StringTag)
+				&& !(ts[0] instanceof PrefixTag);
+		} else {
+			return getAll();
+		}
+		List l = new ArrayList(unindexed);
+		Node n = root;
+		for (int i = 0; n != null; i++) {
+			if (n.prefix != null) {
+				l.addAll(n.prefix);
+			}
+			if (i == key.length()) {
+				break;
+			}
+			n = (n.children == null)
+				? null
+				: (Node) n.children.get(new Character(key.charAt(i)));
+		}
+		if (n != null) {
+			if ((t instanceof StringTag) && (n.exact != null)) {
+				l.addAll(n.exact);
+			}
+			if (subtree) {
+				below(n, l);
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * Adds the values below a node (not those at it) to a list.
+	 */
+	private static void below(Node n, List l) {
+		if (n.children == null) {
+			return;
+		}
+		Iterator i = n.children.values().iterator();
+		while (i.hasNext()) {
+			Node c = (Node) i.next();
+			if (c.prefix != null) {
+				l.addAll(c.prefix);
+			}
+			if (c.exact != null) {
+				l.addAll(c.exact);
+			}
+			below(c, l);
+		}
+	}
+}
@@ -198,6 +198,24 @@ public class Validity extends Obj {
         return Arrays.asList(t1).containsAll(Arrays.asList(t2));
     }
     
+    /**
+     * Like {@link #implies(Validity, Validity)}, but ignores online
+     * tests.  A chain of certs implies <code>v2</code> only if the
+     * dates of each of its certs do, so this may be checked cert by cert.
+     * 
+     * @return true iff the dates of v1 cover those of v2
+     */
+    static boolean impliesDates(Validity v1, Validity v2) {
+        if (v1 == null) {
+            return true;  // null validity is always valid
+        }
+        if (v2 == null) {
+            return v1.notBefore == null && v1.notAfter == null;
+        }
+        return impliesNB(v1.notBefore, v2.notBefore)
+            && impliesNA(v1.notAfter, v2.notAfter);
+    }
+
     /**
      * @return true iff v1 is valid whenever v2 is valid
      */
@@ -121,6 +121,22 @@ class LDAPAttributes {
 		return(attribute + equals + Sexp.decodeString(obj.toTransport()));
 	}
 	
+	/**
+	 * The value of the issuer or subject attribute for a principal: the
+	 * principal itself if it is a hash, otherwise its hash with the given
+	 * algorithm
+	 * 
+	 * @param principal principal of an issuer or subject
+	 * @param hashAlg hash algorithm
+	 * @return String of the attribute value
+	 */
+	static String hashValue(jsdsi.Obj principal, String hashAlg) {
+		if(principal instanceof PublicKeyHash)
+			return Sexp.decodeString(principal.toTransport());
+		else
+			return Sexp.decodeString(new Hash(DigestAlgoEnum.fromSpki(hashAlg), principal, null).toTransport());
+	}
+	
 	/**
 	 * Create a subject filter from subject issuer and an
 	 * hash algorithm
@@ -133,7 +149,7 @@ class LDAPAttributes {
 		if(principal instanceof PublicKeyHash)
 			return filter(subject, (PublicKeyHash)principal);
 		else {
-			Hash sHash = new Hash(DigestAlgoEnum.fromJdk(hashAlg), (PublicKey)principal, null);
+			Hash sHash = new Hash(DigestAlgoEnum.fromSpki(hashAlg), (PublicKey)principal, null);
 			return filter(subject, sHash);
 		}
 	}
@@ -150,7 +166,7 @@ class LDAPAttributes {
 		if(principal instanceof PublicKeyHash)
 			return filter(issuer, principal);
 		else {
-			Hash iHash = new Hash(DigestAlgoEnum.fromJdk(hashAlg), principal, null);
+			Hash iHash = new Hash(DigestAlgoEnum.fromSpki(hashAlg), principal, null);
 			return filter(issuer, iHash);
 		}
 	}
@@ -168,7 +184,7 @@ class LDAPAttributes {
 		if(principal instanceof PublicKeyHash)
 			return(leftpar + ampersand + leftpar + filter(issuer, principal) + rightpar + leftpar + setIssuerName(name) + rightpar + rightpar);
 		else {
-			Hash iHash = new Hash(DigestAlgoEnum.fromJdk(hashAlg), principal, null);
+			Hash iHash = new Hash(DigestAlgoEnum.fromSpki(hashAlg), principal, null);
 			return(leftpar + ampersand + leftpar + filter(issuer, iHash) + rightpar + leftpar + setIssuerName(name) + rightpar + rightpar);
 		}
 	}
@@ -187,7 +203,7 @@ class LDAPAttributes {
 		if(principal instanceof PublicKeyHash)
 			return(leftpar + ampersand + leftpar + filter(subject, (PublicKeyHash)principal) + rightpar + leftpar + setSubjectName(name) + rightpar + rightpar);	
 		else {
-			Hash sHash = new Hash(DigestAlgoEnum.fromJdk(hashAlg), (PublicKey)principal, null);
+			Hash sHash = new Hash(DigestAlgoEnum.fromSpki(hashAlg), (PublicKey)principal, null);
 			return(leftpar + ampersand + leftpar + filter(subject, sHash) + rightpar + leftpar + setSubjectName(name) + rightpar + rightpar);
 		}		
 	}
@@ -0,0 +1,249 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import java.security.cert.CertStoreException;
+import com.novell.ldap.*;
+import com.novell.ldap.asn1.*;
+
+/**
+ * Iterator over the certificates a lookup in an LDAP store finds,
+ * decoding each one only when it is asked for.  The search is done a
+ * page at a time with the simple paged results control (RFC 2696) when
+ * a page size is set (see {@link LDAPCertStoreParameters#setPageSize(int)}):
+ * the next page is only asked for once the certificates of the last
+ * have been taken, so neither the server nor the client holds more than
+ * a page of them at once.  Without a page size the whole result is
+ * asked for at once, but is still decoded as it is taken.
+ *
+ * The iterator holds a connection of the store until it has run out of
+ * certificates, so one that is not read to the end must be closed.
+ * As for a single lookup, the sha1 hash is only searched when the md5
+ * hash finds nothing.  Errors are thrown as a
+ * <code>JsdsiRuntimeException</code> caused by a
+ * <code>CertStoreException</code>.
+ *
+ * @see LDAPCertStore#getCertificateIterator(jsdsi.CertSelector)
+ *
+ * @version $Revision$ $Date$
+ *
+ **/
+
+public class LDAPCertIterator implements Iterator {
+
+	/**
+	 * OID of the simple paged results control
+	 */
+	static final String PAGED_RESULTS = "1.2.840.113556.1.4.319";
+
+	private final LDAPConnectionPool pool;
+
+	private final String baseDN;
+
+	private final int scope;
+
+	/**
+	 * Filters to search, each only if the ones before found nothing
+	 */
+	private final String[] filters;
+
+	private final int pageSize;
+
+	private final LDAPDecodeCache cache;
+
+	private final jsdsi.CertSelector selector;
+
+	/**
+	 * Connection in use, or null before the first search and after the last
+	 */
+	private LDAPConnection lc;
+
+	/**
+	 * Index of the filter being searched
+	 */
+	private int filter = -1;
+
+	/**
+	 * Results of the search being read, when not paging
+	 */
+	private LDAPSearchResults results;
+
+	/**
+	 * Entries of the page being read, when paging
+	 */
+	private Iterator page;
+
+	/**
+	 * Cookie of the next page, or null if there is none
+	 */
+	private byte[] cookie;
+
+	/**
+	 * Number of entries the current filter has found
+	 */
+	private int found;
+
+	/**
+	 * Next certificate, if already decoded
+	 */
+	private jsdsi.Certificate next;
+
+	private boolean done = false;
+
+	/**
+	 * Creates a new iterator; the first search is made by the first call
+	 * to <code>hasNext</code>
+	 *
+	 * @param pool connections of the store
+	 * @param baseDN base dn to search
+	 * @param scope search scope
+	 * @param filters filters to search, each only if the ones before found nothing
+	 * @param pageSize entries per page, or 0 not to page
+	 * @param cache cache of decoded certificates, or null
+	 * @param selector selector whose validity the certificates must match
+	 */
+	LDAPCertIterator(LDAPConnectionPool pool, String baseDN, int scope, String[] filters,
+			int pageSize, LDAPDecodeCache cache, jsdsi.CertSelector selector) {
+		this.pool = pool;
+		this.baseDN = baseDN;
+		this.scope = scope;
+		this.filters = filters;
+		this.pageSize = pageSize;
+		this.cache = cache;
+		this.selector = selector;
+	}
+
+	public boolean hasNext() {
+		while (next == null && !done)
+			advance();
+		return next != null;
+	}
+
+	public Object next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Object c = next;
+		next = null;
+		return c;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Gives back the connection, if the iterator holds one.  The iterator
+	 * has no more certificates after.
+	 */
+	public void close() {
+		finish(false);
+	}
+
+	/**
+	 * Decodes the next entry, or asks for the next page, or searches the
+	 * next filter, or finishes
+	 */
+	private void advance() {
+		try {
+			boolean searched = results != null || page != null;
+			if (searched && (page != null ? page.hasNext() : results.hasMore())) {
+				LDAPEntry entry = (page != null) ? (LDAPEntry) page.next() : results.next();
+				found++;
+				jsdsi.Certificate cert = LDAPCertStore.decode(entry, cache);
+				if (selector.matchValidity(cert))
+					next = cert;
+			} else if (searched && cookie != null) {
+				search();
+			} else if (filter + 1 < filters.length && (filter < 0 || found == 0)) {
+				if (lc == null)
+					lc = pool.borrow();
+				filter++;
+				found = 0;
+				cookie = null;
+				search();
+			} else {
+				finish(false);
+			}
+		} catch (LDAPException e) {
+			boolean connecting = lc == null;
+			finish(true);
+			throw new jsdsi.JsdsiRuntimeException(new CertStoreException(
+				connecting ? "Server down or wrong connection parameters" : "Ldap internal error"));
+		} catch (java.security.cert.CertificateException e) {
+			finish(false);
+			throw new jsdsi.JsdsiRuntimeException(new CertStoreException("Unable to read certificates"));
+		} catch (Exception e) {
+			finish(false);
+			throw new jsdsi.JsdsiRuntimeException(new CertStoreException("Corrupted certificates"));
+		}
+	}
+
+	/**
+	 * Searches the current filter, from the current cookie if paging
+	 */
+	private void search() throws LDAPException {
+		String[] attributes = (cache == null)
+			? new String[] {LDAPAttributes.getCanonicalSexp()}
+			: new String[] {LDAPAttributes.getCanonicalSexp(), LDAPDecodeCache.MODIFY_TIMESTAMP};
+		if (pageSize <= 0) {
+			results = lc.search(baseDN, scope, filters[filter], attributes, false);
+			cookie = null;
+			return;
+		}
+		LDAPSearchConstraints cons = (LDAPSearchConstraints) lc.getSearchConstraints().clone();
+		cons.setControls(new LDAPControl(PAGED_RESULTS, false, pagedValue(pageSize, cookie)));
+		LDAPSearchResults r = lc.search(baseDN, scope, filters[filter], attributes, false, cons);
+		// take the whole page, so that its control, with the cookie of
+		// the next one, has been read
+		List entries = new ArrayList();
+		while (r.hasMore())
+			entries.add(r.next());
+		page = entries.iterator();
+		cookie = null;
+		LDAPControl[] controls = r.getResponseControls();
+		for (int i = 0; controls != null && i < controls.length; i++) {
+			if (PAGED_RESULTS.equals(controls[i].getID())) {
+				byte[] c = pagedCookie(controls[i].getValue());
+				cookie = (c.length == 0) ? null : c;
+			}
+		}
+	}
+
+	/**
+	 * Gives back the connection, closing it if broken
+	 */
+	private void finish(boolean broken) {
+		done = true;
+		results = null;
+		page = null;
+		next = null;
+		if (lc != null) {
+			pool.release(lc, broken);
+			lc = null;
+		}
+	}
+
+	/**
+	 * Encodes the value of a paged results control
+	 *
+	 * @param size page size
+	 * @param cookie cookie of the page, or null for the first
+	 * @return the value
+	 */
+	static byte[] pagedValue(int size, byte[] cookie) {
+		ASN1Sequence seq = new ASN1Sequence(2);
+		seq.add(new ASN1Integer(size));
+		seq.add(new ASN1OctetString((cookie == null) ? new byte[0] : cookie));
+		return seq.getEncoding(new LBEREncoder());
+	}
+
+	/**
+	 * Decodes the cookie of a paged results control
+	 *
+	 * @param value the value of the control
+	 * @return the cookie, empty after the last page
+	 */
+	static byte[] pagedCookie(byte[] value) {
+		ASN1Sequence seq = (ASN1Sequence) new LBERDecoder().decode(value);
+		return ((ASN1OctetString) seq.get(1)).byteValue();
+	}
+}
@@ -8,7 +8,24 @@ import java.security.cert.*;
 import com.novell.ldap.*;
 
 /**
- * LDAP based certificate store for SPKI/SDSI certificates
+ * LDAP based certificate store for SPKI/SDSI certificates.
+ * Lookups use connections from a pool (see 
+ * {@link LDAPCertStoreParameters#setMaxConnections(int)}), so the store
+ * may be used by several threads at once, each lookup on its own
+ * connection.  Idle connections are closed after the idle timeout, and
+ * all of them by {@link #close()}.
+ * 
+ * {@link #getCertificates(Collection)} looks up the certificates of many
+ * selectors at once, in one search for each batch of them, instead of
+ * up to two searches for each.
+ * {@link #getCertificateIterator(jsdsi.CertSelector)} hands out the
+ * certificates of a selector as they are read and decoded, a page at a
+ * time if a page size is set.  A lookup through
+ * <code>getCertificates</code> hands the certificates it reads to the
+ * receiver of the selector, if any (see
+ * {@link jsdsi.CertSelector#setReceiver(jsdsi.CertSelector.Receiver)}),
+ * so a prover composes those of the first pages while the later ones
+ * are still being read.
  * 
  * @author Lus Pedro
  * @version $Revision: 1.5 $ $Date: 2004/03/29 21:27:58 $
@@ -18,9 +35,9 @@ import com.novell.ldap.*;
 public class LDAPCertStore extends CertStoreSpi {
 	
 	/**
-	 * LDAP Connection instance
+	 * LDAP connection pool
 	 */ 
-	private LDAPConnection lc;
+	private LDAPConnectionPool pool;
 	
 	/**
 	 * LDAP scope used to perform searchs.
@@ -47,6 +64,43 @@ public class LDAPCertStore extends CertStoreSpi {
 	 * LDAPserver parameter
 	 */
 	private String LDAPserver;
+	
+	/**
+	 * Maximum number of selectors looked up in one search
+	 */
+	private int batchSize;
+	
+	/**
+	 * Number of entries read in each page, or 0 not to page
+	 */
+	private int pageSize;
+	
+	/**
+	 * Cache of decoded certificates, or null
+	 */
+	private LDAPDecodeCache decodeCache;
+	
+	/**
+	 * Attributes read by a batched search
+	 */
+	private static final String[] BATCH_ATTRIBUTES = new String[] {
+		LDAPAttributes.getCanonicalSexp(), LDAPAttributes.getIssuer(), LDAPAttributes.getSubject(),
+		LDAPAttributes.getIssuerName(), LDAPAttributes.getSubjectName(), LDAPDecodeCache.MODIFY_TIMESTAMP };
+	
+	/**
+	 * A selector of a batched lookup: the attribute that holds its
+	 * principal, and the name the entry must have if any
+	 */
+	private static class Key {
+		final jsdsi.CertSelector selector;
+		final String nameAttribute;
+		final String name;
+		Key(jsdsi.CertSelector selector, String nameAttribute, String name) {
+			this.selector = selector;
+			this.nameAttribute = nameAttribute;
+			this.name = name;
+		}
+	}
 		
 	/**
 	 * Instanciate LDAPCertStore
@@ -55,48 +109,235 @@ public class LDAPCertStore extends CertStoreSpi {
 	 * @throws CertStoreException
 	 */
 	private void init(LDAPCertStoreParameters params) throws CertStoreException {
-		lc = new LDAPConnection();
+		pool = new LDAPConnectionPool(params, params.getMaxConnections(), params.getIdleTimeout(), params.getValidationInterval());
 		LDAPserver = params.getLDAPserver();
 		LDAPport = params.getLDAPport();
 		LDAPbaseDN = params.getLDAPbaseDN();
+		batchSize = params.getBatchSize();
+		pageSize = params.getPageSize();
+		decodeCache = params.getDecodeCache();
 		dirSchema = null;			
 	}
 	
 	/**
 	 * Performe searchs on LDAPCertStore retrieving the
-	 * a collection of sdsi certificates
+	 * a collection of sdsi certificates, handing each to the receiver
+	 * of the selector as it is read
 	 * 
-	 * @param filterMD5 MD5 filter
-	 * @param filterSHA1 SHA1 filter
+	 * @param s selector whose certificates to look up
 	 * @return collection of sdsi certificates
 	 * @throws CertStoreException
 	 */	
-	private Set get(String filterMD5, String filterSHA1) throws CertStoreException {
-		LDAPSearchResults searchResults = null;
-		Set certs = new HashSet();		
+	private Set get(jsdsi.CertSelector s) throws CertStoreException {
+		Set certs = new HashSet();
+		jsdsi.CertSelector.Receiver r = s.getReceiver();
+		LDAPCertIterator i = getCertificateIterator(s);
+		try {
+			while (i.hasNext()) {
+				jsdsi.Certificate c = (jsdsi.Certificate) i.next();
+				if (certs.add(c) && r != null)
+					r.receive(c);
+			}
+		} catch (JsdsiRuntimeException e) {
+			if (e.getCause() instanceof CertStoreException)
+				throw (CertStoreException) e.getCause();
+			throw e;
+		} finally {
+			i.close();
+		}
+		return certs;
+	}
+	
+	/**
+	 * Looks up the certificates of a selector, decoding them as they are
+	 * taken from the iterator, and reading them a page at a time if a
+	 * page size is set (see {@link LDAPCertStoreParameters#setPageSize(int)}),
+	 * so that a caller need not hold all the certificates of an issuer
+	 * with very many at once.  The provers look up through
+	 * <code>getCertificates</code> instead, taking the certificates from
+	 * the receiver of their selector as this iterator reads them.  The
+	 * iterator holds a connection until it has been read to the end or
+	 * closed.
+	 * 
+	 * @param s selector whose certificates to look up
+	 * @return iterator over the sdsi certificates
+	 * @throws CertStoreException if the selector is not supported
+	 */
+	public LDAPCertIterator getCertificateIterator(jsdsi.CertSelector s) throws CertStoreException {
+		return new LDAPCertIterator(pool, LDAPbaseDN, searchScope, filters(s), pageSize,
+				decodeCache, s);
+	}
+	
+	/**
+	 * Decodes the certificate of an entry
+	 * 
+	 * @param entry entry with a canonicalSexp attribute
+	 * @return sdsi certificate
+	 * @throws Exception if the certificate cannot be read
+	 */
+	static jsdsi.Certificate decode(LDAPEntry entry) throws Exception {
+		jsdsi.sexp.SexpParser p = new jsdsi.sexp.SexpParser(entry.getAttribute(LDAPAttributes.getCanonicalSexp()).getByteValue());
+		return jsdsi.Certificate.fromSequence((jsdsi.Sequence)jsdsi.Obj.parseObj(p.readSexp()));
+	}
+	
+	/**
+	 * Returns the certificate of an entry, from a cache of decoded
+	 * certificates if there is one
+	 * 
+	 * @param entry entry with a canonicalSexp attribute
+	 * @param cache the cache, or null
+	 * @return sdsi certificate
+	 * @throws Exception if the certificate cannot be read
+	 */
+	static jsdsi.Certificate decode(LDAPEntry entry, LDAPDecodeCache cache) throws Exception {
+		return (cache == null) ? decode(entry) : cache.get(entry);
+	}
+	
+	/**
+	 * Looks up the certificates of many selectors at once, such as those
+	 * for all the issuers a prover reaches at one step.  The selectors are
+	 * looked up in batches (see {@link LDAPCertStoreParameters#setBatchSize(int)}):
+	 * one search for each batch, whose filter asks for the md5 and the sha1
+	 * hashes of every principal.  Each entry found is decoded once, and
+	 * given to every selector of the batch whose filter it matches.
+	 * 
+	 * Unlike a lookup of one selector, which only searches the sha1 hash
+	 * when the md5 hash finds nothing, a selector is given the
+	 * certificates stored under either hash.  And unlike it, an entry
+	 * whose certificate cannot be read is left out of the sets of the
+	 * selectors it matches, instead of failing the whole lookup.
+	 * 
+	 * @param selectors the jsdsi.CertSelectors to look up
+	 * @return map from each selector to the Set of its certificates
+	 * @throws CertStoreException
+	 */
+	public Map getCertificates(Collection selectors) throws CertStoreException {
+		Map result = new HashMap();
+		List batch = new ArrayList();
+		Iterator i = selectors.iterator();
+		while (i.hasNext()) {
+			Object s = i.next();
+			if (!(s instanceof jsdsi.CertSelector))
+				throw new CertStoreException("requires jsdsi.CertSelector");
+			if (result.containsKey(s))
+				continue;
+			result.put(s, new HashSet());
+			batch.add(s);
+			if (batch.size() == batchSize) {
+				getBatch(batch, result);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			getBatch(batch, result);
+		return result;
+	}
+	
+	/**
+	 * Looks up a batch of selectors in one search
+	 * 
+	 * @param batch the jsdsi.CertSelectors
+	 * @param result map from each selector to the Set of its certificates, added to
+	 * @throws CertStoreException
+	 */
+	private void getBatch(List batch, Map result) throws CertStoreException {
+		// principal attribute=hash -> Keys, and the terms of the filter
+		Map keys = new HashMap();
+		Set terms = new LinkedHashSet();
+		String[] algs = new String[] {"md5", "sha1"};
+		Iterator i = batch.iterator();
+		while (i.hasNext()) {
+			jsdsi.CertSelector s = (jsdsi.CertSelector) i.next();
+			String attribute;
+			jsdsi.Obj principal;
+			Key key;
+			if (s instanceof SubjectCertSelector) {
+				attribute = LDAPAttributes.getSubject();
+				principal = (jsdsi.Obj) ((SubjectCertSelector) s).getSubject();
+				key = new Key(s, null, null);
+			} else if (s instanceof CompatibleCertSelector) {
+				attribute = LDAPAttributes.getSubject();
+				principal = ((CompatibleCertSelector) s).getIssuer();
+				key = new Key(s, LDAPAttributes.getSubjectName(), ((CompatibleCertSelector) s).getName());
+			} else if (s instanceof NameCertSelector) {
+				attribute = LDAPAttributes.getIssuer();
+				principal = ((NameCertSelector) s).getIssuer();
+				key = new Key(s, LDAPAttributes.getIssuerName(), ((NameCertSelector) s).getName());
+			} else if (s instanceof AuthCertSelector) {
+				attribute = LDAPAttributes.getIssuer();
+				principal = ((AuthCertSelector) s).getIssuer();
+				key = new Key(s, null, null);
+			} else
+				throw new CertStoreException("unrecognized selector: " + s.getClass().getName());
+			for (int a = 0; a < algs.length; a++) {
+				String hash = attribute + "=" + LDAPAttributes.hashValue(principal, algs[a]);
+				List l = (List) keys.get(hash);
+				if (l == null) {
+					l = new ArrayList();
+					keys.put(hash, l);
+				}
+				if (!l.contains(key))
+					l.add(key);
+				if (key.name == null)
+					terms.add("(" + hash + ")");
+				else
+					terms.add("(&(" + hash + ")(" + key.nameAttribute + "=" + key.name + "))");
+			}
+		}
+		StringBuffer filter = new StringBuffer("(|");
+		i = terms.iterator();
+		while (i.hasNext())
+			filter.append((String) i.next());
+		filter.append(")");
+
+		LDAPConnection lc;
 		try {
-			// start default search MD5, if it fails try to search SHA1 
-			searchResults = lc.search(LDAPbaseDN, searchScope, filterMD5, new String[] {"canonicalSexp"}, false);
-			if(!searchResults.hasMore())
-				searchResults = lc.search(LDAPbaseDN, searchScope, filterSHA1, new String[] {"canonicalSexp"}, false);
-			
-			while(searchResults.hasMore()) {													                       
-				LDAPEntry nextEntry = null;
-				nextEntry = searchResults.next();
-				ByteArrayInputStream bis = new ByteArrayInputStream(nextEntry.getAttribute("canonicalSexp").getByteValue());
-				jsdsi.sexp.ObjInputStream ois = new jsdsi.sexp.ObjInputStream(bis);
-				jsdsi.Certificate cert = jsdsi.Certificate.fromSequence((jsdsi.Sequence)ois.readObj());
-				certs.add(cert);
+			lc = pool.borrow();
+		} catch(LDAPException e) {	
+			throw new CertStoreException("Server down or wrong connection parameters");
+		}
+		boolean broken = true;
+		try {
+			LDAPSearchResults searchResults = lc.search(LDAPbaseDN, searchScope, filter.toString(), BATCH_ATTRIBUTES, false);
+			while(searchResults.hasMore()) {
+				LDAPEntry entry = searchResults.next();
+				jsdsi.Certificate cert = null;
+				boolean unreadable = false;
+				String[] principals = new String[] {LDAPAttributes.getIssuer(), LDAPAttributes.getSubject()};
+				for (int p = 0; p < principals.length && !unreadable; p++) {
+					LDAPAttribute value = entry.getAttribute(principals[p]);
+					List l = (value == null) ? null : (List) keys.get(principals[p] + "=" + value.getStringValue());
+					if (l == null)
+						continue;
+					Iterator k = l.iterator();
+					while (k.hasNext() && !unreadable) {
+						Key key = (Key) k.next();
+						if (key.name != null) {
+							LDAPAttribute name = entry.getAttribute(key.nameAttribute);
+							if (name == null || !key.name.equals(name.getStringValue()))
+								continue;
+						}
+						if (cert == null) {
+							try {
+								cert = decode(entry, decodeCache);
+							} catch (Exception e) {
+								// left out for the keys it matches
+								unreadable = true;
+								continue;
+							}
+						}
+						if (key.selector.matchValidity(cert))
+							((Set) result.get(key.selector)).add(cert);
+					}
+				}
 			}
-			lc.disconnect();
+			// the search has been read to its end: the connection is fine
+			broken = false;
 		} catch(LDAPException e) {	
 			throw new CertStoreException("Ldap internal error");
-		} catch(java.security.cert.CertificateException e) {
-			throw new CertStoreException("Unable to read certificates");
-		} catch(Exception e) {	
-			throw new CertStoreException("Corrupted certificates");
-		} 
-		return certs;
+		} finally {
+			pool.release(lc, broken);
+		}
 	}
 	
 	/**
@@ -138,32 +379,47 @@ public class LDAPCertStore extends CertStoreSpi {
 	 * @see java.security.cert.CertStoreSpi#engineGetCertificates(java.security.cert.CertSelector)
 	 */
 	public Collection engineGetCertificates(jsdsi.CertSelector s) throws CertStoreException {
-		try {
-			lc.connect(LDAPserver, LDAPport);
-		} catch(LDAPException e) {	
-			throw new CertStoreException("Server down or wrong connection parameters");
-		}
+		return get(s);
+	}
+	
+	/**
+	 * The md5 and the sha1 filters of a selector
+	 * 
+	 * @param s the selector
+	 * @return the filters, md5 first
+	 * @throws CertStoreException if the selector is not supported
+	 */
+	private String[] filters(jsdsi.CertSelector s) throws CertStoreException {
 		if (s instanceof SubjectCertSelector) {
 			jsdsi.Subject subject = ((SubjectCertSelector) s).getSubject();
-			return get(LDAPAttributes.setSubjectFilter(subject, "md5"), LDAPAttributes.setSubjectFilter(subject, "sha1"));				
+			return new String[] {LDAPAttributes.setSubjectFilter(subject, "md5"), LDAPAttributes.setSubjectFilter(subject, "sha1")};				
 		}
 		if (s instanceof CompatibleCertSelector) {
 			jsdsi.Principal subject = ((CompatibleCertSelector) s).getIssuer();
 			String name = ((CompatibleCertSelector) s).getName();		
-			return get(LDAPAttributes.setCompatibleFilter(subject, name, "md5"), LDAPAttributes.setCompatibleFilter(subject, name, "sha1"));
+			return new String[] {LDAPAttributes.setCompatibleFilter(subject, name, "md5"), LDAPAttributes.setCompatibleFilter(subject, name, "sha1")};
 		}
 		if (s instanceof NameCertSelector) {
 			jsdsi.Principal issuer = ((NameCertSelector) s).getIssuer();
 			String name = ((NameCertSelector) s).getName(); 
-			return get(LDAPAttributes.setNameFilter(issuer, name, "md5"), LDAPAttributes.setNameFilter(issuer, name, "sha1"));
+			return new String[] {LDAPAttributes.setNameFilter(issuer, name, "md5"), LDAPAttributes.setNameFilter(issuer, name, "sha1")};
 		}
 		if (s instanceof AuthCertSelector) {
 			jsdsi.Principal issuer = ((AuthCertSelector) s).getIssuer();
-			return get(LDAPAttributes.setAuthFilter(issuer, "md5"), LDAPAttributes.setAuthFilter(issuer, "sha1"));
+			return new String[] {LDAPAttributes.setAuthFilter(issuer, "md5"), LDAPAttributes.setAuthFilter(issuer, "sha1")};
 		}
 		throw new CertStoreException("unrecognized selector: " + s.getClass().getName());				
 	}
 	
+	/**
+	 * Closes the connections of the store.  Lookups made afterwards fail,
+	 * and the connections of iterators still open are closed when they
+	 * are.
+	 */
+	public void close() {
+		pool.close();
+	}
+	
 	/**
 	 * @see java.security.cert.CertStoreSpi#engineGetCRLs(CRLSelector)
 	 */
@@ -13,6 +13,61 @@ import java.security.cert.CertStoreParameters;
 
 public class LDAPCertStoreParameters extends LDAPParameters implements CertStoreParameters {
 
+	/**
+	 * Default maximum number of pooled connections
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 8;
+	
+	/**
+	 * Default milliseconds after which an idle connection is closed
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+	
+	/**
+	 * Default milliseconds after which an idle connection is checked before use
+	 */
+	public static final long DEFAULT_VALIDATION_INTERVAL = 5 * 1000;
+	
+	/**
+	 * Default maximum number of selectors looked up in one search
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	
+	/**
+	 * Default number of entries read in each page, 0 for no paging
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 0;
+	
+	/**
+	 * Maximum number of pooled connections
+	 */
+	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+	
+	/**
+	 * Milliseconds after which an idle connection is closed
+	 */
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	
+	/**
+	 * Milliseconds after which an idle connection is checked before use
+	 */
+	private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+	
+	/**
+	 * Maximum number of selectors looked up in one search
+	 */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	
+	/**
+	 * Number of entries read in each page
+	 */
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	
+	/**
+	 * Cache of decoded certificates, shared by clones
+	 */
+	private LDAPDecodeCache decodeCache = new LDAPDecodeCache(LDAPDecodeCache.DEFAULT_MAX_SIZE);
+
 	/**
 	 * Creates a new instance of LDAPCertStoreParameters with a specified 
 	 * server name, port and base dn
@@ -73,6 +128,131 @@ public class LDAPCertStoreParameters extends LDAPParameters implements CertStore
 		return super.getLDAPbaseDN();
 	}
 	
+	/**
+	 * Maximum number of connections the store keeps open, and so the
+	 * number of lookups it runs at once
+	 * 
+	 * @return maximum number of connections
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+	
+	/**
+	 * Sets the maximum number of connections the store keeps open.  With
+	 * 0, the store opens a connection for each lookup and closes it after.
+	 * 
+	 * @param maxConnections maximum number of connections
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+	
+	/**
+	 * Milliseconds after which an idle connection is closed
+	 * 
+	 * @return idle timeout
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	
+	/**
+	 * Sets the milliseconds after which an idle connection is closed
+	 * 
+	 * @param idleTimeout idle timeout
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+	
+	/**
+	 * Milliseconds after which an idle connection is checked before it is
+	 * used again
+	 * 
+	 * @return validation interval
+	 */
+	public long getValidationInterval() {
+		return validationInterval;
+	}
+	
+	/**
+	 * Sets the milliseconds after which an idle connection is checked
+	 * before it is used again
+	 * 
+	 * @param validationInterval validation interval
+	 */
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+	
+	/**
+	 * Maximum number of selectors a batched lookup puts in one search
+	 * 
+	 * @see LDAPCertStore#getCertificates(java.util.Collection)
+	 * 
+	 * @return batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * Sets the maximum number of selectors a batched lookup puts in one
+	 * search.  Larger batches need fewer round trips, but make longer
+	 * filters, which some servers limit.
+	 * 
+	 * @param batchSize batch size, at least 1
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive");
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Number of entries a lookup reads in each page
+	 * 
+	 * @return page size, 0 if lookups do not page
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	/**
+	 * Sets the number of entries a lookup reads in each page, with the
+	 * simple paged results control.  The server must support the control.
+	 * With 0, a lookup asks for all the entries at once.
+	 * 
+	 * @see LDAPCertIterator
+	 * 
+	 * @param pageSize page size, or 0 not to page
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	
+	/**
+	 * Cache of the certificates the store has decoded
+	 * 
+	 * @return the cache, or null if the store decodes every entry it reads
+	 */
+	public LDAPDecodeCache getDecodeCache() {
+		return decodeCache;
+	}
+	
+	/**
+	 * Sets the cache of the certificates the store has decoded.  Stores
+	 * of the same directory may share one cache.  By default, each
+	 * LDAPCertStoreParameters (and its clones) has a cache of
+	 * {@link LDAPDecodeCache#DEFAULT_MAX_SIZE} certificates.
+	 * 
+	 * @param decodeCache the cache, or null to decode every entry read
+	 */
+	public void setDecodeCache(LDAPDecodeCache decodeCache) {
+		this.decodeCache = decodeCache;
+	}
+	
 	/**
 	 * Copy of LDAPCertStoreParameters 
 	 *
@@ -92,7 +272,11 @@ public class LDAPCertStoreParameters extends LDAPParameters implements CertStore
 		sb.append("LDAPCertStoreParameters: [\n");
 		sb.append("	serverName: " + super.getLDAPserver() + "\n");
 		sb.append("	port: " + super.getLDAPport() + "\n");
-		sb.append("	baseDN: " + super.getLDAPbaseDN() + " ]");
+		sb.append("	baseDN: " + super.getLDAPbaseDN() + "\n");
+		sb.append("	maxConnections: " + maxConnections + "\n");
+		sb.append("	batchSize: " + batchSize + "\n");
+		sb.append("	pageSize: " + pageSize + "\n");
+		sb.append("	decodeCache: " + decodeCache + " ]");
 		return sb.toString();
 	}
 }
\ No newline at end of file
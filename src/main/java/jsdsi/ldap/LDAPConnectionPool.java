@@ -0,0 +1,348 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import com.novell.ldap.*;
+
+/**
+ * A bounded pool of connections to an LDAP server, so that lookups do
+ * not pay for setting up a connection (and binding) each time, and
+ * several threads can each use their own connection at once.
+ *
+ * Connections are handed out by {@link #borrow()} and must be given back
+ * with {@link #release(LDAPConnection, boolean)}.  At most
+ * <code>maxConnections</code> are open at once; when all are in use,
+ * <code>borrow</code> waits for one to be released.  A connection that
+ * has been idle longer than the idle timeout is closed instead of
+ * being reused, and one idle longer than the validation interval is
+ * checked with <code>isConnectionAlive()</code> first.  A pool with no
+ * connections (<code>maxConnections &lt;= 0</code>) opens a connection
+ * for each borrow and closes it on release, as the store used to.
+ *
+ * While connections are idle, a timer closes them once they time out,
+ * so a pool that is no longer used does not keep them open.  Checking
+ * and closing connections is done outside the lock of the pool, so a
+ * slow server does not hold up the threads borrowing and releasing.
+ *
+ * @see LDAPCertStore
+ * @see LDAPCertStoreParameters
+ *
+ * @version $Revision$ $Date$
+ *
+ **/
+
+class LDAPConnectionPool {
+
+	/**
+	 * An idle connection and when it was released.
+	 */
+	private static class Idle {
+		final LDAPConnection connection;
+		final long since;
+		Idle(LDAPConnection c, long s) {
+			connection = c;
+			since = s;
+		}
+	}
+
+	/**
+	 * Closes the connections of the pools that have timed out, shared by
+	 * all pools
+	 */
+	private static Timer sweeper;
+
+	/**
+	 * Server parameters
+	 */
+	private final LDAPParameters params;
+
+	/**
+	 * Maximum number of open connections
+	 */
+	private final int maxConnections;
+
+	/**
+	 * Milliseconds after which an idle connection is closed
+	 */
+	private final long idleTimeout;
+
+	/**
+	 * Milliseconds after which an idle connection is checked before use
+	 */
+	private final long validationInterval;
+
+	/**
+	 * Idle connections, most recently released last
+	 */
+	private final LinkedList idle = new LinkedList();
+
+	/**
+	 * Number of open connections, idle or in use, or being checked or
+	 * closed
+	 */
+	private int open = 0;
+
+	/**
+	 * Number of connections opened so far
+	 */
+	private int created = 0;
+
+	/**
+	 * Whether the pool has been closed
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The task that will close the oldest idle connection when it times
+	 * out, or null if none is scheduled
+	 */
+	private TimerTask sweep = null;
+
+	/**
+	 * Creates a new pool of connections
+	 *
+	 * @param params server to connect to, and login to bind with if any
+	 * @param maxConnections maximum number of open connections, 0 for none kept
+	 * @param idleTimeout milliseconds after which an idle connection is closed
+	 * @param validationInterval milliseconds after which an idle connection is checked before use
+	 */
+	LDAPConnectionPool(LDAPParameters params, int maxConnections, long idleTimeout, long validationInterval) {
+		this.params = params;
+		this.maxConnections = maxConnections;
+		this.idleTimeout = idleTimeout;
+		this.validationInterval = validationInterval;
+	}
+
+	/**
+	 * Returns a connected connection, opening one if none is idle, and
+	 * waiting if as many as allowed are in use
+	 *
+	 * @return a connection
+	 * @throws LDAPException if a connection cannot be opened
+	 */
+	LDAPConnection borrow() throws LDAPException {
+		if (maxConnections <= 0)
+			return connect();
+		while (true) {
+			List stale = new ArrayList();
+			Idle i = null;
+			boolean reserved = false;
+			long now;
+			synchronized (this) {
+				while (true) {
+					if (closed)
+						throw new LDAPException("pool closed", LDAPException.OTHER, null);
+					now = System.currentTimeMillis();
+					evict(now, stale);
+					if (!idle.isEmpty()) {
+						i = (Idle) idle.removeLast();
+						break;
+					}
+					if (open < maxConnections) {
+						open++;
+						reserved = true;
+						break;
+					}
+					if (!stale.isEmpty())
+						break;
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						throw new LDAPException("interrupted", LDAPException.OTHER, null, e);
+					}
+				}
+			}
+			// check, close and connect outside the lock, so others may borrow meanwhile
+			discard(stale);
+			if (i != null) {
+				if (now - i.since < validationInterval || i.connection.isConnectionAlive())
+					return i.connection;
+				discard(i.connection);
+			} else if (reserved) {
+				try {
+					return connect();
+				} catch (LDAPException e) {
+					synchronized (this) {
+						open--;
+						notify();
+					}
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives a connection back to the pool
+	 *
+	 * @param lc the connection
+	 * @param broken true if the connection failed, and must be closed
+	 */
+	void release(LDAPConnection lc, boolean broken) {
+		if (maxConnections <= 0) {
+			close(lc);
+			return;
+		}
+		List stale = new ArrayList();
+		synchronized (this) {
+			if (broken || closed) {
+				stale.add(lc);
+			} else {
+				long now = System.currentTimeMillis();
+				idle.addLast(new Idle(lc, now));
+				evict(now, stale);
+				schedule(now);
+				notify();
+			}
+		}
+		discard(stale);
+	}
+
+	/**
+	 * Closes the idle connections, and makes those in use be closed when
+	 * they are released
+	 */
+	void close() {
+		List stale = new ArrayList();
+		synchronized (this) {
+			closed = true;
+			if (sweep != null) {
+				sweep.cancel();
+				sweep = null;
+			}
+			while (!idle.isEmpty())
+				stale.add(((Idle) idle.removeFirst()).connection);
+			notifyAll();
+		}
+		discard(stale);
+	}
+
+	/**
+	 * Number of connections open, idle or in use
+	 *
+	 * @return number of open connections
+	 */
+	synchronized int getOpen() {
+		return open;
+	}
+
+	/**
+	 * Number of connections idle
+	 *
+	 * @return number of idle connections
+	 */
+	synchronized int getIdle() {
+		return idle.size();
+	}
+
+	/**
+	 * Number of connections opened since the pool was created
+	 *
+	 * @return number of connections created
+	 */
+	synchronized int getCreated() {
+		return created;
+	}
+
+	/**
+	 * Takes out the connections that have been idle too long, to be
+	 * closed once the lock is released.  The oldest are first in the
+	 * list.  The lock must be held.
+	 */
+	private void evict(long now, List stale) {
+		while (!idle.isEmpty() && now - ((Idle) idle.getFirst()).since >= idleTimeout)
+			stale.add(((Idle) idle.removeFirst()).connection);
+	}
+
+	/**
+	 * Schedules closing the oldest idle connection when it times out, if
+	 * nothing is scheduled yet.  The lock must be held.
+	 */
+	private void schedule(long now) {
+		if (sweep != null || idle.isEmpty())
+			return;
+		long expires = ((Idle) idle.getFirst()).since + idleTimeout;
+		if (expires < now)
+			return; // the timeout overflows: never
+		sweep = new TimerTask() {
+			public void run() {
+				sweep(this);
+			}
+		};
+		sweeper().schedule(sweep, expires - now);
+	}
+
+	/**
+	 * Closes the connections that have timed out, and schedules the next
+	 * sweep if any are still idle
+	 */
+	private void sweep(TimerTask task) {
+		List stale = new ArrayList();
+		synchronized (this) {
+			if (sweep != task)
+				return;
+			sweep = null;
+			long now = System.currentTimeMillis();
+			evict(now, stale);
+			schedule(now);
+		}
+		discard(stale);
+	}
+
+	/**
+	 * Returns the timer shared by all pools, starting it if needed
+	 */
+	private static synchronized Timer sweeper() {
+		if (sweeper == null)
+			sweeper = new Timer(true);
+		return sweeper;
+	}
+
+	/**
+	 * Closes connections counted as open.  The lock must not be held.
+	 */
+	private void discard(List connections) {
+		Iterator i = connections.iterator();
+		while (i.hasNext())
+			discard((LDAPConnection) i.next());
+	}
+
+	/**
+	 * Closes a connection counted as open.  The lock must not be held.
+	 */
+	private void discard(LDAPConnection lc) {
+		close(lc);
+		synchronized (this) {
+			open--;
+			notify();
+		}
+	}
+
+	/**
+	 * Opens and binds a new connection
+	 */
+	private LDAPConnection connect() throws LDAPException {
+		LDAPConnection lc = new LDAPConnection();
+		lc.connect(params.getLDAPserver(), params.getLDAPport());
+		String login = params.getLDAPlogin();
+		if (login != null && login.length() > 0) {
+			try {
+				lc.bind(LDAPConnection.LDAP_V3, login, params.getLDAPpassword().getBytes());
+			} catch (LDAPException e) {
+				close(lc);
+				throw e;
+			}
+		}
+		synchronized (this) {
+			created++;
+		}
+		return lc;
+	}
+
+	private static void close(LDAPConnection lc) {
+		try {
+			lc.disconnect();
+		} catch (LDAPException e) {
+			// already gone
+		}
+	}
+}
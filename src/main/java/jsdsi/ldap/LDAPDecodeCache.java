@@ -0,0 +1,195 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import com.novell.ldap.*;
+
+/**
+ * Cache of the certificates decoded from the entries of an LDAP store,
+ * so that an entry that has not changed since it was last read is not
+ * parsed again.  An entry is known by its dn, its
+ * <code>modifyTimestamp</code> if the server returns one, and the md5
+ * hash of its <code>canonicalSexp</code>.  The hash is needed even with
+ * the timestamp, which many servers keep to the second only: an entry
+ * replaced twice within a second keeps its timestamp.
+ *
+ * The cache holds at most <code>maxSize</code> certificates, and evicts
+ * those used least recently to stay under it.  It may be shared by any
+ * number of stores (see {@link LDAPCertStoreParameters#setDecodeCache(LDAPDecodeCache)}),
+ * and counts its hits and misses.
+ *
+ * @see LDAPCertStore
+ *
+ * @version $Revision$ $Date$
+ *
+ **/
+
+public class LDAPDecodeCache {
+
+	/**
+	 * Default maximum number of certificates cached
+	 */
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	/**
+	 * Operational attribute the server changes with the entry
+	 */
+	static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+	/**
+	 * key -> certificate, least recently used first, that evicts the
+	 * least recently used once it holds more than its maximum size
+	 */
+	private static class Entries extends LinkedHashMap {
+		private static final long serialVersionUID = -3338705780185714908L;
+
+		private final int maxSize;
+
+		long evictions = 0;
+
+		Entries(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			if (size() <= maxSize)
+				return false;
+			evictions++;
+			return true;
+		}
+	}
+
+	private final int maxSize;
+
+	private final Entries entries;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param maxSize maximum number of certificates cached, at least 1
+	 */
+	public LDAPDecodeCache(int maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be positive");
+		this.maxSize = maxSize;
+		entries = new Entries(maxSize);
+	}
+
+	/**
+	 * Returns the certificate of an entry, decoding it only if it is not
+	 * cached
+	 *
+	 * @param entry entry with a canonicalSexp attribute
+	 * @return sdsi certificate
+	 * @throws Exception if the certificate cannot be read
+	 */
+	jsdsi.Certificate get(LDAPEntry entry) throws Exception {
+		Object key = key(entry);
+		synchronized (this) {
+			jsdsi.Certificate c = (jsdsi.Certificate) entries.get(key);
+			if (c != null) {
+				hits++;
+				return c;
+			}
+			misses++;
+		}
+		// decode outside the lock
+		jsdsi.Certificate c = LDAPCertStore.decode(entry);
+		synchronized (this) {
+			entries.put(key, c);
+		}
+		return c;
+	}
+
+	/**
+	 * The key of an entry: its dn, its modifyTimestamp if any, and the
+	 * hash of its certificate
+	 */
+	private static Object key(LDAPEntry entry) throws NoSuchAlgorithmException {
+		LDAPAttribute stamp = entry.getAttribute(MODIFY_TIMESTAMP);
+		byte[] sexp = entry.getAttribute(LDAPAttributes.getCanonicalSexp()).getByteValue();
+		byte[] hash = MessageDigest.getInstance("MD5").digest(sexp);
+		return Arrays.asList(new Object[] { entry.getDN(),
+				(stamp == null) ? null : stamp.getStringValue(),
+				new java.math.BigInteger(1, hash).toString(16) });
+	}
+
+	/**
+	 * Empties the cache, keeping its counters
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Number of certificates cached
+	 *
+	 * @return size of the cache
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Maximum number of certificates cached
+	 *
+	 * @return maximum size of the cache
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Number of entries found decoded already
+	 *
+	 * @return number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of entries decoded
+	 *
+	 * @return number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Number of certificates evicted to stay under the maximum size
+	 *
+	 * @return number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return entries.evictions;
+	}
+
+	/**
+	 * Fraction of entries found decoded already
+	 *
+	 * @return hits over hits and misses, 0 if there have been none
+	 */
+	public synchronized double getHitRate() {
+		long n = hits + misses;
+		return (n == 0) ? 0 : (double) hits / n;
+	}
+
+	/**
+	 * String representation of the cache and its counters
+	 *
+	 * @return String representation
+	 */
+	public synchronized String toString() {
+		return "LDAPDecodeCache: " + entries.size() + "/" + maxSize
+			+ " certificates, " + hits + " hits, " + misses + " misses, "
+			+ entries.evictions + " evictions";
+	}
+}
@@ -0,0 +1,455 @@
+package jsdsi.ldap;
+
+import java.io.*;
+import java.util.*;
+import java.security.KeyPair;
+import jsdsi.util.DigestAlgoEnum;
+import com.novell.ldap.*;
+
+/**
+ * Bulk import of sdsi certificates into an LDAP server.  Storing one
+ * certificate at a time pays a round trip (and a connection) for each;
+ * the importer instead signs and encodes the certificates on a pool of
+ * worker threads, each with a connection of its own on which it keeps up
+ * to <code>window</code> adds in flight, sending the next ones while the
+ * answers to the last are on their way.
+ *
+ * The items to import come from an <code>Iterator</code>, in an order
+ * that must be the same each time the import is run: a
+ * <code>jsdsi.Certificate</code> is stored as it is, and a
+ * <code>jsdsi.Cert</code> is first signed with the key pair given to
+ * {@link #setSigner(KeyPair, DigestAlgoEnum)}.  The item at position
+ * <code>n</code> is stored with cn <code>cnPrefix + n</code>.
+ *
+ * With a checkpoint file, the importer writes down, every
+ * <code>checkpointInterval</code> certificates and when it stops, how
+ * many of the first items are all stored.  A later import with the same
+ * checkpoint skips them.  Certificates after those that were stored
+ * before the import stopped are found to exist already, and counted as
+ * stored.
+ *
+ * @see LDAPOperations#importCertificates(Iterator, String, File)
+ *
+ * @version $Revision$ $Date$
+ *
+ **/
+
+public class LDAPImporter {
+
+	/**
+	 * Default number of worker threads, and of connections
+	 */
+	public static final int DEFAULT_WORKERS = 4;
+
+	/**
+	 * Default number of adds each worker keeps in flight
+	 */
+	public static final int DEFAULT_WINDOW = 32;
+
+	/**
+	 * Default number of certificates stored between checkpoints
+	 */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+	private final LDAPParameters params;
+
+	private final File checkpoint;
+
+	private int workers = DEFAULT_WORKERS;
+
+	private int window = DEFAULT_WINDOW;
+
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+	private String hashAlg = "md5";
+
+	private KeyPair signer;
+
+	private DigestAlgoEnum digest;
+
+	/**
+	 * Items waiting for a worker, as { Long position, item }
+	 */
+	private final LinkedList queue = new LinkedList();
+
+	/**
+	 * Whether the reader has put all the items in the queue
+	 */
+	private boolean endOfInput;
+
+	/**
+	 * First error, which stops the import
+	 */
+	private Throwable error;
+
+	/**
+	 * Number of leading items all stored
+	 */
+	private long mark;
+
+	/**
+	 * Positions after the mark that are stored
+	 */
+	private final SortedSet stored = new TreeSet();
+
+	/**
+	 * Value of the mark at the last checkpoint
+	 */
+	private long saved;
+
+	private long added;
+
+	private long existing;
+
+	private long elapsed;
+
+	/**
+	 * Creates a new importer
+	 *
+	 * @param params ldap parameters
+	 * @param checkpoint file to keep the progress in, or null
+	 */
+	public LDAPImporter(LDAPParameters params, File checkpoint) {
+		this.params = params;
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Sets the number of worker threads, each with a connection
+	 *
+	 * @param workers number of workers, at least 1
+	 */
+	public void setWorkers(int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("workers must be positive");
+		this.workers = workers;
+	}
+
+	/**
+	 * Sets the number of adds each worker keeps in flight
+	 *
+	 * @param window number of adds, at least 1
+	 */
+	public void setWindow(int window) {
+		if (window < 1)
+			throw new IllegalArgumentException("window must be positive");
+		this.window = window;
+	}
+
+	/**
+	 * Sets the number of certificates stored between checkpoints
+	 *
+	 * @param checkpointInterval number of certificates, at least 1
+	 */
+	public void setCheckpointInterval(int checkpointInterval) {
+		if (checkpointInterval < 1)
+			throw new IllegalArgumentException("checkpointInterval must be positive");
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Sets the hash algorithm to use with the public keys
+	 *
+	 * @param hashAlg "md5" or "sha1"
+	 */
+	public void setHashAlg(String hashAlg) {
+		this.hashAlg = hashAlg;
+	}
+
+	/**
+	 * Sets the key pair <code>jsdsi.Cert</code> items are signed with
+	 *
+	 * @param signer the key pair
+	 * @param digest the digest algorithm to sign with
+	 */
+	public void setSigner(KeyPair signer, DigestAlgoEnum digest) {
+		this.signer = signer;
+		this.digest = digest;
+	}
+
+	/**
+	 * Number of certificates added by the last import
+	 *
+	 * @return number added
+	 */
+	public synchronized long getAdded() {
+		return added;
+	}
+
+	/**
+	 * Number of certificates the last import found stored already
+	 *
+	 * @return number found
+	 */
+	public synchronized long getExisting() {
+		return existing;
+	}
+
+	/**
+	 * Milliseconds the last import took
+	 *
+	 * @return time taken
+	 */
+	public synchronized long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Certificates stored per second by the last import
+	 *
+	 * @return adds per second
+	 */
+	public synchronized double getRate() {
+		return (added + existing) * 1000.0 / Math.max(elapsed, 1);
+	}
+
+	/**
+	 * Stores the certificates of an Iterator, from where the checkpoint,
+	 * if any, says the last import stopped
+	 *
+	 * @param items Iterator over the jsdsi.Certificates and jsdsi.Certs to store
+	 * @param cnPrefix prefix of the cn of each certificate
+	 * @return number of certificates added
+	 * @throws LDAPException if a certificate could not be added, or
+	 *         could not be read or signed
+	 */
+	public long importCertificates(Iterator items, final String cnPrefix) throws LDAPException {
+		long start = System.currentTimeMillis();
+		synchronized (this) {
+			queue.clear();
+			stored.clear();
+			endOfInput = false;
+			error = null;
+			added = 0;
+			existing = 0;
+			mark = readCheckpoint();
+			saved = mark;
+		}
+		final LDAPConnectionPool pool = new LDAPConnectionPool(params, workers, Long.MAX_VALUE, Long.MAX_VALUE);
+		Thread[] threads = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			threads[i] = new Thread("LDAPImporter-" + i) {
+				public void run() {
+					work(pool, cnPrefix);
+				}
+			};
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		try {
+			read(items);
+		} finally {
+			synchronized (this) {
+				endOfInput = true;
+				notifyAll();
+			}
+			for (int i = 0; i < workers; i++) {
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					fail(e);
+				}
+			}
+			pool.close();
+			synchronized (this) {
+				// even if reading failed, so that a restart skips what was stored
+				try {
+					writeCheckpoint();
+				} catch (LDAPException e) {
+					fail(e);
+				}
+				elapsed = System.currentTimeMillis() - start;
+			}
+		}
+		synchronized (this) {
+			if (error instanceof LDAPException)
+				throw (LDAPException) error;
+			if (error != null)
+				throw new LDAPException(error.toString(), LDAPException.OTHER, null, error);
+			return added;
+		}
+	}
+
+	/**
+	 * Puts the items after the mark in the queue, waiting while it is full
+	 */
+	private void read(Iterator items) {
+		long skip;
+		synchronized (this) {
+			skip = mark;
+		}
+		long n = 0;
+		try {
+			while (items.hasNext()) {
+				Object item = items.next();
+				if (n < skip) {
+					n++;
+					continue;
+				}
+				synchronized (this) {
+					while (error == null && queue.size() >= workers * window)
+						wait();
+					if (error != null)
+						return;
+					queue.addLast(new Object[] { new Long(n), item });
+					notify();
+				}
+				n++;
+			}
+		} catch (InterruptedException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Takes the next item, or null when there are no more
+	 */
+	private synchronized Object[] take() throws InterruptedException {
+		while (queue.isEmpty() && !endOfInput && error == null)
+			wait();
+		if (queue.isEmpty() || error != null)
+			return null;
+		Object[] item = (Object[]) queue.removeFirst();
+		notifyAll();
+		return item;
+	}
+
+	/**
+	 * The loop of a worker: encode an item, send its add, and collect
+	 * answers while the window is full
+	 */
+	private void work(LDAPConnectionPool pool, String cnPrefix) {
+		LDAPConnection lc = null;
+		boolean broken = false;
+		// message id -> position of the add
+		Map pending = new HashMap();
+		LDAPMessageQueue answers = null;
+		try {
+			lc = pool.borrow();
+			Object[] item;
+			while ((item = take()) != null) {
+				long n = ((Long) item[0]).longValue();
+				jsdsi.Certificate c = certificate(item[1]);
+				LDAPEntry entry = new LDAPEntry(LDAPAttributes.setCn(cnPrefix + n) + params.getLDAPbaseDN(),
+						LDAPOperations.attributes(cnPrefix + n, c, hashAlg));
+				LDAPAddRequest add = new LDAPAddRequest(entry, null);
+				answers = lc.sendRequest(add, answers);
+				pending.put(new Integer(add.getMessageID()), item[0]);
+				while (pending.size() >= window)
+					collect(answers, pending);
+			}
+			while (!pending.isEmpty())
+				collect(answers, pending);
+		} catch (Throwable e) {
+			// after an Error the state of the connection is not known
+			broken = e instanceof LDAPException || e instanceof Error;
+			fail(e);
+		} finally {
+			if (lc != null)
+				pool.release(lc, broken);
+		}
+	}
+
+	/**
+	 * Waits for the answer to one of the adds in flight
+	 */
+	private void collect(LDAPMessageQueue answers, Map pending) throws LDAPException {
+		LDAPResponse r = (LDAPResponse) answers.getResponse();
+		Long n = (Long) pending.remove(new Integer(r.getMessageID()));
+		if (r.getResultCode() == LDAPException.ENTRY_ALREADY_EXISTS) {
+			done(n.longValue(), false);
+		} else {
+			r.chkResultCode();
+			done(n.longValue(), true);
+		}
+	}
+
+	/**
+	 * Signs an item if it is a jsdsi.Cert
+	 */
+	private jsdsi.Certificate certificate(Object item) throws Exception {
+		if (item instanceof jsdsi.Certificate)
+			return (jsdsi.Certificate) item;
+		if (!(item instanceof jsdsi.Cert))
+			throw new IllegalArgumentException("cannot import " + item.getClass().getName());
+		if (signer == null)
+			throw new IllegalStateException("no signer to sign certs with");
+		jsdsi.Cert cert = (jsdsi.Cert) item;
+		return new jsdsi.Certificate(cert, jsdsi.Signature.create(signer, cert, digest));
+	}
+
+	/**
+	 * Records that an item is stored, moving the mark past the items
+	 * stored after it, and writes a checkpoint every so often
+	 */
+	private synchronized void done(long n, boolean isNew) {
+		if (isNew)
+			added++;
+		else
+			existing++;
+		stored.add(new Long(n));
+		while (!stored.isEmpty() && ((Long) stored.first()).longValue() == mark) {
+			stored.remove(stored.first());
+			mark++;
+		}
+		if (mark - saved >= checkpointInterval) {
+			try {
+				writeCheckpoint();
+			} catch (LDAPException e) {
+				fail(e);
+			}
+		}
+	}
+
+	private synchronized void fail(Throwable e) {
+		if (error == null)
+			error = e;
+		notifyAll();
+	}
+
+	/**
+	 * Reads the mark of the last checkpoint, 0 if there is none
+	 */
+	private long readCheckpoint() throws LDAPException {
+		if (checkpoint == null || !checkpoint.exists())
+			return 0;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(checkpoint));
+			try {
+				return Long.parseLong(in.readLine().trim());
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			throw new LDAPException("cannot read checkpoint " + checkpoint, LDAPException.OTHER, null, e);
+		}
+	}
+
+	/**
+	 * Writes the mark to the checkpoint, through a temporary file renamed
+	 * into place, so a checkpoint is never half written
+	 */
+	private synchronized void writeCheckpoint() throws LDAPException {
+		if (checkpoint == null || mark == saved)
+			return;
+		File tmp = new File(checkpoint.getPath() + ".tmp");
+		try {
+			Writer out = new FileWriter(tmp);
+			try {
+				out.write(Long.toString(mark) + "\n");
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(checkpoint)) {
+				checkpoint.delete();
+				if (!tmp.renameTo(checkpoint))
+					throw new IOException("cannot rename " + tmp);
+			}
+			saved = mark;
+		} catch (IOException e) {
+			throw new LDAPException("cannot write checkpoint " + checkpoint, LDAPException.OTHER, null, e);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package jsdsi.ldap;
 
 import java.io.*;
+import java.util.Iterator;
 import jsdsi.*;
 import jsdsi.sexp.*;
 import jsdsi.util.DigestAlgoEnum;
@@ -136,6 +137,28 @@ public class LDAPOperations extends LDAPOp {
 	 * @param hashAlg hash algorithm to use with the public keys, "md5" or "sha1"
 	 */
 	public void storeCertificate(String cn, jsdsi.Certificate certificate, String hashAlg) {
+		LDAPAttributeSet attributeSet = attributes(cn, certificate, hashAlg);
+		try {
+			LDAPBindConnection();
+			LDAPStore(setCn(cn), attributeSet);
+			LDAPDisconnection();
+		} catch(LDAPException e) {
+			System.err.println(e);
+			System.exit(0);
+		}
+	}
+	
+	/**
+	 * The attributes a sdsi certificate is stored with
+	 * 
+	 * @see #storeCertificate(String, jsdsi.Certificate, String)
+	 * 
+	 * @param cn cn ldap schema attribute that represents certificate name
+	 * @param certificate sdsi certificate
+	 * @param hashAlg hash algorithm to use with the public keys, "md5" or "sha1"
+	 * @return the attributes of the entry
+	 */
+	static LDAPAttributeSet attributes(String cn, jsdsi.Certificate certificate, String hashAlg) {
 		LDAPAttributeSet attributeSet = new LDAPAttributeSet();
 		LDAPAttribute attribute = null; 	
 		Cert cert = certificate.getCert();
@@ -175,15 +198,26 @@ public class LDAPOperations extends LDAPOp {
 			throw new IllegalArgumentException("notAfter is required");
 		else
 			attributeSet.add(new LDAPAttribute(getNotAfter(), cert.getValidity().getNotAfter().toString()));
-		
-		try {
-			LDAPBindConnection();
-			LDAPStore(setCn(cn), attributeSet);
-			LDAPDisconnection();
-		} catch(LDAPException e) {
-			System.err.println(e);
-			System.exit(0);
-		}
+		return attributeSet;
+	}
+	
+	/**
+	 * Stores many sdsi certificates, with many adds in flight at once,
+	 * and resuming an import that was interrupted if a checkpoint file is
+	 * given.  The certificates are stored with cn <code>cnPrefix</code>
+	 * followed by their position in <code>certificates</code>; default
+	 * hash algorithm "md5" is assumed.
+	 * 
+	 * @see LDAPImporter
+	 * 
+	 * @param certificates Iterator over the sdsi certificates to store
+	 * @param cnPrefix prefix of the cn of each certificate
+	 * @param checkpoint file to keep the progress in, or null
+	 * @return number of certificates added
+	 * @throws LDAPException if a certificate could not be added
+	 */
+	public long importCertificates(Iterator certificates, String cnPrefix, File checkpoint) throws LDAPException {
+		return new LDAPImporter(getParameters(), checkpoint).importCertificates(certificates, cnPrefix);
 	}
 	
 	/**
@@ -0,0 +1,472 @@
+package jsdsi.sexp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads serialized S-expressions from a byte array or a
+ * <code>ByteBuffer</code>.  Reads the same encodings as
+ * {@link SexpInputStream} and returns the same S-expressions, but
+ * works on the array directly: the length-prefixed strings of the
+ * canonical encoding are copied out whole with
+ * <code>System.arraycopy</code>, and lists are built on an explicit
+ * stack rather than by recursion, so that certificates read from
+ * memory (a file store, an LDAP attribute) are parsed in a single tight
+ * loop.
+ *
+ * @version $Revision$ $Date$
+ *
+ * @see SexpInputStream
+ */
+public class SexpParser implements SexpInput {
+	/**
+	 * Whether each byte is whitespace, as
+	 * <code>Character.isWhitespace</code> has it.
+	 */
+	private static final boolean[] WHITESPACE = new boolean[256];
+
+	/**
+	 * Whether each byte is a token character.
+	 */
+	private static final boolean[] TOKEN = new boolean[256];
+
+	/**
+	 * The value of each base-64 digit, or -1.
+	 */
+	private static final int[] BASE64 = new int[256];
+
+	static {
+		for (int c = 0; c < 256; c++) {
+			WHITESPACE[c] = Character.isWhitespace((char) c);
+			TOKEN[c] = Sexp.isTokenChar(c);
+			BASE64[c] = -1;
+		}
+		String digits =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < digits.length(); i++) {
+			BASE64[digits.charAt(i)] = i;
+		}
+	}
+
+	private final byte[] buf;
+
+	private final int start;
+
+	private final int end;
+
+	private int pos;
+
+	/**
+	 * The buffer read from, whose position follows <code>pos</code>, or
+	 * <code>null</code>.
+	 */
+	private final ByteBuffer source;
+
+	private final int sourceStart;
+
+	/**
+	 * Elements of the lists being read, innermost last.
+	 */
+	private Sexp[] values = new Sexp[16];
+
+	private int nvalues = 0;
+
+	/**
+	 * Index in <code>values</code> of the type of each list being read.
+	 */
+	private int[] lists = new int[8];
+
+	private int nlists = 0;
+
+	/**
+	 * Creates a new SexpParser that reads from the given array.
+	 *
+	 * @param  buf the encoded S-expressions.
+	 */
+	public SexpParser(byte[] buf) {
+		this(buf, 0, buf.length);
+	}
+
+	/**
+	 * Creates a new SexpParser that reads <code>len</code> bytes of the
+	 * given array, starting at <code>off</code>.
+	 *
+	 * @param  buf the encoded S-expressions.
+	 * @param  off the offset of the first byte to read.
+	 * @param  len the number of bytes to read.
+	 */
+	public SexpParser(byte[] buf, int off, int len) {
+		if (off < 0 || len < 0 || off + len > buf.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.buf = buf;
+		this.start = off;
+		this.end = off + len;
+		this.pos = off;
+		this.source = null;
+		this.sourceStart = 0;
+	}
+
+	/**
+	 * Creates a new SexpParser that reads the remaining bytes of the
+	 * given buffer.  The buffer's position is moved past each
+	 * S-expression read; the bytes of a buffer without an accessible
+	 * array are copied once, on creation.
+	 *
+	 * @param  b the encoded S-expressions.
+	 */
+	public SexpParser(ByteBuffer b) {
+		if (b.hasArray()) {
+			buf = b.array();
+			start = b.arrayOffset() + b.position();
+		} else {
+			buf = new byte[b.remaining()];
+			b.duplicate().get(buf);
+			start = 0;
+		}
+		end = start + b.remaining();
+		pos = start;
+		source = b;
+		sourceStart = b.position();
+	}
+
+	/**
+	 * Reads the next S-expression.
+	 *
+	 * @return the decoded S-expression.
+	 * @throws EOFException if there are no more S-expressions.
+	 * @throws SexpException if there is a decoding error.
+	 * @throws IOException never, but declared by <code>SexpInput</code>.
+	 */
+	public Sexp readSexp() throws SexpException, IOException {
+		try {
+			skipWhitespace();
+			if (pos >= end) {
+				throw new EOFException();
+			}
+			return read();
+		} finally {
+			nvalues = 0;
+			nlists = 0;
+			if (source != null) {
+				source.position(sourceStart + pos - start);
+			}
+		}
+	}
+
+	/**
+	 * The main loop: reads strings and list openings, and closes the
+	 * lists they complete, until a whole S-expression is read.
+	 */
+	private Sexp read() throws SexpException, IOException {
+		while (true) {
+			Sexp value;
+			int c = next();
+			if (c == '(') {
+				skipWhitespace();
+				if (peek() == ')') {
+					throw error("Empty list");
+				}
+				if (nlists == lists.length) {
+					int[] l = new int[2 * nlists];
+					System.arraycopy(lists, 0, l, 0, nlists);
+					lists = l;
+				}
+				lists[nlists++] = nvalues;
+				continue;
+			}
+			if (c == '{') {
+				// transport form
+				value = new SexpParser(readBase64Until('}')).readSexp();
+			} else {
+				pos--;
+				value = readSexpString();
+			}
+			while (true) {
+				if (nlists == 0) {
+					return value;
+				}
+				int type = lists[nlists - 1];
+				if (nvalues == type && !(value instanceof SexpString)) {
+					throw error("Expected list type");
+				}
+				if (nvalues == values.length) {
+					Sexp[] v = new Sexp[2 * nvalues];
+					System.arraycopy(values, 0, v, 0, nvalues);
+					values = v;
+				}
+				values[nvalues++] = value;
+				skipWhitespace();
+				if (peek() != ')') {
+					break;
+				}
+				pos++;
+				// complete list
+				Sexp[] elems = new Sexp[nvalues - type - 1];
+				System.arraycopy(values, type + 1, elems, 0, elems.length);
+				value = new SexpList((SexpString) values[type], elems);
+				for (int i = type; i < nvalues; i++) {
+					values[i] = null;
+				}
+				nvalues = type;
+				nlists--;
+			}
+		}
+	}
+
+	private void skipWhitespace() {
+		while (pos < end && WHITESPACE[buf[pos] & 0xff]) {
+			pos++;
+		}
+	}
+
+	private int peek() throws SexpException {
+		if (pos >= end) {
+			throw error("Unexpected EOF");
+		}
+		return buf[pos] & 0xff;
+	}
+
+	private int next() throws SexpException {
+		if (pos >= end) {
+			throw error("Unexpected EOF");
+		}
+		return buf[pos++] & 0xff;
+	}
+
+	private int nextSkipWhitespace() throws SexpException {
+		skipWhitespace();
+		return next();
+	}
+
+	private SexpString readSexpString() throws SexpException {
+		byte[] display = null;
+		if (peek() == '[') {
+			// read display hint
+			pos++;
+			display = readByteArray();
+			if (next() != ']') {
+				throw error("Missing ']' after display hint");
+			}
+		}
+		// read string content
+		byte[] content = readByteArray();
+		if (display == null) {
+			return new SexpString(content);
+		}
+		return new SexpString(display, content);
+	}
+
+	private byte[] readByteArray() throws SexpException {
+		int c = next();
+		if (c == '0') {
+			// leading zero allowed only if it defines the empty string
+			if (next() != ':') {
+				throw error("Unexpected leading '0'");
+			}
+			return new byte[0];
+		}
+		int length = 0;
+		while (c >= '0' && c <= '9') {
+			if (length > (Integer.MAX_VALUE - 9) / 10) {
+				throw error("Length too large");
+			}
+			length = 10 * length + (c - '0');
+			c = next();
+		}
+		switch (c) {
+			case ':' :
+				if (length > 0) {
+					if (length > end - pos) {
+						pos = end;
+						throw error("Unexpected EOF");
+					}
+					byte[] data = new byte[length];
+					System.arraycopy(buf, pos, data, 0, length);
+					pos += length;
+					return data;
+				}
+				return readTokenData();
+			case '#' :
+				return readHexData(length);
+			case '|' :
+				return checkLength(readBase64Until('|'), length, "Base-64");
+			case '\"' :
+				return readQuotedData(length);
+			default :
+				return readTokenData();
+		}
+	}
+
+	/**
+	 * Reads a token starting with the byte just read; as with
+	 * <code>SexpInputStream</code>, a token must be followed by another
+	 * byte.
+	 */
+	private byte[] readTokenData() throws SexpException {
+		int from = pos - 1;
+		while (pos < end && TOKEN[buf[pos] & 0xff]) {
+			pos++;
+		}
+		if (pos >= end) {
+			throw error("Unexpected EOF");
+		}
+		byte[] data = new byte[pos - from];
+		System.arraycopy(buf, from, data, 0, data.length);
+		return data;
+	}
+
+	private byte[] readHexData(int length) throws SexpException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		while (true) {
+			int c = nextSkipWhitespace();
+			if (c == '#') {
+				return checkLength(bos.toByteArray(), length, "Base-16");
+			}
+			int hi = Character.digit((char) c, 16);
+			int lo = Character.digit((char) nextSkipWhitespace(), 16);
+			if (hi < 0 || lo < 0) {
+				throw error("Bad base-16 digit");
+			}
+			bos.write((hi << 4) | lo);
+		}
+	}
+
+	private byte[] readBase64Until(int terminator) throws SexpException {
+		// count the digits, then decode them in place
+		int from = pos;
+		int digits = 0;
+		int numEquals = 0;
+		int c = nextSkipWhitespace();
+		while (BASE64[c] >= 0) {
+			digits++;
+			c = nextSkipWhitespace();
+		}
+		while (c == '=') {
+			numEquals++;
+			c = nextSkipWhitespace();
+		}
+		if (c != terminator) {
+			throw error(
+				"Missing '"
+					+ terminator
+					+ "' after base-64 encoded data, got "
+					+ (char) c);
+		}
+		if (((digits + numEquals) % 4) != 0) {
+			throw error("Base-64 encoded length not a multiple of 4");
+		}
+		byte[] decoded = new byte[3 * ((digits + numEquals) / 4) - numEquals];
+		int bits = 0;
+		int nbits = 0;
+		int n = 0;
+		for (int i = from; n < decoded.length; i++) {
+			int d = BASE64[buf[i] & 0xff];
+			if (d < 0) {
+				continue; // whitespace
+			}
+			bits = (bits << 6) | d;
+			nbits += 6;
+			if (nbits >= 8) {
+				nbits -= 8;
+				decoded[n++] = (byte) (bits >> nbits);
+			}
+		}
+		return decoded;
+	}
+
+	private byte[] readQuotedData(int length) throws SexpException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		while (true) {
+			int c = next();
+			if (c == '\"') {
+				return checkLength(bos.toByteArray(), length, "Quoted string");
+			}
+			if (c == '\\') {
+				c = processEscapeSequence();
+				if (c == -1)
+					continue; // read next char
+			}
+			bos.write(c);
+		}
+	}
+
+	private int processEscapeSequence() throws SexpException {
+		int c = next();
+		switch (c) {
+			case 'b' :
+				return '\b';
+			case 't' :
+				return '\t';
+			case 'v' :
+				// no vertical tab
+				return '\t';
+			case 'f' :
+				return '\f';
+			case 'n' :
+				return '\n';
+			case 'r' :
+				return '\r';
+			case '\'' :
+				return '\'';
+			case '\"' :
+				return '\"';
+			case '\\' :
+				return '\\';
+			case '\n' :
+				// slash separates lines; check for \n\r
+				if (next() != '\r') {
+					pos--;
+				}
+				return -1;
+			case '\r' :
+				// slash separates lines; check for \r\n
+				if (next() != '\n') {
+					pos--;
+				}
+				return -1;
+			case 'x' :
+				return escape(16, next(), next(), -1);
+			default :
+				return escape(8, c, next(), next());
+		}
+	}
+
+	/**
+	 * Decodes the two hex or three octal digits of an escape sequence.
+	 */
+	private int escape(int radix, int c1, int c2, int c3)
+		throws SexpException {
+		int d1 = Character.digit((char) c1, radix);
+		int d2 = Character.digit((char) c2, radix);
+		int d3 = (c3 == -1) ? 0 : Character.digit((char) c3, radix);
+		if (d1 < 0 || d2 < 0 || d3 < 0) {
+			throw error("Bad escape sequence");
+		}
+		return (c3 == -1) ? d1 * radix + d2 : (d1 * radix + d2) * radix + d3;
+	}
+
+	private byte[] checkLength(byte[] data, int length, String what)
+		throws SexpException {
+		if ((length > 0) && (length != data.length)) {
+			throw error(what + " encoded length mismatch");
+		}
+		return data;
+	}
+
+	/**
+	 * Returns an exception for an error at the current position, with
+	 * its line number (counted only when there is an error).
+	 */
+	private SexpException error(String message) {
+		int lineno = 1;
+		for (int i = start; i < pos && i < end; i++) {
+			if (buf[i] == '\n') {
+				lineno++;
+			}
+		}
+		return new SexpException("Line " + lineno + ": " + message);
+	}
+}
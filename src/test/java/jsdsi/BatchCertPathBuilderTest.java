@@ -0,0 +1,114 @@
+package jsdsi;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jsdsi.util.Loader;
+import junit.framework.TestCase;
+
+/**
+   Tests the batch cert path builder.  For each pair of files called
+   "certs.inX" and "certs.outX" in the local directory (see
+   CertPathTest), this test proves all the statements CertPathTest
+   proves one by one in a single batch, and checks each result against
+   certs.outX.
+
+   @see CertPathTest
+**/
+public class BatchCertPathBuilderTest extends TestCase
+{
+    public BatchCertPathBuilderTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    public void testBuild() throws Exception
+    {
+        File cwd = new File("src/test/java/jsdsi");
+        String[] in = cwd.list(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return name.startsWith("certs.in")
+                        && !name.endsWith("~");
+                }
+            });
+        assertTrue(in.length > 0);
+        for (int i = 0; i < in.length; i++) {
+            String out = "certs.out" + in[i].substring("certs.in".length());
+            Loader inLoad = new Loader(cwd+File.separator+in[i]);
+            Loader outLoad = new Loader(cwd+File.separator+out);
+            checkBatch(inLoad, outLoad);
+        }
+    }
+
+    public void testNameSubject() throws Exception
+    {
+        Loader l = new Loader("src/test/java/jsdsi/certs.in.1");
+        Name n = (Name) l.getNames().iterator().next();
+        List certs = new ArrayList();
+        certs.add(new NameCert(n.getIssuer(), n, null, null, null, "x"));
+        try {
+            new BatchCertPathBuilder(l.getCertStore()).build(certs);
+            fail("name subject accepted");
+        } catch (java.security.InvalidAlgorithmParameterException e) {
+            // expected
+        }
+    }
+
+    private void checkBatch(Loader in, Loader out) throws Exception
+    {
+        List certs = new ArrayList();
+        Iterator ni = in.getNames().iterator();
+        while (ni.hasNext()) {
+            Name n = (Name)ni.next();
+            Iterator ki = in.getKeys().iterator();
+            while (ki.hasNext()) {
+                PublicKey k = (PublicKey)ki.next();
+                certs.add(new NameCert
+                    (n.getIssuer(), k, null, null, null, n.getNames()[0]));
+            }
+        }
+        Iterator ii = in.getKeys().iterator();
+        while (ii.hasNext()) {
+            PublicKey issuer = (PublicKey)ii.next();
+            Iterator ki = in.getKeys().iterator();
+            while (ki.hasNext()) {
+                PublicKey k = (PublicKey)ki.next();
+                Iterator ti = in.getTags().iterator();
+                while (ti.hasNext()) {
+                    Tag t = (Tag)ti.next();
+                    certs.add(new AuthCert
+                        (issuer, k, null, null, null, t, true));
+                    certs.add(new AuthCert
+                        (issuer, k, null, null, null, t, false));
+                }
+            }
+        }
+
+        Map results =
+            new BatchCertPathBuilder(in.getCertStore()).build(certs);
+        assertEquals(new ArrayList(results.keySet()), certs);
+        Iterator i = certs.iterator();
+        while (i.hasNext()) {
+            Cert c = (Cert) i.next();
+            jsdsi.CertPathBuilderResult r =
+                (jsdsi.CertPathBuilderResult) results.get(c);
+            if (CertPathTest.containsStrongerCert(out.getCerts(), c)) {
+                assertNotNull("No cert path found for: "+c, r);
+                Proof pf = ((CertPath) r.getCertPath()).getProof();
+                assertTrue(pf.getCert().implies(c));
+            } else {
+                assertNull("Unexpected cert path found for: "+c, r);
+            }
+        }
+    }
+}
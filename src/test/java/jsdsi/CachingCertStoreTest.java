@@ -0,0 +1,130 @@
+package jsdsi;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+   Tests that the caching cert store answers repeated lookups from its
+   cache, and that it expires, evicts and invalidates what it caches.
+**/
+public class CachingCertStoreTest extends TestCase
+{
+    private LatencyCertStore backing;
+
+    public CachingCertStoreTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+        backing = new LatencyCertStore
+            (ProverBenchmark.store(ProverBenchmark.scopedGraph(5)), 0);
+    }
+
+    private static java.security.cert.CertStore open
+        (CachingCertStoreParameters p) throws Exception
+    {
+        return java.security.cert.CertStore.getInstance("SPKI/CACHE", p);
+    }
+
+    private static AuthCertSelector issuer(int i)
+    {
+        return new AuthCertSelector(ProverBenchmark.key(i));
+    }
+
+    public void testHits() throws Exception
+    {
+        CachingCertStoreParameters p =
+            new CachingCertStoreParameters(backing);
+        java.security.cert.CertStore store = open(p);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i <= 5; i++) {
+                Collection c = store.getCertificates(issuer(i));
+                assertEquals(new HashSet(backing.getCertificates(issuer(i))),
+                             new HashSet(c));
+            }
+        }
+        // the cached store's 6 lookups, and the test's own 18
+        assertEquals(6 + 18, backing.getLookups());
+        assertEquals(6, p.getMisses());
+        assertEquals(12, p.getHits());
+        // a clone shares the cache
+        open((CachingCertStoreParameters) p.clone())
+            .getCertificates(issuer(1));
+        assertEquals(13, p.getHits());
+        // an equal selector with a different validity is another lookup
+        AuthCertSelector s = issuer(1);
+        s.setValidAt(new java.util.Date());
+        store.getCertificates(s);
+        assertEquals(7, p.getMisses());
+    }
+
+    public void testNegative() throws Exception
+    {
+        CachingCertStoreParameters p =
+            new CachingCertStoreParameters(backing, 100, 60000, 60000);
+        java.security.cert.CertStore store = open(p);
+        assertEquals(0, store.getCertificates(issuer(99)).size());
+        assertEquals(0, store.getCertificates(issuer(99)).size());
+        assertEquals(1, backing.getLookups());
+        assertEquals(1, p.getNegativeHits());
+
+        p = new CachingCertStoreParameters(backing, 100, 60000, 0);
+        store = open(p);
+        store.getCertificates(issuer(99));
+        store.getCertificates(issuer(99));
+        assertEquals(3, backing.getLookups());
+        assertEquals(0, p.getSize());
+    }
+
+    public void testExpiry() throws Exception
+    {
+        CachingCertStoreParameters p =
+            new CachingCertStoreParameters(backing, 100, 50, 50);
+        java.security.cert.CertStore store = open(p);
+        store.getCertificates(issuer(1));
+        Thread.sleep(100);
+        store.getCertificates(issuer(1));
+        assertEquals(2, backing.getLookups());
+        assertEquals(1, p.getExpirations());
+        assertEquals(0, p.getHits());
+    }
+
+    public void testEviction() throws Exception
+    {
+        // each issuer has 5 certs: 6 with its entry
+        CachingCertStoreParameters p =
+            new CachingCertStoreParameters(backing, 13, 60000, 60000);
+        java.security.cert.CertStore store = open(p);
+        store.getCertificates(issuer(1));
+        store.getCertificates(issuer(2));
+        store.getCertificates(issuer(1));
+        store.getCertificates(issuer(3));
+        assertEquals(1, p.getEvictions());
+        assertEquals(12, p.getSize());
+        store.getCertificates(issuer(1));
+        assertEquals(2, p.getHits());
+        store.getCertificates(issuer(2));
+        assertEquals(4, backing.getLookups());
+    }
+
+    public void testMutable() throws Exception
+    {
+        List certs = ProverBenchmark.scopedGraph(5);
+        MutableCertStoreParameters m =
+            new MutableCertStoreParameters(certs.subList(0, 6));
+        CachingCertStoreParameters p = new CachingCertStoreParameters
+            (java.security.cert.CertStore.getInstance("SPKI", m));
+        java.security.cert.CertStore store = open(p);
+        assertEquals(1, store.getCertificates(issuer(0)).size());
+        assertEquals(1, store.getCertificates(issuer(0)).size());
+        m.addAll(certs.subList(6, certs.size()));
+        assertEquals(5, store.getCertificates(issuer(0)).size());
+        assertEquals(1, p.getHits());
+    }
+}
@@ -0,0 +1,117 @@
+package jsdsi;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import jsdsi.util.Loader;
+import junit.framework.TestCase;
+
+/**
+   Tests the statistics reported by the cert path builder, and the
+   process-wide totals.
+**/
+public class CertPathBuilderStatsTest extends TestCase
+{
+    public CertPathBuilderStatsTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    protected void tearDown()
+    {
+        CertPathBuilderStats.setCollectingTotals(false);
+        CertPathBuilderStats.resetTotals();
+    }
+
+    public void testTotals() throws Exception
+    {
+        Loader l = new Loader("src/test/java/jsdsi/certs.in.1");
+        List certs = new ArrayList();
+        Iterator ni = l.getNames().iterator();
+        while (ni.hasNext()) {
+            Name n = (Name) ni.next();
+            Iterator ki = l.getKeys().iterator();
+            while (ki.hasNext()) {
+                certs.add(new NameCert(n.getIssuer(), (PublicKey) ki.next(),
+                                       null, null, null, n.getNames()[0]));
+            }
+        }
+        java.security.cert.CertPathBuilder builder =
+            java.security.cert.CertPathBuilder.getInstance("SPKI");
+
+        // not collecting: totals stay empty
+        CertPathBuilderStats.resetTotals();
+        build(builder, l, certs);
+        assertEquals(0, CertPathBuilderStats.getTotals().getNumBuilds());
+
+        CertPathBuilderStats.setCollectingTotals(true);
+        CertPathBuilderStats sum = build(builder, l, certs);
+        CertPathBuilderStats totals = CertPathBuilderStats.getTotals();
+        assertEquals(certs.size(), totals.getNumBuilds());
+        // failed builds count in the totals, but have no result
+        assertTrue(sum.getNumFetched() <= totals.getNumFetched());
+        assertTrue(sum.getNumComposed() <= totals.getNumComposed());
+        assertTrue(sum.getNumIncompatible() <= totals.getNumIncompatible());
+        assertTrue(sum.getNumDuplicates() <= totals.getNumDuplicates());
+        assertEquals(sum.getProofLength(), totals.getProofLength());
+        assertTrue(totals.getNumFetched() > 0);
+        assertTrue(totals.getMaxDepth() > 0);
+        assertTrue(totals.getPeakIndexSize() > 0);
+
+        CertPathBuilderStats.resetTotals();
+        assertEquals(0, CertPathBuilderStats.getTotals().getNumBuilds());
+    }
+
+    public void testBatch() throws Exception
+    {
+        Loader l = new Loader("src/test/java/jsdsi/certs.in.1");
+        Name n = (Name) l.getNames().iterator().next();
+        List certs = new ArrayList();
+        Iterator ki = l.getKeys().iterator();
+        while (ki.hasNext()) {
+            certs.add(new NameCert(n.getIssuer(), (PublicKey) ki.next(),
+                                   null, null, null, n.getNames()[0]));
+        }
+        Map results = new BatchCertPathBuilder(l.getCertStore()).build(certs);
+        Iterator i = results.values().iterator();
+        while (i.hasNext()) {
+            jsdsi.CertPathBuilderResult r =
+                (jsdsi.CertPathBuilderResult) i.next();
+            if (r != null) {
+                assertEquals(1, r.getStats().getNumBuilds());
+                assertTrue(r.getStats().getProofLength() > 0);
+            }
+        }
+    }
+
+    /**
+       Builds a path for each cert, and returns the sum of the statistics
+       of the builds that found one.
+    **/
+    private CertPathBuilderStats build
+        (java.security.cert.CertPathBuilder builder, Loader l, List certs)
+        throws Exception
+    {
+        CertPathBuilderStats sum = new CertPathBuilderStats();
+        Iterator i = certs.iterator();
+        while (i.hasNext()) {
+            try {
+                jsdsi.CertPathBuilderResult r =
+                    (jsdsi.CertPathBuilderResult) builder.build
+                    (new IssuerCertPathParameters((Cert) i.next(),
+                                                  l.getCertStore()));
+                sum.add(r.getStats());
+            } catch (java.security.cert.CertPathBuilderException e) {
+                // no proof for this one
+            }
+        }
+        return sum;
+    }
+}
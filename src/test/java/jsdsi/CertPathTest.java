@@ -18,6 +18,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertPathValidatorException;
+import java.security.cert.CollectionCertStoreParameters;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -54,7 +55,16 @@ import junit.framework.TestSuite;
    must contain (or not contain) the resulting path.
 
    <p>Then, the above two suites are repeated using RProver
-   (SubjectCertPathParameters).
+   (SubjectCertPathParameters), again using BProver
+   (BidirectionalCertPathParameters), again using PProver on four
+   threads (ParallelCertPathParameters), and again using GProver over
+   one CertGraph compiled from certs.inX (GraphCertPathParameters).
+
+   <p>Finally, all of the above except GProver is repeated with every
+   test of a suite sharing one ProofCache, so that each build starts from
+   the proofs composed by the builds before it, and with certificates
+   looked up ahead of time by a Prefetcher.  PProver does not use the
+   cache; instead its builds share the threads of one ProverPool.
 
    @see jsdsi.util.Loader
 
@@ -62,6 +72,14 @@ import junit.framework.TestSuite;
 **/
 public class CertPathTest extends TestCase
 {
+    static final int FORWARD = 0;
+    static final int REVERSE = 1;
+    static final int BIDIRECTIONAL = 2;
+    static final int PARALLEL = 3;
+    static final int GRAPH = 4;
+    static final Prefetcher PREFETCHER = new Prefetcher(4);
+    static final ProverPool POOL = new ProverPool(3);
+
     java.security.cert.CertPathBuilder builder;
     java.security.cert.CertPathValidator validator;
     jsdsi.CertPathParameters params;
@@ -95,6 +113,14 @@ public class CertPathTest extends TestCase
                 fail("Unexpected cert path found for : "
                      +params.getCert()+"\nPath:\n"+bres.getCertPath());
             }
+            jsdsi.CertPathBuilderStats stats = bres.getStats();
+            assertEquals(((jsdsi.CertPath) bres.getCertPath()).getProof()
+                         .getCertificates().length,
+                         stats.getProofLength());
+            assertEquals(1, stats.getNumBuilds());
+            assertTrue(stats.getNumIncompatible() <= stats.getNumComposed());
+            assertTrue(stats.getFetchTime() <= stats.getTotalTime()
+                       || params instanceof ParallelCertPathParameters);
             jsdsi.CertPathValidatorResult vres =
                 (jsdsi.CertPathValidatorResult)
                 validator.validate(bres.getCertPath(), params);
@@ -137,8 +163,18 @@ public class CertPathTest extends TestCase
                     + in[i].substring("certs.in".length());
                 Loader inLoad = new Loader(cwd+File.separator+in[i]);
                 Loader outLoad = new Loader(cwd+File.separator+out);
-                s.addTest(suite(builder, validator, inLoad, outLoad, true));
-                s.addTest(suite(builder, validator, inLoad, outLoad, false));
+                ProofCache cache = new ProofCache(inLoad.getCertStore());
+                CertGraph graph = new CertGraph
+                    (((CollectionCertStoreParameters) inLoad.getCertStore()
+                      .getCertStoreParameters()).getCollection());
+                for (int d = FORWARD; d <= GRAPH; d++) {
+                    s.addTest(suite(builder, validator, inLoad, outLoad, d,
+                                    null, graph));
+                    if (d != GRAPH) {
+                        s.addTest(suite(builder, validator, inLoad, outLoad,
+                                        d, cache, null));
+                    }
+                }
             }
             return s;
         } catch (java.security.NoSuchAlgorithmException e) {
@@ -150,7 +186,8 @@ public class CertPathTest extends TestCase
 
     private static Test suite(java.security.cert.CertPathBuilder builder,
                               java.security.cert.CertPathValidator validator,
-                              Loader in, Loader out, boolean forward)
+                              Loader in, Loader out, int direction,
+                              ProofCache cache, CertGraph graph)
     {
         TestSuite s = new TestSuite();    
         // try to find proofs from name to each key
@@ -162,7 +199,8 @@ public class CertPathTest extends TestCase
                 PublicKey k = (PublicKey)ki.next();
                 NameCert c = new NameCert
                     (n.getIssuer(), k, null, null, null, n.getNames()[0]);
-                addCertPathTest(builder, validator, in, out, forward, c, s);
+                addCertPathTest(builder, validator, in, out, direction, cache,
+                                graph, c, s);
             }
         }
 
@@ -181,16 +219,21 @@ public class CertPathTest extends TestCase
                     AuthCert c2 = new AuthCert // w/o propagate
                         (issuer, k, null, null, null, t, false);
                     addCertPathTest(builder, validator,
-                                    in, out, forward, c1, s);
+                                    in, out, direction, cache, graph, c1,
+                                    s);
                     addCertPathTest(builder, validator,
-                                    in, out, forward, c2, s);
+                                    in, out, direction, cache, graph, c2,
+                                    s);
                 }
             }
         }
         return s;
     }
 
-    private static boolean containsStrongerCert(Set certs, Cert c)
+    /**
+       Returns whether one of <code>certs</code> implies <code>c</code>.
+    **/
+    static boolean containsStrongerCert(Set certs, Cert c)
     {
         Iterator i = certs.iterator();
         while (i.hasNext()) {
@@ -205,16 +248,40 @@ public class CertPathTest extends TestCase
     private static void addCertPathTest
         (java.security.cert.CertPathBuilder builder,
          java.security.cert.CertPathValidator validator,
-         Loader in, Loader out, boolean forward, Cert c, TestSuite s)
+         Loader in, Loader out, int direction, ProofCache cache,
+         CertGraph graph, Cert c, TestSuite s)
     {
         java.security.cert.CertPathValidator val =
             containsStrongerCert(out.getCerts(), c) ? validator : null;
         jsdsi.CertPathParameters params;
         try {
-            if (forward) {
-                params = new IssuerCertPathParameters(c, in.getCertStore());
+            if (cache == null) {
+                java.security.cert.CertStore store = in.getCertStore();
+                if (direction == FORWARD) {
+                    params = new IssuerCertPathParameters(c, store);
+                } else if (direction == REVERSE) {
+                    params = new SubjectCertPathParameters(c, store);
+                } else if (direction == BIDIRECTIONAL) {
+                    params = new BidirectionalCertPathParameters(c, store);
+                } else if (direction == PARALLEL) {
+                    params = new ParallelCertPathParameters(c, store, 4);
+                } else {
+                    params = new GraphCertPathParameters(c, graph);
+                }
+            } else if (direction == FORWARD) {
+                params = new IssuerCertPathParameters(c, cache);
+                params.setPrefetcher(PREFETCHER);
+            } else if (direction == REVERSE) {
+                params = new SubjectCertPathParameters(c, cache);
+                params.setPrefetcher(PREFETCHER);
+            } else if (direction == BIDIRECTIONAL) {
+                params = new BidirectionalCertPathParameters(c, cache);
+                params.setPrefetcher(PREFETCHER);
             } else {
-                params = new SubjectCertPathParameters(c, in.getCertStore());
+                ParallelCertPathParameters p =
+                    new ParallelCertPathParameters(c, cache.getStore(), 4);
+                p.setProverPool(POOL);
+                params = p;
             }
         } catch (java.security.InvalidAlgorithmParameterException e) {
             throw new Error(e);
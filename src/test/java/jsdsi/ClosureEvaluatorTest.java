@@ -0,0 +1,115 @@
+package jsdsi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.security.cert.CollectionCertStoreParameters;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import jsdsi.sexp.ObjInputStream;
+import jsdsi.util.Loader;
+import junit.framework.TestCase;
+
+/**
+   Tests the closure evaluator against the expected results in
+   certs.outX, on one thread and on several.
+**/
+public class ClosureEvaluatorTest extends TestCase
+{
+    public ClosureEvaluatorTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    private static Set evaluate(Loader in, int threads) throws Exception
+    {
+        ClosureEvaluator e = new ClosureEvaluator
+            (((CollectionCertStoreParameters) in.getCertStore()
+              .getCertStoreParameters()).getCollection());
+        e.setThreads(threads);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long n = e.evaluate(bytes);
+        assertEquals(n, e.getNumNameStatements() + e.getNumAuthStatements());
+        ObjInputStream is = new ObjInputStream
+            (new ByteArrayInputStream(bytes.toByteArray()));
+        // the loader's keys do not survive parsing: map them back
+        Map keys = new HashMap();
+        Iterator ki = in.getKeys().iterator();
+        while (ki.hasNext()) {
+            Object k = ki.next();
+            keys.put(k.toString(), k);
+        }
+        Set statements = new HashSet();
+        for (long i = 0; i < n; i++) {
+            Cert c = (Cert) is.readObj();
+            Principal issuer = (Principal) keys.get(c.getIssuer().toString());
+            Principal subject = (Principal)
+                keys.get(c.getSubject().toString());
+            if (c instanceof NameCert) {
+                c = new NameCert(issuer, subject, null, null, null,
+                                 ((NameCert) c).getName());
+            } else {
+                c = new AuthCert(issuer, subject, null, null, null,
+                                 ((AuthCert) c).getTag(),
+                                 ((AuthCert) c).getPropagate());
+            }
+            assertTrue(statements.add(c));
+        }
+        assertEquals(-1, is.read());
+        return statements;
+    }
+
+    private static void check(Loader out, Set statements, Cert c)
+    {
+        assertEquals(c.toString(), CertPathTest.containsStrongerCert(out.getCerts(), c),
+                     CertPathTest.containsStrongerCert(statements, c));
+    }
+
+    public void testResults() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) {
+            Loader in = new Loader("src/test/java/jsdsi" + File.separator
+                                   + "certs.in." + i);
+            Loader out = new Loader("src/test/java/jsdsi" + File.separator
+                                    + "certs.out." + i);
+            Set statements = evaluate(in, 1);
+            assertEquals(statements, evaluate(in, 3));
+            Iterator ni = in.getNames().iterator();
+            while (ni.hasNext()) {
+                Name n = (Name) ni.next();
+                Iterator ki = in.getKeys().iterator();
+                while (ki.hasNext()) {
+                    PublicKey k = (PublicKey) ki.next();
+                    check(out, statements, new NameCert
+                          (n.getIssuer(), k, null, null, null,
+                           n.getNames()[0]));
+                }
+            }
+            Iterator ii = in.getKeys().iterator();
+            while (ii.hasNext()) {
+                PublicKey issuer = (PublicKey) ii.next();
+                Iterator ki = in.getKeys().iterator();
+                while (ki.hasNext()) {
+                    PublicKey k = (PublicKey) ki.next();
+                    Iterator ti = in.getTags().iterator();
+                    while (ti.hasNext()) {
+                        Tag t = (Tag) ti.next();
+                        check(out, statements, new AuthCert
+                              (issuer, k, null, null, null, t, true));
+                        check(out, statements, new AuthCert
+                              (issuer, k, null, null, null, t, false));
+                    }
+                }
+            }
+        }
+    }
+}
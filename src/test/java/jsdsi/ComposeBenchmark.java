@@ -0,0 +1,173 @@
+package jsdsi;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Measures the time and memory allocated by <code>Proof.compose</code>
+ * and by whole proof searches.  Not a unit test: run it by hand with
+ * <code>java jsdsi.ComposeBenchmark [length] [rounds]</code>.
+ *
+ * <p>Allocation is read from the JVM's per-thread allocation counter
+ * where the platform has one (<code>getThreadAllocatedBytes</code> of
+ * <code>com.sun.management.ThreadMXBean</code>, found by reflection);
+ * otherwise it is estimated from the change in used heap, which is only
+ * meaningful if no collection happens during a run.
+ *
+ * @see Proof
+ *
+ * @version $Revision$ $Date$
+ */
+public class ComposeBenchmark {
+	/**
+	 * The thread MX bean, or <code>null</code> if not available.
+	 */
+	private static Object bean;
+
+	/**
+	 * <code>getThreadAllocatedBytes(long)</code> of the bean.
+	 */
+	private static Method allocated;
+
+	static {
+		try {
+			Class f = Class.forName("java.lang.management.ManagementFactory");
+			bean = f.getMethod("getThreadMXBean", null).invoke(null, null);
+			allocated =
+				Class.forName("com.sun.management.ThreadMXBean").getMethod(
+					"getThreadAllocatedBytes",
+					new Class[] { Long.TYPE });
+		} catch (Exception e) {
+			bean = null;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated so far by this thread, or the
+	 * used heap if that is not available.
+	 */
+	static long allocated() {
+		if (bean != null) {
+			try {
+				return ((Long) allocated
+					.invoke(bean, new Object[] { new Long(threadId())}))
+					.longValue();
+			} catch (Exception e) {
+				bean = null;
+			}
+		}
+		Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+
+	/**
+	 * Returns the id of this thread (<code>Thread.getId()</code> where it
+	 * exists).
+	 */
+	private static long threadId() throws Exception {
+		return ((Long) Thread.class.getMethod("getId", null).invoke(
+			Thread.currentThread(),
+			null))
+			.longValue();
+	}
+
+	/**
+	 * Prints the time and bytes per round of a run.
+	 */
+	static void report(String label, long start, long bytes, int rounds) {
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println(
+			label
+				+ ": "
+				+ ((double) elapsed / rounds)
+				+ " ms, "
+				+ (bytes / rounds / 1024)
+				+ " KB allocated per round");
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param  args optional chain length and number of rounds.
+	 * @throws Exception if an error occurs.
+	 */
+	public static void main(String[] args) throws Exception {
+		Provider.install();
+		int length = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+		// compose a chain one certificate at a time, as the provers do
+		List certs = ProverBenchmark.deepGraph(length);
+		Proof[] links = new Proof[length];
+		for (int i = 0; i < length; i++) {
+			links[i] = new Proof((Certificate) certs.get(2 * i));
+		}
+		for (int w = 0; w < 2; w++) { // warm up, then measure
+			long start = System.currentTimeMillis();
+			long before = allocated();
+			for (int r = 0; r < rounds; r++) {
+				Proof p = links[0];
+				for (int i = 1; i < length; i++) {
+					p = p.compose(links[i]);
+				}
+				if (p.getCertificates().length != length) {
+					throw new Error("wrong proof length");
+				}
+			}
+			if (w == 1) {
+				report(
+					"compose chain (" + length + ")",
+					start,
+					allocated() - before,
+					rounds);
+			}
+		}
+
+		// whole searches
+		java.security.cert.CertStore s = ProverBenchmark.store(certs);
+		Cert auth =
+			new AuthCert(
+				ProverBenchmark.key(0),
+				ProverBenchmark.key(length),
+				null,
+				null,
+				null,
+				ProverBenchmark.TAG,
+				false);
+		Cert name =
+			new NameCert(
+				ProverBenchmark.key(0),
+				ProverBenchmark.key(0),
+				null,
+				null,
+				null,
+				"friend");
+		search("deep auth forward (" + length + ")", auth, s, true, rounds);
+		search("deep auth backward (" + length + ")", auth, s, false, rounds);
+		search("deep name forward (" + length + ")", name, s, true, rounds);
+	}
+
+	/**
+	 * Proves <code>c</code> <code>rounds</code> times and reports.
+	 */
+	static void search(
+		String label,
+		Cert c,
+		java.security.cert.CertStore s,
+		boolean forward,
+		int rounds) {
+		for (int w = 0; w < 2; w++) {
+			long start = System.currentTimeMillis();
+			long before = allocated();
+			for (int r = 0; r < rounds; r++) {
+				Prover p = forward ? (Prover) new FProver(c, s) : new RProver(c, s);
+				if (p.getProof() == null) {
+					throw new Error("no proof");
+				}
+			}
+			if (w == 1) {
+				report(label, start, allocated() - before, rounds);
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package jsdsi;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import jsdsi.sexp.ObjInputStream;
+import jsdsi.util.Loader;
+import junit.framework.TestCase;
+
+/**
+   Tests that a file-backed cert store answers like a collection store,
+   across appends, merges and reopening.
+**/
+public class FileCertStoreTest extends TestCase
+{
+    private File dir;
+
+    public FileCertStoreTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+        dir = File.createTempFile("jsdsi", "store");
+        dir.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    /**
+       Returns the certificates as the store will decode them: the
+       loader's keys do not survive parsing.
+    **/
+    private static List parse(Collection certs) throws Exception
+    {
+        List l = new ArrayList();
+        Iterator i = certs.iterator();
+        while (i.hasNext()) {
+            ObjInputStream is = new ObjInputStream(new ByteArrayInputStream
+                (((Certificate) i.next()).getEncoded()));
+            l.add(Certificate.fromSequence((Sequence) is.readObj()));
+        }
+        return l;
+    }
+
+    private static List selectors(Collection certs)
+    {
+        List l = new ArrayList();
+        Iterator i = certs.iterator();
+        while (i.hasNext()) {
+            Cert c = ((Certificate) i.next()).getCert();
+            l.add(new AuthCertSelector(c.getIssuer()));
+            if (c instanceof AuthCert) {
+                l.add(new AuthCertSelector
+                      (c.getIssuer(), new Auth(((AuthCert) c).getTag(),
+                                               false)));
+            }
+            if (c instanceof NameCert) {
+                l.add(new NameCertSelector(c.getIssuer(),
+                                           ((NameCert) c).getName()));
+            }
+            if (c.getSubject() instanceof Name) {
+                Name n = (Name) c.getSubject();
+                l.add(new CompatibleCertSelector(n.getIssuer(),
+                                                 n.getNames()[0]));
+            } else {
+                l.add(new SubjectCertSelector(c.getSubject()));
+            }
+        }
+        return l;
+    }
+
+    private static void assertSameStore(Collection certs,
+                                        java.security.cert.CertStore actual,
+                                        List selectors)
+        throws Exception
+    {
+        java.security.cert.CertStore expected =
+            ProverBenchmark.store(new ArrayList(certs));
+        Iterator i = selectors.iterator();
+        while (i.hasNext()) {
+            java.security.cert.CertSelector s =
+                (java.security.cert.CertSelector) i.next();
+            assertEquals(s.toString(),
+                         new HashSet(expected.getCertificates(s)),
+                         new HashSet(actual.getCertificates(s)));
+        }
+    }
+
+    private java.security.cert.CertStore open(FileCertStoreParameters p)
+        throws Exception
+    {
+        return java.security.cert.CertStore.getInstance("SPKI/FILE", p);
+    }
+
+    public void testSelectors() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) {
+            Loader in = new Loader("src/test/java/jsdsi" + File.separator
+                                   + "certs.in." + i);
+            List certs = parse
+                (((java.security.cert.CollectionCertStoreParameters)
+                  in.getCertStore().getCertStoreParameters())
+                 .getCollection());
+            tearDown();
+            FileCertStoreParameters p = new FileCertStoreParameters(dir);
+            java.security.cert.CertStore store = open(p);
+            List selectors = selectors(certs);
+            assertSameStore(new ArrayList(), store, selectors);
+            int half = certs.size() / 2;
+            assertEquals(half, p.append(certs.subList(0, half)));
+            assertSameStore(certs.subList(0, half), store, selectors);
+            p.append(certs.subList(half, certs.size()));
+            assertSameStore(certs, store, selectors);
+            assertSameStore(certs,
+                            open(new FileCertStoreParameters(dir)),
+                            selectors);
+        }
+    }
+
+    public void testOtherAppender() throws Exception
+    {
+        List certs = parse(ProverBenchmark.scopedGraph(4));
+        List selectors = selectors(certs);
+        java.security.cert.CertStore store =
+            open(new FileCertStoreParameters(dir));
+        assertSameStore(new ArrayList(), store, selectors);
+        // parameters of their own stand for another process
+        FileCertStoreParameters other = new FileCertStoreParameters(dir);
+        int half = certs.size() / 2;
+        other.append(certs.subList(0, half));
+        assertSameStore(certs.subList(0, half), store, selectors);
+        other.append(certs.subList(half, certs.size()));
+        assertSameStore(certs, store, selectors);
+    }
+
+    public void testMerge() throws Exception
+    {
+        List certs = parse(ProverBenchmark.scopedGraph(6));
+        FileCertStoreParameters p = new FileCertStoreParameters(dir);
+        java.security.cert.CertStore store = open(p);
+        for (int i = 0; i < certs.size(); i += 2) {
+            p.append(certs.subList(i, Math.min(i + 2, certs.size())));
+            int runs = dir.list().length - 2;
+            assertTrue(runs + " runs", runs <= FileCertStore.MAX_RUNS);
+        }
+        List selectors = selectors(certs);
+        assertSameStore(certs, store, selectors);
+        assertSameStore(certs, open(new FileCertStoreParameters(dir)),
+                        selectors);
+    }
+
+    public void testProve() throws Exception
+    {
+        int depth = 20;
+        List certs = parse(ProverBenchmark.deepGraph(depth));
+        FileCertStoreParameters p = new FileCertStoreParameters(dir);
+        p.append(certs);
+        Principal first = ((Certificate) certs.get(0)).getCert().getIssuer();
+        Principal last = (Principal)
+            ((Certificate) certs.get(2 * depth - 2)).getCert().getSubject();
+        Cert c = new AuthCert(first, last, null, null, null,
+                              ProverBenchmark.TAG, false);
+        java.security.cert.CertPathBuilder builder =
+            java.security.cert.CertPathBuilder.getInstance("SPKI");
+        builder.build(new IssuerCertPathParameters(c, open(p)));
+        builder.build(new SubjectCertPathParameters(c, open(p)));
+    }
+}
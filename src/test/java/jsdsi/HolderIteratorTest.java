@@ -0,0 +1,82 @@
+package jsdsi;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import jsdsi.util.Loader;
+import junit.framework.TestCase;
+
+/**
+   Tests the holder iterator against the expected results in certs.outX,
+   and checks that it only walks as far as it is asked to.
+**/
+public class HolderIteratorTest extends TestCase
+{
+    public HolderIteratorTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    public void testResults() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) {
+            Loader in = new Loader("src/test/java/jsdsi" + File.separator
+                                   + "certs.in." + i);
+            Loader out = new Loader("src/test/java/jsdsi" + File.separator
+                                    + "certs.out." + i);
+            Iterator ii = in.getKeys().iterator();
+            while (ii.hasNext()) {
+                PublicKey issuer = (PublicKey) ii.next();
+                Iterator ti = in.getTags().iterator();
+                while (ti.hasNext()) {
+                    Tag t = (Tag) ti.next();
+                    Set expected = new HashSet();
+                    Iterator ki = in.getKeys().iterator();
+                    while (ki.hasNext()) {
+                        PublicKey k = (PublicKey) ki.next();
+                        if (CertPathTest.containsStrongerCert(out.getCerts(), new AuthCert
+                                (issuer, k, null, null, null, t, false))) {
+                            expected.add(k);
+                        }
+                    }
+                    Set actual = new HashSet();
+                    HolderIterator hi =
+                        new HolderIterator(issuer, t, in.getCertStore());
+                    while (hi.hasNext()) {
+                        Proof pf = hi.nextProof();
+                        Principal k = (Principal) pf.getCert().getSubject();
+                        assertTrue(pf.getCert().implies(new AuthCert
+                            (issuer, k, null, null, null, t, false)));
+                        assertTrue(actual.add(k));
+                    }
+                    assertEquals(issuer + " " + t, expected, actual);
+                }
+            }
+        }
+    }
+
+    public void testLazy() throws Exception
+    {
+        int depth = 100;
+        HolderIterator hi = new HolderIterator
+            (ProverBenchmark.key(0), ProverBenchmark.TAG,
+             ProverBenchmark.store(ProverBenchmark.deepGraph(depth)));
+        assertEquals(ProverBenchmark.key(1),
+                     hi.nextProof().getCert().getSubject());
+        assertTrue(hi.getStats().getNumFetched() < 4);
+        int n = 1;
+        while (hi.hasNext()) {
+            assertEquals(ProverBenchmark.key(++n),
+                         hi.nextProof().getCert().getSubject());
+        }
+        assertEquals(depth, n);
+        assertEquals(0, hi.getStats().getNumPruned());
+    }
+}
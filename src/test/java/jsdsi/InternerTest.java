@@ -0,0 +1,69 @@
+package jsdsi;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+
+import jsdsi.sexp.ObjInputStream;
+import junit.framework.TestCase;
+
+/**
+   Tests that parsed objects are interned when interning is on, and
+   only then.
+**/
+public class InternerTest extends TestCase
+{
+    public InternerTest(String name)
+    {
+        super(name);
+    }
+
+    protected void tearDown()
+    {
+        Interner.setEnabled(false);
+        Interner.clear();
+    }
+
+    private static NameCert cert()
+    {
+        Principal k = new RSAPublicKey(BigInteger.valueOf(1001),
+                                       BigInteger.valueOf(3), "RSA");
+        Principal j = new RSAPublicKey(BigInteger.valueOf(1002),
+                                       BigInteger.valueOf(3), "RSA");
+        return new NameCert(k, new Name(j, "friend"), null, null, null,
+                            "friend");
+    }
+
+    private static NameCert parse(NameCert c) throws Exception
+    {
+        ObjInputStream in = new ObjInputStream
+            (new ByteArrayInputStream(c.toByteArray()));
+        return (NameCert) in.readObj();
+    }
+
+    public void testDisabled() throws Exception
+    {
+        NameCert c = cert();
+        NameCert c1 = parse(c);
+        NameCert c2 = parse(c);
+        assertEquals(c, c1);
+        assertEquals(c1, c2);
+        assertNotSame(c1.getIssuer(), c2.getIssuer());
+        assertNotSame(c1.getSubject(), c2.getSubject());
+    }
+
+    public void testEnabled() throws Exception
+    {
+        Interner.setEnabled(true);
+        NameCert c = cert();
+        NameCert c1 = parse(c);
+        NameCert c2 = parse(c);
+        assertEquals(c, c1);
+        assertEquals(c1, c2);
+        assertSame(c1.getIssuer(), c2.getIssuer());
+        assertSame(c1.getSubject(), c2.getSubject());
+        assertSame(c1.getFullName(), c2.getFullName());
+        // objects built by hand are interned on request
+        assertSame(c1.getIssuer(), Interner.intern(c.getIssuer()));
+        assertSame(c2.getSubject(), Interner.intern((Name) c.getSubject()));
+    }
+}
@@ -0,0 +1,87 @@
+package jsdsi;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CRLSelector;
+import java.security.cert.CertSelector;
+import java.security.cert.CertStoreException;
+import java.security.cert.CertStoreSpi;
+import java.util.Collection;
+
+/**
+ * A local stand-in for a remote <code>CertStore</code>: answers every
+ * lookup from another store, but only after sleeping for a fixed time,
+ * as a round trip to an LDAP server would.  Lookups on different
+ * threads wait at the same time.
+ *
+ * @version $Revision$ $Date$
+ */
+public class LatencyCertStore extends java.security.cert.CertStore {
+	/**
+	 * The SPI that adds the latency.
+	 */
+	static class Spi extends CertStoreSpi {
+		private java.security.cert.CertStore store;
+		private long latency;
+		private int lookups = 0;
+
+		Spi(java.security.cert.CertStore s, long l)
+			throws InvalidAlgorithmParameterException {
+			super(null);
+			store = s;
+			latency = l;
+		}
+
+		public Collection engineGetCertificates(CertSelector sel)
+			throws CertStoreException {
+			synchronized (this) {
+				lookups++;
+			}
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				throw (CertStoreException) new CertStoreException(
+					"interrupted").initCause(
+					e);
+			}
+			return store.getCertificates(sel);
+		}
+
+		public Collection engineGetCRLs(CRLSelector sel)
+			throws CertStoreException {
+			return store.getCRLs(sel);
+		}
+	}
+
+	/**
+	 * The SPI (also kept by the superclass, which does not expose it).
+	 */
+	private Spi spi;
+
+	/**
+	 * Creates a new <code>LatencyCertStore</code>.
+	 *
+	 * @param  s the store to answer lookups from.
+	 * @param  latency milliseconds to wait before each answer.
+	 * @throws InvalidAlgorithmParameterException never.
+	 */
+	public LatencyCertStore(java.security.cert.CertStore s, long latency)
+		throws InvalidAlgorithmParameterException {
+		this(s, new Spi(s, latency));
+	}
+
+	private LatencyCertStore(java.security.cert.CertStore s, Spi spi) {
+		super(spi, s.getProvider(), s.getType(), null);
+		this.spi = spi;
+	}
+
+	/**
+	 * Returns the number of lookups so far.
+	 *
+	 * @return the number of lookups.
+	 */
+	public int getLookups() {
+		synchronized (spi) {
+			return spi.lookups;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package jsdsi;
+
+import java.io.File;
+import java.security.cert.CertPathBuilderException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import jsdsi.util.Loader;
+import junit.framework.TestCase;
+
+/**
+   Tests that a mutable cert store answers like a store built from
+   scratch after certificates are added and removed, that snapshots do
+   not see later changes, and that a proof cache notices them.
+**/
+public class MutableCertStoreTest extends TestCase
+{
+    public MutableCertStoreTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    private static java.security.cert.CertStore store
+        (MutableCertStoreParameters p) throws Exception
+    {
+        return java.security.cert.CertStore.getInstance("SPKI", p);
+    }
+
+    private static List selectors(Collection certs)
+    {
+        List l = new ArrayList();
+        Iterator i = certs.iterator();
+        while (i.hasNext()) {
+            Cert c = ((Certificate) i.next()).getCert();
+            l.add(new AuthCertSelector(c.getIssuer()));
+            if (c instanceof AuthCert) {
+                l.add(new AuthCertSelector
+                      (c.getIssuer(), new Auth(((AuthCert) c).getTag(),
+                                               false)));
+            }
+            if (c instanceof NameCert) {
+                l.add(new NameCertSelector(c.getIssuer(),
+                                           ((NameCert) c).getName()));
+            }
+            if (c.getSubject() instanceof Name) {
+                Name n = (Name) c.getSubject();
+                l.add(new CompatibleCertSelector(n.prefix().getIssuer(),
+                                                 n.prefix().getNames()[0]));
+            } else {
+                l.add(new SubjectCertSelector(c.getSubject()));
+            }
+        }
+        return l;
+    }
+
+    private static void assertSameStore(Collection certs,
+                                        java.security.cert.CertStore actual,
+                                        List selectors)
+        throws Exception
+    {
+        java.security.cert.CertStore expected =
+            ProverBenchmark.store(new ArrayList(certs));
+        Iterator i = selectors.iterator();
+        while (i.hasNext()) {
+            java.security.cert.CertSelector s =
+                (java.security.cert.CertSelector) i.next();
+            assertEquals(s.toString(),
+                         new HashSet(expected.getCertificates(s)),
+                         new HashSet(actual.getCertificates(s)));
+        }
+    }
+
+    public void testUpdates() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) {
+            Loader in = new Loader("src/test/java/jsdsi" + File.separator
+                                   + "certs.in." + i);
+            List all = new ArrayList
+                (((java.security.cert.CollectionCertStoreParameters)
+                  in.getCertStore().getCertStoreParameters())
+                 .getCollection());
+            List selectors = selectors(all);
+            MutableCertStoreParameters p = new MutableCertStoreParameters();
+            java.security.cert.CertStore store = store(p);
+            List current = new ArrayList();
+            for (int j = 0; j < all.size(); j++) {
+                assertTrue(p.add((Certificate) all.get(j)));
+                current.add(all.get(j));
+                assertSameStore(current, store, selectors);
+            }
+            assertFalse(p.add((Certificate) all.get(0)));
+            assertEquals(all.size(), p.size());
+            assertEquals(new HashSet(all), new HashSet(p.getCertificates()));
+            for (int j = 0; j < all.size(); j += 2) {
+                assertTrue(p.remove((Certificate) all.get(j)));
+                current.remove(all.get(j));
+                assertSameStore(current, store, selectors);
+            }
+            assertFalse(p.remove((Certificate) all.get(0)));
+            assertEquals(current.size(), p.size());
+        }
+    }
+
+    public void testBulkUpdates() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) {
+            Loader in = new Loader("src/test/java/jsdsi" + File.separator
+                                   + "certs.in." + i);
+            List all = new ArrayList
+                (((java.security.cert.CollectionCertStoreParameters)
+                  in.getCertStore().getCertStoreParameters())
+                 .getCollection());
+            List selectors = selectors(all);
+            List half = new ArrayList(all.subList(0, all.size() / 2));
+            MutableCertStoreParameters p =
+                new MutableCertStoreParameters(half);
+            MutableCertStoreParameters snapshot = p.snapshot();
+            // the batch repeats the certs already there and its own
+            List batch = new ArrayList(all);
+            batch.addAll(all.subList(all.size() / 2, all.size()));
+            assertEquals(all.size() - half.size(), p.addAll(batch));
+            assertSameStore(all, store(p), selectors);
+            assertSameStore(half, store(snapshot), selectors);
+            snapshot = p.snapshot();
+            List removed = new ArrayList();
+            List kept = new ArrayList();
+            for (int j = 0; j < all.size(); j++) {
+                ((j % 2 == 0) ? removed : kept).add(all.get(j));
+            }
+            assertEquals(removed.size(), p.removeAll(removed));
+            assertEquals(0, p.removeAll(removed));
+            assertSameStore(kept, store(p), selectors);
+            assertSameStore(all, store(snapshot), selectors);
+        }
+    }
+
+    public void testSnapshot() throws Exception
+    {
+        List certs = ProverBenchmark.scopedGraph(5);
+        MutableCertStoreParameters p =
+            new MutableCertStoreParameters(certs.subList(0, 10));
+        MutableCertStoreParameters clone =
+            (MutableCertStoreParameters) p.clone();
+        MutableCertStoreParameters snapshot = p.snapshot();
+        long version = p.getVersion();
+        assertEquals(20, p.addAll(certs.subList(10, certs.size())));
+        assertEquals(version + 1, p.getVersion());
+        assertEquals(certs.size(), clone.size());
+        assertEquals(10, snapshot.size());
+        assertEquals(version, snapshot.getVersion());
+        Principal root = ProverBenchmark.key(0);
+        assertEquals(5, store(p).getCertificates
+                     (new AuthCertSelector(root)).size());
+        assertEquals(2, store(snapshot).getCertificates
+                     (new AuthCertSelector(root)).size());
+        assertEquals(0, store(snapshot).getCertificates
+                     (new AuthCertSelector(ProverBenchmark.key(3))).size());
+    }
+
+    public void testProofCache() throws Exception
+    {
+        int depth = 10;
+        List certs = ProverBenchmark.deepGraph(depth);
+        MutableCertStoreParameters p = new MutableCertStoreParameters(certs);
+        ProofCache cache = new ProofCache(store(p));
+        java.security.cert.CertPathBuilder builder =
+            java.security.cert.CertPathBuilder.getInstance("SPKI");
+        Cert c = new AuthCert(ProverBenchmark.key(0),
+                              ProverBenchmark.key(depth), null, null, null,
+                              ProverBenchmark.TAG, false);
+        builder.build(new IssuerCertPathParameters(c, cache));
+        // the auth cert K4 -> K5
+        assertTrue(p.remove((Certificate) certs.get(8)));
+        try {
+            builder.build(new IssuerCertPathParameters(c, cache));
+            fail("built a proof through a removed certificate");
+        } catch (CertPathBuilderException e) {
+            // expected
+        }
+        assertTrue(p.add((Certificate) certs.get(8)));
+        builder.build(new SubjectCertPathParameters(c, cache));
+    }
+
+    public void testConcurrentReads() throws Exception
+    {
+        final List certs = ProverBenchmark.scopedGraph(10);
+        final MutableCertStoreParameters p =
+            new MutableCertStoreParameters(certs);
+        final java.security.cert.CertStore store = store(p);
+        final Principal root = ProverBenchmark.key(0);
+        final List failures = new ArrayList();
+        final int rounds = 200;
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < rounds; i++) {
+                                // the root's certs are never removed
+                                int n = store.getCertificates
+                                    (new AuthCertSelector(root)).size();
+                                if (n != 10) {
+                                    throw new Exception(n + " root certs");
+                                }
+                                n = store.getCertificates
+                                    (new AuthCertSelector
+                                     (ProverBenchmark.key(1))).size();
+                                if (n != 0 && n != 10) {
+                                    throw new Exception(n + " certs of K1");
+                                }
+                            }
+                        } catch (Exception e) {
+                            synchronized (failures) {
+                                failures.add(e);
+                            }
+                        }
+                    }
+                };
+            readers[t].start();
+        }
+        // the certs issued by K1
+        List k1 = certs.subList(1, 11);
+        for (int i = 0; i < rounds; i++) {
+            assertEquals(10, p.removeAll(k1));
+            assertEquals(10, p.addAll(k1));
+        }
+        for (int t = 0; t < readers.length; t++) {
+            readers[t].join();
+        }
+        assertEquals(failures.toString(), 0, failures.size());
+    }
+}
@@ -0,0 +1,133 @@
+package jsdsi;
+
+import java.io.File;
+import java.security.cert.CollectionCertStoreParameters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import jsdsi.util.Loader;
+import junit.framework.TestCase;
+
+/**
+   Tests the name index against the expected results in certs.outX,
+   and checks that removing and adding back each name cert leaves the
+   index as if it had been built from scratch.
+**/
+public class NameIndexTest extends TestCase
+{
+    public NameIndexTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    private static Collection certificates(Loader l)
+    {
+        return ((CollectionCertStoreParameters) l.getCertStore()
+                .getCertStoreParameters()).getCollection();
+    }
+
+    private static Loader load(int i) throws Exception
+    {
+        return new Loader("src/test/java/jsdsi" + File.separator
+                          + "certs.in." + i);
+    }
+
+    public void testResults() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) {
+            Loader in = load(i);
+            Loader out = new Loader("src/test/java/jsdsi" + File.separator
+                                    + "certs.out." + i);
+            NameIndex index = new NameIndex(certificates(in));
+            Iterator ni = in.getNames().iterator();
+            while (ni.hasNext()) {
+                Name n = (Name) ni.next();
+                Iterator ki = in.getKeys().iterator();
+                while (ki.hasNext()) {
+                    PublicKey k = (PublicKey) ki.next();
+                    NameCert c = new NameCert
+                        (n.getIssuer(), k, null, null, null, n.getNames()[0]);
+                    boolean expected = false;
+                    Iterator ci = out.getCerts().iterator();
+                    while (ci.hasNext()) {
+                        expected |= ((Cert) ci.next()).implies(c);
+                    }
+                    assertEquals(c.toString(), expected, index.contains(n, k));
+                    Proof pf = index.getProof(n, k);
+                    assertEquals(expected, pf != null);
+                    if (pf != null) {
+                        assertTrue(pf.getCert().implies(c));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertSameIndex(Loader in, NameIndex expected,
+                                        NameIndex actual)
+    {
+        Iterator ni = in.getNames().iterator();
+        while (ni.hasNext()) {
+            Name n = (Name) ni.next();
+            assertEquals(n.toString(), expected.getPrincipals(n),
+                         actual.getPrincipals(n));
+        }
+    }
+
+    public void testRemoveAndAdd() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) {
+            Loader in = load(i);
+            List all = new ArrayList(certificates(in));
+            NameIndex full = new NameIndex(all);
+            NameIndex index = new NameIndex(all);
+            Iterator ci = all.iterator();
+            while (ci.hasNext()) {
+                Certificate c = (Certificate) ci.next();
+                if (!(c.getCert() instanceof NameCert)) {
+                    continue;
+                }
+                List rest = new ArrayList(all);
+                rest.remove(c);
+                assertTrue(index.remove(c));
+                assertFalse(index.remove(c));
+                assertSameIndex(in, new NameIndex(rest), index);
+                assertTrue(index.add(c));
+                assertFalse(index.add(c));
+                assertSameIndex(in, full, index);
+            }
+        }
+    }
+
+    public void testExpire() throws Exception
+    {
+        Principal a = ProverBenchmark.key(0);
+        Principal b = ProverBenchmark.key(1);
+        Principal c = ProverBenchmark.key(2);
+        Name friend = new Name(a, "friend");
+        Certificate ab = ProverBenchmark.certificate
+            (new NameCert(a, new Name(b, "friend"), null, null, null,
+                          "friend"));
+        Certificate bc = ProverBenchmark.certificate
+            (new NameCert(b, c, new Validity(null, new Date(1000)), null,
+                          null, "friend"));
+        List certs = new ArrayList();
+        certs.add(ab);
+        certs.add(bc);
+        NameIndex index = new NameIndex(certs);
+        assertTrue(index.contains(friend, c));
+        assertEquals(0, index.expire(new Date(1000)));
+        assertTrue(index.contains(friend, c));
+        assertEquals(1, index.expire(new Date(1001)));
+        assertFalse(index.contains(friend, c));
+        assertTrue(index.getPrincipals(friend).isEmpty());
+    }
+}
@@ -0,0 +1,78 @@
+package jsdsi;
+
+import java.util.List;
+
+/**
+ * Measures how much prefetching saves against a slow store.  Not a unit
+ * test: run it by hand with
+ * <code>java jsdsi.PrefetchBenchmark [latency] [width] [threads]</code>.
+ *
+ * <p>The store is a {@link LatencyCertStore} that waits
+ * <code>latency</code> milliseconds per lookup, in front of the
+ * <i>wide</i> graph of {@link ProverBenchmark}.  The benchmark proves the
+ * statement from the root to the last key forwards without a
+ * prefetcher, with a <code>Prefetcher</code> of <code>threads</code>
+ * threads, and with a <code>PProver</code> of <code>threads</code>
+ * threads, and prints the time and number of lookups each took.
+ *
+ * @see Prefetcher
+ *
+ * @version $Revision$ $Date$
+ */
+public class PrefetchBenchmark {
+	/**
+	 * Proves <code>c</code> once and prints the result.
+	 */
+	static void run(String label, Prover p, LatencyCertStore s) {
+		int before = s.getLookups();
+		long start = System.currentTimeMillis();
+		Proof pf = p.getProof();
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println(
+			label
+				+ ": "
+				+ elapsed
+				+ " ms, "
+				+ (s.getLookups() - before)
+				+ " lookups, "
+				+ ((pf == null) ? "no proof" : "proof found"));
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param  args optional latency, width and number of threads.
+	 * @throws Exception if an error occurs.
+	 */
+	public static void main(String[] args) throws Exception {
+		Provider.install();
+		long latency = (args.length > 0) ? Long.parseLong(args[0]) : 5;
+		int width = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+
+		List certs = ProverBenchmark.wideGraph(width);
+		int last = width * (width + 1);
+		Cert c =
+			new AuthCert(
+				ProverBenchmark.key(0),
+				ProverBenchmark.key(last),
+				null,
+				null,
+				null,
+				ProverBenchmark.TAG,
+				false);
+		LatencyCertStore s =
+			new LatencyCertStore(ProverBenchmark.store(certs), latency);
+		Prefetcher prefetcher = new Prefetcher(threads);
+
+		run("no prefetch      ", new FProver(c, s), s);
+		Prover p = new FProver(c, s);
+		p.setPrefetcher(prefetcher);
+		run("prefetch (" + threads + ")    ", p, s);
+		run("parallel (" + threads + ")    ", new PProver(c, s, threads), s);
+		p = new PProver(c, s, threads);
+		p.setPrefetcher(prefetcher);
+		run("both (" + threads + ")        ", p, s);
+		prefetcher.shutdown();
+	}
+}
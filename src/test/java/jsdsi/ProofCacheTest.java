@@ -0,0 +1,221 @@
+package jsdsi;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CRLSelector;
+import java.security.cert.CertPathBuilderException;
+import java.security.cert.CertSelector;
+import java.security.cert.CertStoreException;
+import java.security.cert.CertStoreSpi;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+   Tests that builds sharing one proof cache run at the same time: the
+   store lookups of different builds overlap, every build still gets the
+   right answer, and what they fetched is reused by later builds.
+**/
+public class ProofCacheTest extends TestCase
+{
+    /**
+       Answers lookups from another store, but holds the first lookup
+       until a second one is under way (or a few seconds have passed),
+       and records how many lookups were under way at once.
+    **/
+    static class GateSpi extends CertStoreSpi
+    {
+        private java.security.cert.CertStore store;
+        private int inside = 0;
+        private int peak = 0;
+        private int lookups = 0;
+        private boolean open = false;
+
+        GateSpi(java.security.cert.CertStore s)
+            throws InvalidAlgorithmParameterException
+        {
+            super(null);
+            store = s;
+        }
+
+        public Collection engineGetCertificates(CertSelector sel)
+            throws CertStoreException
+        {
+            synchronized (this) {
+                lookups++;
+                inside++;
+                peak = Math.max(peak, inside);
+                notifyAll();
+                long end = System.currentTimeMillis() + 5000;
+                while (!open && inside < 2) {
+                    long left = end - System.currentTimeMillis();
+                    if (left <= 0) {
+                        break;
+                    }
+                    try {
+                        wait(left);
+                    } catch (InterruptedException e) {
+                        throw new CertStoreException(e);
+                    }
+                }
+                open = true;
+            }
+            try {
+                return store.getCertificates(sel);
+            } finally {
+                synchronized (this) {
+                    inside--;
+                }
+            }
+        }
+
+        public Collection engineGetCRLs(CRLSelector sel)
+            throws CertStoreException
+        {
+            return store.getCRLs(sel);
+        }
+
+        synchronized int getPeak()
+        {
+            return peak;
+        }
+
+        synchronized int getLookups()
+        {
+            return lookups;
+        }
+    }
+
+    static class GateCertStore extends java.security.cert.CertStore
+    {
+        GateCertStore(GateSpi spi, java.security.cert.CertStore s)
+        {
+            super(spi, s.getProvider(), s.getType(), null);
+        }
+    }
+
+    public ProofCacheTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    /**
+       Returns K0 delegating "read"+i to each grandchild under its child
+       Ki (provable), and the same with the tag of the next child (not
+       provable), alternately.
+    **/
+    private static List statements(int width)
+    {
+        List l = new ArrayList();
+        for (int i = 1; i <= width; i++) {
+            for (int j = 1; j <= width; j++) {
+                Principal child = ProverBenchmark.key(i * width + j);
+                l.add(new AuthCert(ProverBenchmark.key(0), child, null, null,
+                                   null, new StringTag("read" + i), false));
+                l.add(new AuthCert(ProverBenchmark.key(0), child, null, null,
+                                   null,
+                                   new StringTag("read" + (i % width + 1)),
+                                   false));
+            }
+        }
+        return l;
+    }
+
+    private static CertPathParameters params(Cert c, ProofCache cache,
+                                             int direction)
+        throws InvalidAlgorithmParameterException
+    {
+        if (direction == 0) {
+            return new IssuerCertPathParameters(c, cache);
+        } else if (direction == 1) {
+            return new SubjectCertPathParameters(c, cache);
+        } else {
+            return new BidirectionalCertPathParameters(c, cache);
+        }
+    }
+
+    /**
+       Returns why building a path for the i-th statement gave the wrong
+       answer, or null if it gave the right one.
+    **/
+    private static String check(int i, Cert c, CertPathParameters p)
+        throws Exception
+    {
+        java.security.cert.CertPathBuilder builder =
+            java.security.cert.CertPathBuilder.getInstance("SPKI");
+        try {
+            CertPathBuilderResult r = (CertPathBuilderResult) builder.build(p);
+            if (i % 2 != 0) {
+                return "unexpected path for " + c;
+            }
+            if (!((CertPath) r.getCertPath()).getProof().getCert()
+                .implies(c)) {
+                return "wrong path for " + c;
+            }
+        } catch (CertPathBuilderException e) {
+            if (i % 2 == 0) {
+                return "no path for " + c;
+            }
+        }
+        return null;
+    }
+
+    public void testConcurrentBuilds() throws Exception
+    {
+        int width = 4;
+        java.security.cert.CertStore backing =
+            ProverBenchmark.store(ProverBenchmark.scopedGraph(width));
+        GateSpi spi = new GateSpi(backing);
+        final ProofCache cache =
+            new ProofCache(new GateCertStore(spi, backing));
+        final List certs = statements(width);
+        final List failures = new ArrayList();
+        Thread[] builders = new Thread[4];
+        for (int t = 0; t < builders.length; t++) {
+            final int direction = t % 3;
+            final int first = t * certs.size() / builders.length;
+            builders[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int n = 0; n < certs.size(); n++) {
+                                int i = (first + n) % certs.size();
+                                Cert c = (Cert) certs.get(i);
+                                String f =
+                                    check(i, c, params(c, cache, direction));
+                                if (f != null) {
+                                    throw new Exception(f);
+                                }
+                            }
+                        } catch (Throwable e) {
+                            synchronized (failures) {
+                                failures.add(e);
+                            }
+                        }
+                    }
+                };
+            builders[t].start();
+        }
+        for (int t = 0; t < builders.length; t++) {
+            builders[t].join(60000);
+            assertFalse(builders[t].isAlive());
+        }
+        assertEquals(failures.toString(), 0, failures.size());
+        assertTrue("lookups of different builds never overlapped",
+                   spi.getPeak() >= 2);
+
+        // every statement again, from what the builds above fetched
+        int lookups = spi.getLookups();
+        for (int i = 0; i < certs.size(); i++) {
+            Cert c = (Cert) certs.get(i);
+            String f = check(i, c, params(c, cache, 0));
+            assertNull(f, f);
+        }
+        assertEquals(lookups, spi.getLookups());
+    }
+}
@@ -0,0 +1,301 @@
+package jsdsi;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.cert.CollectionCertStoreParameters;
+import java.util.ArrayList;
+import java.util.List;
+
+import jsdsi.util.DigestAlgoEnum;
+import jsdsi.util.KeyEnum;
+import jsdsi.util.SignatureAlgoEnum;
+
+/**
+ * Compares the recursive and the iterative (work list) provers on
+ * synthetic certificate graphs.  Not a unit test: run it by hand with
+ * <code>java jsdsi.ProverBenchmark [depth] [width] [rounds]</code>.
+ *
+ * <p>The <i>deep</i> graph is a single chain of <code>depth</code>
+ * propagating auth certs, plus a chain of <code>depth</code> name certs
+ * that each defer to the next key's name.  The <i>wide</i> graph is a
+ * two-level delegation tree with <code>width</code> children per node.
+ * The <i>scoped</i> graph has the same shape, but each subtree of the
+ * root is delegated a different tag, so tag pruning can skip all but
+ * one of them.
+ * For each graph and each engine the benchmark proves the statement
+ * from the root to the last key, forwards, backwards, and (iterative
+ * only) from both ends and forwards on one thread per processor, and
+ * over a <code>CertGraph</code> compiled from the certificates, and
+ * prints the average time per proof, the number
+ * of certificates fetched and the length of the proof found.
+ *
+ * @see Prover
+ *
+ * @version $Revision$ $Date$
+ */
+public class ProverBenchmark {
+	/**
+	 * The tag used by all synthetic auth certs.
+	 */
+	static final Tag TAG = new StringTag("read");
+
+	static final int FORWARD = 0;
+	static final int BACKWARD = 1;
+	static final int BOTH = 2;
+	static final int PARALLEL = 3;
+	static final int GRAPH = 4;
+
+	/**
+	 * Creates the key with the given number, in the style of
+	 * <code>jsdsi.util.Loader</code>.
+	 */
+	static Principal key(int i) {
+		return new RSAPublicKey(
+			BigInteger.valueOf(i + 1000),
+			new BigInteger(new byte[] { 0x03 }),
+			"MD5/RSA/PKCS#1",
+			(URI[]) null);
+	}
+
+	/**
+	 * Wraps a cert with a fake signature.
+	 */
+	static Certificate certificate(Cert c) {
+		Signature s =
+			new Signature(
+				c.getIssuer(),
+				new Hash(DigestAlgoEnum.MD5, "HASH-VALUE".getBytes(), null),
+				SignatureAlgoEnum.create(DigestAlgoEnum.MD5, KeyEnum.RSA),
+				"SIGNATURE-VALUE".getBytes());
+		try {
+			return new Certificate(c, s);
+		} catch (java.security.cert.CertificateException e) {
+			throw new Error(e);
+		}
+	}
+
+	/**
+	 * Creates a store holding the given certificates.
+	 */
+	static java.security.cert.CertStore store(List certs) throws Exception {
+		return java.security.cert.CertStore.getInstance(
+			"SPKI",
+			new CollectionCertStoreParameters(certs));
+	}
+
+	/**
+	 * A chain K0 +read-> K1 +read-> ... Kdepth, and a chain of name
+	 * certs Ki friend -> K(i+1) friend, ending at Kdepth friend -> K0.
+	 */
+	static List deepGraph(int depth) {
+		List certs = new ArrayList();
+		for (int i = 0; i < depth; i++) {
+			certs.add(
+				certificate(
+					new AuthCert(key(i), key(i + 1), null, null, null, TAG, true)));
+			certs.add(
+				certificate(
+					new NameCert(
+						key(i),
+						new Name(key(i + 1), "friend"),
+						null,
+						null,
+						null,
+						"friend")));
+		}
+		certs.add(
+			certificate(
+				new NameCert(key(depth), key(0), null, null, null, "friend")));
+		return certs;
+	}
+
+	/**
+	 * A tree in which K0 and each of its <code>width</code> children
+	 * delegate to <code>width</code> children of their own.  The last key
+	 * is numbered <code>width * (width + 1)</code>.
+	 */
+	static List wideGraph(int width) {
+		List certs = new ArrayList();
+		for (int i = 1; i <= width; i++) {
+			certs.add(
+				certificate(
+					new AuthCert(key(0), key(i), null, null, null, TAG, true)));
+			for (int j = 1; j <= width; j++) {
+				int child = i * width + j;
+				certs.add(
+					certificate(
+						new AuthCert(
+							key(i), key(child), null, null, null, TAG, true)));
+			}
+		}
+		return certs;
+	}
+
+	/**
+	 * Like {@link #wideGraph(int)}, but the root delegates tag
+	 * <code>"read" + i</code> to its child <code>i</code>, which passes it
+	 * on to its own children.
+	 */
+	static List scopedGraph(int width) {
+		List certs = new ArrayList();
+		for (int i = 1; i <= width; i++) {
+			Tag t = new StringTag("read" + i);
+			certs.add(
+				certificate(
+					new AuthCert(key(0), key(i), null, null, null, t, true)));
+			for (int j = 1; j <= width; j++) {
+				int child = i * width + j;
+				certs.add(
+					certificate(
+						new AuthCert(key(i), key(child), null, null, null, t, true)));
+			}
+		}
+		return certs;
+	}
+
+	/**
+	 * Creates a prover for the given statement.
+	 */
+	static Prover prover(
+		Cert c,
+		java.security.cert.CertStore s,
+		CertGraph g,
+		int direction,
+		boolean iterative) {
+		if (direction == FORWARD) {
+			return new FProver(c, s, new ProofCache.Closure(), iterative);
+		}
+		if (direction == BACKWARD) {
+			return new RProver(c, s, new ProofCache.Closure(), iterative);
+		}
+		if (direction == BOTH) {
+			return new BProver(c, s);
+		}
+		if (direction == GRAPH) {
+			return new GProver(c, g);
+		}
+		return new PProver(c, s, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Proves <code>c</code> <code>rounds</code> times with one engine and
+	 * prints the result.
+	 */
+	static void run(
+		String graph,
+		Cert c,
+		java.security.cert.CertStore s,
+		CertGraph g,
+		int direction,
+		boolean iterative,
+		int rounds) {
+		String label =
+			graph
+				+ ((direction == FORWARD)
+					? " forward  "
+					: (direction == BACKWARD)
+					? " backward "
+					: (direction == BOTH)
+					? " both     "
+					: (direction == GRAPH)
+					? " graph    "
+					: " parallel ")
+				+ (iterative ? "iterative" : "recursive");
+		try {
+			Proof pf = null;
+			int fetched = 0;
+			int pruned = 0;
+			long start = System.currentTimeMillis();
+			for (int r = 0; r < rounds; r++) {
+				Prover p = prover(c, s, g, direction, iterative);
+				pf = p.getProof();
+				fetched = p.getNumFetched();
+				pruned = p.getNumPruned();
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			if (pf == null) {
+				System.out.println(label + ": no proof found!");
+				return;
+			}
+			System.out.println(
+				label
+					+ ": "
+					+ ((double) elapsed / rounds)
+					+ " ms/proof, "
+					+ fetched
+					+ " fetched, "
+					+ pruned
+					+ " pruned, "
+					+ pf.getCertificates().length
+					+ " certs");
+		} catch (StackOverflowError e) {
+			System.out.println(label + ": stack overflow");
+		}
+	}
+
+	/**
+	 * Runs all engines on one graph.
+	 */
+	static void runAll(String graph, Cert c, List certs, int rounds)
+		throws Exception {
+		java.security.cert.CertStore s = store(certs);
+		run(graph, c, s, null, FORWARD, false, rounds);
+		run(graph, c, s, null, FORWARD, true, rounds);
+		run(graph, c, s, null, BACKWARD, false, rounds);
+		run(graph, c, s, null, BACKWARD, true, rounds);
+		run(graph, c, s, null, BOTH, true, rounds);
+		run(graph, c, s, null, PARALLEL, true, rounds);
+		long start = System.currentTimeMillis();
+		CertGraph g = new CertGraph(certs);
+		System.out.println(
+			graph
+				+ " graph    compiled in "
+				+ (System.currentTimeMillis() - start)
+				+ " ms");
+		run(graph, c, s, g, GRAPH, true, rounds);
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param  args optional depth, width and number of rounds.
+	 * @throws Exception if an error occurs.
+	 */
+	public static void main(String[] args) throws Exception {
+		Provider.install();
+		int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int width = (args.length > 1) ? Integer.parseInt(args[1]) : 60;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+		List deep = deepGraph(depth);
+		runAll(
+			"deep auth (" + depth + ")",
+			new AuthCert(key(0), key(depth), null, null, null, TAG, false),
+			deep,
+			rounds);
+		runAll(
+			"deep name (" + depth + ")",
+			new NameCert(key(0), key(0), null, null, null, "friend"),
+			deep,
+			rounds);
+
+		int last = width * (width + 1);
+		runAll(
+			"wide auth (" + width + ")",
+			new AuthCert(key(0), key(last), null, null, null, TAG, false),
+			wideGraph(width),
+			rounds);
+		runAll(
+			"scoped auth (" + width + ")",
+			new AuthCert(
+				key(0),
+				key(last),
+				null,
+				null,
+				null,
+				new StringTag("read" + width),
+				false),
+			scopedGraph(width),
+			rounds);
+	}
+}
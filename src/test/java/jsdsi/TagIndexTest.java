@@ -0,0 +1,93 @@
+package jsdsi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+   Tests that the tag index never leaves out a tag that implies the one
+   asked about, and that the cert store only returns the auth certs that
+   match an <code>AuthCertSelector</code>.
+**/
+public class TagIndexTest extends TestCase
+{
+    public TagIndexTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    private static List tags()
+    {
+        List tags = new ArrayList(Arrays.asList(TagTest.tags));
+        tags.add(new SimpleTag("grant", new ExprTag[] {
+            TagTest.myPrefix }));
+        tags.add(new SimpleTag("grant", new ExprTag[] {
+            TagTest.myPublicPrefix, TagTest.readString }));
+        tags.add(new SimpleTag("grant", new ExprTag[] {
+            TagTest.myPublicString }));
+        tags.add(new SimpleTag("grant", new ExprTag[] {
+            TagTest.myPublicPrefix }));
+        tags.add(new SimpleTag("grant", new ExprTag[] {
+            new SetTag(new ExprTag[] {
+                TagTest.myPublicString, TagTest.myPrivateString }) }));
+        return tags;
+    }
+
+    public void testCandidates()
+    {
+        List tags = tags();
+        TagIndex index = new TagIndex();
+        Iterator i = tags.iterator();
+        while (i.hasNext()) {
+            Tag t = (Tag) i.next();
+            index.add(t, t);
+        }
+        int total = 0;
+        Iterator ti = tags.iterator();
+        while (ti.hasNext()) {
+            Tag t = (Tag) ti.next();
+            Collection c = index.candidates(t);
+            total += c.size();
+            Iterator ci = tags.iterator();
+            while (ci.hasNext()) {
+                Tag u = (Tag) ci.next();
+                if (u.implies(t)) {
+                    assertTrue(u + " implies " + t, c.contains(u));
+                }
+            }
+        }
+        assertTrue(total < tags.size() * tags.size());
+        assertFalse(index.candidates(TagTest.readString)
+                    .contains(TagTest.writeString));
+    }
+
+    public void testSelector() throws Exception
+    {
+        int width = 20;
+        java.security.cert.CertStore store =
+            ProverBenchmark.store(ProverBenchmark.scopedGraph(width));
+        Principal root = ProverBenchmark.key(0);
+        assertEquals(width,
+                     store.getCertificates(new AuthCertSelector(root))
+                     .size());
+        Collection c = store.getCertificates(new AuthCertSelector
+            (root, new Auth(new StringTag("read3"), false)));
+        assertEquals(1, c.size());
+        Cert cert = ((Certificate) c.iterator().next()).getCert();
+        assertEquals(ProverBenchmark.key(3), cert.getSubject());
+        assertEquals(0, store.getCertificates(new AuthCertSelector
+            (root, new Auth(new StringTag("write"), false))).size());
+        assertEquals(0, store.getCertificates(new AuthCertSelector
+            (ProverBenchmark.key(width + 1),
+             new Auth(new StringTag("read1"), false))).size());
+    }
+}
@@ -0,0 +1,127 @@
+package jsdsi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+   Tests that cert stores and provers leave out certificates that are not
+   valid when asked, and that expired certificates are swept from a
+   mutable store.
+**/
+public class ValidityIndexTest extends TestCase
+{
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private final long now = System.currentTimeMillis();
+
+    public ValidityIndexTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        jsdsi.Provider.install();
+    }
+
+    private Validity validity(long from, long to)
+    {
+        return new Validity(new Date(now + from), new Date(now + to));
+    }
+
+    private static Certificate cert(int issuer, int subject, Validity v)
+    {
+        return ProverBenchmark.certificate
+            (new AuthCert(ProverBenchmark.key(issuer),
+                          ProverBenchmark.key(subject), v, null, null,
+                          ProverBenchmark.TAG, true));
+    }
+
+    public void testSelector() throws Exception
+    {
+        Certificate expired = cert(0, 1, validity(-2 * HOUR, -HOUR));
+        Certificate current = cert(0, 2, validity(-HOUR, HOUR));
+        Certificate always = cert(0, 3, null);
+        List certs = new ArrayList();
+        certs.add(expired);
+        certs.add(current);
+        certs.add(always);
+        java.security.cert.CertStore store = ProverBenchmark.store(certs);
+        AuthCertSelector s = new AuthCertSelector(ProverBenchmark.key(0));
+        assertEquals(3, store.getCertificates(s).size());
+        s.setValidAt(new Date(now));
+        assertEquals(new HashSet(java.util.Arrays.asList
+                                 (new Object[] { current, always })),
+                     new HashSet(store.getCertificates(s)));
+        assertEquals(2, store.getCertificates
+                     ((java.security.cert.CertSelector) s.clone()).size());
+        s.setValidAt(new Date(now - 3 * HOUR / 2));
+        assertTrue(store.getCertificates(s).contains(expired));
+        assertFalse(store.getCertificates(s).contains(current));
+        s.setValidity(new Validity(null, null));
+        assertEquals(1, store.getCertificates(s).size());
+        SubjectCertSelector ss =
+            new SubjectCertSelector(ProverBenchmark.key(1));
+        ss.setValidAt(new Date(now));
+        assertEquals(0, store.getCertificates(ss).size());
+    }
+
+    public void testSweep() throws Exception
+    {
+        List certs = new ArrayList();
+        certs.add(cert(0, 1, validity(-2 * HOUR, -HOUR)));
+        certs.add(cert(0, 2, validity(-HOUR, HOUR)));
+        certs.add(cert(0, 3, null));
+        MutableCertStoreParameters p = new MutableCertStoreParameters(certs);
+        MutableCertStoreParameters snapshot = p.snapshot();
+        long version = p.getVersion();
+        assertEquals(1, p.sweep(new Date(now)));
+        assertEquals(version + 1, p.getVersion());
+        assertFalse(p.contains((Certificate) certs.get(0)));
+        assertEquals(0, p.sweep(new Date(now)));
+        assertEquals(3, snapshot.size());
+        assertEquals(2, snapshot.sweep(new Date(now + 2 * HOUR)));
+        assertEquals(1, snapshot.size());
+        assertEquals(2, p.size());
+
+        Certificate soon = cert(0, 4, new Validity
+            (null, new Date(System.currentTimeMillis() + 100)));
+        assertTrue(p.add(soon));
+        p.startSweeper(20);
+        try {
+            for (int i = 0; i < 100 && p.contains(soon); i++) {
+                Thread.sleep(20);
+            }
+        } finally {
+            p.stopSweeper();
+        }
+        assertFalse(p.contains(soon));
+        assertEquals(2, p.size());
+    }
+
+    public void testProver() throws Exception
+    {
+        int width = 50;
+        List certs = new ArrayList();
+        // expired delegations, each passed on again
+        for (int i = 1; i <= width; i++) {
+            certs.add(cert(0, i, validity(-2 * HOUR, -HOUR)));
+            certs.add(cert(i, i + width, validity(-2 * HOUR, -HOUR)));
+        }
+        int first = 2 * width + 1;
+        certs.add(cert(0, first, validity(-HOUR, HOUR)));
+        certs.add(cert(first, first + 1, validity(-HOUR, HOUR)));
+        Cert c = new AuthCert(ProverBenchmark.key(0),
+                              ProverBenchmark.key(first + 1),
+                              validity(0, 0), null, null,
+                              ProverBenchmark.TAG, false);
+        jsdsi.CertPathBuilderResult r = (jsdsi.CertPathBuilderResult)
+            java.security.cert.CertPathBuilder.getInstance("SPKI").build
+            (new IssuerCertPathParameters(c, ProverBenchmark.store(certs)));
+        assertTrue(r.getStats().getNumFetched() < 4);
+    }
+}
@@ -0,0 +1,123 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import junit.framework.TestCase;
+import jsdsi.*;
+import com.novell.ldap.*;
+
+/**
+ * Tests that a batched lookup on the LDAP store gives every selector the
+ * certificates a lookup of that selector alone finds, whichever hash
+ * they were stored under, that it does one search for each batch, and
+ * that an entry that cannot be decoded is only left out.  Runs against
+ * an {@link LDAPStandIn}, so needs no LDAP server.
+ *
+ * @version $Revision$ $Date$
+ */
+public class LDAPBatchTest extends TestCase {
+
+	private static final String BASE_DN = "ou=certs,o=jsdsi";
+
+	private static final int ISSUERS = 20;
+
+	private LDAPStandIn server;
+
+	public LDAPBatchTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		Provider.install();
+		server = new LDAPStandIn();
+		LDAPOperations ops = new LDAPOperations(server.getParameters(BASE_DN));
+		for (int i = 0; i < ISSUERS; i++)
+			for (int j = 0; j < 3; j++)
+				ops.storeCertificate("a" + i + "." + j,
+						LDAPStandIn.certificate(i, 100 + 3 * i + j));
+		ops.storeCertificate("sha", LDAPStandIn.certificate(ISSUERS, 99), "sha1");
+		ops.storeCertificate("n1", LDAPStandIn.certificate(new NameCert(LDAPStandIn.key(0),
+				LDAPStandIn.key(50), LDAPStandIn.validity(), null, null, "friend")));
+		ops.storeCertificate("n2", LDAPStandIn.certificate(new NameCert(LDAPStandIn.key(1),
+				new Name(LDAPStandIn.key(2), "friend"), LDAPStandIn.validity(),
+				null, null, "pal")));
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+
+	private List selectors() {
+		List l = new ArrayList();
+		for (int i = 0; i <= ISSUERS + 1; i++)
+			l.add(new AuthCertSelector(LDAPStandIn.key(i)));
+		l.add(new NameCertSelector(LDAPStandIn.key(0), "friend"));
+		l.add(new NameCertSelector(LDAPStandIn.key(0), "pal"));
+		l.add(new SubjectCertSelector(LDAPStandIn.key(50)));
+		l.add(new CompatibleCertSelector(LDAPStandIn.key(2), "friend"));
+		return l;
+	}
+
+	private static Set strings(Collection certs) {
+		Set s = new HashSet();
+		Iterator i = certs.iterator();
+		while (i.hasNext())
+			s.add(i.next().toString());
+		return s;
+	}
+
+	public void testSameAsSingleLookups() throws Exception {
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		java.security.cert.CertStore single =
+				java.security.cert.CertStore.getInstance("SPKI/LDAP", params);
+		LDAPCertStore batched = new LDAPCertStore(params);
+		List selectors = selectors();
+		Map result = batched.getCertificates(selectors);
+		assertEquals(selectors.size(), result.size());
+		Iterator i = selectors.iterator();
+		while (i.hasNext()) {
+			java.security.cert.CertSelector s = (java.security.cert.CertSelector) i.next();
+			assertEquals(s.toString(), strings(single.getCertificates(s)),
+					strings((Collection) result.get(s)));
+		}
+		assertEquals(4, ((Collection) result.get(selectors.get(0))).size());
+		assertEquals(1, ((Collection) result.get(selectors.get(ISSUERS))).size());
+		assertEquals(0, ((Collection) result.get(selectors.get(ISSUERS + 1))).size());
+	}
+
+	public void testOneSearchPerBatch() throws Exception {
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		List selectors = selectors();
+		int before = server.getSearches();
+		new LDAPCertStore(params).getCertificates(selectors);
+		assertEquals(before + 1, server.getSearches());
+
+		params.setBatchSize(5);
+		before = server.getSearches();
+		Map result = new LDAPCertStore(params).getCertificates(selectors);
+		assertEquals(before + (selectors.size() + 4) / 5, server.getSearches());
+		assertEquals(3, ((Collection) result.get(selectors.get(ISSUERS - 1))).size());
+	}
+
+	public void testUnreadableEntry() throws Exception {
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		LDAPAttributeSet attributes =
+				LDAPOperations.attributes("bad", LDAPStandIn.certificate(0, 98), "md5");
+		attributes.remove(LDAPAttributes.getCanonicalSexp());
+		attributes.add(new LDAPAttribute(LDAPAttributes.getCanonicalSexp(), "(3:bad"));
+		LDAPConnection lc = new LDAPConnection();
+		lc.connect(params.getLDAPserver(), params.getLDAPport());
+		lc.add(new LDAPEntry(LDAPAttributes.setCn("bad") + BASE_DN, attributes));
+		lc.disconnect();
+
+		params.setMaxConnections(1);
+		LDAPCertStore store = new LDAPCertStore(params);
+		List selectors = selectors();
+		int before = server.getConnections();
+		Map result = store.getCertificates(selectors);
+		assertEquals(4, ((Collection) result.get(selectors.get(0))).size());
+		assertEquals(4, ((Collection) result.get(selectors.get(1))).size());
+		// the connection was given back whole, and is used again
+		store.getCertificates(selectors);
+		assertEquals(before + 1, server.getConnections());
+	}
+}
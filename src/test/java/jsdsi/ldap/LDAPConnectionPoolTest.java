@@ -0,0 +1,152 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import junit.framework.TestCase;
+import jsdsi.*;
+
+/**
+ * Tests that the LDAP store finds the same certificates whether or not
+ * it pools its connections, that it does not open more connections than
+ * the pool allows, even with many threads looking up at once, that idle
+ * connections are closed after the idle timeout, whether or not the pool
+ * is used again, and that closing the store closes them.  Runs against an
+ * {@link LDAPStandIn}, so needs no LDAP server.
+ *
+ * @version $Revision$ $Date$
+ */
+public class LDAPConnectionPoolTest extends TestCase {
+
+	private static final String BASE_DN = "ou=certs,o=jsdsi";
+
+	private LDAPStandIn server;
+
+	public LDAPConnectionPoolTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		Provider.install();
+		server = new LDAPStandIn();
+		LDAPOperations ops = new LDAPOperations(server.getParameters(BASE_DN));
+		for (int i = 1; i <= 5; i++)
+			ops.storeCertificate("c" + i, LDAPStandIn.certificate(0, i));
+		ops.storeCertificate("c6", LDAPStandIn.certificate(1, 6));
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+
+	private java.security.cert.CertStore store(int maxConnections) throws Exception {
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		params.setMaxConnections(maxConnections);
+		return java.security.cert.CertStore.getInstance("SPKI/LDAP", params);
+	}
+
+	private static int lookup(java.security.cert.CertStore store, int key) throws Exception {
+		return store.getCertificates(new AuthCertSelector(LDAPStandIn.key(key))).size();
+	}
+
+	public void testLookups() throws Exception {
+		java.security.cert.CertStore unpooled = store(0);
+		java.security.cert.CertStore pooled = store(2);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(5, lookup(unpooled, 0));
+			assertEquals(5, lookup(pooled, 0));
+			assertEquals(1, lookup(pooled, 1));
+			assertEquals(0, lookup(pooled, 7));
+		}
+		Collection c = pooled.getCertificates(new SubjectCertSelector(LDAPStandIn.key(6)));
+		assertEquals(1, c.size());
+		assertEquals(LDAPStandIn.certificate(1, 6).getCert().getSubject().toString(),
+				((Certificate) c.iterator().next()).getCert().getSubject().toString());
+	}
+
+	public void testConnectionReuse() throws Exception {
+		int before = server.getConnections();
+		java.security.cert.CertStore unpooled = store(0);
+		for (int i = 0; i < 4; i++)
+			lookup(unpooled, 0);
+		assertEquals(before + 4, server.getConnections());
+
+		before = server.getConnections();
+		java.security.cert.CertStore pooled = store(1);
+		for (int i = 0; i < 4; i++)
+			lookup(pooled, 0);
+		assertEquals(before + 1, server.getConnections());
+	}
+
+	public void testThreads() throws Exception {
+		server.opDelay = 5;
+		final java.security.cert.CertStore pooled = store(3);
+		final List failures = Collections.synchronizedList(new ArrayList());
+		int before = server.getConnections();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 10; i++) {
+							if (lookup(pooled, i % 2) != ((i % 2 == 0) ? 5 : 1))
+								failures.add("wrong number of certificates");
+						}
+					} catch (Exception e) {
+						failures.add(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+		assertEquals(Collections.EMPTY_LIST, failures);
+		assertTrue(server.getConnections() - before <= 3);
+	}
+
+	public void testIdleTimeout() throws Exception {
+		LDAPConnectionPool pool = new LDAPConnectionPool(server.getParameters(BASE_DN), 2, 50, 0);
+		pool.release(pool.borrow(), false);
+		pool.release(pool.borrow(), false);
+		assertEquals(1, pool.getCreated());
+		assertEquals(1, pool.getIdle());
+		Thread.sleep(100);
+		pool.release(pool.borrow(), false);
+		assertEquals(2, pool.getCreated());
+		assertEquals(1, pool.getOpen());
+		pool.close();
+		assertEquals(0, pool.getOpen());
+	}
+
+	public void testSweep() throws Exception {
+		LDAPConnectionPool pool = new LDAPConnectionPool(server.getParameters(BASE_DN), 2, 50, 0);
+		com.novell.ldap.LDAPConnection first = pool.borrow();
+		com.novell.ldap.LDAPConnection second = pool.borrow();
+		pool.release(first, false);
+		pool.release(second, false);
+		assertEquals(2, pool.getIdle());
+		for (int i = 0; i < 100 && (pool.getOpen() > 0 || server.getOpen() > 0); i++)
+			Thread.sleep(20);
+		assertEquals(0, pool.getIdle());
+		assertEquals(0, pool.getOpen());
+		assertEquals(0, server.getOpen());
+		pool.close();
+	}
+
+	public void testClose() throws Exception {
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		params.setMaxConnections(2);
+		LDAPCertStore store = new LDAPCertStore(params);
+		AuthCertSelector s = new AuthCertSelector(LDAPStandIn.key(0));
+		assertEquals(5, store.engineGetCertificates(s).size());
+		store.close();
+		for (int i = 0; i < 100 && server.getOpen() > 0; i++)
+			Thread.sleep(20);
+		assertEquals(0, server.getOpen());
+		try {
+			store.engineGetCertificates(s);
+			fail("looked up after close");
+		} catch (java.security.cert.CertStoreException e) {
+			// expected
+		}
+	}
+}
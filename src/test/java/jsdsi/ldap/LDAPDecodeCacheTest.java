@@ -0,0 +1,127 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import junit.framework.TestCase;
+import jsdsi.*;
+
+/**
+ * Tests that the LDAP store decodes an unchanged entry only once, with or
+ * without a modifyTimestamp, that it decodes an entry again once it has
+ * changed, even within the second of its timestamp, and that the cache
+ * stays under its maximum size.  Runs against an {@link LDAPStandIn}, so
+ * needs no LDAP server.
+ *
+ * @version $Revision$ $Date$
+ */
+public class LDAPDecodeCacheTest extends TestCase {
+
+	private static final String BASE_DN = "ou=certs,o=jsdsi";
+
+	private static final int CERTS = 20;
+
+	private LDAPStandIn server;
+
+	private LDAPOperations ops;
+
+	public LDAPDecodeCacheTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		Provider.install();
+		server = new LDAPStandIn();
+		ops = new LDAPOperations(server.getParameters(BASE_DN));
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+
+	private void seed() {
+		for (int i = 0; i < CERTS; i++)
+			ops.storeCertificate("c" + i, LDAPStandIn.certificate(0, 100 + i));
+	}
+
+	private java.security.cert.CertStore store(LDAPDecodeCache cache) throws Exception {
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		params.setDecodeCache(cache);
+		return java.security.cert.CertStore.getInstance("SPKI/LDAP", params);
+	}
+
+	private static Set subjects(Collection certs) {
+		Set s = new HashSet();
+		Iterator i = certs.iterator();
+		while (i.hasNext())
+			s.add(((Certificate) i.next()).getCert().getSubject().toString());
+		return s;
+	}
+
+	private void checkHitsAndChanges() throws Exception {
+		seed();
+		LDAPDecodeCache cache = new LDAPDecodeCache(100);
+		java.security.cert.CertStore store = store(cache);
+		java.security.cert.CertStore uncached = store(null);
+		AuthCertSelector s = new AuthCertSelector(LDAPStandIn.key(0));
+		Collection first = store.getCertificates(s);
+		assertEquals(CERTS, cache.getMisses());
+		assertEquals(0, cache.getHits());
+		Collection second = store.getCertificates(s);
+		assertEquals(CERTS, cache.getHits());
+		assertEquals(0.5, cache.getHitRate(), 0.0001);
+		assertEquals(subjects(first), subjects(second));
+		assertEquals(subjects(uncached.getCertificates(s)), subjects(second));
+
+		// the entry changes: it is decoded again
+		ops.deleteCertificate("c0");
+		ops.storeCertificate("c0", LDAPStandIn.certificate(0, 99));
+		Collection third = store.getCertificates(s);
+		assertEquals(CERTS + 1, cache.getMisses());
+		assertEquals(2 * CERTS - 1, cache.getHits());
+		assertEquals(subjects(uncached.getCertificates(s)), subjects(third));
+		assertTrue(subjects(third).contains(LDAPStandIn.key(99).toString()));
+	}
+
+	public void testModifyTimestamp() throws Exception {
+		checkHitsAndChanges();
+	}
+
+	public void testContentHash() throws Exception {
+		server.modifyTimestamps = false;
+		checkHitsAndChanges();
+	}
+
+	public void testReplacedWithinASecond() throws Exception {
+		server.secondTimestamps = true;
+		LDAPDecodeCache cache = new LDAPDecodeCache(100);
+		java.security.cert.CertStore store = store(cache);
+		AuthCertSelector s = new AuthCertSelector(LDAPStandIn.key(0));
+		ops.storeCertificate("c0", LDAPStandIn.certificate(0, 99));
+		assertEquals(1, store.getCertificates(s).size());
+		for (int i = 0; i < 5; i++) {
+			// replaced faster than the timestamp changes
+			ops.deleteCertificate("c0");
+			ops.storeCertificate("c0", LDAPStandIn.certificate(0, 100 + i));
+			assertEquals(Collections.singleton(LDAPStandIn.key(100 + i).toString()),
+					subjects(store.getCertificates(s)));
+		}
+	}
+
+	public void testBounded() throws Exception {
+		seed();
+		LDAPDecodeCache cache = new LDAPDecodeCache(5);
+		java.security.cert.CertStore store = store(cache);
+		assertEquals(CERTS, store.getCertificates(new AuthCertSelector(LDAPStandIn.key(0))).size());
+		assertEquals(5, cache.getSize());
+		assertEquals(CERTS - 5, cache.getEvictions());
+	}
+
+	public void testBatched() throws Exception {
+		seed();
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		LDAPCertStore store = new LDAPCertStore(params);
+		List selectors = Collections.singletonList(new AuthCertSelector(LDAPStandIn.key(0)));
+		store.getCertificates(selectors);
+		store.getCertificates(selectors);
+		assertEquals(CERTS, params.getDecodeCache().getHits());
+	}
+}
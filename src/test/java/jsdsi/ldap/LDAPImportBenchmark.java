@@ -0,0 +1,66 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import jsdsi.*;
+
+/**
+ * Measures the adds per second of storing certificates one at a time
+ * with {@link LDAPOperations#storeCertificate(String, Certificate)} and
+ * of the bulk {@link LDAPImporter} with a few numbers of workers and
+ * adds in flight, against an {@link LDAPStandIn}.  Not a unit test: run
+ * it by hand with
+ * <code>java jsdsi.ldap.LDAPImportBenchmark [certs] [opDelay]</code>.
+ *
+ * The stand-in waits <code>opDelay</code> milliseconds before answering
+ * each request, as a server across a network would.  Each run imports
+ * <code>certs</code> certificates into an empty stand-in (storing one
+ * at a time only a tenth of them).
+ *
+ * @see LDAPImporter
+ *
+ * @version $Revision$ $Date$
+ */
+public class LDAPImportBenchmark {
+
+	private static final String BASE_DN = "ou=certs,o=jsdsi";
+
+	private static List certificates(int n) {
+		List l = new ArrayList(n);
+		for (int i = 0; i < n; i++)
+			l.add(LDAPStandIn.certificate(i % 1000, 1000 + i));
+		return l;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		long opDelay = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+		Provider.install();
+		List certs = certificates(n);
+		System.out.println(n + " certs, opDelay " + opDelay + "ms");
+
+		LDAPStandIn server = new LDAPStandIn();
+		server.opDelay = opDelay;
+		LDAPOperations ops = new LDAPOperations(server.getParameters(BASE_DN));
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < n / 10; i++)
+			ops.storeCertificate("c" + i, (Certificate) certs.get(i));
+		long time = Math.max(System.currentTimeMillis() - start, 1);
+		System.out.println("one at a time: " + Math.round(n / 10 * 1000.0 / time) + " adds/s");
+		server.close();
+
+		int[][] runs = { { 1, 1 }, { 1, 32 }, { 4, 32 }, { 8, 64 } };
+		for (int r = 0; r < runs.length; r++) {
+			server = new LDAPStandIn();
+			server.opDelay = opDelay;
+			LDAPImporter importer = new LDAPImporter(server.getParameters(BASE_DN), null);
+			importer.setWorkers(runs[r][0]);
+			importer.setWindow(runs[r][1]);
+			importer.importCertificates(certs.iterator(), "c");
+			if (server.size() != n)
+				throw new Error("imported " + server.size() + " of " + n);
+			System.out.println(runs[r][0] + " workers, " + runs[r][1] + " in flight each: "
+					+ Math.round(importer.getRate()) + " adds/s");
+			server.close();
+		}
+	}
+}
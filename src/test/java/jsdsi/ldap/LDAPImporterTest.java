@@ -0,0 +1,178 @@
+package jsdsi.ldap;
+
+import java.io.*;
+import java.security.KeyPair;
+import java.util.*;
+import junit.framework.TestCase;
+import jsdsi.*;
+import jsdsi.util.DigestAlgoEnum;
+import jsdsi.util.KeyEnum;
+import jsdsi.util.KeyPairFactory;
+import jsdsi.util.SignatureAlgoEnum;
+
+/**
+ * Tests that the bulk importer stores every certificate once, that an
+ * import that stopped part way resumes from its checkpoint without
+ * adding again what was stored, that certs are signed by the importer,
+ * that an error in a worker stops the import, and that the checkpoint is
+ * written however the import stops.  Runs against an {@link LDAPStandIn},
+ * so needs no LDAP server.
+ *
+ * @version $Revision$ $Date$
+ */
+public class LDAPImporterTest extends TestCase {
+
+	private static final String BASE_DN = "ou=certs,o=jsdsi";
+
+	private static final int CERTS = 300;
+
+	private LDAPStandIn server;
+
+	private File checkpoint = new File("target", "import.checkpoint");
+
+	public LDAPImporterTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		Provider.install();
+		server = new LDAPStandIn();
+		checkpoint.getParentFile().mkdirs();
+		checkpoint.delete();
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+		checkpoint.delete();
+	}
+
+	private static List certificates() {
+		List l = new ArrayList();
+		for (int i = 0; i < CERTS; i++)
+			l.add(LDAPStandIn.certificate(i % 10, 100 + i));
+		return l;
+	}
+
+	private LDAPImporter importer() {
+		LDAPImporter importer = new LDAPImporter(server.getParameters(BASE_DN), checkpoint);
+		importer.setWorkers(3);
+		importer.setWindow(8);
+		importer.setCheckpointInterval(10);
+		return importer;
+	}
+
+	public void testImport() throws Exception {
+		server.opDelay = 1;
+		LDAPImporter importer = importer();
+		assertEquals(CERTS, importer.importCertificates(certificates().iterator(), "c"));
+		assertEquals(CERTS, server.size());
+		assertEquals(CERTS, server.getAdds());
+		assertTrue(server.getConnections() <= 3);
+		java.security.cert.CertStore store =
+				java.security.cert.CertStore.getInstance("SPKI/LDAP", server.getParameters(BASE_DN));
+		AuthCertSelector s = new AuthCertSelector(LDAPStandIn.key(3));
+		assertEquals(CERTS / 10, store.getCertificates(s).size());
+	}
+
+	/**
+	 * The certificates, with the one in the middle replaced by a failure
+	 */
+	private static Iterator failing(final Throwable failure) {
+		final Iterator all = certificates().iterator();
+		return new Iterator() {
+			int n = 0;
+			public boolean hasNext() {
+				return all.hasNext();
+			}
+			public Object next() {
+				if (n++ == CERTS / 2) {
+					if (failure instanceof Error)
+						throw (Error) failure;
+					throw (RuntimeException) failure;
+				}
+				return all.next();
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Imports all the certificates after an import that stopped half way
+	 */
+	private void checkResumed() throws Exception {
+		int stored = server.size();
+		assertTrue(stored > 0 && stored <= CERTS / 2);
+		assertTrue(checkpoint.exists());
+
+		int before = server.getAdds();
+		LDAPImporter importer = importer();
+		importer.importCertificates(certificates().iterator(), "c");
+		assertEquals(CERTS, server.size());
+		assertEquals(CERTS, importer.getAdded() + importer.getExisting() + stored);
+		assertEquals(CERTS - stored, server.getAdds() - before);
+	}
+
+	public void testResume() throws Exception {
+		try {
+			Iterator items = failing(new IllegalStateException("source went away"));
+			importer().importCertificates(items, "c");
+			fail("import should have stopped");
+		} catch (com.novell.ldap.LDAPException e) {
+			// expected
+		}
+		checkResumed();
+	}
+
+	public void testResumeAfterError() throws Exception {
+		LDAPImporter importer = importer();
+		// no checkpoint but the one written when the import stops
+		importer.setCheckpointInterval(2 * CERTS);
+		try {
+			importer.importCertificates(failing(new StackOverflowError("source went away")), "c");
+			fail("import should have stopped");
+		} catch (StackOverflowError e) {
+			// expected
+		}
+		checkResumed();
+	}
+
+	public void testWorkerError() throws Exception {
+		List certs = certificates();
+		Cert c = ((Certificate) certs.get(CERTS / 2)).getCert();
+		Signature s = new Signature(c.getIssuer(),
+				new Hash(DigestAlgoEnum.MD5, "HASH-VALUE".getBytes(), null),
+				SignatureAlgoEnum.create(DigestAlgoEnum.MD5, KeyEnum.RSA),
+				"SIGNATURE-VALUE".getBytes());
+		certs.set(CERTS / 2, new Certificate(c, s) {
+			public Cert getCert() {
+				throw new AssertionError("worker died");
+			}
+		});
+		try {
+			importer().importCertificates(certs.iterator(), "c");
+			fail("import should have stopped");
+		} catch (com.novell.ldap.LDAPException e) {
+			assertTrue(e.getCause() instanceof AssertionError);
+		}
+	}
+
+	public void testSigning() throws Exception {
+		KeyPair kp = KeyPairFactory.create(KeyEnum.RSA, 512);
+		List certs = new ArrayList();
+		for (int i = 0; i < 5; i++)
+			certs.add(new AuthCert((Principal) kp.getPublic(), (Subject) LDAPStandIn.key(i),
+					LDAPStandIn.validity(), null, null, new StringTag("read"), false));
+		LDAPImporter importer = new LDAPImporter(server.getParameters(BASE_DN), null);
+		importer.setSigner(kp, DigestAlgoEnum.MD5);
+		assertEquals(5, importer.importCertificates(certs.iterator(), "s"));
+		java.security.cert.CertStore store =
+				java.security.cert.CertStore.getInstance("SPKI/LDAP", server.getParameters(BASE_DN));
+		Collection found = store.getCertificates(new AuthCertSelector((Principal) kp.getPublic()));
+		assertEquals(5, found.size());
+		Iterator i = found.iterator();
+		while (i.hasNext())
+			((Certificate) i.next()).verify(kp.getPublic());
+	}
+}
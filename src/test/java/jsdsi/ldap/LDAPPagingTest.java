@@ -0,0 +1,135 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import junit.framework.TestCase;
+import jsdsi.*;
+
+/**
+ * Tests that a paged lookup on the LDAP store finds the same certificates
+ * as one that is not, that the certificate iterator only asks for a
+ * page once the one before has been taken, and that a lookup hands the
+ * certificates of a page to the receiver of its selector before asking
+ * for the next one.  Runs against an
+ * {@link LDAPStandIn}, so needs no LDAP server.
+ *
+ * @version $Revision$ $Date$
+ */
+public class LDAPPagingTest extends TestCase {
+
+	private static final String BASE_DN = "ou=certs,o=jsdsi";
+
+	private static final int CERTS = 25;
+
+	private LDAPStandIn server;
+
+	public LDAPPagingTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		Provider.install();
+		server = new LDAPStandIn();
+		LDAPOperations ops = new LDAPOperations(server.getParameters(BASE_DN));
+		for (int i = 0; i < CERTS; i++)
+			ops.storeCertificate("a" + i, LDAPStandIn.certificate(0, 100 + i));
+		ops.storeCertificate("b", LDAPStandIn.certificate(1, 100));
+		ops.storeCertificate("sha", LDAPStandIn.certificate(2, 100), "sha1");
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+
+	private LDAPCertStoreParameters params(int pageSize) {
+		LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+		params.setPageSize(pageSize);
+		return params;
+	}
+
+	private static Set strings(Collection certs) {
+		Set s = new HashSet();
+		Iterator i = certs.iterator();
+		while (i.hasNext())
+			s.add(i.next().toString());
+		return s;
+	}
+
+	public void testSameAsUnpaged() throws Exception {
+		java.security.cert.CertStore unpaged = java.security.cert.CertStore.getInstance("SPKI/LDAP", params(0));
+		java.security.cert.CertStore paged = java.security.cert.CertStore.getInstance("SPKI/LDAP", params(10));
+		for (int k = 0; k < 4; k++) {
+			AuthCertSelector s = new AuthCertSelector(LDAPStandIn.key(k));
+			int before = server.getSearches();
+			Collection c = paged.getCertificates(s);
+			if (k == 0)
+				assertEquals(3, server.getSearches() - before);
+			assertEquals(strings(unpaged.getCertificates(s)), strings(c));
+		}
+		assertEquals(CERTS, paged.getCertificates(new AuthCertSelector(LDAPStandIn.key(0))).size());
+		assertEquals(1, paged.getCertificates(new AuthCertSelector(LDAPStandIn.key(2))).size());
+	}
+
+	public void testIterator() throws Exception {
+		LDAPCertStore store = new LDAPCertStore(params(10));
+		int before = server.getSearches();
+		LDAPCertIterator i = store.getCertificateIterator(new AuthCertSelector(LDAPStandIn.key(0)));
+		assertEquals(before, server.getSearches());
+		for (int n = 0; n < 10; n++)
+			assertTrue(i.next() instanceof Certificate);
+		assertEquals(before + 1, server.getSearches());
+		assertTrue(i.hasNext());
+		assertEquals(before + 2, server.getSearches());
+		int n = 10;
+		while (i.hasNext()) {
+			i.next();
+			n++;
+		}
+		assertEquals(CERTS, n);
+		assertEquals(before + 3, server.getSearches());
+	}
+
+	public void testReceiver() throws Exception {
+		java.security.cert.CertStore store = java.security.cert.CertStore.getInstance("SPKI/LDAP", params(10));
+		final List searches = new ArrayList();
+		AuthCertSelector s = new AuthCertSelector(LDAPStandIn.key(0));
+		s.setReceiver(new jsdsi.CertSelector.Receiver() {
+			public void receive(Certificate c) {
+				searches.add(new Integer(server.getSearches()));
+			}
+		});
+		int before = server.getSearches();
+		Collection c = store.getCertificates(s);
+		assertEquals(CERTS, c.size());
+		assertEquals(CERTS, searches.size());
+		// the first page went out before the second was asked for
+		for (int n = 0; n < 10; n++)
+			assertEquals(new Integer(before + 1), searches.get(n));
+		assertEquals(new Integer(before + 3), searches.get(CERTS - 1));
+	}
+
+	public void testProverStreams() throws Exception {
+		java.security.cert.CertStore store = java.security.cert.CertStore.getInstance("SPKI/LDAP", params(10));
+		// the keys as read back from the store
+		Cert stored = ((Certificate) store.getCertificates(new AuthCertSelector(LDAPStandIn.key(0)))
+				.iterator().next()).getCert();
+		Date now = new Date();
+		AuthCert c = new AuthCert(stored.getIssuer(), (Principal) stored.getSubject(),
+				new Validity(now, now), null, null, new StringTag("read"), false);
+		java.security.cert.CertPathBuilder builder = java.security.cert.CertPathBuilder.getInstance("SPKI");
+		CertPathBuilderResult r = (CertPathBuilderResult) builder.build(new IssuerCertPathParameters(c, new ProofCache(store)));
+		assertTrue(((CertPath) r.getCertPath()).getProof().getCert().implies(c));
+		assertEquals(CERTS, r.getStats().getNumFetched());
+	}
+
+	public void testClose() throws Exception {
+		LDAPCertStoreParameters params = params(10);
+		params.setMaxConnections(1);
+		LDAPCertStore store = new LDAPCertStore(params);
+		LDAPCertIterator i = store.getCertificateIterator(new AuthCertSelector(LDAPStandIn.key(0)));
+		i.next();
+		i.close();
+		assertFalse(i.hasNext());
+		// the only connection was given back
+		assertEquals(CERTS, store.engineGetCertificates(new AuthCertSelector(LDAPStandIn.key(0))).size());
+	}
+}
@@ -0,0 +1,106 @@
+package jsdsi.ldap;
+
+import java.util.*;
+import jsdsi.*;
+
+/**
+ * Compares the LDAP store opening a connection for every lookup with
+ * the store looking up over a pool of connections, from 1, 8 and 32
+ * threads at once, against an {@link LDAPStandIn}.  Not a unit test: run
+ * it by hand with
+ * <code>java jsdsi.ldap.LDAPPoolBenchmark [lookups] [connectDelay] [opDelay]</code>.
+ *
+ * The stand-in holds 20 issuers with 10 auth certs each.  Every thread
+ * looks up the certs of one issuer after another, <code>lookups</code>
+ * times.  The stand-in waits <code>connectDelay</code> milliseconds
+ * before answering on a new connection, as a server across a network
+ * (and with TLS) would, and <code>opDelay</code> before each answer.
+ * For each way and number of threads the benchmark prints the lookups
+ * per second and the number of connections opened after the warm up.
+ *
+ * @see LDAPConnectionPool
+ *
+ * @version $Revision$ $Date$
+ */
+public class LDAPPoolBenchmark {
+
+	private static final String BASE_DN = "ou=certs,o=jsdsi";
+
+	private static final int ISSUERS = 20;
+
+	private static final int CERTS = 10;
+
+	private static final int POOL = 8;
+
+	/**
+	 * Looks up from a number of threads at once
+	 *
+	 * @return lookups per second
+	 */
+	static double run(final java.security.cert.CertStore store, int threads, final int lookups)
+			throws Exception {
+		final List failures = Collections.synchronizedList(new ArrayList());
+		Thread[] t = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			t[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < lookups; j++) {
+							Principal issuer = LDAPStandIn.key((first + j) % ISSUERS);
+							if (store.getCertificates(new AuthCertSelector(issuer)).size() != CERTS)
+								failures.add("wrong number of certificates");
+						}
+					} catch (Exception e) {
+						failures.add(e);
+					}
+				}
+			};
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threads; i++)
+			t[i].start();
+		for (int i = 0; i < threads; i++)
+			t[i].join();
+		long time = System.currentTimeMillis() - start;
+		if (!failures.isEmpty())
+			throw new Error(failures.get(0).toString());
+		return (threads * lookups * 1000.0) / Math.max(time, 1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int lookups = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+		long connectDelay = (args.length > 1) ? Long.parseLong(args[1]) : 5;
+		long opDelay = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+		Provider.install();
+		LDAPStandIn server = new LDAPStandIn();
+		LDAPOperations ops = new LDAPOperations(server.getParameters(BASE_DN));
+		for (int i = 0; i < ISSUERS; i++)
+			for (int j = 0; j < CERTS; j++)
+				ops.storeCertificate("c" + i + "." + j,
+						LDAPStandIn.certificate(i, ISSUERS + i * CERTS + j));
+		server.connectDelay = connectDelay;
+		server.opDelay = opDelay;
+		System.out.println(ISSUERS * CERTS + " certs, " + lookups + " lookups per thread, "
+				+ "connectDelay " + connectDelay + "ms, opDelay " + opDelay + "ms");
+
+		int[] threads = { 1, 8, 32 };
+		int[] pools = { 0, POOL };
+		for (int i = 0; i < threads.length; i++) {
+			for (int p = 0; p < pools.length; p++) {
+				LDAPCertStoreParameters params = server.getParameters(BASE_DN);
+				params.setMaxConnections(pools[p]);
+				java.security.cert.CertStore store =
+						java.security.cert.CertStore.getInstance("SPKI/LDAP", params);
+				run(store, threads[i], 2);	// warm up
+				int before = server.getConnections();
+				double rate = run(store, threads[i], lookups);
+				System.out.println((pools[p] == 0 ? "per lookup" : "pool of " + pools[p])
+						+ ", " + threads[i] + " threads: "
+						+ Math.round(rate) + " lookups/s, "
+						+ (server.getConnections() - before) + " new connections");
+			}
+		}
+		server.close();
+	}
+}
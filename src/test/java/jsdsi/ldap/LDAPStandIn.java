@@ -0,0 +1,687 @@
+package jsdsi.ldap;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.*;
+import java.util.*;
+
+/**
+ * An LDAP server that keeps its entries in memory, so that the LDAP
+ * store and operations can be tested and measured without a real
+ * directory.  It speaks just enough LDAPv3 over a local socket for the
+ * jldap client: bind, unbind, search (with and, or, not, equality,
+ * substring, ordering and presence filters, and the simple paged
+ * results control), add and delete.  Any bind
+ * is accepted, and there is no schema checking.
+ *
+ * Each request after the bind is answered on a thread of its own, as a
+ * real server would, so several requests sent on one connection are
+ * worked on at once.  <code>connectDelay</code> and <code>opDelay</code>
+ * add the cost of setting up a connection and of each operation; the
+ * counters tell how many of each the server has seen.
+ *
+ * @version $Revision$ $Date$
+ *
+ **/
+
+class LDAPStandIn implements Runnable {
+
+	/**
+	 * An entry: its dn, and its attributes by lower case name
+	 */
+	static class Entry {
+		final String dn;
+		final Map attributes = new LinkedHashMap();
+		Entry(String dn) {
+			this.dn = dn;
+		}
+		void add(String name, byte[] value) {
+			Object[] a = (Object[]) attributes.get(name.toLowerCase());
+			if (a == null) {
+				a = new Object[] { name, new ArrayList() };
+				attributes.put(name.toLowerCase(), a);
+			}
+			((List) a[1]).add(value);
+		}
+		List values(String name) {
+			Object[] a = (Object[]) attributes.get(name.toLowerCase());
+			return (a == null) ? Collections.EMPTY_LIST : (List) a[1];
+		}
+	}
+
+	/**
+	 * A BER element: its tag and its contents
+	 */
+	static class Ber {
+		final int tag;
+		final byte[] value;
+		Ber(int tag, byte[] value) {
+			this.tag = tag;
+			this.value = value;
+		}
+		List children() throws IOException {
+			List l = new ArrayList();
+			InputStream in = new ByteArrayInputStream(value);
+			Ber b;
+			while ((b = read(in)) != null)
+				l.add(b);
+			return l;
+		}
+		Ber child(int i) throws IOException {
+			return (Ber) children().get(i);
+		}
+		int intValue() {
+			int v = (value.length > 0 && value[0] < 0) ? -1 : 0;
+			for (int i = 0; i < value.length; i++)
+				v = (v << 8) | (value[i] & 0xff);
+			return v;
+		}
+		String stringValue() {
+			return string(value);
+		}
+	}
+
+	/**
+	 * OID of the simple paged results control
+	 */
+	static final String PAGED_RESULTS = "1.2.840.113556.1.4.319";
+
+	/**
+	 * Milliseconds to wait before answering the first request of a connection
+	 */
+	volatile long connectDelay = 0;
+
+	/**
+	 * Milliseconds to wait before answering each request
+	 */
+	volatile long opDelay = 0;
+
+	/**
+	 * Whether added entries get a modifyTimestamp, which is only returned
+	 * when asked for by name
+	 */
+	volatile boolean modifyTimestamps = true;
+
+	/**
+	 * Whether modifyTimestamps are kept to the second, as many servers
+	 * do, instead of each being later than the last
+	 */
+	volatile boolean secondTimestamps = false;
+
+	/**
+	 * Time of the last modifyTimestamp given, so each is later than the last
+	 */
+	private long lastStamp = 0;
+
+	private final ServerSocket server;
+
+	/**
+	 * Lower case dn -> entry
+	 */
+	private final Map entries = new LinkedHashMap();
+
+	private final List sockets = new ArrayList();
+
+	private int connections = 0;
+
+	private int open = 0;
+
+	private int searches = 0;
+
+	private int adds = 0;
+
+	private int deletes = 0;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Starts a server on a free local port
+	 *
+	 * @throws IOException
+	 */
+	LDAPStandIn() throws IOException {
+		server = new ServerSocket(0, 256, InetAddress.getByName("127.0.0.1"));
+		Entry root = new Entry("");
+		root.add("subschemaSubentry", bytes("cn=schema"));
+		Entry schema = new Entry("cn=schema");
+		schema.add("objectClass", bytes("subschema"));
+		entries.put("", root);
+		entries.put("cn=schema", schema);
+		Thread t = new Thread(this, "LDAPStandIn");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Parameters for a store that looks up this server
+	 *
+	 * @param baseDN base dn of the store
+	 * @return store parameters
+	 */
+	LDAPCertStoreParameters getParameters(String baseDN) {
+		return new LDAPCertStoreParameters("127.0.0.1", getPort(), baseDN);
+	}
+
+	int getPort() {
+		return server.getLocalPort();
+	}
+
+	synchronized int getConnections() {
+		return connections;
+	}
+
+	synchronized int getOpen() {
+		return open;
+	}
+
+	synchronized int getSearches() {
+		return searches;
+	}
+
+	synchronized int getAdds() {
+		return adds;
+	}
+
+	synchronized int getDeletes() {
+		return deletes;
+	}
+
+	synchronized int size() {
+		return entries.size() - 2;
+	}
+
+	/**
+	 * Stops the server, and closes its connections
+	 */
+	void close() {
+		closed = true;
+		try {
+			server.close();
+		} catch (IOException e) {
+			// closing
+		}
+		synchronized (this) {
+			Iterator i = sockets.iterator();
+			while (i.hasNext()) {
+				try {
+					((Socket) i.next()).close();
+				} catch (IOException e) {
+					// closing
+				}
+			}
+		}
+	}
+
+	public void run() {
+		while (!closed) {
+			try {
+				final Socket s = server.accept();
+				synchronized (this) {
+					connections++;
+					open++;
+					sockets.add(s);
+				}
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						serve(s);
+					}
+				}, "LDAPStandIn connection");
+				t.setDaemon(true);
+				t.start();
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	/**
+	 * Reads the requests of a connection until it is unbound or closed
+	 */
+	private void serve(Socket s) {
+		try {
+			s.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			final OutputStream out = new BufferedOutputStream(s.getOutputStream());
+			sleep(connectDelay);
+			Ber message;
+			while ((message = read(in)) != null) {
+				List parts = message.children();
+				final int id = ((Ber) parts.get(0)).intValue();
+				final Ber op = (Ber) parts.get(1);
+				final Ber controls = (parts.size() > 2) ? (Ber) parts.get(2) : null;
+				if (op.tag == 0x42)	// unbind
+					break;
+				if (op.tag == 0x50)	// abandon
+					continue;
+				if (op.tag == 0x60) {	// bind, answered in order
+					sleep(opDelay);
+					send(out, id, result(0x61, 0), null);
+					continue;
+				}
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						try {
+							sleep(opDelay);
+							handle(out, id, op, controls);
+						} catch (IOException e) {
+							// connection gone
+						}
+					}
+				}, "LDAPStandIn request");
+				t.setDaemon(true);
+				t.start();
+			}
+		} catch (IOException e) {
+			// connection gone
+		} finally {
+			try {
+				s.close();
+			} catch (IOException e) {
+				// closing
+			}
+			synchronized (this) {
+				open--;
+				sockets.remove(s);
+			}
+		}
+	}
+
+	/**
+	 * Answers a request
+	 */
+	private void handle(OutputStream out, int id, Ber op, Ber controls) throws IOException {
+		switch (op.tag) {
+		case 0x63:
+			search(out, id, op, controls);
+			break;
+		case 0x68: {
+			List parts = op.children();
+			Entry e = new Entry(((Ber) parts.get(0)).stringValue());
+			Iterator i = ((Ber) parts.get(1)).children().iterator();
+			while (i.hasNext()) {
+				Ber a = (Ber) i.next();
+				String name = a.child(0).stringValue();
+				Iterator v = a.child(1).children().iterator();
+				while (v.hasNext())
+					e.add(name, ((Ber) v.next()).value);
+			}
+			int code;
+			synchronized (this) {
+				adds++;
+				if (modifyTimestamps) {
+					lastStamp = secondTimestamps
+							? System.currentTimeMillis()
+							: Math.max(System.currentTimeMillis(), lastStamp + 1);
+					java.text.SimpleDateFormat f = new java.text.SimpleDateFormat(
+							secondTimestamps ? "yyyyMMddHHmmss'Z'" : "yyyyMMddHHmmss.SSS'Z'");
+					f.setTimeZone(TimeZone.getTimeZone("UTC"));
+					e.add("modifyTimestamp", bytes(f.format(new Date(lastStamp))));
+				}
+				String key = e.dn.toLowerCase();
+				if (entries.containsKey(key)) {
+					code = 68;	// entryAlreadyExists
+				} else {
+					entries.put(key, e);
+					code = 0;
+				}
+			}
+			send(out, id, result(0x69, code), null);
+			break;
+		}
+		case 0x4A: {
+			int code;
+			synchronized (this) {
+				deletes++;
+				// noSuchObject if there is no such entry
+				code = (entries.remove(op.stringValue().toLowerCase()) == null) ? 32 : 0;
+			}
+			send(out, id, result(0x6B, code), null);
+			break;
+		}
+		default:
+			// unwillingToPerform, in the response of the request
+			send(out, id, result(0x60 | ((op.tag & 0x1f) + 1), 53), null);
+		}
+	}
+
+	/**
+	 * Sends the entries found by a search, then its result
+	 */
+	private void search(OutputStream out, int id, Ber op, Ber controls) throws IOException {
+		List parts = op.children();
+		String base = ((Ber) parts.get(0)).stringValue().toLowerCase();
+		int scope = ((Ber) parts.get(1)).intValue();
+		int sizeLimit = ((Ber) parts.get(3)).intValue();
+		boolean typesOnly = ((Ber) parts.get(5)).intValue() != 0;
+		Ber filter = (Ber) parts.get(6);
+		Set wanted = new HashSet();
+		Iterator a = ((Ber) parts.get(7)).children().iterator();
+		while (a.hasNext())
+			wanted.add(((Ber) a.next()).stringValue().toLowerCase());
+		// the page asked for with the simple paged results control, if any
+		int pageSize = 0;
+		int offset = 0;
+		Iterator c = (controls == null)
+				? Collections.EMPTY_LIST.iterator()
+				: controls.children().iterator();
+		while (c.hasNext()) {
+			List control = ((Ber) c.next()).children();
+			if (((Ber) control.get(0)).stringValue().equals(PAGED_RESULTS)) {
+				Ber value = (Ber) control.get(control.size() - 1);
+				Ber paging = read(new ByteArrayInputStream(value.value));
+				pageSize = paging.child(0).intValue();
+				String cookie = paging.child(1).stringValue();
+				offset = (cookie.length() == 0) ? 0 : Integer.parseInt(cookie);
+			}
+		}
+		List candidates;
+		synchronized (this) {
+			searches++;
+			candidates = new ArrayList(entries.values());
+		}
+		int matched = 0;
+		int sent = 0;
+		Iterator i = candidates.iterator();
+		while (i.hasNext()) {
+			Entry e = (Entry) i.next();
+			if (!inScope(e.dn.toLowerCase(), base, scope) || !match(filter, e))
+				continue;
+			if (matched++ < offset)
+				continue;
+			if (pageSize > 0 && sent == pageSize) {
+				// more to come: the cookie is where the next page starts
+				byte[] paging = tlv(0x30, concat(tlv(0x02, new byte[] { 0 }),
+						tlv(0x04, bytes(Integer.toString(offset + sent)))));
+				send(out, id, result(0x65, 0), tlv(0x30,
+						concat(tlv(0x04, bytes(PAGED_RESULTS)), tlv(0x04, paging))));
+				return;
+			}
+			if (sizeLimit > 0 && sent == sizeLimit) {
+				send(out, id, result(0x65, 4), null);	// sizeLimitExceeded
+				return;
+			}
+			send(out, id, entry(e, wanted, typesOnly), null);
+			sent++;
+		}
+		byte[] last = null;
+		if (pageSize > 0) {
+			byte[] paging = tlv(0x30, concat(tlv(0x02, new byte[] { 0 }), tlv(0x04, new byte[0])));
+			last = tlv(0x30, concat(tlv(0x04, bytes(PAGED_RESULTS)), tlv(0x04, paging)));
+		}
+		send(out, id, result(0x65, 0), last);
+	}
+
+	private static boolean inScope(String dn, String base, int scope) {
+		if (scope == 0)
+			return dn.equals(base);
+		if (dn.length() == 0)
+			return false;	// the root DSE is only found by itself
+		if (dn.equals(base))
+			return scope == 2;
+		if (base.length() > 0 && !dn.endsWith("," + base))
+			return false;
+		if (scope == 2)
+			return true;
+		String rdn = (base.length() == 0) ? dn : dn.substring(0, dn.length() - base.length() - 1);
+		return rdn.indexOf(',') < 0;
+	}
+
+	/**
+	 * Evaluates a search filter on an entry
+	 */
+	private static boolean match(Ber f, Entry e) throws IOException {
+		switch (f.tag) {
+		case 0xA0: {
+			Iterator i = f.children().iterator();
+			while (i.hasNext())
+				if (!match((Ber) i.next(), e))
+					return false;
+			return true;
+		}
+		case 0xA1: {
+			Iterator i = f.children().iterator();
+			while (i.hasNext())
+				if (match((Ber) i.next(), e))
+					return true;
+			return false;
+		}
+		case 0xA2:
+			return !match(f.child(0), e);
+		case 0x87:
+			return f.stringValue().equalsIgnoreCase("objectClass")
+					|| !e.values(f.stringValue()).isEmpty();
+		case 0xA3:
+		case 0xA5:
+		case 0xA6:
+		case 0xA8: {
+			String name = f.child(0).stringValue();
+			byte[] v = f.child(1).value;
+			boolean ignoreCase = f.tag == 0xA8 || name.equalsIgnoreCase("objectClass");
+			Iterator i = e.values(name).iterator();
+			while (i.hasNext()) {
+				byte[] w = (byte[]) i.next();
+				int c = ignoreCase
+						? string(w).compareToIgnoreCase(string(v))
+						: string(w).compareTo(string(v));
+				if ((f.tag == 0xA5) ? c >= 0 : (f.tag == 0xA6) ? c <= 0 : c == 0)
+					return true;
+			}
+			return false;
+		}
+		case 0xA4: {
+			List subs = f.child(1).children();
+			Iterator i = e.values(f.child(0).stringValue()).iterator();
+			while (i.hasNext())
+				if (substrings(string((byte[]) i.next()), subs))
+					return true;
+			return false;
+		}
+		default:
+			return false;
+		}
+	}
+
+	private static boolean substrings(String s, List subs) {
+		int at = 0;
+		for (int i = 0; i < subs.size(); i++) {
+			Ber b = (Ber) subs.get(i);
+			String p = b.stringValue();
+			if (b.tag == 0x80) {
+				if (!s.startsWith(p))
+					return false;
+				at = p.length();
+			} else if (b.tag == 0x81) {
+				int j = s.indexOf(p, at);
+				if (j < 0)
+					return false;
+				at = j + p.length();
+			} else if (!s.endsWith(p) || s.length() - p.length() < at) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes an entry for a search result
+	 */
+	private static byte[] entry(Entry e, Set wanted, boolean typesOnly) throws IOException {
+		boolean all = wanted.isEmpty() || wanted.contains("*");
+		ByteArrayOutputStream attrs = new ByteArrayOutputStream();
+		Iterator i = e.attributes.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry me = (Map.Entry) i.next();
+			boolean operational = me.getKey().equals("modifytimestamp");
+			if (!wanted.contains(me.getKey()) && (!all || operational))
+				continue;
+			Object[] a = (Object[]) me.getValue();
+			ByteArrayOutputStream vals = new ByteArrayOutputStream();
+			if (!typesOnly) {
+				Iterator v = ((List) a[1]).iterator();
+				while (v.hasNext())
+					vals.write(tlv(0x04, (byte[]) v.next()));
+			}
+			attrs.write(tlv(0x30, concat(tlv(0x04, bytes((String) a[0])),
+					tlv(0x31, vals.toByteArray()))));
+		}
+		return tlv(0x64, concat(tlv(0x04, bytes(e.dn)), tlv(0x30, attrs.toByteArray())));
+	}
+
+	/**
+	 * Encodes an LDAPResult with no matched dn or message
+	 */
+	static byte[] result(int tag, int code) {
+		return tlv(tag, concat(tlv(0x0A, new byte[] { (byte) code }),
+				concat(tlv(0x04, new byte[0]), tlv(0x04, new byte[0]))));
+	}
+
+	/**
+	 * Sends a response, with any controls
+	 */
+	static void send(OutputStream out, int id, byte[] op, byte[] controls) throws IOException {
+		byte[] body = concat(tlv(0x02, BigInteger.valueOf(id).toByteArray()), op);
+		if (controls != null)
+			body = concat(body, tlv(0xA0, controls));
+		byte[] message = tlv(0x30, body);
+		synchronized (out) {
+			out.write(message);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Reads a BER element, or returns null at the end of the stream
+	 */
+	static Ber read(InputStream in) throws IOException {
+		int tag = in.read();
+		if (tag < 0)
+			return null;
+		int len = in.read();
+		if (len < 0)
+			throw new EOFException();
+		if ((len & 0x80) != 0) {
+			int n = len & 0x7f;
+			len = 0;
+			for (int i = 0; i < n; i++) {
+				int b = in.read();
+				if (b < 0)
+					throw new EOFException();
+				len = (len << 8) | b;
+			}
+		}
+		byte[] value = new byte[len];
+		int off = 0;
+		while (off < len) {
+			int r = in.read(value, off, len - off);
+			if (r < 0)
+				throw new EOFException();
+			off += r;
+		}
+		return new Ber(tag, value);
+	}
+
+	/**
+	 * Encodes a BER element
+	 */
+	static byte[] tlv(int tag, byte[] value) {
+		int len = value.length;
+		byte[] head;
+		if (len < 0x80) {
+			head = new byte[] { (byte) tag, (byte) len };
+		} else {
+			int n = (len > 0xffffff) ? 4 : (len > 0xffff) ? 3 : (len > 0xff) ? 2 : 1;
+			head = new byte[2 + n];
+			head[0] = (byte) tag;
+			head[1] = (byte) (0x80 | n);
+			for (int i = 0; i < n; i++)
+				head[2 + i] = (byte) (len >>> (8 * (n - 1 - i)));
+		}
+		return concat(head, value);
+	}
+
+	static byte[] concat(byte[] a, byte[] b) {
+		byte[] c = new byte[a.length + b.length];
+		System.arraycopy(a, 0, c, 0, a.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	static byte[] bytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+
+	static String string(byte[] b) {
+		try {
+			return new String(b, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+
+	private static void sleep(long ms) {
+		if (ms <= 0)
+			return;
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			// go on
+		}
+	}
+
+	/**
+	 * The key with the given number, with a made up modulus
+	 *
+	 * @param i number of the key
+	 * @return the key
+	 */
+	static jsdsi.Principal key(int i) {
+		return new jsdsi.RSAPublicKey(BigInteger.valueOf(i + 1000),
+				new BigInteger(new byte[] { 0x03 }), "MD5/RSA/PKCS#1", (URI[]) null);
+	}
+
+	/**
+	 * A validity from a minute ago to a day from now
+	 *
+	 * @return the validity
+	 */
+	static jsdsi.Validity validity() {
+		long now = System.currentTimeMillis();
+		return new jsdsi.Validity(new Date(now - 60 * 1000), new Date(now + 24 * 60 * 60 * 1000));
+	}
+
+	/**
+	 * An auth cert from one numbered key to another, valid for a day
+	 * from now, with a made up signature
+	 *
+	 * @param issuer number of the issuer key
+	 * @param subject number of the subject key
+	 * @return the certificate
+	 */
+	static jsdsi.Certificate certificate(int issuer, int subject) {
+		return certificate(new jsdsi.AuthCert(key(issuer), key(subject), validity(),
+				null, null, new jsdsi.StringTag("read"), true));
+	}
+
+	/**
+	 * Wraps a cert with a made up signature
+	 *
+	 * @param c the cert
+	 * @return the certificate
+	 */
+	static jsdsi.Certificate certificate(jsdsi.Cert c) {
+		jsdsi.util.DigestAlgoEnum md5 = jsdsi.util.DigestAlgoEnum.MD5;
+		jsdsi.Signature s = new jsdsi.Signature(c.getIssuer(),
+				new jsdsi.Hash(md5, "HASH-VALUE".getBytes(), null),
+				jsdsi.util.SignatureAlgoEnum.create(md5, jsdsi.util.KeyEnum.RSA),
+				"SIGNATURE-VALUE".getBytes());
+		try {
+			return new jsdsi.Certificate(c, s);
+		} catch (java.security.cert.CertificateException e) {
+			throw new Error(e);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package jsdsi.sexp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.security.KeyPair;
+
+import jsdsi.AuthCert;
+import jsdsi.Certificate;
+import jsdsi.Principal;
+import jsdsi.Provider;
+import jsdsi.Signature;
+import jsdsi.StringTag;
+import jsdsi.Subject;
+import jsdsi.Validity;
+import jsdsi.util.DateUtil;
+import jsdsi.util.DigestAlgoEnum;
+import jsdsi.util.KeyEnum;
+import jsdsi.util.KeyPairFactory;
+
+/**
+ * Compares the time {@link SexpInputStream} and {@link SexpParser} take
+ * to read canonical S-expressions: a single certificate, a megabyte of
+ * certificates one after the other, a megabyte-long sequence of them,
+ * and a single megabyte string.  Not a unit test: run it by hand with
+ * <code>java jsdsi.sexp.SexpParserBenchmark [megabytes] [rounds]</code>.
+ *
+ * <p>Each run is made twice, to warm up and then to measure, and reports
+ * the milliseconds per round and the megabytes read per second.
+ *
+ * @see SexpParser
+ *
+ * @version $Revision$ $Date$
+ */
+public class SexpParserBenchmark {
+
+	/**
+	 * Reads all the S-expressions of <code>in</code> with one of the
+	 * readers, and returns how many there were.
+	 */
+	static int read(byte[] in, boolean parser) throws Exception {
+		SexpInput s =
+			parser
+				? (SexpInput) new SexpParser(in)
+				: new SexpInputStream(new ByteArrayInputStream(in));
+		int n = 0;
+		try {
+			while (true) {
+				s.readSexp();
+				n++;
+			}
+		} catch (EOFException e) {
+			return n;
+		}
+	}
+
+	/**
+	 * Reads <code>in</code> <code>rounds</code> times with each reader,
+	 * and reports.
+	 */
+	static void run(String label, byte[] in, int rounds) throws Exception {
+		for (int r = 0; r < 2; r++) {
+			boolean parser = (r == 1);
+			for (int w = 0; w < 2; w++) { // warm up, then measure
+				long start = System.currentTimeMillis();
+				for (int i = 0; i < rounds; i++) {
+					read(in, parser);
+				}
+				long elapsed =
+					Math.max(System.currentTimeMillis() - start, 1);
+				if (w == 1) {
+					System.out.println(
+						label
+							+ ", "
+							+ (parser ? "SexpParser" : "SexpInputStream")
+							+ ": "
+							+ ((double) elapsed / rounds)
+							+ " ms, "
+							+ Math.round(
+								(double) in.length * rounds
+									/ (1 << 20)
+									* 1000
+									/ elapsed)
+							+ " MB/s");
+				}
+			}
+		}
+	}
+
+	private static byte[] canonical(Sexp s) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		s.writeCanonical(bos);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param  args optional size of the large inputs in megabytes, and
+	 *         number of rounds.
+	 * @throws Exception if an error occurs.
+	 */
+	public static void main(String[] args) throws Exception {
+		Provider.install();
+		int mb = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+		KeyPair kp = KeyPairFactory.create(KeyEnum.RSA, 1024);
+		Validity v = new Validity(DateUtil.newDate(), DateUtil.newDate(1));
+		AuthCert cert =
+			new AuthCert(
+				(Principal) kp.getPublic(),
+				(Subject) kp.getPublic(),
+				v,
+				"description",
+				"comment",
+				new StringTag("read"),
+				false);
+		Sexp certificate =
+			new Certificate(
+				kp.getPublic(),
+				cert,
+				Signature.create(kp, cert, DigestAlgoEnum.MD5))
+				.toSequence()
+				.toSexp();
+		byte[] one = canonical(certificate);
+		int n = (mb << 20) / one.length;
+
+		ByteArrayOutputStream many = new ByteArrayOutputStream();
+		Sexp[] all = new Sexp[n];
+		for (int i = 0; i < n; i++) {
+			many.write(one);
+			all[i] = certificate;
+		}
+		byte[] sequence = canonical(new SexpList(new SexpString("sequence"), all));
+		byte[] atom = canonical(new SexpString(new byte[mb << 20]));
+
+		run("1 certificate (" + one.length + " bytes)", one, rounds * n);
+		run(n + " certificates", many.toByteArray(), rounds);
+		run("sequence of " + n + " certificates", sequence, rounds);
+		run(mb + " MB string", atom, rounds);
+	}
+}
@@ -0,0 +1,218 @@
+package jsdsi.sexp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+import jsdsi.AuthCert;
+import jsdsi.Certificate;
+import jsdsi.Principal;
+import jsdsi.Provider;
+import jsdsi.Signature;
+import jsdsi.StringTag;
+import jsdsi.Subject;
+import jsdsi.Validity;
+import jsdsi.util.DateUtil;
+import jsdsi.util.DigestAlgoEnum;
+import jsdsi.util.KeyEnum;
+import jsdsi.util.KeyPairFactory;
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link SexpParser} reads the same S-expressions as
+ * {@link SexpInputStream}, in the canonical, transport and readable
+ * encodings, and rejects the input it rejects.
+ *
+ * @version $Revision$ $Date$
+ */
+public class SexpParserTest extends TestCase {
+
+    private static final String[] INPUTS = {
+        "3:abc",
+        "0: ",
+        "[4:text]5:hello",
+        "(4:list)",
+        "(1:a(1:b(1:c))0:[1:d]1:e)",
+        "(token another-token *=_.:)",
+        "  ( a\n\t  b )  ",
+        "#616263#",
+        "3#61 62\n63#",
+        "|YWJj|",
+        "3|YWJj|",
+        "|YW\n Jj|",
+        "|YWI=|",
+        "\"plain\"",
+        "4\"esc\\\"\"",
+        "\"\\b\\t\\v\\f\\n\\r\\'\\\"\\\\\\x41\\101\\\n\\\r\\\r\\\n\"",
+        "[\"hint\"]token ",
+        "{KDM6YWJjKQ==}",
+        "(5:outer{KDU6aW5uZXIp})",
+        "3:abc3:def(1:x)",
+        "12abc ",
+    };
+
+    private static final String[] BAD_INPUTS = {
+        "()",
+        "(3:abc",
+        "((1:a) 1:b)",
+        "01:a",
+        "token",
+        "[3:abc3:def",
+        "|YWJ|",
+        "4#616263#",
+        "\"unterminated",
+        "{YWJj",
+    };
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Provider.install();
+    }
+
+    private static byte[] bytes(String s) {
+        return Sexp.encodeString(s);
+    }
+
+    private static byte[] canonical(Sexp s) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        s.writeCanonical(bos);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads all the S-expressions of the input with a SexpInputStream.
+     */
+    private static List readStream(byte[] in) throws Exception {
+        SexpInputStream s = new SexpInputStream(new ByteArrayInputStream(in));
+        List l = new ArrayList();
+        try {
+            while (true) {
+                l.add(s.readSexp());
+            }
+        } catch (EOFException e) {
+            return l;
+        }
+    }
+
+    /**
+     * Reads all the S-expressions of the input with a SexpParser.
+     */
+    private static List readParser(SexpParser p) throws Exception {
+        List l = new ArrayList();
+        try {
+            while (true) {
+                l.add(p.readSexp());
+            }
+        } catch (EOFException e) {
+            return l;
+        }
+    }
+
+    private static void assertSameSexps(List expected, List actual) throws Exception {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Sexp e = (Sexp) expected.get(i);
+            Sexp a = (Sexp) actual.get(i);
+            assertEquals(e.getClass(), a.getClass());
+            assertEquals(Sexp.decodeString(canonical(e)), Sexp.decodeString(canonical(a)));
+        }
+    }
+
+    private static void check(byte[] in) throws Exception {
+        List expected = readStream(in);
+        assertSameSexps(expected, readParser(new SexpParser(in)));
+        assertSameSexps(expected, readParser(new SexpParser(ByteBuffer.wrap(in))));
+        ByteBuffer direct = ByteBuffer.allocateDirect(in.length);
+        direct.put(in).flip();
+        assertSameSexps(expected, readParser(new SexpParser(direct)));
+    }
+
+    public void testInputs() throws Exception {
+        for (int i = 0; i < INPUTS.length; i++) {
+            check(bytes(INPUTS[i]));
+        }
+    }
+
+    public void testBadInputs() throws Exception {
+        for (int i = 0; i < BAD_INPUTS.length; i++) {
+            try {
+                readStream(bytes(BAD_INPUTS[i]));
+                fail("SexpInputStream read " + BAD_INPUTS[i]);
+            } catch (SexpException e) {
+                // expected
+            }
+            try {
+                readParser(new SexpParser(bytes(BAD_INPUTS[i])));
+                fail("SexpParser read " + BAD_INPUTS[i]);
+            } catch (SexpException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testEmpty() throws Exception {
+        assertTrue(readParser(new SexpParser(new byte[0])).isEmpty());
+        assertTrue(readParser(new SexpParser(bytes(" \n\t "))).isEmpty());
+    }
+
+    public void testCertificates() throws Exception {
+        KeyPair kp = KeyPairFactory.create(KeyEnum.RSA, 512);
+        Validity v = new Validity(DateUtil.newDate(), DateUtil.newDate(1));
+        ByteArrayOutputStream canonical = new ByteArrayOutputStream();
+        ByteArrayOutputStream transport = new ByteArrayOutputStream();
+        ByteArrayOutputStream readable = new ByteArrayOutputStream();
+        Writer w = new OutputStreamWriter(readable, "8859_1");
+        for (int i = 0; i < 5; i++) {
+            AuthCert cert = new AuthCert((Principal) kp.getPublic(), (Subject) kp.getPublic(), v,
+                    "description " + i, "comment", new StringTag("tag " + i), i % 2 == 0);
+            Certificate c = new Certificate(kp.getPublic(), cert, Signature.create(kp, cert, DigestAlgoEnum.MD5));
+            Sexp s = c.toSequence().toSexp();
+            s.writeCanonical(canonical);
+            s.writeTransport(transport);
+            transport.write('\n');
+            s.writeReadable(w, 0, 72, 0);
+            w.write('\n');
+        }
+        w.flush();
+        check(canonical.toByteArray());
+        check(transport.toByteArray());
+        check(readable.toByteArray());
+    }
+
+    public void testBufferPosition() throws Exception {
+        byte[] in = bytes("xx3:abc(1:a)  ");
+        ByteBuffer b = ByteBuffer.wrap(in);
+        b.position(2);
+        ByteBuffer slice = b.slice();
+        SexpParser p = new SexpParser(slice);
+        p.readSexp();
+        assertEquals(5, slice.position());
+        p.readSexp();
+        assertEquals(10, slice.position());
+        try {
+            p.readSexp();
+            fail("read past the end");
+        } catch (EOFException e) {
+            // expected
+        }
+        assertEquals(12, slice.position());
+
+        p = new SexpParser(in, 2, 5);
+        assertEquals("abc", p.readSexp().toString());
+    }
+
+    public void testTruncated() throws Exception {
+        try {
+            new SexpParser(bytes("(5:abc")).readSexp();
+            fail("read a truncated string");
+        } catch (SexpException e) {
+            // expected
+        }
+    }
+}